@@ -29,17 +29,238 @@ import javax.inject.Named;
 @SuppressWarnings("squid:S2637")
 public class ConfigurationServiceProperties implements HasProperties {
 
+    /**
+     * Default maximum number of search results kept in the search result cache.
+     */
+    public static final int DEFAULT_SEARCH_RESULT_CACHE_SIZE = 10000;
+
+    /**
+     * Default minimum number of searches in a single query to evaluate the searches in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_SEARCH_THRESHOLD = 100;
+
+    /**
+     * Default number of threads to evaluate searches in parallel with (0 means: number of processors).
+     */
+    public static final int DEFAULT_PARALLEL_SEARCH_THREADS = 0;
+
+    /**
+     * Default for generating a Java class for the lookup of literal match strings.
+     */
+    public static final boolean DEFAULT_GENERATED_LOOKUP = false;
+
+    /**
+     * Default interval to re-read the configuration with (0 means: never).
+     */
+    public static final int DEFAULT_RELOAD_INTERVAL_SECS = 0;
+
+    /**
+     * Default for watching the configuration files (for file: URIs) and reloading when they change.
+     */
+    public static final boolean DEFAULT_WATCH_FILES = false;
+
+    /**
+     * Default timeout to connect to http: and https: configuration sources.
+     */
+    public static final int DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Default timeout to read from http: and https: configuration sources.
+     */
+    public static final int DEFAULT_HTTP_READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Default directory to keep copies of http: and https: configuration sources in (empty means: none).
+     */
+    public static final String DEFAULT_HTTP_CACHE_DIRECTORY = "";
+
+    /**
+     * Default number of threads to read include files concurrently with (0 means: one after another).
+     */
+    public static final int DEFAULT_INCLUDE_THREADS = 8;
+
+    /**
+     * Default for allowing the configuration to be reloaded with POST /reload.
+     */
+    public static final boolean DEFAULT_RELOAD_ENDPOINT_ENABLED = false;
+
     @Nonnull
     private final String startupConfigurationURI;
 
+    private final int searchResultCacheSize;
+
+    private final int parallelSearchThreshold;
+
+    private final int parallelSearchThreads;
+
+    private final boolean generatedLookup;
+
+    private final int reloadIntervalSecs;
+
+    private final boolean watchFiles;
+
+    private final int httpConnectTimeoutMillis;
+
+    private final int httpReadTimeoutMillis;
+
+    @Nonnull
+    private final String httpCacheDirectory;
+
+    private final int includeThreads;
+
+    private final boolean reloadEndpointEnabled;
+
     @Inject
     public ConfigurationServiceProperties(
-            @Named("ConfigurationService.startupConfigurationURI") @Nonnull final String startupConfigurationURI) {
+            @Named("ConfigurationService.startupConfigurationURI") @Nonnull final String startupConfigurationURI,
+            @Named("ConfigurationService.searchResultCacheSize") final int searchResultCacheSize,
+            @Named("ConfigurationService.parallelSearchThreshold") final int parallelSearchThreshold,
+            @Named("ConfigurationService.parallelSearchThreads") final int parallelSearchThreads,
+            @Named("ConfigurationService.generatedLookup") final boolean generatedLookup,
+            @Named("ConfigurationService.reloadIntervalSecs") final int reloadIntervalSecs,
+            @Named("ConfigurationService.watchFiles") final boolean watchFiles,
+            @Named("ConfigurationService.httpConnectTimeoutMillis") final int httpConnectTimeoutMillis,
+            @Named("ConfigurationService.httpReadTimeoutMillis") final int httpReadTimeoutMillis,
+            @Named("ConfigurationService.httpCacheDirectory") @Nonnull final String httpCacheDirectory,
+            @Named("ConfigurationService.includeThreads") final int includeThreads,
+            @Named("ConfigurationService.reloadEndpointEnabled") final boolean reloadEndpointEnabled) {
+        assert parallelSearchThreads >= 0;
+        assert reloadIntervalSecs >= 0;
+        assert httpConnectTimeoutMillis >= 0;
+        assert httpReadTimeoutMillis >= 0;
+        assert includeThreads >= 0;
         this.startupConfigurationURI = startupConfigurationURI.trim();
+        this.searchResultCacheSize = searchResultCacheSize;
+        this.parallelSearchThreshold = parallelSearchThreshold;
+        this.parallelSearchThreads = parallelSearchThreads;
+        this.generatedLookup = generatedLookup;
+        this.reloadIntervalSecs = reloadIntervalSecs;
+        this.watchFiles = watchFiles;
+        this.httpConnectTimeoutMillis = httpConnectTimeoutMillis;
+        this.httpReadTimeoutMillis = httpReadTimeoutMillis;
+        this.httpCacheDirectory = httpCacheDirectory.trim();
+        this.includeThreads = includeThreads;
+        this.reloadEndpointEnabled = reloadEndpointEnabled;
+    }
+
+    public ConfigurationServiceProperties(@Nonnull final String startupConfigurationURI) {
+        this(startupConfigurationURI, DEFAULT_SEARCH_RESULT_CACHE_SIZE,
+                DEFAULT_PARALLEL_SEARCH_THRESHOLD, DEFAULT_PARALLEL_SEARCH_THREADS, DEFAULT_GENERATED_LOOKUP,
+                DEFAULT_RELOAD_INTERVAL_SECS, DEFAULT_WATCH_FILES, DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS,
+                DEFAULT_HTTP_READ_TIMEOUT_MILLIS, DEFAULT_HTTP_CACHE_DIRECTORY,
+                DEFAULT_INCLUDE_THREADS, DEFAULT_RELOAD_ENDPOINT_ENABLED);
     }
 
     @Nonnull
     public String getStartupConfigurationURI() {
         return startupConfigurationURI;
     }
+
+    /**
+     * Return the maximum number of search results to cache. 0 means the cache is disabled.
+     *
+     * @return Maximum number of cached search results.
+     */
+    public int getSearchResultCacheSize() {
+        return searchResultCacheSize;
+    }
+
+    /**
+     * Return the minimum number of searches in a single query to evaluate the searches in parallel.
+     * 0 means searches are always evaluated one after another.
+     *
+     * @return Minimum number of searches for parallel evaluation.
+     */
+    public int getParallelSearchThreshold() {
+        return parallelSearchThreshold;
+    }
+
+    /**
+     * Return the number of threads to evaluate searches in parallel with.
+     *
+     * @return Number of threads, at least 1.
+     */
+    public int getParallelSearchThreads() {
+        return (parallelSearchThreads == 0) ? Runtime.getRuntime().availableProcessors() : parallelSearchThreads;
+    }
+
+    /**
+     * Return whether a Java class should be generated for the lookup of literal match strings. If the class
+     * cannot be generated, the interpreted lookup is used.
+     *
+     * @return True if the lookup should be generated.
+     */
+    public boolean isGeneratedLookup() {
+        return generatedLookup;
+    }
+
+    /**
+     * Return the interval to re-read the configuration with. The configuration can also be reloaded
+     * on request, with POST /reload, if it is enabled. 0 means the configuration is not reloaded periodically.
+     *
+     * @return Interval in seconds.
+     */
+    public int getReloadIntervalSecs() {
+        return reloadIntervalSecs;
+    }
+
+    /**
+     * Return whether the configuration files should be watched, to reload the configuration when they change.
+     * Only files specified with file: URIs, for the configuration itself and its includes, are watched.
+     *
+     * @return True if the files should be watched.
+     */
+    public boolean isWatchFiles() {
+        return watchFiles;
+    }
+
+    /**
+     * Return the timeout to connect to http: and https: configuration sources. 0 means no timeout.
+     *
+     * @return Timeout in milliseconds.
+     */
+    public int getHttpConnectTimeoutMillis() {
+        return httpConnectTimeoutMillis;
+    }
+
+    /**
+     * Return the timeout to read from http: and https: configuration sources. 0 means no timeout.
+     *
+     * @return Timeout in milliseconds.
+     */
+    public int getHttpReadTimeoutMillis() {
+        return httpReadTimeoutMillis;
+    }
+
+    /**
+     * Return the directory to keep copies of http: and https: configuration sources in, so the service
+     * can start with them if the sources cannot be reached. Empty means no copies are kept on disk.
+     *
+     * @return Directory, or empty.
+     */
+    @Nonnull
+    public String getHttpCacheDirectory() {
+        return httpCacheDirectory;
+    }
+
+    /**
+     * Return the number of threads to read include files concurrently with, when the configuration is read.
+     * Includes are still inlined in the order in which they are specified. 0 means include files are read
+     * one after another.
+     *
+     * @return Number of threads.
+     */
+    public int getIncludeThreads() {
+        return includeThreads;
+    }
+
+    /**
+     * Return whether the configuration can be reloaded on request, with POST /reload. If not, the request
+     * is refused, so clients cannot make the service read its configuration over and over again.
+     *
+     * @return True if POST /reload reloads the configuration.
+     */
+    public boolean isReloadEndpointEnabled() {
+        return reloadEndpointEnabled;
+    }
 }
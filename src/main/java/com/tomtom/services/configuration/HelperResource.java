@@ -18,6 +18,7 @@ package com.tomtom.services.configuration;
 
 import javax.annotation.Nonnull;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.container.AsyncResponse;
@@ -62,4 +63,22 @@ public interface HelperResource {
     @Path("status")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
     void getStatus(@Suspended @Nonnull AsyncResponse response);
+
+    /**
+     * This method re-reads the configuration from the start-up configuration URI, in the background. The current
+     * configuration remains in use until the new one is read and validated. Requests which arrive at the same
+     * time share a single reload. The method is only available if the property
+     * "ConfigurationService.reloadEndpointEnabled" is true.
+     * <p>
+     * Return codes:
+     * 200 - Configuration reloaded or unchanged; the body is "RELOADED" or "UNCHANGED".
+     * 403 - Reloading on request is not enabled.
+     * 500 - Configuration cannot be read or is incorrect; the current configuration remains in use.
+     *
+     * @param response Result of the reload, as plain text.
+     */
+    @POST
+    @Path("reload")
+    @Produces(MediaType.TEXT_PLAIN)
+    void reload(@Suspended @Nonnull AsyncResponse response);
 }
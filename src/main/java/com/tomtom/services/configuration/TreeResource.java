@@ -37,6 +37,7 @@ public interface TreeResource {
     String PATH_PARAM = "path";
     String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
     String HEADER_IF_NONE_MATCH = "If-None-Match";
+    String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
 
     char SEPARATOR_QUERY = ',';
     char SEPARATOR_WRONG = ';';
@@ -50,6 +51,7 @@ public interface TreeResource {
      * 200 - Match (exact or partial) found.
      * 304 - Not newer than If-Modified-Since time or no different ETag than If-None-Match.
      * 404 - No match found.
+     * 500 - A regular expression exceeded its step budget for a search term, so the match is unknown.
      * <p>
      * The return message has format {@link SearchResultsDTO} and specifies the full
      * path of the deepest node matching the search path.
@@ -59,6 +61,7 @@ public interface TreeResource {
      *
      * @param ifModifiedSince Return parameters only if the configuration is newer than this.
      * @param ifNoneMatch     Return parameters only if the ETag of the response is different from the supplied ETag.
+     * @param acceptEncoding  Content encodings the client accepts; gzip and deflate bodies are precompressed.
      * @param uriInfo         Includes search parameters (if empty, returns root node).
      * @param response        Deepest level parameters, format {@link SearchResultsDTO}.
      */
@@ -68,6 +71,7 @@ public interface TreeResource {
     void findBestMatch(
             @Nullable @HeaderParam(HEADER_IF_MODIFIED_SINCE) String ifModifiedSince,
             @Nullable @HeaderParam(HEADER_IF_NONE_MATCH) String ifNoneMatch,
+            @Nullable @HeaderParam(HEADER_ACCEPT_ENCODING) String acceptEncoding,
             @Nonnull @Context UriInfo uriInfo,
             @Suspended @Nonnull AsyncResponse response);
 
@@ -82,6 +86,7 @@ public interface TreeResource {
      * @param fullNodePath    Full path of node.
      * @param ifModifiedSince Return parameters only if the configuration is newer than this.
      * @param ifNoneMatch     Return parameters only if the ETag of the response is different from the supplied ETag.
+     * @param acceptEncoding  Content encodings the client accepts; gzip and deflate bodies are precompressed.
      * @param uriInfo         Includes search parameters (which should not be present).
      * @param response        Deepest level parameters, format {@link SearchResultsDTO}.
      */
@@ -92,6 +97,7 @@ public interface TreeResource {
             @Nonnull @PathParam(PATH_PARAM) String fullNodePath,
             @Nullable @HeaderParam(HEADER_IF_MODIFIED_SINCE) String ifModifiedSince,
             @Nullable @HeaderParam(HEADER_IF_NONE_MATCH) String ifNoneMatch,
+            @Nullable @HeaderParam(HEADER_ACCEPT_ENCODING) String acceptEncoding,
             @Nonnull @Context UriInfo uriInfo,
             @Suspended @Nonnull AsyncResponse response);
 }
@@ -25,12 +25,16 @@ import com.tomtom.services.configuration.HelperResource;
 import com.tomtom.services.configuration.TreeResource;
 import com.tomtom.services.configuration.implementation.Configuration;
 import com.tomtom.services.configuration.implementation.HelperResourceImpl;
+import com.tomtom.services.configuration.implementation.SearchResultCache;
 import com.tomtom.services.configuration.implementation.TreeResourceImpl;
 import com.tomtom.speedtools.guice.GuiceConfigurationModule;
 import com.tomtom.speedtools.json.Json;
 import com.tomtom.speedtools.rest.GeneralExceptionMapper;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.ws.rs.core.Response.Status;
 
@@ -48,6 +52,13 @@ import javax.ws.rs.core.Response.Status;
  */
 public class DeploymentModule extends GuiceConfigurationModule {
 
+    /**
+     * The configuration, injected when the injector is created, so its threads can be stopped when the service stops.
+     */
+    @Inject
+    @Nullable
+    private Configuration configuration;
+
     public DeploymentModule() {
         super(
                 "classpath:configuration-service.default.properties", // Default set required by SpeedTools.
@@ -76,9 +87,15 @@ public class DeploymentModule extends GuiceConfigurationModule {
         // Bind properties.
         binder.bind(ConfigurationServiceProperties.class).in(Singleton.class);
 
+        // Bind the search result cache, shared by the resources.
+        binder.bind(SearchResultCache.class).in(Singleton.class);
+
         // Bind tree data as eager singleton tor read config data immediately.
         binder.bind(Configuration.class).asEagerSingleton();
 
+        // Inject the configuration in this module, to close it when the service stops.
+        binder.requestInjection(this);
+
         // Bind start-up checking class (example).
         binder.bind(StartupCheck.class).asEagerSingleton();
 
@@ -86,4 +103,15 @@ public class DeploymentModule extends GuiceConfigurationModule {
         jsonMapper.configure(SerializationFeature.INDENT_OUTPUT, true);
         jsonMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
     }
+
+    /**
+     * Stop the threads of the configuration: reloading, watching files and searching in parallel.
+     * This is called by the servlet context listener when the service stops.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (configuration != null) {
+            configuration.close();
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.deployment;
+
+import com.tomtom.services.configuration.implementation.ContentEncoding;
+import com.tomtom.services.configuration.implementation.RenderedResponse;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * This class writes pre-rendered response bodies, see {@link RenderedResponse}, in the content type
+ * which was negotiated for the request: XML or JSON. If the resource set a Content-Encoding header,
+ * the precompressed variant of the body is written.
+ *
+ * The writer is enabled by adding it to web.xml
+ *
+ * <pre>
+ *   &lt;context-param&gt;
+ *     &lt;param-name&gt;resteasy.providers&lt;/param-name&gt;
+ *     &lt;param-value&gt;com.tomtom.services.configuration.deployment.RenderedResponseWriter&lt;/param-value&gt;
+ *   &lt;/context-param&gt;
+ * </pre>
+ */
+@Provider
+@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+public class RenderedResponseWriter implements MessageBodyWriter<RenderedResponse> {
+
+    @Override
+    public boolean isWriteable(
+            @Nonnull final Class<?> type,
+            @Nonnull final Type genericType,
+            @Nonnull final Annotation[] annotations,
+            @Nonnull final MediaType mediaType) {
+        return RenderedResponse.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(
+            @Nonnull final RenderedResponse renderedResponse,
+            @Nonnull final Class<?> type,
+            @Nonnull final Type genericType,
+            @Nonnull final Annotation[] annotations,
+            @Nonnull final MediaType mediaType) {
+
+        // The Content-Encoding header is not available here, so the size of the body is unknown.
+        return -1;
+    }
+
+    @Override
+    public void writeTo(
+            @Nonnull final RenderedResponse renderedResponse,
+            @Nonnull final Class<?> type,
+            @Nonnull final Type genericType,
+            @Nonnull final Annotation[] annotations,
+            @Nonnull final MediaType mediaType,
+            @Nonnull final MultivaluedMap<String, Object> httpHeaders,
+            @Nonnull final OutputStream entityStream) throws IOException {
+
+        // The resource sets Content-Encoding if it serves a precompressed body.
+        final Object contentCoding = httpHeaders.getFirst(HttpHeaders.CONTENT_ENCODING);
+        final ContentEncoding encoding = ContentEncoding.fromContentCoding((contentCoding == null) ? null : contentCoding.toString());
+        final boolean xml = mediaType.getSubtype().equals("xml") || mediaType.getSubtype().endsWith("+xml");
+        entityStream.write(xml ? renderedResponse.getXml(encoding) : renderedResponse.getJson(encoding));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+
+/**
+ * This class wraps a search term for {@link java.util.regex.Matcher}, to limit the number of steps
+ * a (backtracking) match may take. Every character the matcher reads counts as a step. When the
+ * budget is exhausted, a {@link StepBudgetExceededException} is thrown, so matching fails fast
+ * rather than taking exponential time. Instances are not thread-safe: they are re-used per thread.
+ */
+final class BudgetedCharSequence implements CharSequence {
+
+    @Nonnull
+    private CharSequence value = "";
+    private int remainingSteps;
+
+    /**
+     * Re-use this object for a new search term.
+     *
+     * @param value Search term.
+     * @param steps Maximum number of steps.
+     * @return This object.
+     */
+    @Nonnull
+    BudgetedCharSequence reset(@Nonnull final CharSequence value, final int steps) {
+        this.value = value;
+        this.remainingSteps = steps;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return value.length();
+    }
+
+    @Override
+    public char charAt(final int index) {
+        --remainingSteps;
+        if (remainingSteps < 0) {
+            throw new StepBudgetExceededException();
+        }
+        return value.charAt(index);
+    }
+
+    @Override
+    @Nonnull
+    public CharSequence subSequence(final int start, final int end) {
+        return value.subSequence(start, end);
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return value.toString();
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
+import com.tomtom.speedtools.objects.Immutables;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * This class stores a large number of children nodes compactly, for levels which only have literal
+ * leaf nodes, such as per-device overrides. Rather than a node object per child, it stores:
+ * <ul>
+ * <li>the UTF-8 encoded match strings, packed in a single byte array;</li>
+ * <li>the order of the children when sorted by their case-folded match strings, for binary search;</li>
+ * <li>per child, an index into a list of distinct parameter blocks, which are shared by all children
+ * with the same parameters.</li>
+ * </ul>
+ * Lookups return the index of a child and do not allocate any objects. A node object for a child is
+ * only created when it is asked for, for example for a search result: its match string, matched search
+ * terms and hashes are computed from the parent and the index of the child then.
+ * <p>
+ * Case folding is the same as for case-insensitive patterns: only US-ASCII characters are folded.
+ * As US-ASCII characters are encoded as single bytes in UTF-8, the encoded bytes can be folded directly.
+ */
+@Immutable
+final class CompactLiteralChildren {
+
+    /**
+     * Minimum number of children for a level to be stored compactly. Smaller levels are stored as
+     * regular nodes.
+     */
+    static final int MIN_NR_OF_CHILDREN = 1000;
+
+    /**
+     * Re-used (per thread) to encode a search term, so a lookup does not allocate any objects.
+     */
+    private static final ThreadLocal<SearchTermBuffer> SEARCH_TERM_BUFFER = ThreadLocal.withInitial(SearchTermBuffer::new);
+
+    /**
+     * The node these are the children of.
+     */
+    @Nonnull
+    private final Node parentNode;
+
+    /**
+     * UTF-8 encoded match strings, in declaration order.
+     */
+    @Nonnull
+    private final byte[] keys;
+
+    /**
+     * Start offset of every match string in keys, in declaration order. Has 1 more element than there
+     * are children, so the end offset of a match string is the start offset of the next one.
+     */
+    @Nonnull
+    private final int[] offsets;
+
+    /**
+     * The indexes of the children (in declaration order), sorted by their case-folded match strings.
+     * Children with equal case-folded match strings are sorted in declaration order.
+     */
+    @Nonnull
+    private final int[] sorted;
+
+    /**
+     * The index in parameterBlocks per child, or -1 if the child has no parameters.
+     */
+    @Nonnull
+    private final int[] parameterBlockOfChild;
+
+    /**
+     * The distinct sets of parameters of the children.
+     */
+    @Nonnull
+    private final ParameterBlock[] parameterBlocks;
+
+    /**
+     * The children nodes as an immutable set, in declaration order. The nodes are created while iterating.
+     */
+    @Nonnull
+    private final Set<Node> childrenSet;
+
+    /**
+     * The combined content hash of the children, the same as for regular children nodes, see
+     * {@link Node#hashChildren(java.util.Collection)}.
+     */
+    private final long contentHash;
+
+    /**
+     * Create a compact representation of children nodes. The children must be compactable, see
+     * {@link #isCompactable(List)}.
+     *
+     * @param children   Children nodes, in declaration order.
+     * @param parentNode The node these are the children of. Its level and matched search terms must be set.
+     */
+    CompactLiteralChildren(@Nonnull final List<NodeDTO> children, @Nonnull final Node parentNode) {
+        assert isCompactable(children);
+        final int nrOfChildren = children.size();
+        this.parentNode = parentNode;
+
+        // Pack the match strings and collect the distinct parameter blocks. Hash every parameter block once.
+        this.offsets = new int[nrOfChildren + 1];
+        this.parameterBlockOfChild = new int[nrOfChildren];
+        final List<ParameterBlock> blocks = new ArrayList<>();
+        final Map<List<String>, Integer> blockIndexes = new HashMap<>();
+        final long noChildrenHash = Node.hashChildren(null);
+        final long noParametersHash = Node.hashParameters(null);
+        long hash = ContentHash.SEED;
+        int size = 0;
+        for (int i = 0; i < nrOfChildren; ++i) {
+            final NodeDTO child = children.get(i);
+            final String match = child.getMatch();
+            assert match != null;
+            offsets[i] = size;
+            size = size + encodedLength(match);
+            final int parameterBlock = addParameterBlock(child.getParameters(), blocks, blockIndexes);
+            parameterBlockOfChild[i] = parameterBlock;
+
+            // Hash the child like a regular leaf node.
+            final long parametersHash = (parameterBlock < 0) ? noParametersHash : blocks.get(parameterBlock).hash;
+            hash = ContentHash.add(hash, Node.hashContent(match, null, null, null, parametersHash, noChildrenHash));
+        }
+        offsets[nrOfChildren] = size;
+        this.contentHash = ContentHash.add(hash, nrOfChildren);
+        this.parameterBlocks = blocks.toArray(new ParameterBlock[blocks.size()]);
+        this.keys = new byte[size];
+        for (int i = 0; i < nrOfChildren; ++i) {
+            final String match = children.get(i).getMatch();
+            assert match != null;
+            encode(match, keys, offsets[i]);
+        }
+
+        // Sort the children by their case-folded match strings. The sort is stable, so equal keys keep declaration order.
+        this.sorted = new int[nrOfChildren];
+        for (int i = 0; i < nrOfChildren; ++i) {
+            sorted[i] = i;
+        }
+        sort(sorted, new int[nrOfChildren], 0, nrOfChildren);
+        this.childrenSet = new ChildrenSet();
+    }
+
+    /**
+     * Return whether children nodes can be stored compactly: there must be many of them and they
+     * must all be leaf nodes with a literal match string (without regular expression metacharacters
+     * or a match type) and without a modified time.
+     *
+     * @param children Children nodes.
+     * @return True if the children can be stored compactly.
+     */
+    static boolean isCompactable(@Nullable final List<NodeDTO> children) {
+        if ((children == null) || (children.size() < MIN_NR_OF_CHILDREN)) {
+            return false;
+        }
+        for (final NodeDTO child : children) {
+            final String match = child.getMatch();
+            if ((match == null) || Node.isRegex(match) || (child.getMatchType() != null) ||
+                    ((child.getNodes() != null) && !child.getNodes().isEmpty()) ||
+                    (child.getModified() != null) || (child.getLevels() != null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the number of children.
+     *
+     * @return Number of children.
+     */
+    int size() {
+        return sorted.length;
+    }
+
+    /**
+     * Find the child whose match string equals the search term, ignoring case. If multiple
+     * children match, the first one (in declaration order) is returned.
+     *
+     * @param searchTerm Search term.
+     * @return Newly created child node, or null if not found.
+     */
+    @Nullable
+    Node find(@Nonnull final CharSequence searchTerm) {
+        final int child = findPosition(searchTerm);
+        return (child < 0) ? null : getChild(child);
+    }
+
+    /**
+     * Find the child whose match string equals the search term, ignoring case, without creating it.
+     * If multiple children match, the first one (in declaration order) is returned.
+     *
+     * @param searchTerm Search term.
+     * @return Index of the child in declaration order, or -1 if not found.
+     */
+    int findPosition(@Nonnull final CharSequence searchTerm) {
+        final SearchTermBuffer buffer = SEARCH_TERM_BUFFER.get();
+        buffer.encode(searchTerm);
+        final int index = lowerBound(buffer.bytes, buffer.length);
+        if ((index < sorted.length) && (compareFolded(sorted[index], buffer.bytes, 0, buffer.length) == 0)) {
+            return sorted[index];
+        }
+        return -1;
+    }
+
+    /**
+     * Return whether a child has parameters.
+     *
+     * @param child Index of the child in declaration order.
+     * @return True if the child has parameters.
+     */
+    boolean hasParameters(final int child) {
+        return parameterBlockOfChild[child] >= 0;
+    }
+
+    /**
+     * Find the child whose match string equals a match string exactly (case-sensitive).
+     *
+     * @param match Match string.
+     * @return Newly created child node, or null if not found.
+     */
+    @Nullable
+    Node findExact(@Nonnull final String match) {
+        final byte[] exact = new byte[encodedLength(match)];
+        encode(match, exact, 0);
+        for (int index = lowerBound(exact, exact.length);
+             (index < sorted.length) && (compareFolded(sorted[index], exact, 0, exact.length) == 0); ++index) {
+            final int child = sorted[index];
+            if (equalsExact(child, exact)) {
+                return getChild(child);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return all children nodes, in declaration order. The nodes are created while iterating over them.
+     *
+     * @return Children nodes.
+     */
+    @Nonnull
+    Set<Node> getChildren() {
+        return childrenSet;
+    }
+
+    /**
+     * Create the node of a child. Every call creates a new node object, so the node should not be kept
+     * for longer than it is needed.
+     *
+     * @param child Index of the child in declaration order.
+     * @return Newly created child node.
+     */
+    @Nonnull
+    Node getChild(final int child) {
+        final String match = getMatch(child);
+        final int parameterBlock = parameterBlockOfChild[child];
+        if (parameterBlock < 0) {
+            return new Node(match, null, null, Node.hashParameters(null), parentNode);
+        }
+        final ParameterBlock block = parameterBlocks[parameterBlock];
+        return new Node(match, block.parameters, block.parameterList, block.hash, parentNode);
+    }
+
+    /**
+     * Return the match string of a child, without creating its node.
+     *
+     * @param child Index of the child in declaration order.
+     * @return Match string.
+     */
+    @Nonnull
+    String getMatch(final int child) {
+        return decode(keys, offsets[child], offsets[child + 1]);
+    }
+
+    /**
+     * Return the combined content hash of the children.
+     *
+     * @return Content hash.
+     */
+    long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Add the parameters of a child to the distinct parameter blocks, if they are not in there yet.
+     *
+     * @return The index of the parameter block, or -1 if there are no parameters.
+     */
+    private static int addParameterBlock(
+            @Nullable final ParameterListDTO parameterDTOs,
+            @Nonnull final List<ParameterBlock> blocks,
+            @Nonnull final Map<List<String>, Integer> blockIndexes) {
+        if ((parameterDTOs == null) || parameterDTOs.isEmpty()) {
+            return -1;
+        }
+        final List<String> keyValues = new ArrayList<>(parameterDTOs.size() * 2);
+        for (final ParameterDTO parameterDTO : parameterDTOs) {
+            keyValues.add(parameterDTO.getKey());
+            keyValues.add(parameterDTO.getValue());
+        }
+        return blockIndexes.computeIfAbsent(keyValues, key -> {
+            final List<Parameter> parameters = new ArrayList<>(parameterDTOs.size());
+            for (final ParameterDTO parameterDTO : parameterDTOs) {
+                parameters.add(new Parameter(parameterDTO));
+            }
+            blocks.add(new ParameterBlock(Immutables.setOf(parameters)));
+            return blocks.size() - 1;
+        });
+    }
+
+    /**
+     * Return the first position in the sorted children whose case-folded match string is not less
+     * than the given, encoded search term (case-folded while comparing).
+     */
+    private int lowerBound(@Nonnull final byte[] searchTerm, final int length) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (compareFolded(sorted[middle], searchTerm, 0, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sort a range of child indexes by the case-folded match strings of the children (a stable merge sort).
+     */
+    private void sort(@Nonnull final int[] indexes, @Nonnull final int[] buffer, final int from, final int to) {
+        if ((to - from) < 2) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        sort(indexes, buffer, from, middle);
+        sort(indexes, buffer, middle, to);
+        System.arraycopy(indexes, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; ++i) {
+            if ((right >= to) || ((left < middle) && (compareChildren(buffer[left], buffer[right]) <= 0))) {
+                indexes[i] = buffer[left];
+                ++left;
+            } else {
+                indexes[i] = buffer[right];
+                ++right;
+            }
+        }
+    }
+
+    /**
+     * Compare the case-folded match strings of two children, as unsigned bytes.
+     */
+    private int compareChildren(final int child1, final int child2) {
+        return compareFolded(child1, keys, offsets[child2], offsets[child2 + 1] - offsets[child2]);
+    }
+
+    /**
+     * Compare the case-folded match string of a child with the case-folded, encoded value, as unsigned bytes.
+     */
+    private int compareFolded(final int child, @Nonnull final byte[] value, final int from, final int length) {
+        final int start = offsets[child];
+        final int keyLength = offsets[child + 1] - start;
+        final int minLength = Math.min(keyLength, length);
+        for (int i = 0; i < minLength; ++i) {
+            final int compare = (fold(keys[start + i]) & 0xff) - (fold(value[from + i]) & 0xff);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return keyLength - length;
+    }
+
+    /**
+     * Return whether the match string of a child equals the encoded value exactly.
+     */
+    private boolean equalsExact(final int child, @Nonnull final byte[] value) {
+        final int start = offsets[child];
+        if ((offsets[child + 1] - start) != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; ++i) {
+            if (keys[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte fold(final byte b) {
+        return ((b >= 'A') && (b <= 'Z')) ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Return the number of bytes of a value, encoded by {@link #encode(CharSequence, byte[], int)}.
+     */
+    private static int encodedLength(@Nonnull final CharSequence value) {
+        final int valueLength = value.length();
+        int length = 0;
+        for (int i = 0; i < valueLength; ++i) {
+            final char ch = value.charAt(i);
+            if (ch < 0x80) {
+                length = length + 1;
+            } else if (ch < 0x800) {
+                length = length + 2;
+            } else if (Character.isHighSurrogate(ch) && ((i + 1) < valueLength) &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                length = length + 4;
+                ++i;
+            } else {
+                length = length + 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encode a value as UTF-8. Unlike {@link String#getBytes(java.nio.charset.Charset)}, unpaired
+     * surrogates are encoded as 3 bytes, like other characters, so every value can be decoded again
+     * by {@link #decode(byte[], int, int)} and distinct values never get the same encoding.
+     *
+     * @return The offset after the encoded value.
+     */
+    private static int encode(@Nonnull final CharSequence value, @Nonnull final byte[] bytes, final int offset) {
+        final int valueLength = value.length();
+        int pos = offset;
+        for (int i = 0; i < valueLength; ++i) {
+            final char ch = value.charAt(i);
+            if (ch < 0x80) {
+                bytes[pos++] = (byte) ch;
+            } else if (ch < 0x800) {
+                bytes[pos++] = (byte) (0xc0 | (ch >> 6));
+                bytes[pos++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isHighSurrogate(ch) && ((i + 1) < valueLength) &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(ch, value.charAt(i + 1));
+                ++i;
+                bytes[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                bytes[pos++] = (byte) (0xe0 | (ch >> 12));
+                bytes[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decode a value encoded by {@link #encode(CharSequence, byte[], int)}.
+     */
+    @Nonnull
+    private static String decode(@Nonnull final byte[] bytes, final int from, final int to) {
+        final char[] chars = new char[to - from];
+        int length = 0;
+        int pos = from;
+        while (pos < to) {
+            final int b = bytes[pos] & 0xff;
+            if (b < 0x80) {
+                chars[length++] = (char) b;
+                pos = pos + 1;
+            } else if (b < 0xe0) {
+                chars[length++] = (char) (((b & 0x1f) << 6) | (bytes[pos + 1] & 0x3f));
+                pos = pos + 2;
+            } else if (b < 0xf0) {
+                chars[length++] = (char) (((b & 0x0f) << 12) | ((bytes[pos + 1] & 0x3f) << 6) | (bytes[pos + 2] & 0x3f));
+                pos = pos + 3;
+            } else {
+                final int codePoint = ((b & 0x07) << 18) | ((bytes[pos + 1] & 0x3f) << 12) |
+                        ((bytes[pos + 2] & 0x3f) << 6) | (bytes[pos + 3] & 0x3f);
+                chars[length++] = Character.highSurrogate(codePoint);
+                chars[length++] = Character.lowSurrogate(codePoint);
+                pos = pos + 4;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * A distinct set of parameters, shared by all children with these parameters.
+     */
+    private static final class ParameterBlock {
+        @Nonnull
+        private final Set<Parameter> parameters;
+        @Nonnull
+        private final ParameterListDTO parameterList;
+        private final long hash;
+
+        private ParameterBlock(@Nonnull final Set<Parameter> parameters) {
+            this.parameters = parameters;
+            this.parameterList = Node.createParameterList(parameters);
+            this.hash = Node.hashParameters(parameters);
+        }
+    }
+
+    /**
+     * Immutable set view of the children nodes, in declaration order. The nodes are created while iterating.
+     */
+    private final class ChildrenSet extends AbstractSet<Node> {
+
+        @Override
+        @Nonnull
+        public Iterator<Node> iterator() {
+            return new Iterator<Node>() {
+                private int child = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return child < sorted.length;
+                }
+
+                @Override
+                @Nonnull
+                public Node next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final Node node = getChild(child);
+                    ++child;
+                    return node;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return sorted.length;
+        }
+    }
+
+    /**
+     * Buffer to encode a search term in. Re-used per thread.
+     */
+    private static final class SearchTermBuffer {
+        @Nonnull
+        private byte[] bytes = new byte[64];
+        private int length;
+
+        void encode(@Nonnull final CharSequence value) {
+            final int maxLength = value.length() * 3;
+            if (bytes.length < maxLength) {
+                bytes = new byte[maxLength];
+            }
+            length = CompactLiteralChildren.encode(value, bytes, 0);
+        }
+    }
+}
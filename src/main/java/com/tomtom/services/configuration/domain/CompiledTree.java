@@ -0,0 +1,658 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class is a compiled, read-only representation of a tree of nodes, which is used to match
+ * search terms. The {@link Node} tree remains the model of the API; this class only holds the
+ * information needed to walk the tree, in flat arrays (a struct-of-arrays layout), so walking the
+ * tree does not chase pointers through sets and nodes.
+ * <p>
+ * Every node has an integer id. Nodes are numbered breadth-first, from the root (id 0), so the
+ * children of a node have consecutive ids. Compactly stored children (see {@link CompactLiteralChildren})
+ * get ids after all other nodes, but their node objects are only created when they are needed.
+ * <p>
+ * Per node, the arrays hold:
+ * <ul>
+ * <li>a tag with the kinds of match strings of its children (literal, typed, regular expression or compact);</li>
+ * <li>the offset and size of its slots in a single open addressing hash table for literal children;</li>
+ * <li>the offsets of its typed and regular expression children in tables which map the position of a
+ * sibling in its matcher to a node id;</li>
+ * <li>the index of its parameter block, which is shared by all nodes with the same parameter list.</li>
+ * <li>negative filters: a bloom filter over the keys of its literal children, and a cache of search
+ * terms which are known to match none of its regular expression children.</li>
+ * </ul>
+ * Optionally, the lookup of literal children is generated as a Java class, see {@link LookupGenerator}.
+ * The generated class belongs to this tree, so it is replaced together with the tree when the
+ * configuration changes.
+ */
+@Immutable
+public final class CompiledTree {
+
+    /**
+     * The id of the root node.
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * The id returned if no child matches a search term.
+     */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * The id returned if a regular expression exceeded its step budget (see {@link Node#REGEX_STEP_BUDGET}),
+     * so the matching child is unknown.
+     */
+    public static final int BUDGET_EXCEEDED = -2;
+
+    // Tags for the kinds of match strings of the children of a node.
+    private static final byte KIND_LITERAL = 1;     // Children with literal match strings.
+    private static final byte KIND_TYPED = 2;       // Children with typed match strings.
+    private static final byte KIND_REGEX = 4;       // Children with regular expressions.
+    private static final byte KIND_COMPACT = 8;     // Compactly stored literal children.
+    private static final byte KIND_MISSES = 16;     // Misses of the regular expression children are cached.
+
+    /**
+     * The (regular) nodes, by id.
+     */
+    @Nonnull
+    private final Node[] nodes;
+
+    /**
+     * The kinds of match strings of the children, per node.
+     */
+    @Nonnull
+    private final byte[] childKinds;
+
+    /**
+     * The index of the (shared) parameter block per node, or -1 if the node has no parameters.
+     */
+    @Nonnull
+    private final int[] parameterBlocks;
+
+    /**
+     * The number of distinct parameter blocks.
+     */
+    private final int nrOfParameterBlocks;
+
+    /**
+     * The literal children of a node are stored in literalKeys/literalIds, from literalStart,
+     * in a hash table region of literalMask + 1 slots. Keys are case-folded match strings.
+     */
+    @Nonnull
+    private final int[] literalStart;
+    @Nonnull
+    private final int[] literalMask;
+    @Nonnull
+    private final String[] literalKeys;
+    @Nonnull
+    private final int[] literalIds;
+
+    /**
+     * The bloom filter over the literal keys of a node is stored in literalBloom, from bloomStart,
+     * in a region of bloomMask + 1 bits (a multiple of 64).
+     */
+    @Nonnull
+    private final int[] bloomStart;
+    @Nonnull
+    private final int[] bloomMask;
+    @Nonnull
+    private final long[] literalBloom;
+
+    /**
+     * Per node with regular expression children, the search terms which are known to match none of them.
+     * The caches are only used for nodes with a regular expression which needs a regular expression engine
+     * (the other ones are matched by comparing characters, which is as fast as the cache) and they are
+     * created when the first miss is added. Only genuine misses are added: a search term for which a
+     * regular expression exceeded its step budget may still match, so it is never cached as a miss. These
+     * caches belong to this tree, so they are discarded when the configuration changes.
+     */
+    @Nonnull
+    private final AtomicReferenceArray<NegativeMatchCache> regexMisses;
+
+    /**
+     * The matchers for the typed and regular expression children, per node, or null if a node has none.
+     * They are created for this tree, so the nodes never need to create their own.
+     */
+    @Nonnull
+    private final TypedMatcher[] typedMatchers;
+    @Nonnull
+    private final SiblingPatternMatcher[] regexMatchers;
+
+    /**
+     * The ids of the typed and regular expression children of a node, in the order of their matchers,
+     * start at typedStart and regexStart in typedIds and regexIds.
+     */
+    @Nonnull
+    private final int[] typedStart;
+    @Nonnull
+    private final int[] typedIds;
+    @Nonnull
+    private final int[] regexStart;
+    @Nonnull
+    private final int[] regexIds;
+
+    /**
+     * The first id of the compactly stored children of a node, or -1. The nodes with compactly stored
+     * children are also listed in compactOwners, sorted by the first ids of their children, which are in
+     * compactStarts.
+     */
+    @Nonnull
+    private final int[] compactStart;
+    @Nonnull
+    private final int[] compactOwners;
+    @Nonnull
+    private final int[] compactStarts;
+
+    /**
+     * The total number of ids, including compactly stored children.
+     */
+    private final int size;
+
+    /**
+     * The generated lookup for literal children, or null if it was not requested or could not be generated.
+     */
+    @Nullable
+    private final GeneratedLookup generatedLookup;
+
+    /**
+     * Compile a tree of nodes.
+     *
+     * @param root Root node.
+     */
+    public CompiledTree(@Nonnull final Node root) {
+        this(root, false);
+    }
+
+    /**
+     * Compile a tree of nodes.
+     *
+     * @param root           Root node.
+     * @param generateLookup True if a Java class should be generated for the lookup of literal children.
+     *                       If the class cannot be generated, the interpreted tables are used.
+     */
+    public CompiledTree(@Nonnull final Node root, final boolean generateLookup) {
+
+        // Number the nodes breadth-first, so children have consecutive ids.
+        final List<Node> nodeList = new ArrayList<>();
+        final Map<Node, Integer> ids = new IdentityHashMap<>();
+        final Queue<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            final Node node = queue.remove();
+            ids.put(node, nodeList.size());
+            nodeList.add(node);
+            if ((node.getCompactChildren() == null) && (node.getNodes() != null)) {
+                queue.addAll(node.getNodes());
+            }
+        }
+        final int nrOfNodes = nodeList.size();
+        this.nodes = nodeList.toArray(new Node[nrOfNodes]);
+        this.childKinds = new byte[nrOfNodes];
+        this.parameterBlocks = new int[nrOfNodes];
+        this.literalStart = new int[nrOfNodes];
+        this.literalMask = new int[nrOfNodes];
+        this.bloomStart = new int[nrOfNodes];
+        this.bloomMask = new int[nrOfNodes];
+        this.regexMisses = new AtomicReferenceArray<>(nrOfNodes);
+        this.typedMatchers = new TypedMatcher[nrOfNodes];
+        this.regexMatchers = new SiblingPatternMatcher[nrOfNodes];
+        this.typedStart = new int[nrOfNodes];
+        this.regexStart = new int[nrOfNodes];
+        this.compactStart = new int[nrOfNodes];
+
+        final List<String> keys = new ArrayList<>();
+        final IntList keyIds = new IntList();
+        final List<long[]> blooms = new ArrayList<>();
+        int nrOfBloomWords = 0;
+        final IntList typed = new IntList();
+        final IntList regex = new IntList();
+        final IntList owners = new IntList();
+        final IntList starts = new IntList();
+        final Map<List<String>, Integer> blocks = new HashMap<>();
+        final Map<Integer, Map<String, Integer>> literals = new LinkedHashMap<>();
+        int nextId = nrOfNodes;
+        for (int id = 0; id < nrOfNodes; ++id) {
+            final Node node = nodes[id];
+            byte kinds = 0;
+
+            // Share the parameter blocks of nodes with the same parameters (keys and values, in order).
+            if (node.getParameters() == null) {
+                parameterBlocks[id] = -1;
+            } else {
+                final List<String> keyValues = new ArrayList<>();
+                for (final Parameter parameter : node.getParameters()) {
+                    keyValues.add(parameter.getKey());
+                    keyValues.add(parameter.getValue());
+                }
+                parameterBlocks[id] = blocks.computeIfAbsent(keyValues, block -> blocks.size());
+            }
+
+            // Compactly stored children get a range of ids after the regular nodes.
+            final CompactLiteralChildren compactChildren = node.getCompactChildren();
+            compactStart[id] = -1;
+            if (compactChildren != null) {
+                kinds = (byte) (kinds | KIND_COMPACT);
+                compactStart[id] = nextId;
+                owners.add(id);
+                starts.add(nextId);
+                nextId = nextId + compactChildren.size();
+            }
+
+            // Put the literal children in the hash table region of this node.
+            literalStart[id] = keys.size();
+            literalMask[id] = 0;
+            final List<Node> literalChildren = new ArrayList<>();
+            if ((compactChildren == null) && (node.getNodes() != null)) {
+                for (final Node child : node.getNodes()) {
+                    if ((child.getMatch() != null) && (child.getMatchType() == null)) {
+                        literalChildren.add(child);
+                    }
+                }
+            }
+            if (!literalChildren.isEmpty()) {
+                kinds = (byte) (kinds | KIND_LITERAL);
+                final Map<String, Integer> added = addLiteralChildren(id, literalChildren, ids, keys, keyIds);
+                literals.put(id, added);
+                final long[] bloom = createBloomFilter(added.keySet());
+                bloomStart[id] = nrOfBloomWords * Long.SIZE;
+                bloomMask[id] = (bloom.length * Long.SIZE) - 1;
+                blooms.add(bloom);
+                nrOfBloomWords = nrOfBloomWords + bloom.length;
+            }
+
+            // Map the positions of the typed and regular expression children to ids.
+            typedStart[id] = typed.size();
+            final Collection<Node> children = (compactChildren == null) ? node.getNodes() : null;
+            final TypedMatcher typedChildren = Node.createTypedChildren(children);
+            typedMatchers[id] = typedChildren;
+            if (typedChildren != null) {
+                kinds = (byte) (kinds | KIND_TYPED);
+                for (final Node child : typedChildren.getSiblings()) {
+                    typed.add(ids.get(child));
+                }
+            }
+            regexStart[id] = regex.size();
+            final SiblingPatternMatcher regexChildren = Node.createRegexChildren(children);
+            regexMatchers[id] = regexChildren;
+            if (regexChildren != null) {
+                kinds = (byte) (kinds | KIND_REGEX);
+                if (regexChildren.hasGeneralSiblings()) {
+                    kinds = (byte) (kinds | KIND_MISSES);
+                }
+                for (final Node child : regexChildren.getSiblings()) {
+                    regex.add(ids.get(child));
+                }
+            }
+            childKinds[id] = kinds;
+        }
+        this.nrOfParameterBlocks = blocks.size();
+        this.literalKeys = keys.toArray(new String[keys.size()]);
+        this.literalIds = keyIds.toArray();
+        this.literalBloom = new long[nrOfBloomWords];
+        int word = 0;
+        for (final long[] bloom : blooms) {
+            System.arraycopy(bloom, 0, literalBloom, word, bloom.length);
+            word = word + bloom.length;
+        }
+        this.typedIds = typed.toArray();
+        this.regexIds = regex.toArray();
+        this.compactOwners = owners.toArray();
+        this.compactStarts = starts.toArray();
+        this.size = nextId;
+        this.generatedLookup = generateLookup ? LookupGenerator.generate(literals) : null;
+    }
+
+    /**
+     * Find the child of a node whose match string equals the search term, ignoring case.
+     *
+     * @param id         Node id.
+     * @param searchTerm Search term.
+     * @return Id of the child, or {@link #NOT_FOUND}.
+     */
+    public int findLiteralChild(final int id, @Nonnull final CharSequence searchTerm) {
+        if (id >= nodes.length) {
+            return NOT_FOUND;
+        }
+        final byte kinds = childKinds[id];
+        if ((kinds & KIND_COMPACT) != 0) {
+            final CompactLiteralChildren compactChildren = nodes[id].getCompactChildren();
+            assert compactChildren != null;
+            final int child = compactChildren.findPosition(searchTerm);
+            return (child < 0) ? NOT_FOUND : (compactStart[id] + child);
+        }
+        if ((kinds & KIND_LITERAL) == 0) {
+            return NOT_FOUND;
+        }
+
+        // Most search terms which are not a literal child are rejected by the bloom filter.
+        final int hash = LiteralIndex.hash(searchTerm);
+        if (!mightContainLiteral(id, hash)) {
+            return NOT_FOUND;
+        }
+        if (generatedLookup != null) {
+            final int child = generatedLookup.findLiteralChild(id, searchTerm);
+            if (child != GeneratedLookup.FALLBACK) {
+                return child;
+            }
+        }
+        final int start = literalStart[id];
+        final int mask = literalMask[id];
+        int i = hash & mask;
+        while (literalKeys[start + i] != null) {
+            if (LiteralIndex.equalsFolded(literalKeys[start + i], searchTerm, searchTerm.length())) {
+                return literalIds[start + i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Find the first child of a node, in declaration order, whose typed match string matches the search term.
+     *
+     * @param id         Node id.
+     * @param searchTerm Search term.
+     * @return Id of the child, or {@link #NOT_FOUND}.
+     */
+    public int findTypedChild(final int id, @Nonnull final CharSequence searchTerm) {
+        if ((id >= nodes.length) || ((childKinds[id] & KIND_TYPED) == 0)) {
+            return NOT_FOUND;
+        }
+        final TypedMatcher typedChildren = typedMatchers[id];
+        assert typedChildren != null;
+        final int position = typedChildren.findFirstMatchPosition(searchTerm);
+        return (position < 0) ? NOT_FOUND : typedIds[typedStart[id] + position];
+    }
+
+    /**
+     * Find the first child of a node, in declaration order, whose regular expression matches the search term.
+     *
+     * @param id         Node id.
+     * @param searchTerm Search term.
+     * @return Id of the child, {@link #NOT_FOUND} or {@link #BUDGET_EXCEEDED}.
+     */
+    public int findRegexChild(final int id, @Nonnull final CharSequence searchTerm) {
+        if ((id >= nodes.length) || ((childKinds[id] & KIND_REGEX) == 0)) {
+            return NOT_FOUND;
+        }
+        final boolean cacheMisses = (childKinds[id] & KIND_MISSES) != 0;
+        if (cacheMisses && isKnownRegexMiss(id, searchTerm)) {
+            return NOT_FOUND;
+        }
+        final SiblingPatternMatcher regexChildren = regexMatchers[id];
+        assert regexChildren != null;
+        final int position = regexChildren.findFirstMatchPosition(searchTerm);
+        if (position == SiblingPatternMatcher.BUDGET_EXCEEDED) {
+
+            // Not a miss: the match is unknown, so do not cache it.
+            return BUDGET_EXCEEDED;
+        }
+        if (position < 0) {
+            if (cacheMisses) {
+                NegativeMatchCache misses = regexMisses.get(id);
+                if (misses == null) {
+
+                    // Benign race: a cache created concurrently for the same node may be replaced.
+                    misses = new NegativeMatchCache();
+                    regexMisses.set(id, misses);
+                }
+                misses.add(searchTerm);
+            }
+            return NOT_FOUND;
+        }
+        return regexIds[regexStart[id] + position];
+    }
+
+    /**
+     * Return whether a search term is known to match none of the regular expression children of a node.
+     *
+     * @param id         Node id.
+     * @param searchTerm Search term.
+     * @return True if the search term was cached as a miss.
+     */
+    boolean isKnownRegexMiss(final int id, @Nonnull final CharSequence searchTerm) {
+        if (id >= nodes.length) {
+            return false;
+        }
+        final NegativeMatchCache misses = regexMisses.get(id);
+        return (misses != null) && misses.contains(searchTerm);
+    }
+
+    /**
+     * Return whether a node has parameters.
+     *
+     * @param id Node id.
+     * @return True if the node has parameters.
+     */
+    public boolean hasParameters(final int id) {
+        if (id < nodes.length) {
+            return parameterBlocks[id] >= 0;
+        }
+        final int owner = findCompactOwner(id);
+        final CompactLiteralChildren compactChildren = nodes[owner].getCompactChildren();
+        assert compactChildren != null;
+        return compactChildren.hasParameters(id - compactStart[owner]);
+    }
+
+    /**
+     * Return the node with an id. The nodes of compactly stored children are created on every call.
+     *
+     * @param id Node id.
+     * @return Node.
+     */
+    @Nonnull
+    public Node getNode(final int id) {
+        if (id < nodes.length) {
+            return nodes[id];
+        }
+        final int owner = findCompactOwner(id);
+        final CompactLiteralChildren compactChildren = nodes[owner].getCompactChildren();
+        assert compactChildren != null;
+        return compactChildren.getChild(id - compactStart[owner]);
+    }
+
+    /**
+     * Return the match string of a node, for logging.
+     *
+     * @param id Node id.
+     * @return Match string, or null for the root.
+     */
+    @Nullable
+    public String getMatch(final int id) {
+        if (id < nodes.length) {
+            return nodes[id].getMatch();
+        }
+        final int owner = findCompactOwner(id);
+        final CompactLiteralChildren compactChildren = nodes[owner].getCompactChildren();
+        assert compactChildren != null;
+        return compactChildren.getMatch(id - compactStart[owner]);
+    }
+
+    /**
+     * Return the total number of nodes, including compactly stored children.
+     *
+     * @return Number of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return whether the lookup of literal children uses a generated class.
+     *
+     * @return True if a class was generated.
+     */
+    public boolean isGenerated() {
+        return generatedLookup != null;
+    }
+
+    /**
+     * Return the number of distinct parameter blocks.
+     *
+     * @return Number of parameter blocks.
+     */
+    public int getNrOfParameterBlocks() {
+        return nrOfParameterBlocks;
+    }
+
+    /**
+     * Add the hash table region for the literal children of a node. If multiple children fold to the
+     * same key, the first one is kept, like {@link LiteralIndex}.
+     *
+     * @return The keys and ids of the children which were added, in declaration order.
+     */
+    @Nonnull
+    private Map<String, Integer> addLiteralChildren(
+            final int id,
+            @Nonnull final List<Node> children,
+            @Nonnull final Map<Node, Integer> ids,
+            @Nonnull final List<String> keys,
+            @Nonnull final IntList keyIds) {
+        int capacity = 2;
+        while (capacity < (children.size() * 2)) {
+            capacity = capacity * 2;
+        }
+        final int start = keys.size();
+        final int mask = capacity - 1;
+        final Map<String, Integer> added = new LinkedHashMap<>();
+        for (int i = 0; i < capacity; ++i) {
+            keys.add(null);
+            keyIds.add(NOT_FOUND);
+        }
+        for (final Node child : children) {
+            final String match = child.getMatch();
+            assert match != null;
+            final String key = Node.foldCase(match);
+            int i = LiteralIndex.hash(key) & mask;
+            while ((keys.get(start + i) != null) && !keys.get(start + i).equals(key)) {
+                i = (i + 1) & mask;
+            }
+            if (keys.get(start + i) == null) {
+                keys.set(start + i, key);
+                keyIds.set(start + i, ids.get(child));
+                added.put(key, ids.get(child));
+            }
+        }
+        literalMask[id] = mask;
+        return added;
+    }
+
+    /**
+     * Return whether the bloom filter of a node may contain a key, given its hash code (see
+     * {@link LiteralIndex#hash(CharSequence)}). The filter uses 2 bits per key, derived from the hash code.
+     */
+    private boolean mightContainLiteral(final int id, final int hash) {
+        final int start = bloomStart[id];
+        final int mask = bloomMask[id];
+        final int bit1 = start + (hash & mask);
+        final int bit2 = start + (bloomHash2(hash) & mask);
+        return ((literalBloom[bit1 >>> 6] & (1L << bit1)) != 0) && ((literalBloom[bit2 >>> 6] & (1L << bit2)) != 0);
+    }
+
+    /**
+     * Create a bloom filter for a set of keys, with (at least) 16 bits per key, which gives a false
+     * positive rate below 1.5%.
+     */
+    @Nonnull
+    private static long[] createBloomFilter(@Nonnull final Iterable<String> keys) {
+        int nrOfKeys = 0;
+        for (final String ignored : keys) {
+            ++nrOfKeys;
+        }
+        int nrOfBits = Long.SIZE;
+        while (nrOfBits < (nrOfKeys * 16)) {
+            nrOfBits = nrOfBits * 2;
+        }
+        final long[] bloom = new long[nrOfBits / Long.SIZE];
+        final int mask = nrOfBits - 1;
+        for (final String key : keys) {
+            final int hash = LiteralIndex.hash(key);
+            final int bit1 = hash & mask;
+            final int bit2 = bloomHash2(hash) & mask;
+            bloom[bit1 >>> 6] |= 1L << bit1;
+            bloom[bit2 >>> 6] |= 1L << bit2;
+        }
+        return bloom;
+    }
+
+    /**
+     * Return a second hash code for the bloom filter, which is independent of the low bits of the first.
+     */
+    private static int bloomHash2(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 15);
+    }
+
+    /**
+     * Return the id of the node which owns a compactly stored child.
+     */
+    private int findCompactOwner(final int id) {
+        assert (id >= nodes.length) && (id < size);
+        int index = Arrays.binarySearch(compactStarts, id);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return compactOwners[index];
+    }
+
+    /**
+     * A growable list of ints, used to build the tables without boxing.
+     */
+    private static final class IntList {
+        @Nonnull
+        private int[] values = new int[16];
+        private int size;
+
+        void add(final int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            ++size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void set(final int index, final int value) {
+            assert index < size;
+            values[index] = value;
+        }
+
+        @Nonnull
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * This class provides the 64-bit content hashes which are used for ETags. The hashes of nodes are
+ * computed once, when the tree is created, and the hashes of search results are derived from them by
+ * combining hashes, so no object needs to be serialized to create an ETag.
+ * <p>
+ * A hash is built by starting with {@link #SEED} and adding values, in a fixed order, with the
+ * add methods. The hashes are not cryptographically secure, but only need to change when the content
+ * changes.
+ */
+public final class ContentHash {
+
+    /**
+     * Initial value of a hash.
+     */
+    public static final long SEED = 0x3141592654L;
+
+    // Constants of the FNV-1a hash, used to hash characters.
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    // Value added for null strings, which cannot be the length of a string.
+    private static final long NULL_VALUE = -1L;
+
+    private ContentHash() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Add a value to a hash.
+     *
+     * @param hash  Hash.
+     * @param value Value to add.
+     * @return New hash.
+     */
+    public static long add(final long hash, final long value) {
+        return mix((hash * FNV_PRIME) + value);
+    }
+
+    /**
+     * Add a string to a hash. Null strings and empty strings give different hashes.
+     *
+     * @param hash  Hash.
+     * @param value String to add, may be null.
+     * @return New hash.
+     */
+    public static long add(final long hash, @Nullable final CharSequence value) {
+        if (value == null) {
+            return add(hash, NULL_VALUE);
+        }
+        long h = hash;
+        final int length = value.length();
+        for (int i = 0; i < length; ++i) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+
+        // Add the length, so consecutive strings cannot be shifted into each other.
+        return add(h, length);
+    }
+
+    /**
+     * Return the ETag value of a hash: 16 lowercase hexadecimal digits. Not quoted.
+     *
+     * @param hash Hash.
+     * @return ETag value.
+     */
+    @Nonnull
+    public static String toETag(final long hash) {
+        final String hex = Long.toHexString(hash);
+        final StringBuilder sb = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; ++i) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    /**
+     * Mix the bits of a value (the finalizer of MurmurHash3), so every input bit affects every output bit.
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
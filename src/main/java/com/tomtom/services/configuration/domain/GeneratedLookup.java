@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+
+/**
+ * This interface is implemented by the classes which are generated for a configuration tree, see
+ * {@link LookupGenerator}. It is public only because the generated classes are loaded by their own
+ * class loader, so they cannot implement a package private interface.
+ */
+public interface GeneratedLookup {
+
+    /**
+     * Value returned for nodes which are not part of the generated class.
+     */
+    int FALLBACK = -2;
+
+    /**
+     * Find the child of a node whose match string equals the search term, ignoring case.
+     *
+     * @param id         Node id, see {@link CompiledTree}.
+     * @param searchTerm Search term.
+     * @return Id of the child, {@link CompiledTree#NOT_FOUND} if no child matches, or {@link #FALLBACK}
+     * if the node is not part of the generated class.
+     */
+    int findLiteralChild(int id, @Nonnull CharSequence searchTerm);
+}
@@ -0,0 +1,879 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements a linear-time regular expression engine for a subset of the
+ * {@link java.util.regex.Pattern} syntax. It matches the whole search term, case-insensitively,
+ * exactly like {@link java.util.regex.Matcher#matches()} does for patterns created by
+ * {@link Node#createRegexPattern(String)}.
+ * <p>
+ * Patterns are compiled into a non-deterministic automaton (Thompson construction), which is
+ * simulated for all states at once (Pike VM). This never backtracks: matching takes at most
+ * O(length of search term * size of program) steps, whatever the pattern or search term.
+ * <p>
+ * Multiple patterns can be compiled into a single program. Matching then returns the first
+ * pattern (in the given order) which matches the whole search term, in a single pass.
+ * <p>
+ * The subset consists of: literals, escaped characters, '.', character classes with ranges and
+ * negation, the predefined classes \d, \D, \s, \S, \w and \W, groups (capturing or non-capturing),
+ * alternation, the greedy and reluctant quantifiers ?, *, +, {n}, {n,} and {n,m}, and the anchors
+ * '^' and '$'. Other constructs, such as back-references, look-around, possessive quantifiers,
+ * boundaries, inline flags and Unicode classes are not supported: {@link #compile(List)} returns
+ * null for them, so they can be matched by {@link java.util.regex.Pattern} instead.
+ */
+@Immutable
+final class LinearRegex {
+
+    /**
+     * Maximum number of instructions of a program. Larger programs (for example, caused by large
+     * repetition counts) are not supported.
+     */
+    static final int MAX_PROGRAM_SIZE = 10000;
+
+    /**
+     * Number of US-ASCII characters, which are matched with a bit table.
+     */
+    private static final int ASCII_SIZE = 128;
+
+    // Instructions.
+    private static final int OP_CHAR = 0;           // Consume a character in character set arg1.
+    private static final int OP_SPLIT = 1;          // Continue at arg1 and at arg2.
+    private static final int OP_JUMP = 2;           // Continue at arg1.
+    private static final int OP_BEGIN = 3;          // Assert the beginning of the input.
+    private static final int OP_END = 4;            // Assert the end of the input (as '$').
+    private static final int OP_MATCH = 5;          // Pattern arg1 matches.
+
+    /**
+     * State lists, re-used per thread, so matching does not allocate any objects.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    @Nonnull
+    private final int[] ops;
+    @Nonnull
+    private final int[] args1;
+    @Nonnull
+    private final int[] args2;
+    @Nonnull
+    private final CharSet[] charSets;
+
+    private LinearRegex(@Nonnull final Program program) {
+        final int size = program.ops.size();
+        this.ops = new int[size];
+        this.args1 = new int[size];
+        this.args2 = new int[size];
+        for (int pc = 0; pc < size; ++pc) {
+            ops[pc] = program.ops.get(pc);
+            args1[pc] = program.args1.get(pc);
+            args2[pc] = program.args2.get(pc);
+        }
+        this.charSets = program.charSets.toArray(new CharSet[program.charSets.size()]);
+    }
+
+    /**
+     * Compile a list of patterns into a single program.
+     *
+     * @param regexes Regular expressions, which must be valid {@link java.util.regex.Pattern} expressions.
+     * @return Program, or null if any of the expressions is not supported.
+     */
+    @Nullable
+    static LinearRegex compile(@Nonnull final List<String> regexes) {
+        assert !regexes.isEmpty();
+        try {
+            final Program program = new Program();
+            for (int i = 0; i < regexes.size(); ++i) {
+                final int split = ((i + 1) < regexes.size()) ? program.emit(OP_SPLIT, program.size() + 1, -1) : -1;
+                new Parser(regexes.get(i)).parse().emit(program);
+                program.emit(OP_MATCH, i, 0);
+                if (split >= 0) {
+                    program.args2.set(split, program.size());
+                }
+            }
+            return new LinearRegex(program);
+        } catch (final UnsupportedPatternException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if a regular expression is supported by this engine.
+     *
+     * @param regex Regular expression, which must be a valid {@link java.util.regex.Pattern} expression.
+     * @return Null if the expression is supported, or the reason why it is not.
+     */
+    @Nullable
+    static String checkSupported(@Nonnull final String regex) {
+        try {
+            new Parser(regex).parse().emit(new Program());
+            return null;
+        } catch (final UnsupportedPatternException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Match the whole search term, ignoring case.
+     *
+     * @param searchTerm Search term.
+     * @return Index of the first pattern which matches, or -1 if none matches.
+     */
+    int match(@Nonnull final CharSequence searchTerm) {
+        final Scratch states = SCRATCH.get();
+        states.ensureCapacity(ops.length);
+        StateList current = states.current;
+        StateList next = states.next;
+        current.clear();
+        final int length = searchTerm.length();
+        addState(current, 0, searchTerm, 0, states.stack);
+        int pos = 0;
+        while (pos < length) {
+            if (current.size == 0) {
+                return -1;
+            }
+            final int codePoint = Character.codePointAt(searchTerm, pos);
+            final int nextPos = pos + Character.charCount(codePoint);
+            next.clear();
+            for (int i = 0; i < current.size; ++i) {
+                final int pc = current.dense[i];
+                if ((ops[pc] == OP_CHAR) && charSets[args1[pc]].matches(codePoint)) {
+                    addState(next, pc + 1, searchTerm, nextPos, states.stack);
+                }
+            }
+            final StateList swap = current;
+            current = next;
+            next = swap;
+            pos = nextPos;
+        }
+        int first = -1;
+        for (int i = 0; i < current.size; ++i) {
+            final int pc = current.dense[i];
+            if ((ops[pc] == OP_MATCH) && ((first < 0) || (args1[pc] < first))) {
+                first = args1[pc];
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Add a state and all states reachable from it without consuming input.
+     */
+    private void addState(
+            @Nonnull final StateList list,
+            final int startPc,
+            @Nonnull final CharSequence input,
+            final int pos,
+            @Nonnull final int[] stack) {
+        int top = 0;
+        stack[top] = startPc;
+        ++top;
+        while (top > 0) {
+            --top;
+            final int pc = stack[top];
+            if (list.contains(pc)) {
+                continue;
+            }
+            list.add(pc);
+            switch (ops[pc]) {
+                case OP_SPLIT:
+                    stack[top] = args2[pc];
+                    ++top;
+                    stack[top] = args1[pc];
+                    ++top;
+                    break;
+
+                case OP_JUMP:
+                    stack[top] = args1[pc];
+                    ++top;
+                    break;
+
+                case OP_BEGIN:
+                    if (pos == 0) {
+                        stack[top] = pc + 1;
+                        ++top;
+                    }
+                    break;
+
+                case OP_END:
+                    if (isEnd(input, pos)) {
+                        stack[top] = pc + 1;
+                        ++top;
+                    }
+                    break;
+
+                default:
+                    // Character and match states wait for the next character, or the end of input.
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Return whether '$' matches at a position: at the end of input, or before a line terminator
+     * at the end of input (but not between '\r' and '\n').
+     */
+    private static boolean isEnd(@Nonnull final CharSequence input, final int pos) {
+        final int length = input.length();
+        if (pos == length) {
+            return true;
+        }
+        if (pos == (length - 2)) {
+            return (input.charAt(pos) == '\r') && (input.charAt(pos + 1) == '\n');
+        }
+        if (pos == (length - 1)) {
+            final char ch = input.charAt(pos);
+            if (ch == '\n') {
+                return (pos == 0) || (input.charAt(pos - 1) != '\r');
+            }
+            return isLineTerminator(ch);
+        }
+        return false;
+    }
+
+    /**
+     * Return whether a character is a line terminator, which '.' does not match.
+     *
+     * @param ch Character.
+     * @return True if the character is a line terminator.
+     */
+    static boolean isLineTerminator(final int ch) {
+        return (ch == '\n') || (ch == '\r') || (ch == 0x85) || (ch == 0x2028) || (ch == 0x2029);
+    }
+
+    /**
+     * Return the other case of an US-ASCII letter, or the character itself.
+     */
+    private static int otherCase(final int ch) {
+        if ((ch >= 'A') && (ch <= 'Z')) {
+            return ch + ('a' - 'A');
+        }
+        if ((ch >= 'a') && (ch <= 'z')) {
+            return ch - ('a' - 'A');
+        }
+        return ch;
+    }
+
+    /**
+     * A set of states, which can be cleared in constant time (sparse set).
+     */
+    private static final class StateList {
+        @Nonnull
+        private final int[] dense;
+        @Nonnull
+        private final int[] sparse;
+        private int size;
+
+        StateList(final int capacity) {
+            this.dense = new int[capacity];
+            this.sparse = new int[capacity];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean contains(final int pc) {
+            final int i = sparse[pc];
+            return (i < size) && (dense[i] == pc);
+        }
+
+        void add(final int pc) {
+            dense[size] = pc;
+            sparse[pc] = size;
+            ++size;
+        }
+    }
+
+    /**
+     * State lists, shared by all programs on a thread. They grow to the size of the largest program
+     * matched on the thread, so matching does not allocate any objects.
+     */
+    private static final class Scratch {
+        @Nonnull
+        private StateList current = new StateList(0);
+        @Nonnull
+        private StateList next = new StateList(0);
+        @Nonnull
+        private int[] stack = new int[1];
+
+        void ensureCapacity(final int size) {
+            if (current.dense.length < size) {
+                current = new StateList(size);
+                next = new StateList(size);
+
+                // Every state is pushed at most twice (by a split), before it is added to a list.
+                stack = new int[(size * 2) + 1];
+            }
+        }
+    }
+
+    /**
+     * A set of characters: a literal, '.', a character class or a predefined class.
+     * Matching is case-insensitive for US-ASCII letters. The case folding is done once, when the
+     * set is created: for US-ASCII characters, the set stores a case-closed bit table, so matching
+     * a character is a single bit test.
+     */
+    @Immutable
+    private static final class CharSet {
+
+        /**
+         * Ranges of characters (inclusive), as pairs: low, high.
+         */
+        @Nonnull
+        private final int[] ranges;
+
+        /**
+         * Negated sets, which are part of this set (such as \D in a class).
+         */
+        @Nonnull
+        private final CharSet[] negatedSets;
+
+        private final boolean negated;
+
+        /**
+         * Whether US-ASCII characters 0-63 and 64-127 match (one bit per character), with case
+         * folding and negation applied.
+         */
+        private final long asciiLow;
+        private final long asciiHigh;
+
+        CharSet(@Nonnull final int[] ranges, @Nonnull final CharSet[] negatedSets, final boolean negated) {
+            this.ranges = ranges;
+            this.negatedSets = negatedSets;
+            this.negated = negated;
+            long low = 0;
+            long high = 0;
+            for (int ch = 0; ch < ASCII_SIZE; ++ch) {
+                final boolean contains = contains(ch) || contains(otherCase(ch));
+                if (contains != negated) {
+                    if (ch < 64) {
+                        low = low | (1L << ch);
+                    } else {
+                        high = high | (1L << (ch - 64));
+                    }
+                }
+            }
+            this.asciiLow = low;
+            this.asciiHigh = high;
+        }
+
+        boolean matches(final int ch) {
+            if (ch < ASCII_SIZE) {
+                return (((ch < 64) ? (asciiLow >>> ch) : (asciiHigh >>> (ch - 64))) & 1L) != 0;
+            }
+
+            // Only US-ASCII letters are case-folded.
+            return contains(ch) != negated;
+        }
+
+        private boolean contains(final int ch) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if ((ranges[i] <= ch) && (ch <= ranges[i + 1])) {
+                    return true;
+                }
+            }
+            for (final CharSet negatedSet : negatedSets) {
+                if (!negatedSet.contains(ch)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Program under construction.
+     */
+    private static final class Program {
+        @Nonnull
+        private final List<Integer> ops = new ArrayList<>();
+        @Nonnull
+        private final List<Integer> args1 = new ArrayList<>();
+        @Nonnull
+        private final List<Integer> args2 = new ArrayList<>();
+        @Nonnull
+        private final List<CharSet> charSets = new ArrayList<>();
+
+        int size() {
+            return ops.size();
+        }
+
+        int emit(final int op, final int arg1, final int arg2) {
+            if (ops.size() >= MAX_PROGRAM_SIZE) {
+                throw new UnsupportedPatternException("pattern is too large");
+            }
+            ops.add(op);
+            args1.add(arg1);
+            args2.add(arg2);
+            return ops.size() - 1;
+        }
+
+        int addCharSet(@Nonnull final CharSet charSet) {
+            charSets.add(charSet);
+            return charSets.size() - 1;
+        }
+    }
+
+    /**
+     * Parsed regular expression.
+     */
+    private abstract static class Expr {
+        abstract void emit(@Nonnull Program program);
+    }
+
+    private static final class CharExpr extends Expr {
+        @Nonnull
+        private final CharSet charSet;
+
+        CharExpr(@Nonnull final CharSet charSet) {
+            this.charSet = charSet;
+        }
+
+        @Override
+        void emit(@Nonnull final Program program) {
+            program.emit(OP_CHAR, program.addCharSet(charSet), 0);
+        }
+    }
+
+    private static final class AssertExpr extends Expr {
+        private final int op;
+
+        AssertExpr(final int op) {
+            this.op = op;
+        }
+
+        @Override
+        void emit(@Nonnull final Program program) {
+            program.emit(op, 0, 0);
+        }
+    }
+
+    private static final class SequenceExpr extends Expr {
+        @Nonnull
+        private final List<Expr> exprs;
+
+        SequenceExpr(@Nonnull final List<Expr> exprs) {
+            this.exprs = exprs;
+        }
+
+        @Override
+        void emit(@Nonnull final Program program) {
+            for (final Expr expr : exprs) {
+                expr.emit(program);
+            }
+        }
+    }
+
+    private static final class AlternationExpr extends Expr {
+        @Nonnull
+        private final List<Expr> alternatives;
+
+        AlternationExpr(@Nonnull final List<Expr> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        void emit(@Nonnull final Program program) {
+            final List<Integer> jumps = new ArrayList<>();
+            for (int i = 0; i < alternatives.size(); ++i) {
+                if ((i + 1) < alternatives.size()) {
+                    final int split = program.emit(OP_SPLIT, program.size() + 1, -1);
+                    alternatives.get(i).emit(program);
+                    jumps.add(program.emit(OP_JUMP, -1, 0));
+                    program.args2.set(split, program.size());
+                } else {
+                    alternatives.get(i).emit(program);
+                }
+            }
+            for (final int jump : jumps) {
+                program.args1.set(jump, program.size());
+            }
+        }
+    }
+
+    private static final class RepeatExpr extends Expr {
+        @Nonnull
+        private final Expr expr;
+        private final int min;
+        private final int max;      // -1 for unbounded.
+
+        RepeatExpr(@Nonnull final Expr expr, final int min, final int max) {
+            this.expr = expr;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        void emit(@Nonnull final Program program) {
+            for (int i = 0; i < min; ++i) {
+                expr.emit(program);
+            }
+            if (max < 0) {
+
+                // Loop: split to the expression or the exit, jump back after the expression.
+                final int split = program.emit(OP_SPLIT, program.size() + 1, -1);
+                expr.emit(program);
+                program.emit(OP_JUMP, split, 0);
+                program.args2.set(split, program.size());
+            } else {
+
+                // Optional repetitions: every one can skip to the exit.
+                final List<Integer> splits = new ArrayList<>();
+                for (int i = min; i < max; ++i) {
+                    splits.add(program.emit(OP_SPLIT, program.size() + 1, -1));
+                    expr.emit(program);
+                }
+                for (final int split : splits) {
+                    program.args2.set(split, program.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of the {@link java.util.regex.Pattern} syntax.
+     * The pattern has already been compiled by {@link java.util.regex.Pattern}, so it is known to be
+     * valid; anything which is not recognized is reported as unsupported.
+     */
+    private static final class Parser {
+        private static final int[] DIGITS = {'0', '9'};
+        private static final int[] WORDS = {'a', 'z', 'A', 'Z', '_', '_', '0', '9'};
+        private static final int[] SPACES = {' ', ' ', '\t', '\r'};
+        private static final int[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029};
+
+        @Nonnull
+        private final String regex;
+        private int pos;
+
+        Parser(@Nonnull final String regex) {
+            this.regex = regex;
+        }
+
+        @Nonnull
+        Expr parse() {
+            final Expr expr = parseAlternation();
+            if (pos < regex.length()) {
+                throw new UnsupportedPatternException("unexpected '" + regex.charAt(pos) + "' at position " + pos);
+            }
+            return expr;
+        }
+
+        @Nonnull
+        private Expr parseAlternation() {
+            final List<Expr> alternatives = new ArrayList<>();
+            alternatives.add(parseSequence());
+            while (peek() == '|') {
+                ++pos;
+                alternatives.add(parseSequence());
+            }
+            return (alternatives.size() == 1) ? alternatives.get(0) : new AlternationExpr(alternatives);
+        }
+
+        @Nonnull
+        private Expr parseSequence() {
+            final List<Expr> exprs = new ArrayList<>();
+            while ((pos < regex.length()) && (peek() != '|') && (peek() != ')')) {
+                exprs.add(parseRepeat());
+            }
+            return new SequenceExpr(exprs);
+        }
+
+        @Nonnull
+        private Expr parseRepeat() {
+            final int start = pos;
+            Expr expr = parseAtom();
+            while (pos < regex.length()) {
+                final int ch = peek();
+                final int min;
+                final int max;
+                if (ch == '*') {
+                    ++pos;
+                    min = 0;
+                    max = -1;
+                } else if (ch == '+') {
+                    ++pos;
+                    min = 1;
+                    max = -1;
+                } else if (ch == '?') {
+                    ++pos;
+                    min = 0;
+                    max = 1;
+                } else if (ch == '{') {
+                    ++pos;
+                    min = parseNumber();
+                    if (peek() == ',') {
+                        ++pos;
+                        max = (peek() == '}') ? -1 : parseNumber();
+                    } else {
+                        max = min;
+                    }
+                    expect('}');
+                } else {
+                    break;
+                }
+                if ((expr instanceof AssertExpr) || ((max >= 0) && (max < min))) {
+                    throw new UnsupportedPatternException("unsupported quantifier at position " + start);
+                }
+
+                // Reluctant quantifiers match the same inputs as greedy ones; possessive ones do not.
+                if (peek() == '?') {
+                    ++pos;
+                } else if (peek() == '+') {
+                    throw new UnsupportedPatternException("possessive quantifier at position " + pos);
+                }
+                expr = new RepeatExpr(expr, min, max);
+            }
+            return expr;
+        }
+
+        @Nonnull
+        private Expr parseAtom() {
+            final int ch = next();
+            switch (ch) {
+                case '(':
+                    if (peek() == '?') {
+                        ++pos;
+                        if (peek() != ':') {
+                            throw new UnsupportedPatternException("unsupported group construct at position " + (pos - 2));
+                        }
+                        ++pos;
+                    }
+                    final Expr group = parseAlternation();
+                    expect(')');
+                    return group;
+
+                case '.':
+                    return new CharExpr(new CharSet(LINE_TERMINATORS, new CharSet[0], true));
+
+                case '^':
+                    return new AssertExpr(OP_BEGIN);
+
+                case '$':
+                    return new AssertExpr(OP_END);
+
+                case '[':
+                    return new CharExpr(parseClass());
+
+                case '\\':
+                    return new CharExpr(parseEscape(false));
+
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                case ')':
+                    throw new UnsupportedPatternException("unexpected '" + (char) ch + "' at position " + (pos - 1));
+
+                default:
+                    return new CharExpr(single(ch));
+            }
+        }
+
+        @Nonnull
+        private CharSet parseClass() {
+            final boolean negated = peek() == '^';
+            if (negated) {
+                ++pos;
+            }
+            if (peek() == ']') {
+                throw new UnsupportedPatternException("unsupported character class at position " + pos);
+            }
+            final List<Integer> ranges = new ArrayList<>();
+            final List<CharSet> negatedSets = new ArrayList<>();
+            while (peek() != ']') {
+                final int start = pos;
+                final int ch = next();
+                if ((ch == '[') || ((ch == '&') && (peek() == '&'))) {
+                    throw new UnsupportedPatternException("unsupported character class at position " + start);
+                }
+                final int low;
+                if (ch == '\\') {
+                    final CharSet escaped = parseEscape(true);
+                    if ((escaped.ranges.length != 2) || (escaped.ranges[0] != escaped.ranges[1]) || escaped.negated) {
+
+                        // A predefined class, which cannot be part of a range.
+                        if (escaped.negated) {
+                            negatedSets.add(new CharSet(escaped.ranges, new CharSet[0], false));
+                        } else {
+                            addRanges(ranges, escaped.ranges);
+                        }
+                        if ((peek() == '-') && (peekAt(pos + 1) != ']')) {
+                            throw new UnsupportedPatternException("unsupported range at position " + start);
+                        }
+                        continue;
+                    }
+                    low = escaped.ranges[0];
+                } else {
+                    low = ch;
+                }
+                if ((peek() == '-') && (peekAt(pos + 1) != ']')) {
+                    ++pos;
+                    final int highChar = next();
+                    final int high;
+                    if (highChar == '\\') {
+                        final CharSet escaped = parseEscape(true);
+                        if ((escaped.ranges.length != 2) || (escaped.ranges[0] != escaped.ranges[1]) || escaped.negated) {
+                            throw new UnsupportedPatternException("unsupported range at position " + start);
+                        }
+                        high = escaped.ranges[0];
+                    } else if ((highChar == '[') || (highChar == '&')) {
+                        throw new UnsupportedPatternException("unsupported range at position " + start);
+                    } else {
+                        high = highChar;
+                    }
+                    ranges.add(low);
+                    ranges.add(high);
+                } else {
+                    ranges.add(low);
+                    ranges.add(low);
+                }
+            }
+            expect(']');
+            final int[] rangeArray = new int[ranges.size()];
+            for (int i = 0; i < rangeArray.length; ++i) {
+                rangeArray[i] = ranges.get(i);
+            }
+            return new CharSet(rangeArray, negatedSets.toArray(new CharSet[negatedSets.size()]), negated);
+        }
+
+        /**
+         * Parse an escape sequence (after the backslash): an escaped character or a predefined class.
+         */
+        @Nonnull
+        private CharSet parseEscape(final boolean inClass) {
+            final int start = pos - 1;
+            final int ch = next();
+            switch (ch) {
+                case 'd':
+                    return new CharSet(DIGITS, new CharSet[0], false);
+                case 'D':
+                    return new CharSet(DIGITS, new CharSet[0], true);
+                case 'w':
+                    return new CharSet(WORDS, new CharSet[0], false);
+                case 'W':
+                    return new CharSet(WORDS, new CharSet[0], true);
+                case 's':
+                    return new CharSet(SPACES, new CharSet[0], false);
+                case 'S':
+                    return new CharSet(SPACES, new CharSet[0], true);
+                case 't':
+                    return single('\t');
+                case 'n':
+                    return single('\n');
+                case 'r':
+                    return single('\r');
+                case 'f':
+                    return single('\f');
+                case 'a':
+                    return single(0x07);
+                case 'e':
+                    return single(0x1b);
+                case 'x':
+                    if (peek() == '{') {
+                        throw new UnsupportedPatternException("unsupported escape at position " + start);
+                    }
+                    return single(parseHex(2));
+                case 'u':
+                    return single(parseHex(4));
+                default:
+                    if (((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z')) || ((ch >= '0') && (ch <= '9'))) {
+                        throw new UnsupportedPatternException("unsupported escape '\\" + (char) ch + "' at position " + start);
+                    }
+
+                    // Any other escaped character is a literal.
+                    return single(ch);
+            }
+        }
+
+        @Nonnull
+        private static CharSet single(final int ch) {
+            return new CharSet(new int[]{ch, ch}, new CharSet[0], false);
+        }
+
+        private static void addRanges(@Nonnull final List<Integer> ranges, @Nonnull final int[] add) {
+            for (final int value : add) {
+                ranges.add(value);
+            }
+        }
+
+        private int parseHex(final int digits) {
+            if ((pos + digits) > regex.length()) {
+                throw new UnsupportedPatternException("unsupported escape at position " + pos);
+            }
+            try {
+                final int value = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+                pos = pos + digits;
+                if (Character.isSurrogate((char) value)) {
+                    throw new UnsupportedPatternException("unsupported escape at position " + pos);
+                }
+                return value;
+            } catch (final NumberFormatException ignored) {
+                throw new UnsupportedPatternException("unsupported escape at position " + pos);
+            }
+        }
+
+        private int parseNumber() {
+            final int start = pos;
+            while ((pos < regex.length()) && (regex.charAt(pos) >= '0') && (regex.charAt(pos) <= '9')) {
+                ++pos;
+            }
+            if ((start == pos) || ((pos - start) > 4)) {
+                throw new UnsupportedPatternException("unsupported repetition count at position " + start);
+            }
+            return Integer.parseInt(regex.substring(start, pos));
+        }
+
+        private void expect(final int ch) {
+            if (peek() != ch) {
+                throw new UnsupportedPatternException("expected '" + (char) ch + "' at position " + pos);
+            }
+            ++pos;
+        }
+
+        private int peek() {
+            return peekAt(pos);
+        }
+
+        private int peekAt(final int index) {
+            return (index < regex.length()) ? regex.codePointAt(index) : -1;
+        }
+
+        private int next() {
+            if (pos >= regex.length()) {
+                throw new UnsupportedPatternException("unexpected end of pattern");
+            }
+            final int ch = regex.codePointAt(pos);
+            pos = pos + Character.charCount(ch);
+            return ch;
+        }
+    }
+
+    /**
+     * Thrown when a pattern is not supported by this engine.
+     */
+    private static final class UnsupportedPatternException extends RuntimeException {
+        UnsupportedPatternException(@Nonnull final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collection;
+
+/**
+ * This class is a read-only hash index of nodes, keyed by their case-folded match strings.
+ * <p>
+ * Lookups fold the case of the search term on the fly, while hashing and comparing it, so a
+ * lookup does not allocate any objects. Case folding is the same as for case-insensitive
+ * patterns: only US-ASCII characters are folded.
+ */
+@Immutable
+final class LiteralIndex {
+
+    /**
+     * Open addressing hash table: case-folded match strings and their nodes. Empty slots are null.
+     */
+    @Nonnull
+    private final String[] keys;
+    @Nonnull
+    private final Node[] values;
+    private final int mask;
+
+    /**
+     * Create an index for a collection of nodes. If multiple nodes fold to the same key, the first
+     * one is kept. Nodes without a match string are skipped.
+     *
+     * @param nodes Nodes to index.
+     */
+    LiteralIndex(@Nonnull final Collection<Node> nodes) {
+        int capacity = 2;
+        while (capacity < (nodes.size() * 2)) {
+            capacity = capacity * 2;
+        }
+        this.keys = new String[capacity];
+        this.values = new Node[capacity];
+        this.mask = capacity - 1;
+        for (final Node node : nodes) {
+            final String match = node.getMatch();
+            if (match != null) {
+                final String key = Node.foldCase(match);
+                int i = hash(key) & mask;
+                while ((keys[i] != null) && !keys[i].equals(key)) {
+                    i = (i + 1) & mask;
+                }
+                if (keys[i] == null) {
+                    keys[i] = key;
+                    values[i] = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the node whose match string equals the search term, ignoring case.
+     *
+     * @param searchTerm Search term.
+     * @return Node, or null if not found.
+     */
+    @Nullable
+    Node get(@Nonnull final CharSequence searchTerm) {
+        return get(searchTerm, searchTerm.length());
+    }
+
+    /**
+     * Get the node whose match string equals the first characters of the search term, ignoring case.
+     *
+     * @param searchTerm Search term.
+     * @param length     Number of characters of the search term to use, at most its length.
+     * @return Node, or null if not found.
+     */
+    @Nullable
+    Node get(@Nonnull final CharSequence searchTerm, final int length) {
+        assert length <= searchTerm.length();
+        int i = hash(searchTerm, length) & mask;
+        while (keys[i] != null) {
+            if (equalsFolded(keys[i], searchTerm, length)) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Fold the case of a single character (US-ASCII only).
+     *
+     * @param ch Character.
+     * @return Case-folded character.
+     */
+    static char fold(final char ch) {
+        return ((ch >= 'A') && (ch <= 'Z')) ? (char) (ch + ('a' - 'A')) : ch;
+    }
+
+    /**
+     * Return the hash code of the case-folded value.
+     *
+     * @param value Value, does not need to be case-folded.
+     * @return Hash code.
+     */
+    static int hash(@Nonnull final CharSequence value) {
+        return hash(value, value.length());
+    }
+
+    private static int hash(@Nonnull final CharSequence value, final int length) {
+        int h = 0;
+        for (int i = 0; i < length; ++i) {
+            h = (31 * h) + fold(value.charAt(i));
+        }
+
+        // Spread the bits, as the table size is a power of 2.
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Return whether the first characters of a value equal a case-folded key, ignoring case.
+     *
+     * @param key    Case-folded key.
+     * @param value  Value, does not need to be case-folded.
+     * @param length Number of characters of the value to compare.
+     * @return True if equal.
+     */
+    static boolean equalsFolded(@Nonnull final String key, @Nonnull final CharSequence value, final int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (key.charAt(i) != fold(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class generates a Java class which finds the literal children of the nodes of a
+ * {@link CompiledTree}, with the match strings compiled into the code: a switch on the node id,
+ * followed by a switch on the hash code of the search term and comparisons with string constants.
+ * This lets the JIT compiler inline and specialize the lookup for the actual configuration, rather
+ * than walking generic hash tables.
+ * <p>
+ * The class is compiled in memory with the system Java compiler and loaded by its own class loader,
+ * so it is garbage collected together with the tree it was generated for. Generation is best effort:
+ * if no compiler is available (a JRE instead of a JDK), the tree has too many nodes or literals, or
+ * compilation fails, no class is generated and the tree uses its interpreted tables.
+ */
+final class LookupGenerator {
+    private static final Logger LOG = LoggerFactory.getLogger(LookupGenerator.class);
+
+    /**
+     * Maximum number of nodes (with literal children) for which a class is generated. Larger trees
+     * would produce classes which exceed the limits of the class file format or take too long to compile.
+     */
+    static final int MAX_NODES = 4096;
+
+    /**
+     * Maximum number of literal children of a node which is included in the generated class. Nodes with
+     * more children are left to the interpreted tables. Every literal takes about 25 bytes of bytecode, so
+     * the method of a node stays below 8000 bytes, the size above which the JIT compiler does not compile
+     * a method at all (HotSpot's HugeMethodLimit) and it would run interpreted.
+     */
+    static final int MAX_LITERALS_PER_NODE = 300;
+
+    /**
+     * Maximum total number of literals in the generated class. Every string constant takes two entries of
+     * the constant pool, which holds at most 65535 entries, and compilation time grows with the number
+     * of literals, so larger trees use the interpreted tables.
+     */
+    static final int MAX_LITERALS = 16384;
+
+    private static final String PACKAGE_NAME = "com.tomtom.services.configuration.domain.generated";
+    private static final String CLASS_NAME_PREFIX = "Lookup";
+
+    // Used to give every generated class a unique name.
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    private LookupGenerator() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Generate a lookup class for the literal children of a tree.
+     *
+     * @param literals Per node id, the case-folded match strings of its literal children and their ids,
+     *                 in declaration order (without duplicate keys).
+     * @return Lookup, or null if no class could be generated.
+     */
+    @Nullable
+    static GeneratedLookup generate(@Nonnull final Map<Integer, Map<String, Integer>> literals) {
+        if (literals.size() > MAX_NODES) {
+            LOG.info("generate: tree has {} nodes with literal children, more than {}, using interpreted lookup",
+                    literals.size(), MAX_NODES);
+            return null;
+        }
+        final int nrOfLiterals = countLiterals(literals);
+        if (nrOfLiterals > MAX_LITERALS) {
+            LOG.info("generate: tree has {} literals to generate, more than {}, using interpreted lookup",
+                    nrOfLiterals, MAX_LITERALS);
+            return null;
+        }
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            LOG.info("generate: no Java compiler available, using interpreted lookup");
+            return null;
+        }
+        final String classPath = getClassPath();
+        if (classPath == null) {
+            LOG.info("generate: cannot determine class path, using interpreted lookup");
+            return null;
+        }
+        final String className = CLASS_NAME_PREFIX + classCounter.incrementAndGet();
+        final String source = createSource(className, literals);
+        try {
+            final long start = System.nanoTime();
+            final Map<String, byte[]> classes = compile(compiler, className, source, classPath);
+            if (classes == null) {
+                return null;
+            }
+            final GeneratedClassLoader classLoader = new GeneratedClassLoader(classes);
+            final GeneratedLookup lookup = classLoader.loadClass(PACKAGE_NAME + '.' + className).
+                    asSubclass(GeneratedLookup.class).getDeclaredConstructor().newInstance();
+            LOG.info("generate: generated lookup class {} for {} nodes, in {} ms",
+                    className, literals.size(), (System.nanoTime() - start) / 1000000);
+            return lookup;
+        } catch (final ReflectiveOperationException | LinkageError | RuntimeException e) {
+            LOG.warn("generate: cannot generate lookup class, using interpreted lookup", e);
+            return null;
+        }
+    }
+
+    /**
+     * Return the number of literals which would be included in the generated class: those of the nodes
+     * with at most {@link #MAX_LITERALS_PER_NODE} literal children.
+     */
+    static int countLiterals(@Nonnull final Map<Integer, Map<String, Integer>> literals) {
+        int count = 0;
+        for (final Map<String, Integer> children : literals.values()) {
+            if (children.size() <= MAX_LITERALS_PER_NODE) {
+                count += children.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Create the source code of the lookup class. The hash function and case folding must be the same
+     * as those of {@link LiteralIndex}.
+     */
+    @Nonnull
+    static String createSource(
+            @Nonnull final String className,
+            @Nonnull final Map<Integer, Map<String, Integer>> literals) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE_NAME).append(";\n\n");
+        sb.append("public final class ").append(className).
+                append(" implements ").append(GeneratedLookup.class.getName()).append(" {\n\n");
+
+        // Dispatch on the node id.
+        sb.append("    @Override\n");
+        sb.append("    public int findLiteralChild(final int id, final CharSequence t) {\n");
+        sb.append("        switch (id) {\n");
+        final List<Integer> ids = new ArrayList<>();
+        for (final Map.Entry<Integer, Map<String, Integer>> entry : literals.entrySet()) {
+            if (entry.getValue().size() <= MAX_LITERALS_PER_NODE) {
+                ids.add(entry.getKey());
+                sb.append("            case ").append(entry.getKey()).
+                        append(": return n").append(entry.getKey()).append("(t);\n");
+            }
+        }
+        sb.append("            default: return ").append(GeneratedLookup.FALLBACK).append(";\n");
+        sb.append("        }\n");
+        sb.append("    }\n");
+
+        // Per node, dispatch on the hash code of the search term. Keys with the same hash code are
+        // compared in declaration order.
+        for (final Integer id : ids) {
+            final Map<Integer, List<String>> keysByHash = new LinkedHashMap<>();
+            final Map<String, Integer> children = literals.get(id);
+            for (final String key : children.keySet()) {
+                keysByHash.computeIfAbsent(LiteralIndex.hash(key), hash -> new ArrayList<>()).add(key);
+            }
+            sb.append("\n    private static int n").append(id).append("(final CharSequence t) {\n");
+            sb.append("        switch (hash(t)) {\n");
+            for (final Map.Entry<Integer, List<String>> entry : keysByHash.entrySet()) {
+                sb.append("            case ").append(entry.getKey()).append(":\n");
+                for (final String key : entry.getValue()) {
+                    sb.append("                if (eq(");
+                    appendStringLiteral(sb, key);
+                    sb.append(", t)) {\n");
+                    sb.append("                    return ").append(children.get(key)).append(";\n");
+                    sb.append("                }\n");
+                }
+                sb.append("                return ").append(CompiledTree.NOT_FOUND).append(";\n");
+            }
+            sb.append("            default: return ").append(CompiledTree.NOT_FOUND).append(";\n");
+            sb.append("        }\n");
+            sb.append("    }\n");
+        }
+
+        // Helpers, equivalent to LiteralIndex.hash and LiteralIndex.equalsFolded.
+        sb.append("\n    private static char fold(final char ch) {\n");
+        sb.append("        return ((ch >= 'A') && (ch <= 'Z')) ? (char) (ch + ('a' - 'A')) : ch;\n");
+        sb.append("    }\n");
+        sb.append("\n    private static int hash(final CharSequence t) {\n");
+        sb.append("        int h = 0;\n");
+        sb.append("        final int length = t.length();\n");
+        sb.append("        for (int i = 0; i < length; ++i) {\n");
+        sb.append("            h = (31 * h) + fold(t.charAt(i));\n");
+        sb.append("        }\n");
+        sb.append("        return h ^ (h >>> 16);\n");
+        sb.append("    }\n");
+        sb.append("\n    private static boolean eq(final String key, final CharSequence t) {\n");
+        sb.append("        final int length = key.length();\n");
+        sb.append("        if (t.length() != length) {\n");
+        sb.append("            return false;\n");
+        sb.append("        }\n");
+        sb.append("        for (int i = 0; i < length; ++i) {\n");
+        sb.append("            if (key.charAt(i) != fold(t.charAt(i))) {\n");
+        sb.append("                return false;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("        return true;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Append a Java string literal. Only printable US-ASCII characters are copied; all other characters
+     * are escaped, so the source does not depend on the encoding and match strings cannot end the literal
+     * (note that the compiler translates unicode escapes before parsing, so quotes and backslashes must
+     * not be written as unicode escapes).
+     */
+    static void appendStringLiteral(@Nonnull final StringBuilder sb, @Nonnull final String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char ch = value.charAt(i);
+            if ((ch == '"') || (ch == '\\')) {
+                sb.append('\\').append(ch);
+            } else if ((ch >= ' ') && (ch < 0x7F)) {
+                sb.append(ch);
+            } else if (ch < ' ') {
+                sb.append('\\').append(String.format("%03o", (int) ch));
+            } else {
+                sb.append(String.format("\\u%04x", (int) ch));
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Compile the source code in memory.
+     *
+     * @return Class files by class name, or null if compilation failed.
+     */
+    @Nullable
+    private static Map<String, byte[]> compile(
+            @Nonnull final JavaCompiler compiler,
+            @Nonnull final String className,
+            @Nonnull final String source,
+            @Nonnull final String classPath) {
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final Map<String, ByteArrayOutputStream> outputs = new HashMap<>();
+        final StandardJavaFileManager standardFileManager =
+                compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        final ForwardingJavaFileManager<StandardJavaFileManager> fileManager =
+                new ForwardingJavaFileManager<StandardJavaFileManager>(standardFileManager) {
+                    @Override
+                    public JavaFileObject getJavaFileForOutput(
+                            final Location location,
+                            final String name,
+                            final JavaFileObject.Kind kind,
+                            final FileObject sibling) {
+                        return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') +
+                                kind.extension), kind) {
+                            @Override
+                            public OutputStream openOutputStream() {
+                                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                                outputs.put(name, output);
+                                return output;
+                            }
+                        };
+                    }
+                };
+        final JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("mem:///" +
+                PACKAGE_NAME.replace('.', '/') + '/' + className + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        final List<String> options = Arrays.asList("-classpath", classPath, "-proc:none", "-g:none", "-nowarn");
+        final boolean ok;
+        try {
+            ok = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    Collections.singletonList(sourceFile)).call();
+        } finally {
+            try {
+                fileManager.close();
+            } catch (final IOException ignored) {
+                // Nothing to do: the file manager only held in-memory files.
+            }
+        }
+        if (!ok) {
+            LOG.warn("compile: cannot compile lookup class, using interpreted lookup, diagnostics={}",
+                    diagnostics.getDiagnostics());
+            return null;
+        }
+        final Map<String, byte[]> classes = new HashMap<>();
+        for (final Map.Entry<String, ByteArrayOutputStream> entry : outputs.entrySet()) {
+            classes.put(entry.getKey(), entry.getValue().toByteArray());
+        }
+        return classes;
+    }
+
+    /**
+     * Return the class path which contains {@link GeneratedLookup}, for the compiler.
+     */
+    @Nullable
+    private static String getClassPath() {
+        try {
+            final CodeSource codeSource = GeneratedLookup.class.getProtectionDomain().getCodeSource();
+            if ((codeSource == null) || (codeSource.getLocation() == null)) {
+                return null;
+            }
+            final File location = new File(codeSource.getLocation().toURI());
+            return location.exists() ? location.getPath() : null;
+        } catch (final Exception ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Class loader for the generated classes. Every generated class gets its own class loader, so it can be
+     * unloaded when its tree is no longer used.
+     */
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        @Nonnull
+        private final Map<String, byte[]> classes;
+
+        GeneratedClassLoader(@Nonnull final Map<String, byte[]> classes) {
+            super(GeneratedLookup.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException {
+            final byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
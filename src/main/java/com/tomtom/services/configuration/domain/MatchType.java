@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * This enum defines the typed match strings a node can have, instead of a literal or a regular
+ * expression. Typed match strings are matched with sorted indexes, without evaluating a regular
+ * expression. A search term which cannot be parsed as the type (for example, "abc" for a numeric
+ * range) never matches a typed match string.
+ */
+public enum MatchType {
+
+    /**
+     * Inclusive range of (long) integers, formatted as "from..to", such as "100..199". Either bound
+     * may be omitted, such as "100.." or "..199".
+     */
+    RANGE("range"),
+
+    /**
+     * Inclusive range of versions, formatted as "from..to", such as "1.2..1.9". Versions have 1 to 4
+     * numeric components, from 0 to {@link TypedMatcher#MAX_VERSION_COMPONENT}. A bound only
+     * compares the components it specifies, so "1.2..1.9" matches "1.2", "1.5.3" and "1.9.10", but
+     * not "1.10". Either bound may be omitted.
+     */
+    VERSION("version"),
+
+    /**
+     * Prefix of the search term, ignoring case, such as "dev-".
+     */
+    PREFIX("prefix"),
+
+    /**
+     * IPv4 or IPv6 address block in CIDR notation, with a '-' instead of a '/' (which separates
+     * nodes in paths), such as "10.0.0.0-8" or "2001:db8::-32".
+     */
+    CIDR("cidr");
+
+    @Nonnull
+    private final String name;
+
+    MatchType(@Nonnull final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Return the name of the type, as used in configurations.
+     *
+     * @return Name of the type.
+     */
+    @JsonValue
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Check if a match string is valid for this type.
+     *
+     * @param match Match string.
+     * @return Null if the match string is valid, or the reason why it is not.
+     */
+    @Nullable
+    public String checkMatch(@Nonnull final String match) {
+        return TypedMatcher.checkMatch(this, match);
+    }
+
+    /**
+     * Return the type with a given name.
+     *
+     * @param name Name of the type, may be null.
+     * @return Type, or null if the name is null or not a type name.
+     */
+    @Nullable
+    public static MatchType fromName(@Nullable final String name) {
+        for (final MatchType type : values()) {
+            if (type.name.equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the names of all types.
+     *
+     * @return Names of the types.
+     */
+    @Nonnull
+    public static String[] getNames() {
+        final MatchType[] types = values();
+        final String[] names = new String[types.length];
+        for (int i = 0; i < types.length; ++i) {
+            names[i] = types[i].name;
+        }
+        return names;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class is a small, bounded cache of search terms which are known not to match, such as the
+ * search terms which match none of the regular expression children of a node.
+ * <p>
+ * The cache is direct-mapped: every search term has a single slot, determined by its hash code, and
+ * a new term simply replaces the term in its slot. This keeps the cache lock-free and its size fixed.
+ * Search terms are compared case-sensitively, as the case sensitivity of regular expressions differs
+ * per expression. Long search terms are not cached.
+ */
+@ThreadSafe
+final class NegativeMatchCache {
+
+    /**
+     * Number of slots of a cache. Must be a power of 2.
+     */
+    static final int NR_OF_SLOTS = 64;
+
+    /**
+     * Maximum length of a search term which is cached.
+     */
+    static final int MAX_TERM_LENGTH = 256;
+
+    @Nonnull
+    private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(NR_OF_SLOTS);
+
+    /**
+     * Return whether a search term is known not to match.
+     *
+     * @param searchTerm Search term.
+     * @return True if the search term was added to the cache (and not replaced since).
+     */
+    boolean contains(@Nonnull final CharSequence searchTerm) {
+        final String term = slots.get(slot(searchTerm));
+        return (term != null) && term.contentEquals(searchTerm);
+    }
+
+    /**
+     * Add a search term which does not match.
+     *
+     * @param searchTerm Search term.
+     */
+    void add(@Nonnull final CharSequence searchTerm) {
+        if (searchTerm.length() <= MAX_TERM_LENGTH) {
+            slots.set(slot(searchTerm), searchTerm.toString());
+        }
+    }
+
+    private static int slot(@Nonnull final CharSequence searchTerm) {
+        int h = 0;
+        for (int i = 0; i < searchTerm.length(); ++i) {
+            h = (31 * h) + searchTerm.charAt(i);
+        }
+        return (h ^ (h >>> 16)) & (NR_OF_SLOTS - 1);
+    }
+}
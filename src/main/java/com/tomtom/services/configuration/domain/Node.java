@@ -18,10 +18,14 @@ package com.tomtom.services.configuration.domain;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
 import com.tomtom.speedtools.json.Json;
 import com.tomtom.speedtools.objects.Immutables;
 import com.tomtom.speedtools.time.UTCTime;
@@ -37,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * This class represents nodes in the search tree. A node has a name, a list of children nodes
@@ -44,9 +49,21 @@ import java.util.Set;
  */
 @Immutable
 @JsonInclude(Include.NON_EMPTY)
+@JsonPropertyOrder({"match", "match_type", "nodes", "parameters", "modified", "levels"})
 @SuppressWarnings("squid:S2065")
 public final class Node {
 
+    /**
+     * Characters which have a special meaning in regular expressions.
+     */
+    static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    /**
+     * Maximum number of steps (characters read) for matching a search term against a regular
+     * expression which is not matched in linear time, see {@link #checkLinearTime(String)}.
+     */
+    public static final int REGEX_STEP_BUDGET = 1000000;
+
     /**
      * Node match string. The match is null for the root node and non-null,
      * non-empty for other nodes.
@@ -54,8 +71,17 @@ public final class Node {
     @Nullable
     private final String match;
 
+    /**
+     * Type of the match string, see {@link MatchType}. Null if the match string is a literal or a
+     * regular expression.
+     */
+    @JsonProperty("match_type")
+    @Nullable
+    private final MatchType matchType;
+
     /**
      * Children nodes (optional), null if none. The collection cannot be empty (only null).
+     * Also null if the children are stored compactly, see {@link #compactChildren}.
      */
     @Nullable
     private final Set<Node> nodes;
@@ -91,6 +117,77 @@ public final class Node {
     @Nullable
     private final transient Node parentNode;
 
+    /**
+     * The index of the level this node is at, in the level names of the root node. This is -1 for
+     * the root node and for nodes created without a parent node.
+     */
+    @JsonIgnore
+    private final transient int levelIndex;
+
+    /**
+     * The matched search terms which lead to this node, formatted as "level=match&level=match...".
+     * This is the empty string for the root node. It is computed once, when the node is created.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final transient String matched;
+
+    /**
+     * The applicable 'modified' time of this node: its own, or the one of the closest ancestor which
+     * has one. It is computed once, when the node is created.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient DateTime modifiedUpToRoot;
+
+    /**
+     * The hash of the content of this node, including its children, see {@link #getETag()}.
+     */
+    @JsonIgnore
+    private final transient long contentHash;
+
+    /**
+     * The hash of the parameters and matched search terms of this node, see {@link #getResultHash()}.
+     */
+    @JsonIgnore
+    private final transient long resultHash;
+
+    /**
+     * Pre-compiled, case-insensitive pattern for the match string. This is compiled once, when
+     * the node is created, so matching search terms never needs to compile a pattern.
+     * Null for the root node, for nodes with a match type and for nodes created from compactly
+     * stored children, which only match literally.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient Pattern regexPattern;
+
+    /**
+     * The parameters as a validated DTO list, created once, so search results can share it rather than
+     * copying the parameters for every search. Null if there are no parameters.
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient ParameterListDTO parameterList;
+
+    /**
+     * Indexes of the children nodes, for the find methods of this class. They are created on first use:
+     * searches use a {@link CompiledTree}, which has its own tables and matchers, so they are normally
+     * never created. Null until first use, or if there are no (regular) children.
+     */
+    @JsonIgnore
+    @Nullable
+    private transient volatile ChildIndexes childIndexes;
+
+    /**
+     * Compactly stored children nodes, for nodes with a large number of literal leaf children.
+     * The children are searched with a binary search rather than indexes and their nodes are only
+     * created when they are asked for. Null if the children are stored as regular nodes (or there are none).
+     */
+    @JsonIgnore
+    @Nullable
+    private final transient CompactLiteralChildren compactChildren;
+
     public Node(
             @Nullable final String match,
             @Nullable final Collection<Node> nodes,
@@ -99,11 +196,53 @@ public final class Node {
             @Nullable final List<String> levels,
             @Nullable final Node parentNode) {
         this.match = match;
+        this.matchType = null;
         this.nodes = ((nodes == null) || nodes.isEmpty()) ? null : Immutables.setOf(nodes);
         this.parameters = ((parameters == null) || parameters.isEmpty()) ? null : Immutables.setOf(parameters);
         this.modified = modified;
         this.levels = ((levels == null) || levels.isEmpty()) ? null : Immutables.listOf(levels);
         this.parentNode = parentNode;
+        this.levelIndex = (parentNode == null) ? -1 : (parentNode.levelIndex + 1);
+        this.matched = createMatched(match, levelIndex, parentNode);
+        this.regexPattern = (match == null) ? null : createRegexPattern(match);
+        this.parameterList = createParameterList(this.parameters);
+        this.compactChildren = null;
+        this.modifiedUpToRoot = createModifiedUpToRoot(modified, parentNode);
+        final long parametersHash = hashParameters(this.parameters);
+        this.contentHash = hashContent(match, null, modified, this.levels, parametersHash, hashChildren(this.nodes));
+        this.resultHash = hashResult(matched, parametersHash);
+    }
+
+    /**
+     * Package private. Create a leaf node from compactly stored children, see {@link CompactLiteralChildren}.
+     *
+     * @param match          Match string, without regular expression metacharacters.
+     * @param parameters     Parameters, null if none.
+     * @param parameterList  Validated parameter list, shared by all nodes with these parameters. Null if none.
+     * @param parametersHash Hash of the parameters, see {@link #hashParameters(Collection)}.
+     * @param parentNode     Parent node.
+     */
+    Node(
+            @Nonnull final String match,
+            @Nullable final Set<Parameter> parameters,
+            @Nullable final ParameterListDTO parameterList,
+            final long parametersHash,
+            @Nonnull final Node parentNode) {
+        this.match = match;
+        this.matchType = null;
+        this.nodes = null;
+        this.parameters = parameters;
+        this.modified = null;
+        this.levels = null;
+        this.parentNode = parentNode;
+        this.levelIndex = parentNode.levelIndex + 1;
+        this.matched = createMatched(match, levelIndex, parentNode);
+        this.regexPattern = null;
+        this.parameterList = parameterList;
+        this.compactChildren = null;
+        this.modifiedUpToRoot = parentNode.modifiedUpToRoot;
+        this.contentHash = hashContent(match, null, null, null, parametersHash, hashChildren(null));
+        this.resultHash = hashResult(matched, parametersHash);
     }
 
     public Node(@Nonnull final String match) {
@@ -120,6 +259,10 @@ public final class Node {
 
         // Set name. Replace null-name (always root) with root name.
         this.match = nodeDTO.getMatch();
+        this.matchType = MatchType.fromName(nodeDTO.getMatchType());
+
+        // Compile the match pattern once. The match strings have been checked during load.
+        this.regexPattern = ((match == null) || (matchType != null)) ? null : createRegexPattern(match);
 
         // Set parameters, create an immutable list.
         final Collection<Parameter> parametersOfNode = new ArrayList<>();
@@ -127,6 +270,7 @@ public final class Node {
             nodeDTO.getParameters().stream().forEach(parameterDTO -> parametersOfNode.add(new Parameter(parameterDTO)));
         }
         this.parameters = parametersOfNode.isEmpty() ? null : Immutables.setOf(parametersOfNode);
+        this.parameterList = createParameterList(this.parameters);
 
         // Set modified date/time, get latest modified from children as well.
         this.modified = (nodeDTO.getModified() == null) ? null : UTCTime.from(ISODateTimeFormat.dateTimeParser().parseDateTime(nodeDTO.getModified()));
@@ -134,18 +278,34 @@ public final class Node {
         // Set ordering of level names.
         this.levels = (nodeDTO.getLevels() == null) ? null : Immutables.listOf(nodeDTO.getLevels());
 
-        // Set the parent node.
+        // Set the parent node and the applicable modified time, before the children are created.
         this.parentNode = parentNode;
+        this.modifiedUpToRoot = createModifiedUpToRoot(modified, parentNode);
+
+        // Set the level and the matched search terms. The parent node has already set these.
+        this.levelIndex = (parentNode == null) ? -1 : (parentNode.levelIndex + 1);
+        this.matched = createMatched(match, levelIndex, parentNode);
 
-        // Set nodes, create an immutable list.
+        // Set nodes, create an immutable list. Store large numbers of literal leaf nodes compactly.
         final Collection<Node> childNodes = new ArrayList<>();
-        if (nodeDTO.getNodes() != null) {
-            for (final NodeDTO childNodeDTO : nodeDTO.getNodes()) {
-                final Node childNode = new Node(childNodeDTO, this);
-                childNodes.add(childNode);
+        if (CompactLiteralChildren.isCompactable(nodeDTO.getNodes())) {
+            this.compactChildren = new CompactLiteralChildren(nodeDTO.getNodes(), this);
+        } else {
+            this.compactChildren = null;
+            if (nodeDTO.getNodes() != null) {
+                for (final NodeDTO childNodeDTO : nodeDTO.getNodes()) {
+                    final Node childNode = new Node(childNodeDTO, this);
+                    childNodes.add(childNode);
+                }
             }
         }
         this.nodes = childNodes.isEmpty() ? null : Immutables.setOf(childNodes);
+
+        // Compute the hashes for ETags once, from the hashes of the children.
+        final long parametersHash = hashParameters(this.parameters);
+        this.contentHash = hashContent(match, matchType, modified, levels, parametersHash,
+                (compactChildren != null) ? compactChildren.getContentHash() : hashChildren(this.nodes));
+        this.resultHash = hashResult(matched, parametersHash);
     }
 
     @Nullable
@@ -153,8 +313,24 @@ public final class Node {
         return match;
     }
 
+    @Nullable
+    public MatchType getMatchType() {
+        return matchType;
+    }
+
+    /**
+     * Return the children nodes. Use {@link #findChild(String)} or {@link #findLiteralChild(CharSequence)}
+     * to find a single child. Compactly stored children are created while iterating over them, so their
+     * node objects are different every time.
+     *
+     * @return Children nodes, or null if none.
+     */
+    @JsonProperty("nodes")
     @Nullable
     public Set<Node> getNodes() {
+        if (compactChildren != null) {
+            return compactChildren.getChildren();
+        }
         return nodes;
     }
 
@@ -178,6 +354,132 @@ public final class Node {
         return parentNode;
     }
 
+    @JsonIgnore
+    @Nullable
+    public ParameterListDTO getParameterList() {
+        return parameterList;
+    }
+
+    @JsonIgnore
+    public int getLevelIndex() {
+        return levelIndex;
+    }
+
+    @JsonIgnore
+    @Nonnull
+    public String getMatched() {
+        return matched;
+    }
+
+    @JsonIgnore
+    @Nullable
+    public Pattern getRegexPattern() {
+        return regexPattern;
+    }
+
+    /**
+     * Find the child node whose match string equals the search term, ignoring case.
+     *
+     * @param searchTerm Search term.
+     * @return Child node, or null if no child matches the search term literally.
+     */
+    @Nullable
+    public Node findLiteralChild(@Nonnull final CharSequence searchTerm) {
+        if (compactChildren != null) {
+            return compactChildren.find(searchTerm);
+        }
+        final ChildIndexes indexes = getChildIndexes();
+        return ((indexes == null) || (indexes.literalChildren == null)) ? null : indexes.literalChildren.get(searchTerm);
+    }
+
+    /**
+     * Find the child node whose match string equals a match string exactly (case-sensitive).
+     *
+     * @param match Match string.
+     * @return Child node, or null if there is no child with this match string.
+     */
+    @Nullable
+    public Node findChild(@Nonnull final String match) {
+        if (compactChildren != null) {
+            return compactChildren.findExact(match);
+        }
+        if (nodes != null) {
+            for (final Node child : nodes) {
+                if (match.equals(child.match)) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the first child node, in declaration order, whose typed match string (see {@link MatchType})
+     * matches the search term.
+     *
+     * @param searchTerm Search term.
+     * @return Child node, or null if no child matches the search term with a typed match string.
+     */
+    @Nullable
+    public Node findTypedChild(@Nonnull final CharSequence searchTerm) {
+        final ChildIndexes indexes = getChildIndexes();
+        return ((indexes == null) || (indexes.typedChildren == null)) ? null : indexes.typedChildren.findFirstMatch(searchTerm);
+    }
+
+    /**
+     * Find the first child node, in declaration order, whose match string is a regular expression
+     * which matches the search term, ignoring case.
+     *
+     * @param searchTerm Search term.
+     * @return Child node, or null if no child matches the search term as a regular expression.
+     * @throws StepBudgetExceededException If a regular expression exceeded its step budget, see
+     *                                     {@link #REGEX_STEP_BUDGET}, so the matching child is unknown.
+     */
+    @Nullable
+    public Node findRegexChild(@Nonnull final CharSequence searchTerm) {
+        final ChildIndexes indexes = getChildIndexes();
+        return ((indexes == null) || (indexes.regexChildren == null)) ? null : indexes.regexChildren.findFirstMatch(searchTerm);
+    }
+
+    /**
+     * Return the indexes of the children nodes, created on first use.
+     *
+     * @return Indexes, or null if there are no (regular) children.
+     */
+    @Nullable
+    private ChildIndexes getChildIndexes() {
+        if (nodes == null) {
+            return null;
+        }
+        ChildIndexes indexes = childIndexes;
+        if (indexes == null) {
+
+            // Benign race: indexes created concurrently are equivalent, so one of them may be replaced.
+            indexes = new ChildIndexes(nodes);
+            childIndexes = indexes;
+        }
+        return indexes;
+    }
+
+    /**
+     * Package private. Return the compactly stored children, or null if the children are regular nodes.
+     *
+     * @return Compactly stored children.
+     */
+    @Nullable
+    CompactLiteralChildren getCompactChildren() {
+        return compactChildren;
+    }
+
+    /**
+     * Return whether the children of this node are stored compactly, see {@link CompactLiteralChildren}.
+     *
+     * @return True if the children are stored compactly.
+     */
+    public boolean hasCompactChildren() {
+        return compactChildren != null;
+    }
+
     @Override
     @Nonnull
     public String toString() {
@@ -192,15 +494,330 @@ public final class Node {
      */
     @Nullable
     public DateTime searchModifiedUpToRoot() {
-        Node other = this;
-        while (true) {
-            if (other.modified != null) {
-                return other.modified;
-            } else if (other.parentNode != null) {
-                other = other.parentNode;
-            } else {
-                return null;
+        return modifiedUpToRoot;
+    }
+
+    /**
+     * Return the ETag of this node, for retrieving the node (and its children). The ETag is based on
+     * the hash of the content of the node, which is computed when the node is created. Not quoted.
+     *
+     * @return ETag value.
+     */
+    @JsonIgnore
+    @Nonnull
+    public String getETag() {
+        return ContentHash.toETag(contentHash);
+    }
+
+    /**
+     * Return the hash of the search result for this node: its parameters and matched search terms.
+     * The hash of a search result (which also includes the searched terms) is derived from this hash,
+     * see {@link ContentHash}.
+     *
+     * @return Hash of the search result.
+     */
+    @JsonIgnore
+    public long getResultHash() {
+        return resultHash;
+    }
+
+    /**
+     * Return the hash of a list of parameters, in order.
+     *
+     * @param parameters Parameters, null if none.
+     * @return Hash of the parameters.
+     */
+    static long hashParameters(@Nullable final Collection<Parameter> parameters) {
+        long hash = ContentHash.SEED;
+        int nrOfParameters = 0;
+        if (parameters != null) {
+            for (final Parameter parameter : parameters) {
+                hash = ContentHash.add(ContentHash.add(hash, parameter.getKey()), parameter.getValue());
+                ++nrOfParameters;
+            }
+        }
+        return ContentHash.add(hash, nrOfParameters);
+    }
+
+    /**
+     * Return the hash of the content of a node.
+     *
+     * @param match          Match string.
+     * @param matchType      Match type.
+     * @param modified       Modified time of the node itself.
+     * @param levels         Level names.
+     * @param parametersHash Hash of the parameters, see {@link #hashParameters(Collection)}.
+     * @param childrenHash   Hash of the children, see {@link #hashChildren(Collection)}.
+     * @return Hash of the node.
+     */
+    static long hashContent(
+            @Nullable final String match,
+            @Nullable final MatchType matchType,
+            @Nullable final DateTime modified,
+            @Nullable final List<String> levels,
+            final long parametersHash,
+            final long childrenHash) {
+        long hash = ContentHash.add(ContentHash.SEED, match);
+        hash = ContentHash.add(hash, (matchType == null) ? null : matchType.getName());
+        hash = ContentHash.add(hash, (modified == null) ? Long.MIN_VALUE : modified.getMillis());
+        if (levels != null) {
+            for (final String level : levels) {
+                hash = ContentHash.add(hash, level);
             }
         }
+        hash = ContentHash.add(hash, (levels == null) ? 0 : levels.size());
+        return ContentHash.add(ContentHash.add(hash, parametersHash), childrenHash);
+    }
+
+    /**
+     * Return the combined hash of children nodes, in order.
+     *
+     * @param children Children nodes, null if none.
+     * @return Hash of the children.
+     */
+    static long hashChildren(@Nullable final Collection<Node> children) {
+        long hash = ContentHash.SEED;
+        int nrOfChildren = 0;
+        if (children != null) {
+            for (final Node child : children) {
+                hash = ContentHash.add(hash, child.contentHash);
+                ++nrOfChildren;
+            }
+        }
+        return ContentHash.add(hash, nrOfChildren);
+    }
+
+    private static long hashResult(@Nonnull final String matched, final long parametersHash) {
+        return ContentHash.add(ContentHash.add(ContentHash.SEED, matched), parametersHash);
+    }
+
+    @Nullable
+    private static DateTime createModifiedUpToRoot(@Nullable final DateTime modified, @Nullable final Node parentNode) {
+        if (modified != null) {
+            return modified;
+        }
+        return (parentNode == null) ? null : parentNode.modifiedUpToRoot;
+    }
+
+    /**
+     * Create a case-insensitive pattern which matches a match string as a regular expression.
+     * The case-insensitive flag is only used if the match string can match letters in a case-sensitive
+     * way: without letters, escapes and character classes, a pattern matches upper and lower case
+     * letters alike, so plain (faster) matching gives the same results.
+     *
+     * @param match Match string.
+     * @return Case-insensitive regular expression pattern.
+     * @throws java.util.regex.PatternSyntaxException If the match string is not a valid regular expression.
+     */
+    @Nonnull
+    public static Pattern createRegexPattern(@Nonnull final String match) {
+        return Pattern.compile(match, isCaseSensitive(match) ? Pattern.CASE_INSENSITIVE : 0);
+    }
+
+    /**
+     * Fold the case of a string, the same way case-insensitive patterns do: only US-ASCII
+     * characters are folded, other characters are left as-is.
+     *
+     * @param value String to fold.
+     * @return Case-folded string.
+     */
+    @Nonnull
+    public static String foldCase(@Nonnull final String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; ++i) {
+            if (LiteralIndex.fold(value.charAt(i)) != value.charAt(i)) {
+                final char[] folded = value.toCharArray();
+                for (int j = i; j < length; ++j) {
+                    folded[j] = LiteralIndex.fold(folded[j]);
+                }
+                return new String(folded);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Check whether a match string is matched in linear time. Regular expressions outside the subset
+     * supported by the linear-time engine (such as back-references or look-around) are matched by a
+     * backtracking matcher with a step budget instead.
+     *
+     * @param match Match string, which must be a valid regular expression.
+     * @return Null if the match string is matched in linear time, or the reason why it is not.
+     */
+    @Nullable
+    public static String checkLinearTime(@Nonnull final String match) {
+        return isRegex(match) ? LinearRegex.checkSupported(match) : null;
+    }
+
+    /**
+     * Return whether a match string contains regular expression metacharacters. If it doesn't,
+     * it can only match a search term literally.
+     *
+     * @param match Match string.
+     * @return True if the match string contains metacharacters.
+     */
+    public static boolean isRegex(@Nonnull final String match) {
+        for (int i = 0; i < match.length(); ++i) {
+            if (REGEX_METACHARACTERS.indexOf(match.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return whether a regular expression may match letters differently with and without the
+     * case-insensitive flag: if it contains letters, escapes (such as "\0101") or character
+     * classes (such as "[0-_]", which contains upper case letters only).
+     */
+    private static boolean isCaseSensitive(@Nonnull final String match) {
+        for (int i = 0; i < match.length(); ++i) {
+            final char ch = match.charAt(i);
+            if (((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z')) || (ch == '\\') || (ch == '[')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create the matched search terms for a node: the matched search terms of its parent, followed by
+     * the level name and match string of the node itself.
+     *
+     * @param match      Match string of the node.
+     * @param levelIndex Level index of the node.
+     * @param parentNode Parent of the node.
+     * @return Matched search terms, formatted as "level=match&level=match...".
+     */
+    @Nonnull
+    private static String createMatched(
+            @Nullable final String match,
+            final int levelIndex,
+            @Nullable final Node parentNode) {
+        if ((parentNode == null) || (match == null)) {
+            return "";
+        }
+
+        // Find the level names at the root.
+        Node root = parentNode;
+        while (root.parentNode != null) {
+            root = root.parentNode;
+        }
+        final List<String> levelNames = root.levels;
+        if ((levelNames == null) || (levelIndex >= levelNames.size())) {
+            return parentNode.matched;
+        }
+        return parentNode.matched + (parentNode.matched.isEmpty() ? "" : "&") + levelNames.get(levelIndex) + '=' + match;
+    }
+
+    @Nullable
+    private static LiteralIndex createLiteralChildren(@Nullable final Collection<Node> children) {
+        if (children == null) {
+            return null;
+        }
+        final List<Node> literalChildren = new ArrayList<>();
+        for (final Node child : children) {
+            if (child.matchType == null) {
+                literalChildren.add(child);
+            }
+        }
+        return literalChildren.isEmpty() ? null : new LiteralIndex(literalChildren);
+    }
+
+    /**
+     * Create a validated DTO list for parameters. The DTOs are validated here, once. They are not created
+     * as immutable DTOs, so their getters never validate lazily and they can safely be shared between
+     * search results on different threads.
+     *
+     * @param parameters Parameters, may be null.
+     * @return Validated parameter list, or null if there are no parameters.
+     */
+    @Nullable
+    static ParameterListDTO createParameterList(@Nullable final Collection<Parameter> parameters) {
+        if (parameters == null) {
+            return null;
+        }
+        final List<ParameterDTO> parameterDTOs = new ArrayList<>();
+        for (final Parameter parameter : parameters) {
+            parameterDTOs.add(new ParameterDTO(parameter));
+        }
+        final ParameterListDTO parameterList = new ParameterListDTO(parameterDTOs);
+        parameterList.validate();
+        return parameterList;
+    }
+
+    /**
+     * Package private. Create the matcher for the children with a regular expression, in declaration order.
+     * Children without metacharacters can only match literally, so they never need to be checked as a
+     * regular expression.
+     *
+     * @param children Children, may be null.
+     * @return Matcher, or null if there are no such children.
+     */
+    @Nullable
+    static SiblingPatternMatcher createRegexChildren(@Nullable final Collection<Node> children) {
+        if (children == null) {
+            return null;
+        }
+        final List<Node> regexChildren = new ArrayList<>();
+        for (final Node child : children) {
+            if ((child.match != null) && (child.matchType == null) && isRegex(child.match)) {
+                regexChildren.add(child);
+            }
+        }
+        return regexChildren.isEmpty() ? null : new SiblingPatternMatcher(Immutables.listOf(regexChildren));
+    }
+
+    /**
+     * Package private. Create the matcher for the children with a typed match string, see {@link MatchType}.
+     *
+     * @param children Children, may be null.
+     * @return Matcher, or null if there are no such children.
+     */
+    @Nullable
+    static TypedMatcher createTypedChildren(@Nullable final Collection<Node> children) {
+        if (children == null) {
+            return null;
+        }
+        final List<Node> typedChildren = new ArrayList<>();
+        for (final Node child : children) {
+            if ((child.match != null) && (child.matchType != null)) {
+                typedChildren.add(child);
+            }
+        }
+        return typedChildren.isEmpty() ? null : new TypedMatcher(typedChildren);
+    }
+
+    /**
+     * The indexes of the children of a node, see {@link #getChildIndexes()}.
+     */
+    private static final class ChildIndexes {
+
+        /**
+         * Index of the children nodes, keyed by their case-folded match string. This index is used
+         * to find a child which matches a search term literally, with a single hash lookup. If
+         * multiple children fold to the same key, the first one (in declaration order) is kept.
+         * Null if there are none.
+         */
+        @Nullable
+        private final LiteralIndex literalChildren;
+
+        /**
+         * Matcher for the children nodes which have a regular expression. Null if there are none.
+         */
+        @Nullable
+        private final SiblingPatternMatcher regexChildren;
+
+        /**
+         * Matcher for the children nodes which have a typed match string. Null if there are none.
+         */
+        @Nullable
+        private final TypedMatcher typedChildren;
+
+        ChildIndexes(@Nonnull final Collection<Node> children) {
+            this.literalChildren = createLiteralChildren(children);
+            this.regexChildren = createRegexChildren(children);
+            this.typedChildren = createTypedChildren(children);
+        }
     }
 }
@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class matches a search term against the regular expressions of a list of sibling nodes
+ * and returns the first sibling, in declaration order, which matches.
+ * <p>
+ * The regular expressions are classified once, see {@link MatchClass}. Catch-all expressions (".*"),
+ * expressions which only match a literal string (such as "v1\.0") and anchored prefixes (such as
+ * "abc.*") are matched by comparing characters, without running a regular expression engine.
+ * <p>
+ * Regular expressions which are supported by the linear-time engine {@link LinearRegex} are compiled
+ * into a single program, which matches the search term against all of them in a single pass and never
+ * backtracks. Other regular expressions (for example, with back-references or look-around) are matched
+ * one by one by {@link Pattern}, with a step budget: a match which exceeds the budget fails, rather
+ * than taking exponential time.
+ */
+@Immutable
+final class SiblingPatternMatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SiblingPatternMatcher.class);
+
+    /**
+     * Regular expression which matches any string without line terminators.
+     */
+    private static final String ANY = ".*";
+
+    /**
+     * Returned by {@link #findFirstMatchPosition(CharSequence)} if a sibling which could take precedence
+     * exceeded its step budget, so the first matching sibling is unknown.
+     */
+    static final int BUDGET_EXCEEDED = -2;
+
+    /**
+     * Matchers for the backtracking siblings and a budgeted search term, re-used per thread and shared by
+     * all nodes, so matching a search term does not allocate a matcher.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Classes of regular expressions, which determine how they are matched.
+     */
+    enum MatchClass {
+
+        /**
+         * Matches any search term without line terminators, such as ".*".
+         */
+        CATCH_ALL,
+
+        /**
+         * Matches a literal string only, such as "v1\.0" or "^abc$".
+         */
+        LITERAL,
+
+        /**
+         * Matches search terms with a literal prefix, such as "abc.*".
+         */
+        PREFIX,
+
+        /**
+         * Any other regular expression.
+         */
+        GENERAL
+    }
+
+    /**
+     * The sibling nodes, in declaration order.
+     */
+    @Nonnull
+    private final List<Node> siblings;
+
+    /**
+     * The indexes of the siblings which are not {@link MatchClass#GENERAL}, in declaration order,
+     * and their case-folded literal strings or prefixes (empty for a catch-all).
+     */
+    @Nonnull
+    private final int[] simpleSiblings;
+    @Nonnull
+    private final String[] simpleLiterals;
+    @Nonnull
+    private final boolean[] simpleIsPrefix;
+
+    /**
+     * The program for the siblings supported by the linear-time engine, or null if there are none.
+     */
+    @Nullable
+    private final LinearRegex linearRegex;
+
+    /**
+     * For every pattern in the linear-time program, the index of its sibling.
+     */
+    @Nonnull
+    private final int[] linearSiblings;
+
+    /**
+     * The indexes of the siblings which are matched by {@link Pattern}, in declaration order.
+     */
+    @Nonnull
+    private final int[] backtrackingSiblings;
+
+    /**
+     * For every sibling matched by {@link Pattern}, the number of matches which exceeded the step budget.
+     * Only the first one is logged as a warning, so a hostile or unlucky stream of search terms cannot
+     * flood the log.
+     */
+    @Nonnull
+    private final AtomicLongArray budgetExceeded;
+
+    SiblingPatternMatcher(@Nonnull final List<Node> siblings) {
+        assert !siblings.isEmpty();
+        this.siblings = siblings;
+
+        /**
+         * Split the siblings in those which can be matched without a regular expression engine,
+         * those supported by the linear-time engine and others.
+         */
+        final List<Integer> simpleIndexes = new ArrayList<>();
+        final List<String> literals = new ArrayList<>();
+        final List<Boolean> prefixes = new ArrayList<>();
+        final List<String> linearRegexes = new ArrayList<>();
+        final List<Integer> linearIndexes = new ArrayList<>();
+        final List<Integer> backtrackingIndexes = new ArrayList<>();
+        for (int i = 0; i < siblings.size(); ++i) {
+            final String match = getMatch(siblings.get(i));
+            final MatchClass matchClass = classify(match);
+            if (matchClass != MatchClass.GENERAL) {
+                simpleIndexes.add(i);
+                final String body = stripAnchors(match);
+                final String literal = (matchClass == MatchClass.LITERAL) ? unescape(body) :
+                        unescape(body.substring(0, body.length() - ANY.length()));
+                assert literal != null;
+                literals.add(Node.foldCase(literal));
+                prefixes.add(matchClass != MatchClass.LITERAL);
+            } else if (LinearRegex.checkSupported(match) == null) {
+                linearRegexes.add(match);
+                linearIndexes.add(i);
+            } else {
+                backtrackingIndexes.add(i);
+            }
+        }
+        LinearRegex linear = linearRegexes.isEmpty() ? null : LinearRegex.compile(linearRegexes);
+        if ((linear == null) && !linearRegexes.isEmpty()) {
+
+            // The combined program is too large: fall back to matching all siblings one by one.
+            backtrackingIndexes.addAll(linearIndexes);
+            backtrackingIndexes.sort(null);
+            linearIndexes.clear();
+        }
+        this.simpleSiblings = toArray(simpleIndexes);
+        this.simpleLiterals = literals.toArray(new String[literals.size()]);
+        this.simpleIsPrefix = new boolean[prefixes.size()];
+        for (int i = 0; i < simpleIsPrefix.length; ++i) {
+            simpleIsPrefix[i] = prefixes.get(i);
+        }
+        this.linearRegex = linear;
+        this.linearSiblings = toArray(linearIndexes);
+        this.backtrackingSiblings = toArray(backtrackingIndexes);
+        this.budgetExceeded = new AtomicLongArray(backtrackingSiblings.length);
+    }
+
+    /**
+     * Find the first sibling whose regular expression matches the search term.
+     *
+     * @param searchTerm Search term.
+     * @return First matching sibling, or null if none matches.
+     * @throws StepBudgetExceededException If a sibling which could take precedence exceeded its step budget.
+     */
+    @Nullable
+    Node findFirstMatch(@Nonnull final CharSequence searchTerm) {
+        final int first = findFirstMatchPosition(searchTerm);
+        if (first == BUDGET_EXCEEDED) {
+            throw new StepBudgetExceededException();
+        }
+        return (first < 0) ? null : siblings.get(first);
+    }
+
+    /**
+     * Find the first sibling whose regular expression matches the search term. If a sibling exceeds
+     * its step budget, the siblings declared after it are not tried: one of them might match, but the
+     * sibling which exceeded its budget would take precedence if it matched, so the answer is unknown.
+     *
+     * @param searchTerm Search term.
+     * @return Index of the first matching sibling in the list of siblings, -1 if none matches, or
+     * {@link #BUDGET_EXCEEDED} if the first matching sibling is unknown.
+     */
+    int findFirstMatchPosition(@Nonnull final CharSequence searchTerm) {
+
+        // Find the first matching sibling which doesn't need a regular expression engine.
+        int first = siblings.size();
+        for (int i = 0; i < simpleSiblings.length; ++i) {
+            if (matchesSimple(i, searchTerm)) {
+                first = simpleSiblings[i];
+                break;
+            }
+        }
+
+        // Only siblings declared before it can still take precedence.
+        if ((linearRegex != null) && (linearSiblings[0] < first)) {
+            final int pattern = linearRegex.match(searchTerm);
+            if ((pattern >= 0) && (linearSiblings[pattern] < first)) {
+                first = linearSiblings[pattern];
+            }
+        }
+
+        // Only siblings declared before it can still take precedence.
+        if ((backtrackingSiblings.length > 0) && (backtrackingSiblings[0] < first)) {
+            final Scratch scratch = SCRATCH.get();
+            final Matcher[] matchers = scratch.getMatchers(this);
+            for (int i = 0; (i < backtrackingSiblings.length) && (backtrackingSiblings[i] < first); ++i) {
+                final BudgetedCharSequence budgeted = scratch.searchTerm.reset(searchTerm, Node.REGEX_STEP_BUDGET);
+                try {
+                    if (matchers[i].reset(budgeted).matches()) {
+                        return backtrackingSiblings[i];
+                    }
+                } catch (final StepBudgetExceededException ignored) {
+                    countBudgetExceeded(i, searchTerm);
+                    return BUDGET_EXCEEDED;
+                }
+            }
+        }
+        return (first < siblings.size()) ? first : -1;
+    }
+
+    /**
+     * Count a match of a backtracking sibling which exceeded the step budget. Only the first one is
+     * logged as a warning.
+     *
+     * @param i          Index in the backtracking siblings.
+     * @param searchTerm Search term.
+     */
+    private void countBudgetExceeded(final int i, @Nonnull final CharSequence searchTerm) {
+        final long count = budgetExceeded.incrementAndGet(i);
+        if (count == 1) {
+            LOG.warn("findFirstMatch: step budget exceeded, match={}, searchTerm={} " +
+                            "(further occurrences for this match are only counted)",
+                    getMatch(siblings.get(backtrackingSiblings[i])), searchTerm);
+        } else {
+            LOG.debug("findFirstMatch: step budget exceeded, match={}, count={}",
+                    getMatch(siblings.get(backtrackingSiblings[i])), count);
+        }
+    }
+
+    /**
+     * Package private. Return the number of matches which exceeded the step budget, for all siblings.
+     *
+     * @return Number of matches.
+     */
+    long getNrOfBudgetExceeded() {
+        long total = 0;
+        for (int i = 0; i < budgetExceeded.length(); ++i) {
+            total = total + budgetExceeded.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Return the sibling nodes, in declaration order.
+     *
+     * @return Sibling nodes.
+     */
+    @Nonnull
+    List<Node> getSiblings() {
+        return siblings;
+    }
+
+    /**
+     * Classify a regular expression: return whether it is a catch-all, only matches a literal string,
+     * only matches strings with a literal prefix or none of these. Anchors at the start and end are
+     * ignored, as the regular expression must match the entire search term anyway.
+     *
+     * @param match Regular expression.
+     * @return Class of the regular expression.
+     */
+    @Nonnull
+    static MatchClass classify(@Nonnull final String match) {
+        final String body = stripAnchors(match);
+        if (body.equals(ANY)) {
+            return MatchClass.CATCH_ALL;
+        }
+        if (body.endsWith(ANY) && !isEscaped(body, body.length() - ANY.length())) {
+            return (unescape(body.substring(0, body.length() - ANY.length())) == null) ? MatchClass.GENERAL : MatchClass.PREFIX;
+        }
+        return (unescape(body) == null) ? MatchClass.GENERAL : MatchClass.LITERAL;
+    }
+
+    /**
+     * Return whether any sibling is a {@link MatchClass#GENERAL} regular expression, which needs a regular
+     * expression engine to be matched.
+     *
+     * @return True if a sibling is matched by the linear-time engine or a backtracking matcher.
+     */
+    boolean hasGeneralSiblings() {
+        return (linearRegex != null) || (backtrackingSiblings.length > 0);
+    }
+
+    /**
+     * Return whether all siblings are matched by the linear-time engine, in a single pass.
+     *
+     * @return True if no sibling is matched by a backtracking matcher.
+     */
+    boolean isCombined() {
+        return backtrackingSiblings.length == 0;
+    }
+
+    /**
+     * Match a simple sibling: the search term must equal its literal or start with its prefix,
+     * ignoring case. The rest of a prefix match is matched by ".*", so it cannot contain line terminators.
+     */
+    private boolean matchesSimple(final int index, @Nonnull final CharSequence searchTerm) {
+        final String literal = simpleLiterals[index];
+        final int length = searchTerm.length();
+        if ((length < literal.length()) || (!simpleIsPrefix[index] && (length != literal.length()))) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); ++i) {
+            if (literal.charAt(i) != LiteralIndex.fold(searchTerm.charAt(i))) {
+                return false;
+            }
+        }
+        for (int i = literal.length(); i < length; ++i) {
+            if (LinearRegex.isLineTerminator(searchTerm.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove a '^' at the start and an (unescaped) '$' at the end.
+     */
+    @Nonnull
+    private static String stripAnchors(@Nonnull final String match) {
+        final int start = match.startsWith("^") ? 1 : 0;
+        int end = match.length();
+        if ((end > start) && (match.charAt(end - 1) == '$') && !isEscaped(match, end - 1)) {
+            --end;
+        }
+        return match.substring(start, end);
+    }
+
+    /**
+     * Return whether the character at an index is escaped by an odd number of backslashes.
+     */
+    private static boolean isEscaped(@Nonnull final String value, final int index) {
+        int backslashes = 0;
+        while (((index - backslashes) > 0) && (value.charAt(index - backslashes - 1) == '\\')) {
+            ++backslashes;
+        }
+        return (backslashes % 2) == 1;
+    }
+
+    /**
+     * Return the literal string a regular expression matches, if it only consists of characters which
+     * are not metacharacters and escaped characters which are not letters or digits.
+     *
+     * @return Literal string, or null if the regular expression is not a literal string.
+     */
+    @Nullable
+    private static String unescape(@Nonnull final String value) {
+        final StringBuilder literal = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            final char ch = value.charAt(i);
+            if (ch == '\\') {
+                ++i;
+                if ((i == value.length()) || Character.isLetterOrDigit(value.charAt(i))) {
+                    return null;
+                }
+                literal.append(value.charAt(i));
+                if (Character.isHighSurrogate(value.charAt(i)) && ((i + 1) < value.length())) {
+                    ++i;
+                    literal.append(value.charAt(i));
+                }
+            } else if (Node.REGEX_METACHARACTERS.indexOf(ch) >= 0) {
+                return null;
+            } else {
+                literal.append(ch);
+            }
+        }
+        return literal.toString();
+    }
+
+    @Nonnull
+    private Matcher[] createMatchers() {
+        final Matcher[] siblingMatchers = new Matcher[backtrackingSiblings.length];
+        for (int i = 0; i < siblingMatchers.length; ++i) {
+            final Pattern regexPattern = siblings.get(backtrackingSiblings[i]).getRegexPattern();
+            assert regexPattern != null;
+            siblingMatchers[i] = regexPattern.matcher("");
+        }
+        return siblingMatchers;
+    }
+
+    @Nonnull
+    private static String getMatch(@Nonnull final Node node) {
+        final String match = node.getMatch();
+        assert match != null;
+        return match;
+    }
+
+    @Nonnull
+    private static int[] toArray(@Nonnull final List<Integer> values) {
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * The state of a thread for matching search terms, shared by all nodes. The matchers of a node are
+     * created the first time the thread matches its siblings. They are kept with a weak key (they do not
+     * refer to it), so the matchers of a tree are dropped once the tree is no longer used.
+     */
+    private static final class Scratch {
+        @Nonnull
+        private final BudgetedCharSequence searchTerm = new BudgetedCharSequence();
+        @Nonnull
+        private final Map<SiblingPatternMatcher, Matcher[]> matchers = new WeakHashMap<>();
+
+        @Nonnull
+        Matcher[] getMatchers(@Nonnull final SiblingPatternMatcher owner) {
+            Matcher[] ownerMatchers = matchers.get(owner);
+            if (ownerMatchers == null) {
+                ownerMatchers = owner.createMatchers();
+                matchers.put(owner, ownerMatchers);
+            }
+            return ownerMatchers;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tomtom.services.configuration.domain;
+
+/**
+ * Thrown when matching a search term against a regular expression exceeds its step budget, see
+ * {@link Node#REGEX_STEP_BUDGET}. The match is then unknown: it is neither a match nor a miss.
+ * The exception has no stack trace, as it is thrown for a search term, not for a programming error.
+ */
+public final class StepBudgetExceededException extends RuntimeException {
+
+    StepBudgetExceededException() {
+        super("Regular expression step budget exceeded", null, false, false);
+    }
+}
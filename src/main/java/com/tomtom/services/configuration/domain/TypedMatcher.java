@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.google.common.net.InetAddresses;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class matches search terms against the typed match strings of sibling nodes, see
+ * {@link MatchType}, without evaluating regular expressions.
+ * <p>
+ * Numeric ranges, version ranges and IPv4 address blocks are stored as intervals of longs, sorted
+ * by their lower bound, so the intervals which contain a value are found with a binary search.
+ * Prefixes are stored in a hash index, which is looked up once per distinct prefix length. IPv6
+ * address blocks are checked one by one.
+ * <p>
+ * If multiple siblings match a search term, the first one in declaration order wins, just like for
+ * regular expressions.
+ */
+@Immutable
+final class TypedMatcher {
+
+    /**
+     * Maximum value of a version component.
+     */
+    static final int MAX_VERSION_COMPONENT = 0x7FFF;
+
+    /**
+     * Separator of the bounds of a range.
+     */
+    private static final String RANGE_SEPARATOR = "..";
+
+    /**
+     * Separator of the address and prefix length of a CIDR block.
+     */
+    private static final char CIDR_SEPARATOR = '-';
+
+    /**
+     * Versions are encoded in a long, with a fixed number of bits per component.
+     */
+    private static final int MAX_VERSION_COMPONENTS = 4;
+    private static final int VERSION_COMPONENT_BITS = 15;
+    private static final long MAX_VERSION = (1L << (MAX_VERSION_COMPONENTS * VERSION_COMPONENT_BITS)) - 1;
+
+    /**
+     * Value returned by the parse methods for strings which cannot be parsed. Search terms are never
+     * parsed to this value, so it is also used as the lower bound of ranges without one.
+     */
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
+    /**
+     * The siblings with typed match strings, in declaration order. The indexes below refer to
+     * positions in this array.
+     */
+    @Nonnull
+    private final Node[] siblings;
+
+    @Nullable
+    private final IntervalIndex ranges;
+    @Nullable
+    private final IntervalIndex versions;
+    @Nullable
+    private final IntervalIndex ipv4Blocks;
+
+    /**
+     * Prefixes, their distinct lengths (in ascending order) and the position of each prefix node.
+     */
+    @Nullable
+    private final LiteralIndex prefixes;
+    @Nonnull
+    private final int[] prefixLengths;
+    @Nonnull
+    private final Map<Node, Integer> positionOfPrefix;
+
+    /**
+     * IPv6 address blocks: network address, prefix length and position of the sibling.
+     */
+    @Nonnull
+    private final byte[][] ipv6Networks;
+    @Nonnull
+    private final int[] ipv6PrefixLengths;
+    @Nonnull
+    private final int[] ipv6Positions;
+
+    /**
+     * Create a matcher for sibling nodes with typed match strings.
+     *
+     * @param siblings Sibling nodes, in declaration order. All of them must have a match type.
+     * @throws IllegalArgumentException If a match string is not valid for its type.
+     */
+    TypedMatcher(@Nonnull final List<Node> siblings) {
+        this.siblings = siblings.toArray(new Node[siblings.size()]);
+        final IntervalIndex.Builder rangesBuilder = new IntervalIndex.Builder();
+        final IntervalIndex.Builder versionsBuilder = new IntervalIndex.Builder();
+        final IntervalIndex.Builder ipv4BlocksBuilder = new IntervalIndex.Builder();
+        final List<Node> prefixNodes = new ArrayList<>();
+        final TreeSet<Integer> lengths = new TreeSet<>();
+        this.positionOfPrefix = new IdentityHashMap<>();
+        final List<byte[]> networks = new ArrayList<>();
+        final List<Integer> networkPrefixLengths = new ArrayList<>();
+        final List<Integer> networkPositions = new ArrayList<>();
+        for (int position = 0; position < this.siblings.length; ++position) {
+            final Node sibling = this.siblings[position];
+            final MatchType type = sibling.getMatchType();
+            final String match = sibling.getMatch();
+            assert (type != null) && (match != null);
+            final String reason = checkMatch(type, match);
+            if (reason != null) {
+                throw new IllegalArgumentException("Incorrect " + type.getName() + " match string: " + match + ", " + reason);
+            }
+            switch (type) {
+                case RANGE:
+                    rangesBuilder.add(parseLowerBound(type, match), parseUpperBound(type, match), position);
+                    break;
+
+                case VERSION:
+                    versionsBuilder.add(parseLowerBound(type, match), parseUpperBound(type, match), position);
+                    break;
+
+                case PREFIX:
+                    prefixNodes.add(sibling);
+                    lengths.add(match.length());
+                    positionOfPrefix.putIfAbsent(sibling, position);
+                    break;
+
+                case CIDR:
+                    final int separator = match.lastIndexOf(CIDR_SEPARATOR);
+                    final byte[] network = InetAddresses.forString(match.substring(0, separator)).getAddress();
+                    final int prefixLength = Integer.parseInt(match.substring(separator + 1));
+                    if (network.length == 4) {
+                        final long first = toLong(network);
+                        ipv4BlocksBuilder.add(first, first + (1L << (32 - prefixLength)) - 1, position);
+                    } else {
+                        networks.add(network);
+                        networkPrefixLengths.add(prefixLength);
+                        networkPositions.add(position);
+                    }
+                    break;
+
+                default:
+                    assert false;
+            }
+        }
+        this.ranges = rangesBuilder.build();
+        this.versions = versionsBuilder.build();
+        this.ipv4Blocks = ipv4BlocksBuilder.build();
+        this.prefixes = prefixNodes.isEmpty() ? null : new LiteralIndex(prefixNodes);
+        this.prefixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+        this.ipv6Networks = networks.toArray(new byte[networks.size()][]);
+        this.ipv6PrefixLengths = networkPrefixLengths.stream().mapToInt(Integer::intValue).toArray();
+        this.ipv6Positions = networkPositions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Find the first sibling, in declaration order, whose typed match string matches a search term.
+     *
+     * @param searchTerm Search term.
+     * @return Sibling node, or null if no sibling matches.
+     */
+    @Nullable
+    Node findFirstMatch(@Nonnull final CharSequence searchTerm) {
+        final int first = findFirstMatchPosition(searchTerm);
+        return (first < 0) ? null : siblings[first];
+    }
+
+    /**
+     * Find the first sibling, in declaration order, whose typed match string matches a search term.
+     *
+     * @param searchTerm Search term.
+     * @return Index of the sibling in the list of siblings, or -1 if no sibling matches.
+     */
+    int findFirstMatchPosition(@Nonnull final CharSequence searchTerm) {
+        final int length = searchTerm.length();
+        int first = Integer.MAX_VALUE;
+        if (ranges != null) {
+            final long value = parseLong(searchTerm, 0, length);
+            if (value != NOT_PARSED) {
+                first = Math.min(first, ranges.findFirst(value));
+            }
+        }
+        if (versions != null) {
+            final long value = parseVersion(searchTerm, 0, length, 0);
+            if (value != NOT_PARSED) {
+                first = Math.min(first, versions.findFirst(value));
+            }
+        }
+        if (prefixes != null) {
+            for (final int prefixLength : prefixLengths) {
+                if (prefixLength > length) {
+                    break;
+                }
+                final Node prefix = prefixes.get(searchTerm, prefixLength);
+                if (prefix != null) {
+                    first = Math.min(first, positionOfPrefix.get(prefix));
+                }
+            }
+        }
+        if (((ipv4Blocks != null) || (ipv6Networks.length > 0)) && isAddressLike(searchTerm)) {
+            first = Math.min(first, findFirstAddressMatch(searchTerm.toString()));
+        }
+        return (first == Integer.MAX_VALUE) ? -1 : first;
+    }
+
+    /**
+     * Return the sibling nodes, in declaration order.
+     *
+     * @return Sibling nodes.
+     */
+    @Nonnull
+    List<Node> getSiblings() {
+        return Arrays.asList(siblings);
+    }
+
+    /**
+     * Check if a match string is valid for a type.
+     *
+     * @param type  Match type.
+     * @param match Match string.
+     * @return Null if the match string is valid, or the reason why it is not.
+     */
+    @Nullable
+    static String checkMatch(@Nonnull final MatchType type, @Nonnull final String match) {
+        switch (type) {
+            case RANGE:
+            case VERSION:
+                final int separator = match.indexOf(RANGE_SEPARATOR);
+                if (separator < 0) {
+                    return "expected 'from..to'";
+                }
+                final long from = parseLowerBound(type, match);
+                final long to = parseUpperBound(type, match);
+                if ((from == NOT_PARSED) || (to == NOT_PARSED)) {
+                    return (type == MatchType.RANGE) ? "bounds must be integers" :
+                            ("bounds must be versions with 1 to " + MAX_VERSION_COMPONENTS +
+                                    " numeric components, up to " + MAX_VERSION_COMPONENT);
+                }
+                return (from <= to) ? null : "lower bound exceeds upper bound";
+
+            case PREFIX:
+                return null;
+
+            case CIDR:
+                final int cidrSeparator = match.lastIndexOf(CIDR_SEPARATOR);
+                if ((cidrSeparator < 0) || !InetAddresses.isInetAddress(match.substring(0, cidrSeparator))) {
+                    return "expected 'address" + CIDR_SEPARATOR + "prefix-length'";
+                }
+                final byte[] network = InetAddresses.forString(match.substring(0, cidrSeparator)).getAddress();
+                final long prefixLength = parseLong(match, cidrSeparator + 1, match.length());
+                if ((prefixLength < 0) || (prefixLength > (network.length * 8))) {
+                    return "prefix length must be 0 to " + (network.length * 8);
+                }
+                for (int bit = (int) prefixLength; bit < (network.length * 8); ++bit) {
+                    if ((network[bit / 8] & (0x80 >>> (bit % 8))) != 0) {
+                        return "address has bits set after the prefix";
+                    }
+                }
+                return null;
+
+            default:
+                assert false;
+                return "unknown type";
+        }
+    }
+
+    private int findFirstAddressMatch(@Nonnull final String searchTerm) {
+        if (!InetAddresses.isInetAddress(searchTerm)) {
+            return Integer.MAX_VALUE;
+        }
+        final byte[] address = InetAddresses.forString(searchTerm).getAddress();
+        if (address.length == 4) {
+            return (ipv4Blocks == null) ? Integer.MAX_VALUE : ipv4Blocks.findFirst(toLong(address));
+        }
+        for (int i = 0; i < ipv6Networks.length; ++i) {
+            if (isInBlock(address, ipv6Networks[i], ipv6PrefixLengths[i])) {
+                return ipv6Positions[i];
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Only strings with '.' or ':' can be IP addresses, so other search terms are skipped
+     * without parsing them.
+     */
+    private static boolean isAddressLike(@Nonnull final CharSequence searchTerm) {
+        for (int i = 0; i < searchTerm.length(); ++i) {
+            final char ch = searchTerm.charAt(i);
+            if ((ch == '.') || (ch == ':')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInBlock(@Nonnull final byte[] address, @Nonnull final byte[] network, final int prefixLength) {
+        for (int bit = 0; bit < prefixLength; ++bit) {
+            final int mask = 0x80 >>> (bit % 8);
+            if ((address[bit / 8] & mask) != (network[bit / 8] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long toLong(@Nonnull final byte[] address) {
+        long value = 0;
+        for (final byte part : address) {
+            value = (value << 8) | (part & 0xFF);
+        }
+        return value;
+    }
+
+    private static long parseLowerBound(@Nonnull final MatchType type, @Nonnull final String match) {
+        final int separator = match.indexOf(RANGE_SEPARATOR);
+        if (separator == 0) {
+            return (type == MatchType.RANGE) ? (NOT_PARSED + 1) : 0;
+        }
+        return (type == MatchType.RANGE) ? parseLong(match, 0, separator) : parseVersion(match, 0, separator, 0);
+    }
+
+    private static long parseUpperBound(@Nonnull final MatchType type, @Nonnull final String match) {
+        final int start = match.indexOf(RANGE_SEPARATOR) + RANGE_SEPARATOR.length();
+        if (start == match.length()) {
+            return (type == MatchType.RANGE) ? Long.MAX_VALUE : MAX_VERSION;
+        }
+        return (type == MatchType.RANGE) ? parseLong(match, start, match.length()) :
+                parseVersion(match, start, match.length(), MAX_VERSION_COMPONENT);
+    }
+
+    /**
+     * Parse a decimal integer, with an optional '-' sign, without allocating objects.
+     *
+     * @return Value, or {@link #NOT_PARSED} if the string is not an integer or out of range.
+     */
+    private static long parseLong(@Nonnull final CharSequence value, final int start, final int end) {
+        final boolean negative = (start < end) && (value.charAt(start) == '-');
+        int i = negative ? (start + 1) : start;
+        if (i == end) {
+            return NOT_PARSED;
+        }
+        long result = 0;
+        for (; i < end; ++i) {
+            final int digit = value.charAt(i) - '0';
+            if ((digit < 0) || (digit > 9) || (result > ((Long.MAX_VALUE - digit) / 10))) {
+                return NOT_PARSED;
+            }
+            result = (result * 10) + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parse a version, such as "1.2.3", and encode it in a long, without allocating objects.
+     * Missing components are filled in with a given value.
+     *
+     * @return Encoded version, or {@link #NOT_PARSED} if the string is not a version.
+     */
+    private static long parseVersion(@Nonnull final CharSequence value, final int start, final int end, final int missing) {
+        long result = 0;
+        int components = 0;
+        int i = start;
+        while (components < MAX_VERSION_COMPONENTS) {
+            int component = 0;
+            final int componentStart = i;
+            while ((i < end) && (value.charAt(i) != '.')) {
+                final int digit = value.charAt(i) - '0';
+                if ((digit < 0) || (digit > 9)) {
+                    return NOT_PARSED;
+                }
+                component = (component * 10) + digit;
+                if (component > MAX_VERSION_COMPONENT) {
+                    return NOT_PARSED;
+                }
+                ++i;
+            }
+            if (i == componentStart) {
+                return NOT_PARSED;
+            }
+            result = (result << VERSION_COMPONENT_BITS) | component;
+            ++components;
+            if (i == end) {
+                break;
+            }
+            ++i;
+        }
+        if (i != end) {
+            return NOT_PARSED;
+        }
+        for (; components < MAX_VERSION_COMPONENTS; ++components) {
+            result = (result << VERSION_COMPONENT_BITS) | missing;
+        }
+        return result;
+    }
+
+    /**
+     * Inclusive intervals of longs, sorted by their lower bound, with the position of their sibling.
+     */
+    @Immutable
+    private static final class IntervalIndex {
+
+        @Nonnull
+        private final long[] from;
+        @Nonnull
+        private final long[] to;
+
+        /**
+         * The maximum upper bound of the intervals up to and including an index, so the search for
+         * intervals which contain a value can stop as soon as no earlier interval reaches the value.
+         */
+        @Nonnull
+        private final long[] maxTo;
+        @Nonnull
+        private final int[] positions;
+
+        private IntervalIndex(@Nonnull final long[] from, @Nonnull final long[] to, @Nonnull final int[] positions) {
+            final int size = from.length;
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i, j) -> Long.compare(from[i], from[j]));
+            this.from = new long[size];
+            this.to = new long[size];
+            this.maxTo = new long[size];
+            this.positions = new int[size];
+            for (int i = 0; i < size; ++i) {
+                this.from[i] = from[order[i]];
+                this.to[i] = to[order[i]];
+                this.positions[i] = positions[order[i]];
+                this.maxTo[i] = (i == 0) ? this.to[i] : Math.max(this.maxTo[i - 1], this.to[i]);
+            }
+        }
+
+        /**
+         * Return the first position of the intervals which contain a value.
+         *
+         * @param value Value.
+         * @return Position, or Integer.MAX_VALUE if no interval contains the value.
+         */
+        int findFirst(final long value) {
+
+            // Find the last interval which starts at or before the value.
+            int low = 0;
+            int high = from.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (from[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int first = Integer.MAX_VALUE;
+            for (int i = high; (i >= 0) && (maxTo[i] >= value); --i) {
+                if (to[i] >= value) {
+                    first = Math.min(first, positions[i]);
+                }
+            }
+            return first;
+        }
+
+        private static final class Builder {
+            private final List<long[]> intervals = new ArrayList<>();
+
+            void add(final long from, final long to, final int position) {
+                intervals.add(new long[]{from, to, position});
+            }
+
+            @Nullable
+            IntervalIndex build() {
+                if (intervals.isEmpty()) {
+                    return null;
+                }
+                final int size = intervals.size();
+                final long[] from = new long[size];
+                final long[] to = new long[size];
+                final int[] positions = new int[size];
+                for (int i = 0; i < size; ++i) {
+                    from[i] = intervals.get(i)[0];
+                    to[i] = intervals.get(i)[1];
+                    positions[i] = (int) intervals.get(i)[2];
+                }
+                return new IntervalIndex(from, to, positions);
+            }
+        }
+    }
+}
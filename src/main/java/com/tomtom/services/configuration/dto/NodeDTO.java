@@ -20,6 +20,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.tomtom.services.configuration.domain.MatchType;
 import com.tomtom.services.configuration.domain.Node;
 import com.tomtom.speedtools.apivalidation.ApiDTO;
 import com.tomtom.speedtools.objects.Immutables;
@@ -47,6 +48,15 @@ public final class NodeDTO extends ApiDTO implements SupportsInclude {
     @Nullable
     private String match;
 
+    /**
+     * Type of the match string, see {@link MatchType}, can be null if the match string is a literal
+     * or a regular expression.
+     */
+    @JsonProperty("match_type")
+    @XmlElement(name = "match_type")
+    @Nullable
+    private String matchType;
+
     /**
      * List of nodes, can be null, but not empty.
      */
@@ -105,6 +115,7 @@ public final class NodeDTO extends ApiDTO implements SupportsInclude {
 
     public NodeDTO(
             @Nullable final String match,
+            @Nullable final String matchType,
             @Nullable final List<NodeDTO> nodes,
             @Nullable final ParameterListDTO parameters,
             @Nullable final String modified,
@@ -113,6 +124,7 @@ public final class NodeDTO extends ApiDTO implements SupportsInclude {
             @Nullable final String includeArray) {
         super(false);
         setMatch(match);
+        setMatchType(matchType);
         setNodes(nodes);
         setParameters(parameters);
         setModified(modified);
@@ -121,6 +133,17 @@ public final class NodeDTO extends ApiDTO implements SupportsInclude {
         setIncludeArray(includeArray);
     }
 
+    public NodeDTO(
+            @Nullable final String match,
+            @Nullable final List<NodeDTO> nodes,
+            @Nullable final ParameterListDTO parameters,
+            @Nullable final String modified,
+            @Nullable final List<String> levels,
+            @Nullable final String include,
+            @Nullable final String includeArray) {
+        this(match, null, nodes, parameters, modified, levels, include, includeArray);
+    }
+
     /**
      * Create a NodeDTO from a Node object.
      *
@@ -130,6 +153,7 @@ public final class NodeDTO extends ApiDTO implements SupportsInclude {
 
         // Set name.
         setMatch(node.getMatch());
+        setMatchType((node.getMatchType() == null) ? null : node.getMatchType().getName());
 
         // Copy nodes.
         if (node.getNodes() == null) {
@@ -194,6 +218,7 @@ public final class NodeDTO extends ApiDTO implements SupportsInclude {
 
         // This validation is ONLY executed after includes have been expanded, so they must be null.
         validator().checkString(false, "match", match, 1, Integer.MAX_VALUE);
+        validator().checkAllowedValues(false, "match_type", matchType, MatchType.getNames());
         if (nodes != null) {
             validator().checkNotNullAndValidateAll(false, "nodes", Immutables.listOf(nodes));
         }
@@ -239,6 +264,17 @@ public final class NodeDTO extends ApiDTO implements SupportsInclude {
         this.match = StringUtils.emptyToNull(StringUtils.trim(match));
     }
 
+    @Nullable
+    public String getMatchType() {
+        beforeGet();
+        return matchType;
+    }
+
+    public void setMatchType(@Nullable final String matchType) {
+        beforeSet();
+        this.matchType = StringUtils.emptyToNull(StringUtils.trim(matchType));
+    }
+
     @Nullable
     public List<NodeDTO> getNodes() {
         beforeGet();
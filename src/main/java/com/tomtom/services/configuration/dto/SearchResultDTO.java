@@ -22,17 +22,12 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import com.tomtom.services.configuration.domain.Node;
-import com.tomtom.services.configuration.domain.Parameter;
 import com.tomtom.speedtools.apivalidation.ApiDTO;
 import com.tomtom.speedtools.utils.StringUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.xml.bind.annotation.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-
 import static com.google.common.base.Strings.nullToEmpty;
 
 /**
@@ -94,17 +89,15 @@ public final class SearchResultDTO extends ApiDTO {
         setNode(node);
     }
 
+    /**
+     * Create a search result for a node. The parameters of the node are not copied: the search result
+     * shares the (validated) parameter list of the node.
+     *
+     * @param node Node to create search result for.
+     */
     public SearchResultDTO(@Nonnull final Node node) {
-        final Set<Parameter> parametersOfNode = node.getParameters();
-        final List<ParameterDTO> parameterDTOs = new ArrayList<>();
-        if (parametersOfNode == null) {
-            this.parameters = null;
-        } else {
-            for (final Parameter parameter : parametersOfNode) {
-                parameterDTOs.add(new ParameterDTO(parameter));
-            }
-        }
-        setParameters(new ParameterListDTO(parameterDTOs));
+        super(false);
+        setParameters(node.getParameterList());
         setSearched(null);
         setMatched(null);
         setNode(node);
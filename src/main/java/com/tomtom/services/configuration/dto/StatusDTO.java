@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * This class provides the DTO for the 'status' call. The status call returns a number of
+ * counters which can be used to monitor the service, such as the search result cache statistics.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "squid:S2160"})
+@JsonInclude(Include.NON_EMPTY)
+@XmlRootElement(name = "status")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class StatusDTO extends ApiDTO {
+
+    /**
+     * Number of search results in the search result cache.
+     */
+    @JsonProperty("searchResultCacheSize")
+    @XmlElement(name = "searchResultCacheSize")
+    @Nullable
+    private Long searchResultCacheSize;
+
+    /**
+     * Number of searches which were served from the search result cache.
+     */
+    @JsonProperty("searchResultCacheHits")
+    @XmlElement(name = "searchResultCacheHits")
+    @Nullable
+    private Long searchResultCacheHits;
+
+    /**
+     * Number of searches which were not found in the search result cache.
+     */
+    @JsonProperty("searchResultCacheMisses")
+    @XmlElement(name = "searchResultCacheMisses")
+    @Nullable
+    private Long searchResultCacheMisses;
+
+    /**
+     * Number of search results which were evicted from the search result cache.
+     */
+    @JsonProperty("searchResultCacheEvictions")
+    @XmlElement(name = "searchResultCacheEvictions")
+    @Nullable
+    private Long searchResultCacheEvictions;
+
+    public StatusDTO(
+            final long searchResultCacheSize,
+            final long searchResultCacheHits,
+            final long searchResultCacheMisses,
+            final long searchResultCacheEvictions) {
+        super();
+        setSearchResultCacheSize(searchResultCacheSize);
+        setSearchResultCacheHits(searchResultCacheHits);
+        setSearchResultCacheMisses(searchResultCacheMisses);
+        setSearchResultCacheEvictions(searchResultCacheEvictions);
+    }
+
+    @SuppressWarnings({"UnusedDeclaration", "squid:MissingDeprecatedCheck", "squid:S1133"})
+    @Deprecated
+    StatusDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    /**
+     * For an explanation of validate(), see {@link NodeDTO}.
+     */
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkNotNull(true, "searchResultCacheSize", searchResultCacheSize);
+        validator().checkNotNull(true, "searchResultCacheHits", searchResultCacheHits);
+        validator().checkNotNull(true, "searchResultCacheMisses", searchResultCacheMisses);
+        validator().checkNotNull(true, "searchResultCacheEvictions", searchResultCacheEvictions);
+        validator().done();
+    }
+
+    @Nonnull
+    public Long getSearchResultCacheSize() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return searchResultCacheSize;               // Cannot be null after validation.
+    }
+
+    public void setSearchResultCacheSize(@Nonnull final Long searchResultCacheSize) {
+        beforeSet();
+        this.searchResultCacheSize = searchResultCacheSize;
+    }
+
+    @Nonnull
+    public Long getSearchResultCacheHits() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return searchResultCacheHits;               // Cannot be null after validation.
+    }
+
+    public void setSearchResultCacheHits(@Nonnull final Long searchResultCacheHits) {
+        beforeSet();
+        this.searchResultCacheHits = searchResultCacheHits;
+    }
+
+    @Nonnull
+    public Long getSearchResultCacheMisses() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return searchResultCacheMisses;             // Cannot be null after validation.
+    }
+
+    public void setSearchResultCacheMisses(@Nonnull final Long searchResultCacheMisses) {
+        beforeSet();
+        this.searchResultCacheMisses = searchResultCacheMisses;
+    }
+
+    @Nonnull
+    public Long getSearchResultCacheEvictions() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return searchResultCacheEvictions;          // Cannot be null after validation.
+    }
+
+    public void setSearchResultCacheEvictions(@Nonnull final Long searchResultCacheEvictions) {
+        beforeSet();
+        this.searchResultCacheEvictions = searchResultCacheEvictions;
+    }
+}
@@ -16,6 +16,9 @@
 
 package com.tomtom.services.configuration.implementation;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.core.JsonParser.Feature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -23,6 +26,8 @@ import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.google.common.base.Splitter;
 import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.domain.CompiledTree;
+import com.tomtom.services.configuration.domain.MatchType;
 import com.tomtom.services.configuration.domain.Node;
 import com.tomtom.services.configuration.dto.NodeDTO;
 import com.tomtom.services.configuration.dto.ParameterDTO;
@@ -31,34 +36,43 @@ import com.tomtom.services.configuration.dto.SearchResultDTO;
 import com.tomtom.services.configuration.dto.SearchResultsDTO;
 import com.tomtom.services.configuration.dto.SupportsInclude;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiException;
+import com.tomtom.speedtools.apivalidation.exceptions.ApiInternalException;
 import com.tomtom.speedtools.objects.Immutables;
-import com.tomtom.speedtools.objects.Tuple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
-import javax.ws.rs.core.Response.Status;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.PatternSyntaxException;
 
-import static com.google.common.base.Strings.nullToEmpty;
 import static com.tomtom.services.configuration.TreeResource.*;
-import static com.tomtom.speedtools.objects.Objects.notNullOr;
 
 /**
  * This class implements the search tree, which consists of nodes and leafs. Every node can have
@@ -68,18 +82,50 @@ import static com.tomtom.speedtools.objects.Objects.notNullOr;
  * Node match strings are unique within children nodes and cannot be empty, except for the root node
  * which is absent.
  */
+@JsonPropertyOrder({"initialConfigurationOK", "root", "configurationServiceProperties"})
 @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
-public class Configuration {
+public class Configuration implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(Configuration.class);
 
+    /**
+     * Re-used (per thread) to build the 'searched' attribute of search results.
+     */
+    private static final ThreadLocal<StringBuilder> SEARCHED_BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+
+    /**
+     * When searches are evaluated in parallel, they are split in this many batches per thread, to
+     * balance the load between threads.
+     */
+    private static final int BATCHES_PER_THREAD = 4;
+
+    /**
+     * Ranges of at most this many searches are sorted with an insertion sort, see
+     * {@link #mergeSortSearches(SearchQuery, int[], int[], int[], int, int)}.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * The generation of the next snapshot. Generations are unique, also between configurations.
+     */
+    private static final AtomicLong NEXT_GENERATION = new AtomicLong();
+
     private final boolean initialConfigurationOK;
 
+    /**
+     * The current snapshot of the configuration: the tree, its compiled form and its pre-rendered responses.
+     * A reload publishes a new snapshot with a single write, so requests which got the snapshot before
+     * a reload finish with the tree they started with.
+     */
+    @JsonIgnore
+    @Nonnull
+    private volatile Snapshot snapshot;
 
     /**
-     * The root node of the tree.
+     * Lock to make sure only one reload runs at a time.
      */
+    @JsonIgnore
     @Nonnull
-    private final Node root;
+    private final Object reloadLock = new Object();
 
     /**
      * The URL to read the configuration tree from.
@@ -87,13 +133,138 @@ public class Configuration {
     @Nonnull
     private final ConfigurationServiceProperties configurationServiceProperties;
 
+    /**
+     * The worker pool to evaluate large multi-search queries in parallel, or null if searches
+     * are always evaluated one after another. Threads are only started once the pool is used.
+     */
+    @JsonIgnore
+    @Nullable
+    private final ForkJoinPool searchPool;
+
+    /**
+     * The thread which reloads the configuration periodically and on request. The thread is only started
+     * once a reload is scheduled.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final ScheduledExecutorService reloadScheduler;
+
+    /**
+     * The reload requested with {@link #reloadInBackground()} which has not started yet, or null if there is none.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final AtomicReference<CompletableFuture<ReloadResult>> pendingReload = new AtomicReference<>();
+
+    /**
+     * The watcher of the configuration files, or null if they are not watched.
+     */
+    @JsonIgnore
+    @Nullable
+    private final ConfigurationWatcher watcher;
+
+    /**
+     * The fetcher for http: and https: configuration sources, which keeps their last responses.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final HttpConfigurationFetcher httpFetcher;
+
+    /**
+     * The listeners which are called when a new snapshot is published.
+     */
+    @JsonIgnore
+    @Nonnull
+    private final List<Runnable> snapshotListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The result of a reload of the configuration.
+     */
+    public enum ReloadResult {
+        RELOADED,           // The configuration changed and the new configuration is used.
+        UNCHANGED,          // The configuration did not change; the current snapshot remains in use.
+        FAILED              // The configuration could not be read or is incorrect; the current snapshot remains in use.
+    }
+
+    /**
+     * This class is an immutable snapshot of the configuration: the tree, its compiled form and its pre-rendered
+     * responses. All data used to handle a request should be taken from the same snapshot.
+     */
+    @Immutable
+    public static final class Snapshot {
+
+        private final long generation;
+
+        @Nonnull
+        private final Node root;
+
+        @Nonnull
+        private final CompiledTree compiledTree;
+
+        @Nonnull
+        private final PreRenderedResponses preRenderedResponses;
+
+        /**
+         * The includes the tree was read from, which can be re-used by the next reload.
+         */
+        @Nonnull
+        private final Map<String, IncludeResolver.ResolvedInclude> includes;
+
+        private Snapshot(
+                @Nonnull final Node root,
+                final boolean generatedLookup,
+                @Nonnull final Map<String, IncludeResolver.ResolvedInclude> includes) {
+            this.generation = NEXT_GENERATION.getAndIncrement();
+            this.root = root;
+            this.compiledTree = new CompiledTree(root, generatedLookup);
+            this.preRenderedResponses = new PreRenderedResponses(root);
+            this.includes = includes;
+        }
+
+        /**
+         * Get the generation of the snapshot, which identifies it. Every snapshot has a different generation.
+         *
+         * @return Generation.
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Get the root node.
+         *
+         * @return Root node. Has an empty match strings.
+         */
+        @Nonnull
+        public Node getRoot() {
+            return root;
+        }
+
+        /**
+         * Get the pre-rendered response bodies of the tree.
+         *
+         * @return Pre-rendered responses.
+         */
+        @Nonnull
+        public PreRenderedResponses getPreRenderedResponses() {
+            return preRenderedResponses;
+        }
+    }
+
     @Inject
     public Configuration(@Nonnull final ConfigurationServiceProperties configurationServiceProperties)
             throws IncorrectConfigurationException {
+        this(configurationServiceProperties, createHttpFetcher(configurationServiceProperties));
+    }
+
+    private Configuration(
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
+            @Nonnull final HttpConfigurationFetcher httpFetcher)
+            throws IncorrectConfigurationException {
 
         // Call the helper constructor and read the configuration as one large string.
-        this(configurationServiceProperties,
-                readConfiguration(configurationServiceProperties.getStartupConfigurationURI()));
+        this(configurationServiceProperties, httpFetcher,
+                readConfiguration(configurationServiceProperties.getStartupConfigurationURI(), httpFetcher));
     }
 
     /**
@@ -108,35 +279,70 @@ public class Configuration {
             @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
             @Nullable final String overrideStartupConfiguration)
             throws IncorrectConfigurationException {
+        this(configurationServiceProperties, createHttpFetcher(configurationServiceProperties), overrideStartupConfiguration);
+    }
+
+    private Configuration(
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
+            @Nonnull final HttpConfigurationFetcher httpFetcher,
+            @Nullable final String overrideStartupConfiguration)
+            throws IncorrectConfigurationException {
 
         // Create an empty root.
         NodeDTO realRoot = new NodeDTO(null, null, null, null, null, null, null);
+        this.httpFetcher = httpFetcher;
+        Map<String, IncludeResolver.ResolvedInclude> includes = Collections.emptyMap();
         boolean realInitialConfigurationOK = false;
         this.configurationServiceProperties = configurationServiceProperties;
+        this.searchPool = (configurationServiceProperties.getParallelSearchThreshold() > 0) ?
+                new ForkJoinPool(configurationServiceProperties.getParallelSearchThreads()) : null;
 
         // If the configuration is specified as a parameter (in tests), use that one.
         if (overrideStartupConfiguration != null) {
-            try {
+            try (final IncludeResolver includeResolver = new IncludeResolver(Collections.emptyMap(), null, httpFetcher,
+                    configurationServiceProperties.getIncludeThreads())) {
 
                 // Read the tree and validate.
-                final NodeDTO rootOfInclude = getRootOfInclude(overrideStartupConfiguration);
-
-                // Validate root and all siblings.
-                rootOfInclude.validate();
+                final NodeDTO rootOfInclude = readTree(overrideStartupConfiguration, includeResolver);
                 LOG.info("Tree: Startup configuration read OK, startupConfiguration={}", rootOfInclude);
 
                 // Use the root just read as the real root.
                 realRoot = rootOfInclude;
+                includes = includeResolver.getResolved();
                 realInitialConfigurationOK = true;
-            } catch (final ApiException | IncorrectConfigurationException e) {
+            } catch (final IncorrectConfigurationException e) {
                 LOG.error("Tree: Startup configuration cannot be read: {}", e.getMessage());
-                throw new IncorrectConfigurationException(e.getMessage());
+                throw e;
             }
         }
 
         // Convert the DTO tree to a domain tree.
-        this.root = new Node(realRoot, null);
+        this.snapshot = new Snapshot(new Node(realRoot, null), configurationServiceProperties.isGeneratedLookup(), includes);
         this.initialConfigurationOK = realInitialConfigurationOK;
+
+        // Watch the configuration files, if needed. Only files which changed are read again.
+        ConfigurationWatcher realWatcher = null;
+        if (configurationServiceProperties.isWatchFiles() &&
+                (ConfigurationWatcher.getPath(configurationServiceProperties.getStartupConfigurationURI()) != null)) {
+            try {
+                realWatcher = new ConfigurationWatcher(this::reload);
+                realWatcher.watch(getURIs(snapshot));
+            } catch (final IOException e) {
+                LOG.warn("Tree: Cannot watch configuration files, message={}", e.getMessage());
+            }
+        }
+        this.watcher = realWatcher;
+
+        // Start reloading the configuration periodically, if needed. The first reload is one interval from now.
+        this.reloadScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "configuration-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final int reloadIntervalSecs = configurationServiceProperties.getReloadIntervalSecs();
+        if (reloadIntervalSecs > 0) {
+            this.reloadScheduler.scheduleWithFixedDelay(this::reload, reloadIntervalSecs, reloadIntervalSecs, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -160,13 +366,195 @@ public class Configuration {
     }
 
     /**
-     * Get the root node.
+     * Get the current snapshot of the configuration. A request should get the snapshot once and use it
+     * throughout, so a reload does not change the tree halfway the request.
+     *
+     * @return Current snapshot.
+     */
+    @JsonIgnore
+    @Nonnull
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get the root node of the current snapshot.
      *
      * @return Root node. Has an empty match strings.
      */
+    @JsonProperty("root")
     @Nonnull
     public Node getRoot() {
-        return root;
+        return snapshot.root;
+    }
+
+    /**
+     * Get the pre-rendered response bodies of the tree of the current snapshot.
+     *
+     * @return Pre-rendered responses.
+     */
+    @JsonIgnore
+    @Nonnull
+    public PreRenderedResponses getPreRenderedResponses() {
+        return snapshot.preRenderedResponses;
+    }
+
+    /**
+     * Re-read the configuration, including its includes, from the start-up configuration URI. The new tree is
+     * read, validated and compiled by the calling thread, before it is published as a new snapshot with a
+     * single write. Requests which are in progress finish with the snapshot they started with. If the
+     * configuration cannot be read or is incorrect, the current snapshot remains in use.
+     * <p>
+     * The snapshot listeners are called once the new snapshot is published, to clear the caches
+     * of the previous snapshot.
+     *
+     * @return Result of the reload.
+     */
+    @Nonnull
+    public ReloadResult reload() {
+        return reload(null);
+    }
+
+    /**
+     * Re-read the configuration, like {@link #reload()}, on the reload thread rather than the calling thread.
+     * Requests which arrive before the reload starts share it, so a burst of requests causes a single
+     * reload. Requests which arrive while a reload is running cause one more reload after it, so every
+     * request sees the configuration as it was when the request was made.
+     *
+     * @return Result of the reload, which is FAILED if the configuration is closed before the reload starts,
+     * or if the reload throws (for example in a snapshot listener). The result is always completed.
+     */
+    @Nonnull
+    public CompletableFuture<ReloadResult> reloadInBackground() {
+        while (true) {
+
+            // Share the reload which has not started yet, if there is one.
+            final CompletableFuture<ReloadResult> pending = pendingReload.get();
+            if (pending != null) {
+                return pending;
+            }
+            final CompletableFuture<ReloadResult> result = new CompletableFuture<>();
+            if (pendingReload.compareAndSet(null, result)) {
+                try {
+                    reloadScheduler.execute(() -> {
+
+                        // Requests from now on need another reload, as this one may miss their changes.
+                        pendingReload.compareAndSet(result, null);
+                        try {
+                            result.complete(reload());
+                        } catch (final Throwable e) {
+
+                            // Complete the result anyway, or requests which wait for it would never get a response.
+                            LOG.error("reloadInBackground: reload failed", e);
+                            result.complete(ReloadResult.FAILED);
+                        }
+                    });
+                } catch (final RejectedExecutionException ignored) {
+                    pendingReload.compareAndSet(result, null);
+                    result.complete(ReloadResult.FAILED);
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Re-read the configuration, like {@link #reload()}, if only some of its files changed. Includes which do not
+     * depend on these files are not read again, but re-used from the current snapshot. The configuration file
+     * itself is always read again.
+     *
+     * @param changedURIs URIs of the files which changed, or null if any file may have changed.
+     * @return Result of the reload.
+     */
+    @Nonnull
+    ReloadResult reload(@Nullable final Set<String> changedURIs) {
+        final String uri = getStartupConfigurationURI();
+        synchronized (reloadLock) {
+            LOG.info("reload: reload configuration, uri={}, changed={}", uri, (changedURIs == null) ? "all" : changedURIs);
+            final Node newRoot;
+            final Snapshot newSnapshot;
+            try (final IncludeResolver includeResolver = new IncludeResolver(snapshot.includes, changedURIs, httpFetcher,
+                    configurationServiceProperties.getIncludeThreads())) {
+                newRoot = new Node(readTree(readConfiguration(uri, httpFetcher), includeResolver), null);
+
+                // Keep the current snapshot (and its caches) if nothing changed. The ETag covers the entire tree.
+                if (newRoot.getETag().equals(snapshot.root.getETag())) {
+                    LOG.info("reload: configuration unchanged, uri={}", uri);
+                    return ReloadResult.UNCHANGED;
+                }
+                newSnapshot = new Snapshot(newRoot, configurationServiceProperties.isGeneratedLookup(),
+                        includeResolver.getResolved());
+            } catch (final IncorrectConfigurationException | RuntimeException e) {
+                LOG.error("reload: configuration cannot be read, keep using current configuration: {}", e.getMessage());
+                return ReloadResult.FAILED;
+            }
+
+            // Publish the new snapshot, and watch the files it was read from. Caches of the previous snapshot are cleared.
+            snapshot = newSnapshot;
+            for (final Runnable snapshotListener : snapshotListeners) {
+                snapshotListener.run();
+            }
+            if (watcher != null) {
+                watcher.watch(getURIs(newSnapshot));
+            }
+            LOG.info("reload: configuration reloaded, uri={}, etag={}", uri, newRoot.getETag());
+            return ReloadResult.RELOADED;
+        }
+    }
+
+    /**
+     * Add a listener which is called when a new snapshot is published, for example to clear caches
+     * which refer to the previous snapshot. The listener is called by the thread which reloads the configuration.
+     *
+     * @param snapshotListener Listener.
+     */
+    public void addSnapshotListener(@Nonnull final Runnable snapshotListener) {
+        snapshotListeners.add(snapshotListener);
+    }
+
+    /**
+     * Stop the threads of the configuration: stop reloading the configuration and watching its files,
+     * if it was, and stop the worker threads for parallel searches. A reload which was requested but had not
+     * started yet results in FAILED. Searches are evaluated one after another from then on. This is called
+     * when the service stops.
+     */
+    @Override
+    public void close() {
+        reloadScheduler.shutdownNow();
+        final CompletableFuture<ReloadResult> pending = pendingReload.getAndSet(null);
+        if (pending != null) {
+            pending.complete(ReloadResult.FAILED);
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (searchPool != null) {
+            searchPool.shutdownNow();
+        }
+    }
+
+    @Nonnull
+    private static HttpConfigurationFetcher createHttpFetcher(@Nonnull final ConfigurationServiceProperties configurationServiceProperties) {
+        return new HttpConfigurationFetcher(
+                configurationServiceProperties.getHttpConnectTimeoutMillis(),
+                configurationServiceProperties.getHttpReadTimeoutMillis(),
+                configurationServiceProperties.getHttpCacheDirectory());
+    }
+
+    /**
+     * Return the URIs of the files a snapshot was read from: the configuration file and its includes.
+     *
+     * @param snapshot Snapshot.
+     * @return URIs.
+     */
+    @Nonnull
+    private Set<String> getURIs(@Nonnull final Snapshot snapshot) {
+        final Set<String> uris = new HashSet<>();
+        uris.add(getStartupConfigurationURI());
+        for (final IncludeResolver.ResolvedInclude resolvedInclude : snapshot.includes.values()) {
+            uris.addAll(resolvedInclude.getURIs());
+        }
+        return uris;
     }
 
     /**
@@ -179,148 +567,485 @@ public class Configuration {
      */
     @Nonnull
     SearchResultsDTO matchNode(@Nonnull final List<Map<String, String>> levelSearchTermsList) {
+        return matchNode(snapshot, SearchQuery.of(levelSearchTermsList));
+    }
 
-        // Result list.
-        final List<SearchResultDTO> results = new ArrayList<>();
+    /**
+     * Find the deepest node which matches the provide search path and which has a leaf with parameters
+     * attached to it, for every search of a query, in the current snapshot.
+     *
+     * @param query Query, which holds the search terms of all searches.
+     * @return Empty list if no matching node was found. Otherwise a list of tuples with the parameters of the deepest node found
+     * and the full path to the matching node.
+     */
+    @Nonnull
+    SearchResultsDTO matchNode(@Nonnull final SearchQuery query) {
+        return matchNode(snapshot, query);
+    }
 
-        // Process all search queries.
-        for (final Map<String, String> levelSearchTerms : levelSearchTermsList) {
-            LOG.debug("matchNode: search #{}, levelSearchTerms={}", results.size() + 1, levelSearchTerms);
+    /**
+     * Find the deepest node which matches the provide search path and which has a leaf with parameters
+     * attached to it, for every search of a query.
+     * <p>
+     * The searches are evaluated in the order of their search terms, rather than in request order. Searches
+     * which share leading search terms are then evaluated one after another, so the shared part of the path
+     * through the tree is only resolved once, and identical searches are only evaluated once. The results
+     * are returned in request order.
+     *
+     * @param snapshot Snapshot to search.
+     * @param query    Query, which holds the search terms of all searches.
+     * @return Empty list if no matching node was found. Otherwise a list of tuples with the parameters of the deepest node found
+     * and the full path to the matching node.
+     * @throws ApiInternalException If a regular expression exceeded its step budget for a search term.
+     */
+    @Nonnull
+    SearchResultsDTO matchNode(@Nonnull final Snapshot snapshot, @Nonnull final SearchQuery query) {
+        final int nrOfSearches = query.getNrOfSearches();
+
+        // Find the query columns of the levels of the tree once, for all searches.
+        final int[] columns = query.getColumns(snapshot.root.getLevels());
+
+        // Group searches with shared leading search terms.
+        final int[] order = sortSearches(query, columns);
+
+        // Process all search queries, in parallel if there are many of them.
+        final SearchResultDTO[] results = new SearchResultDTO[nrOfSearches];
+        final int threshold = configurationServiceProperties.getParallelSearchThreshold();
+        final boolean found;
+        if ((searchPool != null) && (nrOfSearches >= threshold) && !searchPool.isShutdown()) {
+            LOG.debug("matchNode: {} searches, in parallel", nrOfSearches);
+            final int batchSize = Math.max(1, nrOfSearches / (searchPool.getParallelism() * BATCHES_PER_THREAD));
+            found = searchPool.invoke(new MatchNodeTask(snapshot, query, columns, order, results, 0, nrOfSearches, batchSize, new AtomicBoolean()));
+        } else {
+            found = matchNodes(snapshot, query, columns, order, results, 0, nrOfSearches, null);
+        }
+
+        if (!found) {
 
-            /*
-             * Search tree for parameters. Start with assuming the search fails and the result is
-             * the ultimate fallback: the parameters of the root node.
+            /**
+             * If no parameters were found, anywhere, then return an empty list. This indicates at least one
+             * of the queries was not successful. The other queries will not even be executed.
              */
-            Node nodeOfParameters = root;       // This points at the node the parameters were taken from.
-            Node nodeToCheck = root;            // This points at the node to we need to dive into.
-            if (root.getLevels() != null) {     // Only execute search if levels actually exist.
+            return new SearchResultsDTO(Immutables.emptyList());
+        }
+        final SearchResultsDTO searchResults = new SearchResultsDTO(Arrays.asList(results));
+        return searchResults;
+    }
 
-                for (final String levelName : root.getLevels()) {
-                    boolean found = false;          // This indicates whether we found a match or not.
+    /**
+     * Match a range of searches of a query and store the results at their search index.
+     *
+     * @param snapshot Snapshot to search.
+     * @param query    Query, which holds the search terms of all searches.
+     * @param columns  Query column per level of the tree, see {@link SearchQuery#getColumns(List)}.
+     * @param order    Search indexes, in the order in which the searches are evaluated.
+     * @param results  Array to store the results in, per search index.
+     * @param from     First index in the order (inclusive).
+     * @param to       Last index in the order (exclusive).
+     * @param notFound Flag shared by parallel tasks: set when a search fails, so others can stop early.
+     *                 Null if the searches are not evaluated in parallel.
+     * @return False if a search failed to find any parameters, true otherwise.
+     */
+    private static boolean matchNodes(
+            @Nonnull final Snapshot snapshot,
+            @Nonnull final SearchQuery query,
+            @Nonnull final int[] columns,
+            @Nonnull final int[] order,
+            @Nonnull final SearchResultDTO[] results,
+            final int from,
+            final int to,
+            @Nullable final AtomicBoolean notFound) {
+        final TreeWalk treeWalk = new TreeWalk(snapshot, query, columns);
+        for (int i = from; i < to; ++i) {
+            if ((notFound != null) && notFound.get()) {
+                return false;
+            }
+            final int search = order[i];
+            LOG.debug("matchNode: search #{}", search + 1);
+
+            final int previousSearch = treeWalk.getPreviousSearch();
+            final Node nodeOfParameters = treeWalk.findNodeOfParameters(search);
+            if (nodeOfParameters == null) {
+                if (notFound != null) {
+                    notFound.set(true);
+                }
+                return false;
+            }
+
+            // Identical searches share their result.
+            if (treeWalk.isSameAsPrevious()) {
+                LOG.debug("matchNode:   same as search #{}", previousSearch + 1);
+                results[search] = results[previousSearch];
+                continue;
+            }
+
+            // Return the non-null parameters of the found node, or the root parameters as a fallback.
+            final SearchResultDTO searchResult = new SearchResultDTO(nodeOfParameters);
+
+            // Set the 'searched' attribute.
+            final String searched = createSearched(snapshot, query, columns, search);
+            searchResult.setSearched(searched);
+
+            // Set the 'matched' of the node from which the parameters were gotten.
+            final String matched = nodeOfParameters.getMatched();
+            searchResult.setMatched(matched);
+            results[search] = searchResult;
+            LOG.debug("matchNode:   searched={}, matched={}", searched, matched);
+        }
+        return true;
+    }
+
+    /**
+     * Return the search indexes of a query, ordered by their search terms (level by level), so searches
+     * with shared leading search terms are next to each other.
+     *
+     * @param query   Query, which holds the search terms of all searches.
+     * @param columns Query column per level of the tree, see {@link SearchQuery#getColumns(List)}.
+     * @return Search indexes.
+     */
+    @Nonnull
+    private static int[] sortSearches(@Nonnull final SearchQuery query, @Nonnull final int[] columns) {
+        final int nrOfSearches = query.getNrOfSearches();
+        final int[] order = new int[nrOfSearches];
+
+        // Most queries are already in order (or have a single search term), so check that first.
+        Arrays.setAll(order, i -> i);
+        boolean isSorted = true;
+        for (int i = 1; isSorted && (i < nrOfSearches); ++i) {
+            isSorted = compareSearches(query, columns, i - 1, i) <= 0;
+        }
+        if (!isSorted) {
+            mergeSortSearches(query, columns, order, new int[nrOfSearches], 0, nrOfSearches);
+        }
+        return order;
+    }
+
+    /**
+     * Sort a range of search indexes (stable), see {@link #sortSearches(SearchQuery, int[])}. The indexes
+     * are sorted as primitives, so sorting does not box them.
+     *
+     * @param query   Query, which holds the search terms of all searches.
+     * @param columns Query column per level of the tree.
+     * @param order   Search indexes, the range is sorted in place.
+     * @param temp    Temporary array, of the same size as order.
+     * @param from    First index of the range (inclusive).
+     * @param to      Last index of the range (exclusive).
+     */
+    private static void mergeSortSearches(
+            @Nonnull final SearchQuery query,
+            @Nonnull final int[] columns,
+            @Nonnull final int[] order,
+            @Nonnull final int[] temp,
+            final int from,
+            final int to) {
+
+        // Use an insertion sort for small ranges.
+        if ((to - from) <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; ++i) {
+                final int search = order[i];
+                int j = i - 1;
+                while ((j >= from) && (compareSearches(query, columns, order[j], search) > 0)) {
+                    order[j + 1] = order[j];
+                    --j;
+                }
+                order[j + 1] = search;
+            }
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        mergeSortSearches(query, columns, order, temp, from, middle);
+        mergeSortSearches(query, columns, order, temp, middle, to);
+        if (compareSearches(query, columns, order[middle - 1], order[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, temp, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; ++i) {
+            if ((right >= to) || ((left < middle) && (compareSearches(query, columns, temp[left], temp[right]) <= 0))) {
+                order[i] = temp[left];
+                ++left;
+            } else {
+                order[i] = temp[right];
+                ++right;
+            }
+        }
+    }
+
+    /**
+     * Compare two searches by their search terms, level by level.
+     *
+     * @param query   Query, which holds the search terms of all searches.
+     * @param columns Query column per level of the tree.
+     * @param search1 Index of the first search.
+     * @param search2 Index of the second search.
+     * @return Negative, zero or positive, like {@link Comparable#compareTo(Object)}.
+     */
+    private static int compareSearches(
+            @Nonnull final SearchQuery query,
+            @Nonnull final int[] columns,
+            final int search1,
+            final int search2) {
+        for (final int column : columns) {
+            final int compare = query.getSearchTerm(column, search1).compareTo(query.getSearchTerm(column, search2));
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Task to match a range of searches in parallel. Ranges larger than the batch size are split in two.
+     * The results are stored at their search index, so their order is kept.
+     */
+    private static final class MatchNodeTask extends RecursiveTask<Boolean> {
+
+        @Nonnull
+        private final Snapshot snapshot;
+        @Nonnull
+        private final SearchQuery query;
+        @Nonnull
+        private final int[] columns;
+        @Nonnull
+        private final int[] order;
+        @Nonnull
+        private final SearchResultDTO[] results;
+        private final int from;
+        private final int to;
+        private final int batchSize;
+        @Nonnull
+        private final AtomicBoolean notFound;
+
+        MatchNodeTask(
+                @Nonnull final Snapshot snapshot,
+                @Nonnull final SearchQuery query,
+                @Nonnull final int[] columns,
+                @Nonnull final int[] order,
+                @Nonnull final SearchResultDTO[] results,
+                final int from,
+                final int to,
+                final int batchSize,
+                @Nonnull final AtomicBoolean notFound) {
+            this.snapshot = snapshot;
+            this.query = query;
+            this.columns = columns;
+            this.order = order;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+            this.notFound = notFound;
+        }
+
+        @Override
+        @Nonnull
+        protected Boolean compute() {
+            if ((to - from) <= batchSize) {
+                return matchNodes(snapshot, query, columns, order, results, from, to, notFound);
+            }
+            final int middle = (from + to) >>> 1;
+            final MatchNodeTask left = new MatchNodeTask(snapshot, query, columns, order, results, from, middle, batchSize, notFound);
+            final MatchNodeTask right = new MatchNodeTask(snapshot, query, columns, order, results, middle, to, batchSize, notFound);
+            left.fork();
+            final boolean rightFound = right.compute();
+            final boolean leftFound = left.join();
+            return leftFound && rightFound;
+        }
+    }
+
+    /**
+     * This class walks the tree for a sequence of searches. It keeps the path found for the previous
+     * search, so a search which shares leading search terms with the previous search resumes the walk
+     * after the shared search terms, rather than at the root. Walking the tree does not allocate any
+     * objects: it only uses the node ids and arrays of the compiled tree and re-uses the matchers of the
+     * current thread.
+     */
+    private static final class TreeWalk {
+
+        @Nonnull
+        private final Node root;
+
+        @Nonnull
+        private final CompiledTree compiledTree;
+
+        @Nonnull
+        private final SearchQuery query;
+
+        @Nonnull
+        private final int[] columns;
+
+        /**
+         * The id of the node whose children are matched against the search term of a level, per level.
+         */
+        @Nonnull
+        private final int[] nodesToCheck;
+
+        /**
+         * The id of the deepest node with parameters on the path, before a level is matched, per level.
+         */
+        @Nonnull
+        private final int[] nodesOfParameters;
+
+        /**
+         * The number of levels matched by the previous search.
+         */
+        private int matchedLevels;
+
+        /**
+         * The previous search, or -1 if none.
+         */
+        private int previousSearch = -1;
+
+        /**
+         * True if the last search had the same search terms as the one before it.
+         */
+        private boolean sameAsPrevious;
+
+        TreeWalk(@Nonnull final Snapshot snapshot, @Nonnull final SearchQuery query, @Nonnull final int[] columns) {
+            this.root = snapshot.root;
+            this.compiledTree = snapshot.compiledTree;
+            this.query = query;
+            this.columns = columns;
+            this.nodesToCheck = new int[columns.length + 1];
+            this.nodesOfParameters = new int[columns.length + 1];
+            this.nodesToCheck[0] = CompiledTree.ROOT;
+            this.nodesOfParameters[0] = CompiledTree.ROOT;
+        }
+
+        int getPreviousSearch() {
+            return previousSearch;
+        }
+
+        boolean isSameAsPrevious() {
+            return sameAsPrevious;
+        }
+
+        /**
+         * Find the deepest node which matches a single search and which has a leaf with parameters attached
+         * to it.
+         *
+         * @param search Index of the search in the query.
+         * @return The deepest matching node with parameters, the root node if no other node was found, or
+         * null if no node was found and the root has no parameters either.
+         */
+        @Nullable
+        Node findNodeOfParameters(final int search) {
+
+            // Determine the number of leading search terms this search shares with the previous one.
+            int sharedLevels = 0;
+            if (previousSearch >= 0) {
+                while ((sharedLevels < columns.length) &&
+                        query.getSearchTerm(columns[sharedLevels], search).equals(
+                                query.getSearchTerm(columns[sharedLevels], previousSearch))) {
+                    ++sharedLevels;
+                }
+            }
+            sameAsPrevious = (previousSearch >= 0) && (sharedLevels == columns.length);
+            previousSearch = search;
+
+            /**
+             * If the previous search stopped within the shared search terms, this one stops at the
+             * same level. Otherwise, resume the walk after the shared search terms.
+             */
+            if (sharedLevels <= matchedLevels) {
+                int level = sharedLevels;
+                final List<String> levels = root.getLevels();
+                while (level < columns.length) {
+                    assert levels != null;
+                    final String levelName = levels.get(level);
+                    final int nodeToCheck = nodesToCheck[level];
 
                     // Find the corresponding search term in the query.
-                    final String searchTerm = nullToEmpty(levelSearchTerms.get(levelName));
+                    final String searchTerm = query.getSearchTerm(columns[level], search);
                     LOG.debug("matchNode:   {}={}", levelName, searchTerm);
 
                     /**
-                     * Check all children nodes of this node (if they exist).
+                     * First check for an 'exact' literal (non-regex) match. If the string match is exact,
+                     * regular expression matches will not be checked. This is to make sure that if
+                     * a ".*" node is specified "left of" other nodes, it does not overrule literal
+                     * matches.
                      */
-                    final Collection<Node> children = nodeToCheck.getNodes();
-                    if (children != null) {
-
-                        /**
-                         * First check all 'exact' literal (non-regex) matches. If the string match is exact,
-                         * regular expression matches will not be checked. This is to make sure that if
-                         * a ".*" node is specified "left of" other nodes, it does not overrule literal
-                         * matches.
-                         */
-                        final List<Node> nonExactMatches = new ArrayList<>();
-                        for (final Node child : children) {
-
-                            // The name of children is a regex.
-                            final String name = child.getMatch();
-                            assert name != null;
-
-                            // Check if the term matches the node name literally.
-                            //noinspection ConstantConditions
-                            if (searchTerm.matches(createCaseInsensitivePattern(Pattern.quote(name)))) {
-                                LOG.debug("matchNode:     FOUND, literal match, {}={}", levelName, name);
-                                found = true;
-
-                                /**
-                                 * Remember the parameters of this child node, as it is more specific than the
-                                 * one kept until now.
-                                 */
-                                if (child.getParameters() != null) {
-                                    nodeOfParameters = child;
-                                }
-
-                                // Start next search in this subtree.
-                                nodeToCheck = child;
-                                break;
-                            } else {
-
-                                // Keep this node for second round, checking regex matches.
-                                nonExactMatches.add(child);
-                            }
+                    int matchingChild = compiledTree.findLiteralChild(nodeToCheck, searchTerm);
+                    if (matchingChild != CompiledTree.NOT_FOUND) {
+
+                        // The match string of a compactly stored child is decoded when asked for, so only do that if it is logged.
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("matchNode:     FOUND, literal match, {}={}", levelName, compiledTree.getMatch(matchingChild));
                         }
+                    } else {
+
+                        // Second round: only if no exact match was found, check typed match strings (ranges, prefixes, etc.).
+                        matchingChild = compiledTree.findTypedChild(nodeToCheck, searchTerm);
+                        if (matchingChild != CompiledTree.NOT_FOUND) {
+                            LOG.debug("matchNode:     FOUND, typed match, {}={}", levelName, compiledTree.getMatch(matchingChild));
+                        } else {
+
+                            // Third round: only if no exact or typed match was found, check regular expressions.
+                            matchingChild = compiledTree.findRegexChild(nodeToCheck, searchTerm);
+                            if (matchingChild == CompiledTree.BUDGET_EXCEEDED) {
 
-                        // Second round: only if no exact match was found, check regular expressions.
-                        if (!found) {
-                            for (final Node child : nonExactMatches) {
-
-                                // The name of children is a regex.
-                                final String match = child.getMatch();
-                                assert match != null;
-
-                                //noinspection ConstantConditions
-                                if (searchTerm.matches(createCaseInsensitivePattern(match))) {
-                                    LOG.debug("matchNode:     FOUND, regular expression match, {}={}", levelName, match);
-                                    found = true;
-
-                                    /**
-                                     * Remember the parameters of this child node, as it is more specific than the
-                                     * one kept until now.
-                                     */
-                                    if (child.getParameters() != null) {
-                                        nodeOfParameters = child;
-                                    }
-
-                                    // Start next search in this subtree.
-                                    nodeToCheck = child;
-                                    break;
-                                }
+                                // Do not fall back to less specific nodes: the node which would match is unknown.
+                                throw new ApiInternalException("Regular expression step budget exceeded: " +
+                                        levelName + '=' + searchTerm);
+                            }
+                            if (matchingChild != CompiledTree.NOT_FOUND) {
+                                LOG.debug("matchNode:     FOUND, regular expression match, {}={}", levelName, compiledTree.getMatch(matchingChild));
                             }
                         }
                     }
 
                     // Stop searching for deeper path terms if we couldn't find a match for this term.
-                    if (!found) {
+                    if (matchingChild == CompiledTree.NOT_FOUND) {
                         LOG.debug("matchNode:    NOT FOUND, nothing for {}={}", levelName, searchTerm);
                         break;
                     }
-                }
-            }
-
-            final SearchResultDTO searchResult;
-            //noinspection ObjectEquality
-            if (nodeOfParameters == root) {
-
-                if (root.getParameters() == null) {
 
                     /**
-                     * If no parameters were found, anywhere, then return an empty list. This indicates at least one
-                     * of the queries was not successful. The other queries will not even be executed.
+                     * Remember the parameters of this child node, as it is more specific than the
+                     * one kept until now. Then start next search in this subtree.
                      */
-                    return new SearchResultsDTO(Immutables.emptyList());
-                } else {
-
-                    // Return the non-null root parameters as a fallback if no matches were found.
-                    searchResult = new SearchResultDTO(root);
+                    nodesOfParameters[level + 1] = compiledTree.hasParameters(matchingChild) ?
+                            matchingChild : nodesOfParameters[level];
+                    nodesToCheck[level + 1] = matchingChild;
+                    ++level;
                 }
-            } else {
-
-                // Return the non-null parameters of the found node.
-                searchResult = new SearchResultDTO(nodeOfParameters);
+                matchedLevels = level;
             }
-
-            // Set the 'searched' attribute.
-            @SuppressWarnings("NonConstantStringShouldBeStringBuffer")
-            String searched = "";
-            for (final String levelName : root.getLevels()) {
-                final String searchTerm = nullToEmpty(levelSearchTerms.get(levelName));
-                searched = searched + (searched.isEmpty() ? "" : "&") + levelName + '=' + searchTerm;
+            final int nodeOfParameters = nodesOfParameters[matchedLevels];
+            if ((nodeOfParameters == CompiledTree.ROOT) && (root.getParameters() == null)) {
+                return null;
             }
-            searchResult.setSearched(searched);
+            return compiledTree.getNode(nodeOfParameters);
+        }
+    }
 
-            // Set the 'matched' of the node from which the parameters were gotten.
-            final String matched = getMatchedValue(0, root, nodeOfParameters, "").getValue1();
-            searchResult.setMatched(matched);
-            results.add(searchResult);
-            LOG.debug("matchNode:   searched={}, matched={}", searched, matched);
+    /**
+     * Create the 'searched' attribute of a search result: "level=term&level=term...".
+     *
+     * @param snapshot Snapshot which is searched.
+     * @param query    Query, which holds the search terms of all searches.
+     * @param columns  Query column per level of the tree, see {@link SearchQuery#getColumns(List)}.
+     * @param search   Index of the search in the query.
+     * @return Search terms, for all levels.
+     */
+    @Nonnull
+    private static String createSearched(
+            @Nonnull final Snapshot snapshot,
+            @Nonnull final SearchQuery query,
+            @Nonnull final int[] columns,
+            final int search) {
+        final List<String> levels = snapshot.root.getLevels();
+        final StringBuilder searched = SEARCHED_BUILDER.get();
+        searched.setLength(0);
+        for (int level = 0; level < columns.length; ++level) {
+            assert levels != null;
+            if (level > 0) {
+                searched.append('&');
+            }
+            searched.append(levels.get(level)).append('=').append(query.getSearchTerm(columns[level], search));
         }
-        final SearchResultsDTO searchResults = new SearchResultsDTO(results);
-        return searchResults;
+        return searched.toString();
     }
 
     /**
@@ -334,6 +1059,19 @@ public class Configuration {
      */
     @Nullable
     Node findNode(@Nonnull final String fullNodePath) {
+        return findNode(snapshot, fullNodePath);
+    }
+
+    /**
+     * Given a full node path, return the node in a snapshot, or null.
+     *
+     * @param snapshot     Snapshot to search.
+     * @param fullNodePath Full path to a node, separated by separators.
+     * @return Null if not found. Otherwise the node found.
+     */
+    @Nullable
+    static Node findNode(@Nonnull final Snapshot snapshot, @Nonnull final String fullNodePath) {
+        final Node root = snapshot.root;
 
         // Trim path.
         final String trimmedFullNodePath = fullNodePath.trim();
@@ -348,96 +1086,32 @@ public class Configuration {
         // Search tree for right node.
         Node node = root;
         for (final String sub : Splitter.on(SEPARATOR_PATH).trimResults().split(trimmedFullNodePath)) {
-            boolean found = false;
-            final Collection<Node> children = node.getNodes();
-            if (children != null) {
-                for (final Node child : children) {
-                    final String name = notNullOr(child.getMatch(), "");
-                    if (name.equals(sub)) {
-                        found = true;
-                        node = child;
-                        break;
-                    }
-                }
-            }
-
-            if (!found) {
+            node = node.findChild(sub);
+            if (node == null) {
                 return null;
             }
         }
         return node;
     }
 
-    /**
-     * Get matched search terms. Note that the node object itself will be searched for, so the method
-     * will use an object equality test to find a specific node, not an equals() test.
-     *
-     * @param level      Number of level at which we are searching.
-     * @param tree       Tree to search the node in.
-     * @param node       Node to search for.
-     * @param pathPrefix Path to be used as prefix (without trailing '/').
-     *                   This is supplied to be able to make the method recursively callable.
-     * @return A tuple with as value 1 the matched search terms, within the specified tree and as value 2 a boolean
-     * which indicates whether the node was found or not. If not, the returned path equals the path prefix.
-     */
-    @Nonnull
-    private Tuple<String, Boolean> getMatchedValue(
-            final int level,
-            @Nonnull final Node tree,
-            @Nullable final Node node,
-            @Nonnull final String pathPrefix) {
-        if (tree.getNodes() != null) {
-            for (final Node child : tree.getNodes()) {
-
-                // Get level name.
-                assert root.getLevels() != null;
-                assert level < root.getLevels().size();
-                @SuppressWarnings("ConstantConditions")
-                final String levelName = root.getLevels().get(level);
-
-                // Get match string from node.
-                final String nodeMatch = notNullOr(child.getMatch(), "");
-
-                // Check if this is the exact node (object equality).
-                //noinspection ObjectEquality
-                if (child == node) {
-
-                    // Get level name and append search term.
-                    return new Tuple<>(pathPrefix + (pathPrefix.isEmpty() ? "" : "&") + levelName + '=' + nodeMatch, true);
-                } else {
-                    final Tuple<String, Boolean> found = getMatchedValue(level + 1, child, node,
-                            pathPrefix + (pathPrefix.isEmpty() ? "" : "&") + levelName + '=' + nodeMatch);
-                    if (found.getValue2()) {
-                        return found;
-                    }
-                }
-            }
-        }
-        return new Tuple<>(pathPrefix, false);
-    }
-
     /**
      * Read a configuration from a URI, which may be prefixed http:, https:, file: or classpath:.
      * The configuration is returned as a single concatenated string.
      *
-     * @param uri URI to read from.
+     * @param uri         URI to read from.
+     * @param httpFetcher Fetcher for http: and https: URIs.
      * @return Concatenated input lines, or null if reading the configuration failed.
      */
     @Nonnull
-    private static String readConfiguration(@Nonnull final String uri) throws IncorrectConfigurationException {
+    static String readConfiguration(
+            @Nonnull final String uri,
+            @Nonnull final HttpConfigurationFetcher httpFetcher) throws IncorrectConfigurationException {
         InputStreamReader inputStreamReader = null;
         try {
-            if (uri.startsWith("http:") || uri.startsWith("https:")) {
-                final URL httpURL = new URL(uri);
-                final HttpURLConnection connection = (HttpURLConnection) httpURL.openConnection();
-                connection.setRequestMethod("GET");
-
-                final int responseCode = connection.getResponseCode();
-                if (responseCode != Status.OK.getStatusCode()) {
-                    throw new IncorrectConfigurationException("Could not read startup configuration, uri=" + uri + ", responseCode={}" + responseCode);
-                }
-                //noinspection IOResourceOpenedButNotSafelyClosed
-                inputStreamReader = new InputStreamReader(connection.getInputStream());
+            if (HttpConfigurationFetcher.isHttp(uri)) {
+
+                // Only downloaded if it changed since it was last read.
+                inputStreamReader = new InputStreamReader(new ByteArrayInputStream(httpFetcher.fetch(uri)));
 
             } else if (uri.startsWith("file:")) {
                 final String filename = uri.replaceFirst("file::?", "");
@@ -461,9 +1135,11 @@ public class Configuration {
         } catch (final IOException e) {
             LOG.warn("readConfiguration: {}, message={}", uri, e.getMessage());
             try {
-                assert inputStreamReader != null;
-                //noinspection ConstantConditions
-                inputStreamReader.close();
+
+                // The reader is null if the resource could not be opened (for example, a missing file).
+                if (inputStreamReader != null) {
+                    inputStreamReader.close();
+                }
             } catch (final IOException ignored) {
                 // Ignored.
             }
@@ -524,15 +1200,61 @@ public class Configuration {
         }
     }
 
+    /**
+     * Read a tree from a configuration, inline its includes and validate it.
+     *
+     * @param content         Configuration.
+     * @param includeResolver Resolver for the includes of the configuration.
+     * @return Root of the tree.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
+    @Nonnull
+    private static NodeDTO readTree(
+            @Nonnull final String content,
+            @Nonnull final IncludeResolver includeResolver) throws IncorrectConfigurationException {
+        try {
+            final NodeDTO root = getRootOfInclude(content, includeResolver);
+
+            // Validate root and all siblings.
+            root.validate();
+            return root;
+        } catch (final ApiException e) {
+            throw new IncorrectConfigurationException(e.getMessage());
+        }
+    }
+
+    /**
+     * Package private. Read a tree from a configuration, inline its includes and validate it, as when the
+     * configuration is read. Used for testing how includes are inlined.
+     *
+     * @param content        Configuration.
+     * @param includeThreads Number of threads to read include files ahead with, 0 for none.
+     * @return Root of the tree.
+     * @throws IncorrectConfigurationException If the configuration is incorrect.
+     */
+    @Nonnull
+    static NodeDTO readTree(
+            @Nonnull final String content,
+            final int includeThreads) throws IncorrectConfigurationException {
+        try (final IncludeResolver includeResolver = new IncludeResolver(Collections.emptyMap(), null,
+                new HttpConfigurationFetcher(0, 0, ""), includeThreads)) {
+            return readTree(content, includeResolver);
+        }
+    }
+
     @Nonnull
-    private static NodeDTO getRootOfInclude(@Nonnull final String content)
-            throws IncorrectConfigurationException {
+    private static NodeDTO getRootOfInclude(
+            @Nonnull final String content,
+            @Nonnull final IncludeResolver includeResolver) throws IncorrectConfigurationException {
 
         // Read the tree from the configuration.
         final NodeDTO rootNotExpanded = getChildObjectFromConfiguration(content, constructType(NodeDTO.class));
 
+        // Start reading the include files ahead, while they are inlined one after another.
+        includeResolver.prefetchIncludes(rootNotExpanded);
+
         // Inline all includes recursively.
-        final List<NodeDTO> rootExpanded = expandAllIncludes(rootNotExpanded, new ArrayList<>());
+        final List<NodeDTO> rootExpanded = expandAllIncludes(rootNotExpanded, includeResolver);
         if (rootExpanded.size() != 1) {
             throw new IncorrectConfigurationException("Configuration is not OK! Root should contain a single node.");
         }
@@ -593,6 +1315,22 @@ public class Configuration {
         return (match.indexOf(SEPARATOR_WRONG) + match.indexOf(SEPARATOR_PATH) + match.indexOf(SEPARATOR_QUERY)) == -3;
     }
 
+    /**
+     * Check if a match string can be compiled as a regular expression. Node match strings are compiled
+     * once when the tree is created, so an incorrect regular expression is rejected at startup.
+     *
+     * @param match Match string.
+     * @return True if the match string is a valid regular expression.
+     */
+    private static boolean isValidRegex(@Nonnull final String match) {
+        try {
+            Node.createRegexPattern(match);
+            return true;
+        } catch (final PatternSyntaxException ignored) {
+            return false;
+        }
+    }
+
     /**
      * Return the deepest node level.
      *
@@ -641,16 +1379,34 @@ public class Configuration {
         final Set<String> matches = new HashSet<>();      // Node match strings (per level).
         for (final NodeDTO child : children) {
             final String match = child.getMatch();
+            final MatchType matchType = MatchType.fromName(child.getMatchType());
             if ((match == null) || match.isEmpty()) {
                 ok = false;
                 LOG.error("checkNodeMatchStringsChildren: match cannot be null or empty");
             } else if (!isValidMatchString(match)) {
                 ok = false;
                 LOG.error("checkNodeMatchStringsChildren: incorrect format for match");
+            } else if ((child.getMatchType() != null) && (matchType == null)) {
+                ok = false;
+                LOG.error("checkNodeMatchStringsChildren: unknown match_type, match={}, match_type={}", match, child.getMatchType());
+            } else if ((matchType != null) && (matchType.checkMatch(match) != null)) {
+                ok = false;
+                LOG.error("checkNodeMatchStringsChildren: match is not a valid {}, match={}, reason={}",
+                        matchType.getName(), match, matchType.checkMatch(match));
+            } else if ((matchType == null) && !isValidRegex(match)) {
+                ok = false;
+                LOG.error("checkNodeMatchStringsChildren: match is not a valid regular expression, match={}", match);
             } else if (matches.contains(match)) {
                 ok = false;
                 LOG.error("checkNodeMatchStringsChildren: match string must be unique, match={}", match);
             } else {
+
+                // Flag regular expressions which are not guaranteed to be matched in linear time.
+                final String reason = (matchType == null) ? Node.checkLinearTime(match) : null;
+                if (reason != null) {
+                    LOG.warn("checkNodeMatchStringsChildren: match is not matched in linear time, " +
+                            "it is matched with a step budget of {} steps, match={}, reason={}", Node.REGEX_STEP_BUDGET, match, reason);
+                }
                 matches.add(match);
                 ok = ok && checkNodeMatchStringsChildren(child.getNodes());
             }
@@ -661,14 +1417,14 @@ public class Configuration {
     /**
      * Expand all the included subtrees in a thing with includes.
      *
-     * @param object   Object to expand.
-     * @param included Memory of which include files were processed.
+     * @param object          Object to expand.
+     * @param includeResolver Memory of which include files were processed.
      * @return Replacements for the object that was just expanded.
      * @throws IncorrectConfigurationException If include recursion was detected.
      */
     private static <T extends SupportsInclude> List<T> expandAllIncludes(
             @Nonnull final T object,
-            @Nonnull final List<String> included) throws IncorrectConfigurationException {
+            @Nonnull final IncludeResolver includeResolver) throws IncorrectConfigurationException {
         final List<T> replacementObjects;
         final String include = object.getInclude();
         final String includeArray = object.getIncludeArray();
@@ -686,7 +1442,7 @@ public class Configuration {
                 if (childrenNodes != null) {
                     final List<NodeDTO> replacementNodes = new ArrayList<>();
                     for (final NodeDTO childNode : childrenNodes) {
-                        replacementNodes.addAll(expandAllIncludes(childNode, included));
+                        replacementNodes.addAll(expandAllIncludes(childNode, includeResolver));
                     }
 
                     // Replace existing nodes with expanded ones.
@@ -699,7 +1455,7 @@ public class Configuration {
                 if (parameters != null) {
                     final List<ParameterDTO> replacementParameters = new ArrayList<>();
                     for (final ParameterDTO parameter : parameters) {
-                        replacementParameters.addAll(expandAllIncludes(parameter, included));
+                        replacementParameters.addAll(expandAllIncludes(parameter, includeResolver));
                     }
                     nodeDTO.setParameters(new ParameterListDTO(replacementParameters));
                 }
@@ -723,7 +1479,7 @@ public class Configuration {
             }
 
             // Process include.
-            replacementObjects = getReplacementObjectsFromInclude(type, includeToProcess, included);
+            replacementObjects = getReplacementObjectsFromInclude(type, includeToProcess, includeResolver);
             assert ((include != null) && (replacementObjects.size() == 1)) || (includeArray != null);
         }
         return replacementObjects;
@@ -733,10 +1489,10 @@ public class Configuration {
      * Replaces include statement with 0..n replacements loaded from a different file. It guarantees that no more
      * include statements are present in the returned output.
      *
-     * @param <T>      Type of object to load from the target file.
-     * @param type     Reference to the type of object that should be loaded from the target include.
-     * @param include  URI to include.
-     * @param included List of files included so far (for cycle detection).
+     * @param <T>             Type of object to load from the target file.
+     * @param type            Reference to the type of object that should be loaded from the target include.
+     * @param include         URI to include.
+     * @param includeResolver Files included so far (for cycle detection) and includes which can be re-used.
      * @return List of replacement objects. The list may always contain multiple or zero returns, as any replacement
      * itself may be an include for zero or multiple objects.
      * @throws IncorrectConfigurationException If there is a detected problem with the configuration at this point.
@@ -745,63 +1501,76 @@ public class Configuration {
     private static <T extends SupportsInclude> List<T> getReplacementObjectsFromInclude(
             @Nonnull final JavaType type,
             @Nonnull final String include,
-            @Nonnull final List<String> included) throws IncorrectConfigurationException {
+            @Nonnull final IncludeResolver includeResolver) throws IncorrectConfigurationException {
+        final List<String> included = includeResolver.getIncluded();
 
         // Check for endless recursion.
         if (included.contains(include)) {
             throw new IncorrectConfigurationException("Endless recursion detected at include=" + include);
         }
 
+        // Share the include if it was expanded before in this read, or re-use it from the previous read
+        // if none of its files changed.
+        final String key = IncludeResolver.getKey(type, include);
+        final List<T> reused = includeResolver.reuse(key);
+        if (reused != null) {
+            LOG.debug("getReplacementObjectsFromInclude: re-used, include={}", include);
+            return reused;
+        }
+
         // Push name to stack.
         included.add(0, include);
+        includeResolver.beginInclude(include);
 
-        // Read JSON content from include.
-        final String content = readConfiguration(include);
-
-        // Parse nodes from content.
-        final List<T> childrenNotExpanded;
-        if (type.isCollectionLikeType()) {
-
-            // Was: include_array.
-            childrenNotExpanded = getChildObjectFromConfiguration(content, type);
-        } else {
-
-            // Was: include.
-            final T child = getChildObjectFromConfiguration(content, type);
-            childrenNotExpanded = Arrays.asList(child);
-        }
+        // Read and parse nodes from include, or take them from the include read ahead.
+        final List<T> childrenNotExpanded = includeResolver.read(type, include);
 
         // Expand all includes in children as well and construct final list of children.
         final List<T> children = new ArrayList<>();
         for (final T childNotExpanded : childrenNotExpanded) {
-            children.addAll(expandAllIncludes(childNotExpanded, included));
+            children.addAll(expandAllIncludes(childNotExpanded, includeResolver));
         }
 
         // Pop name from stack.
         final String removed = included.remove(0);
         assert removed.equals(include);
+        includeResolver.endInclude(key, children);
         return children;
     }
 
+    /**
+     * Parse the contents of an include.
+     *
+     * @param <T>     Type of object to load from the include.
+     * @param content Contents of the include.
+     * @param type    Reference to the type of object that should be loaded from the include.
+     * @return List of objects, not expanded yet.
+     * @throws IncorrectConfigurationException If the contents cannot be parsed.
+     */
     @Nonnull
-    private static JavaType constructType(@Nonnull final Class<?> clazz) {
-        return TypeFactory.defaultInstance().constructType(clazz);
+    static <T extends SupportsInclude> List<T> parseInclude(
+            @Nonnull final String content,
+            @Nonnull final JavaType type) throws IncorrectConfigurationException {
+        if (type.isCollectionLikeType()) {
+
+            // Was: include_array.
+            return getChildObjectFromConfiguration(content, type);
+        } else {
+
+            // Was: include.
+            final T child = getChildObjectFromConfiguration(content, type);
+            return Arrays.asList(child);
+        }
     }
 
-    @SuppressWarnings("rawtypes")
     @Nonnull
-    private static JavaType constructCollectionType(@Nonnull final Class<? extends Collection> collection, @Nonnull final Class<?> clazz) {
-        return TypeFactory.defaultInstance().constructCollectionType(collection, clazz);
+    static JavaType constructType(@Nonnull final Class<?> clazz) {
+        return TypeFactory.defaultInstance().constructType(clazz);
     }
 
-    /**
-     * Create a regex pattern which matches strings case-insensitive.
-     *
-     * @param pattern Pattern to make case-insensitive.
-     * @return Case-insensitive pattern.
-     */
+    @SuppressWarnings("rawtypes")
     @Nonnull
-    private static String createCaseInsensitivePattern(@Nonnull final String pattern) {
-        return "(?i:" + pattern + ')';
+    static JavaType constructCollectionType(@Nonnull final Class<? extends Collection> collection, @Nonnull final Class<?> clazz) {
+        return TypeFactory.defaultInstance().constructCollectionType(collection, clazz);
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This class watches the files of a configuration (specified with file: URIs) and reports which of them
+ * changed. Changes are debounced: changes which follow each other within {@link #DEBOUNCE_MILLIS} are
+ * reported together, so an editor which writes several files causes a single reload.
+ * <p>
+ * The directories of the files are watched, as a {@link WatchService} cannot watch files. Files which
+ * are replaced (rather than written), as many editors do, are reported as well.
+ */
+@ThreadSafe
+final class ConfigurationWatcher implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationWatcher.class);
+
+    /**
+     * Changes are reported once no more changes happened during this time.
+     */
+    static final long DEBOUNCE_MILLIS = 500;
+
+    /**
+     * Changes are reported after at most this time, even if files keep changing.
+     */
+    private static final long MAX_DEBOUNCE_MILLIS = 10 * DEBOUNCE_MILLIS;
+
+    @Nonnull
+    private final WatchService watchService;
+
+    /**
+     * Called with the URIs of the files which changed, on the watcher thread.
+     */
+    @Nonnull
+    private final Consumer<Set<String>> onChange;
+
+    /**
+     * The watched files: their (absolute) paths and URIs.
+     */
+    @Nonnull
+    private volatile Map<Path, String> watchedFiles = Collections.emptyMap();
+
+    /**
+     * The watched directories. Guarded by this.
+     */
+    @Nonnull
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<>();
+
+    @Nonnull
+    private final Thread thread;
+
+    ConfigurationWatcher(@Nonnull final Consumer<Set<String>> onChange) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.onChange = onChange;
+        this.thread = new Thread(this::run, "configuration-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Return the path of a file: URI, in the same way it is read.
+     *
+     * @param uri URI.
+     * @return Absolute path, or null if the URI is not a file: URI.
+     */
+    @Nullable
+    static Path getPath(@Nonnull final String uri) {
+        if (!uri.startsWith("file:")) {
+            return null;
+        }
+        return Paths.get(uri.replaceFirst("file::?", "")).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Set the files to watch. URIs which are not file: URIs are ignored. Directories which no longer
+     * contain watched files are no longer watched.
+     *
+     * @param uris URIs of the files.
+     */
+    synchronized void watch(@Nonnull final Collection<String> uris) {
+        final Map<Path, String> files = new HashMap<>();
+        for (final String uri : uris) {
+            final Path path = getPath(uri);
+            if (path != null) {
+                files.put(path, uri);
+            }
+        }
+
+        // Register the directories of the files.
+        final Set<Path> directories = new HashSet<>();
+        for (final Path path : files.keySet()) {
+            final Path directory = path.getParent();
+            if ((directory != null) && directories.add(directory) && !watchedDirectories.containsKey(directory)) {
+                try {
+                    watchedDirectories.put(directory, directory.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE));
+                } catch (final IOException e) {
+                    LOG.warn("watch: cannot watch directory={}, message={}", directory, e.getMessage());
+                }
+            }
+        }
+        final Iterator<Map.Entry<Path, WatchKey>> iterator = watchedDirectories.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, WatchKey> entry = iterator.next();
+            if (!directories.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+        watchedFiles = files;
+        LOG.debug("watch: files={}", files.keySet());
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            LOG.warn("close: cannot close watch service, message={}", e.getMessage());
+        }
+    }
+
+    private void run() {
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                final Set<String> changed = new HashSet<>();
+                addChanges(watchService.take(), changed);
+
+                // Wait until the files are quiet for a while, but not forever.
+                final long deadline = System.currentTimeMillis() + MAX_DEBOUNCE_MILLIS;
+                WatchKey key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                while ((key != null) && (System.currentTimeMillis() < deadline)) {
+                    addChanges(key, changed);
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (key != null) {
+                    addChanges(key, changed);
+                }
+                if (!changed.isEmpty()) {
+                    LOG.info("run: configuration files changed, uris={}", changed);
+                    try {
+                        onChange.accept(changed);
+                    } catch (final RuntimeException e) {
+                        LOG.error("run: cannot process changed files", e);
+                    }
+                }
+            }
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException ignored) {
+            // Stopped watching.
+        }
+        LOG.debug("run: stopped watching configuration files");
+    }
+
+    private void addChanges(@Nonnull final WatchKey key, @Nonnull final Set<String> changed) {
+        final Map<Path, String> files = watchedFiles;
+        final Path directory = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+
+                // Events were lost, so any file may have changed.
+                changed.addAll(files.values());
+            } else {
+                final String uri = files.get(directory.resolve((Path) event.context()));
+                if (uri != null) {
+                    changed.add(uri);
+                }
+            }
+        }
+        key.reset();
+    }
+}
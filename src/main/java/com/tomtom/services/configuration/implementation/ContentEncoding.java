@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This enum lists the content encodings in which pre-rendered response bodies are served. The compressed
+ * variants of a body are created once, so compression costs nothing per request.
+ */
+public enum ContentEncoding {
+    IDENTITY(null, ""),
+    GZIP("gzip", "--gzip"),
+    DEFLATE("deflate", "--deflate");
+
+    @Nullable
+    private final String contentCoding;
+
+    @Nonnull
+    private final String eTagSuffix;
+
+    ContentEncoding(@Nullable final String contentCoding, @Nonnull final String eTagSuffix) {
+        this.contentCoding = contentCoding;
+        this.eTagSuffix = eTagSuffix;
+    }
+
+    /**
+     * Return the value of the Content-Encoding header for this encoding.
+     *
+     * @return Content coding, or null for the identity encoding (no header).
+     */
+    @Nullable
+    public String getContentCoding() {
+        return contentCoding;
+    }
+
+    /**
+     * Return the suffix to append to the ETag of a response in this encoding, so caches do not
+     * mix up the variants. The suffix is stripped again when comparing If-None-Match.
+     *
+     * @return ETag suffix, empty for the identity encoding.
+     */
+    @Nonnull
+    public String getETagSuffix() {
+        return eTagSuffix;
+    }
+
+    /**
+     * Choose the encoding to serve for an Accept-Encoding header. Gzip is preferred over deflate if
+     * both are equally acceptable. Codings with "q=0" are never chosen.
+     *
+     * @param acceptEncoding Accept-Encoding header, may be null.
+     * @return Encoding to use, IDENTITY if the client does not accept gzip or deflate.
+     */
+    @Nonnull
+    public static ContentEncoding negotiate(@Nullable final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        float qGzip = -1.0f;
+        float qDeflate = -1.0f;
+        float qAny = -1.0f;
+        for (final String element : acceptEncoding.split(",")) {
+            final String[] parts = element.split(";");
+            final String coding = parts[0].trim().toLowerCase(Locale.US);
+            float q = 1.0f;
+            for (int i = 1; i < parts.length; ++i) {
+                final String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(parameter.substring(2).trim());
+                    } catch (final NumberFormatException ignored) {
+
+                        // Incorrectly formatted quality, err on the safe side.
+                        q = 0.0f;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip":
+                case "x-gzip":
+                    qGzip = Math.max(qGzip, q);
+                    break;
+
+                case "deflate":
+                    qDeflate = Math.max(qDeflate, q);
+                    break;
+
+                case "*":
+                    qAny = Math.max(qAny, q);
+                    break;
+
+                default:
+                    // Ignore other codings.
+            }
+        }
+
+        // Codings which are not mentioned explicitly get the quality of "*", if present.
+        if (qGzip < 0.0f) {
+            qGzip = qAny;
+        }
+        if (qDeflate < 0.0f) {
+            qDeflate = qAny;
+        }
+        if ((qGzip > 0.0f) && (qGzip >= qDeflate)) {
+            return GZIP;
+        }
+        if (qDeflate > 0.0f) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Return the encoding for a Content-Encoding header value.
+     *
+     * @param contentCoding Content-Encoding header, may be null.
+     * @return Encoding, IDENTITY if the header is null or unknown.
+     */
+    @Nonnull
+    public static ContentEncoding fromContentCoding(@Nullable final String contentCoding) {
+        if (contentCoding != null) {
+            for (final ContentEncoding encoding : values()) {
+                if (contentCoding.equalsIgnoreCase(encoding.contentCoding)) {
+                    return encoding;
+                }
+            }
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Remove an encoding suffix, like "--gzip", from an ETag.
+     *
+     * @param eTag ETag, not quoted.
+     * @return ETag without encoding suffix.
+     */
+    @Nonnull
+    public static String removeETagSuffix(@Nonnull final String eTag) {
+        for (final ContentEncoding encoding : values()) {
+            if (!encoding.eTagSuffix.isEmpty() && eTag.endsWith(encoding.eTagSuffix)) {
+                return eTag.substring(0, eTag.length() - encoding.eTagSuffix.length());
+            }
+        }
+        return eTag;
+    }
+
+    /**
+     * Encode a body. Bodies are encoded only once, so the best compression level is used.
+     *
+     * @param body Body to encode.
+     * @return Encoded body; the body itself for IDENTITY.
+     */
+    @Nonnull
+    byte[] encode(@Nonnull final byte[] body) {
+        if (this == IDENTITY) {
+            return body;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((body.length / 4) + 64);
+        try {
+            if (this == GZIP) {
+                try (final GZIPOutputStream compressor = new GZIPOutputStream(out) {
+                    {
+                        def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                }) {
+                    compressor.write(body);
+                }
+            } else {
+
+                // The deflater is not released by the stream if it was passed to it.
+                final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+                try (final DeflaterOutputStream compressor = new DeflaterOutputStream(out, deflater)) {
+                    compressor.write(body);
+                } finally {
+                    deflater.end();
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Cannot compress body in memory", e);
+        }
+        return out.toByteArray();
+    }
+}
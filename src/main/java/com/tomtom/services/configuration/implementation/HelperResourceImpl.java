@@ -17,8 +17,10 @@
 package com.tomtom.services.configuration.implementation;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.CacheStats;
 import com.tomtom.services.configuration.ConfigurationServiceProperties;
 import com.tomtom.services.configuration.HelperResource;
+import com.tomtom.services.configuration.dto.StatusDTO;
 import com.tomtom.services.configuration.dto.VersionDTO;
 import com.tomtom.speedtools.maven.MavenProperties;
 import org.slf4j.Logger;
@@ -45,6 +47,10 @@ public class HelperResourceImpl implements HelperResource {
             "  GET /version : return the (POM) version of the service and the URI of the configuration\n" +
             "                 file for the search tree.\n" +
             "  GET /status  : return '200 OK' if and only if the service all fine, for monitoring and such.\n" +
+            "                 The response contains the search result cache statistics.\n" +
+            "  POST /reload : re-read the configuration; the current configuration remains in use if the\n" +
+            "                 new one is incorrect. Only available if \"ConfigurationService.reloadEndpointEnabled\"\n" +
+            "                 is true.\n" +
             "  GET /tree/...: return a specific node from the search tree (hardly ever used).\n" +
             "  GET /tree?...: query the search tree for a configuration, the most commonly used method.\n\n" +
 
@@ -114,7 +120,8 @@ public class HelperResourceImpl implements HelperResource {
             "Return codes:\n" +
             "  Successful call:                                          200 - OK\n" +
             "  Not modified since If-Modified-Since or ETag not changed: 304 - NOT MODIFIED\n" +
-            "  Node not found or no search result found:                 404 - NOT FOUND\n";
+            "  Node not found or no search result found:                 404 - NOT FOUND\n" +
+            "  Regular expression step limit exceeded for a search term: 500 - INTERNAL SERVER ERROR\n";
 
     /**
      * The search tree, which holds all configurations.
@@ -134,16 +141,24 @@ public class HelperResourceImpl implements HelperResource {
     @Nonnull
     private final MavenProperties mavenProperties;
 
+    /**
+     * The cache for search results, for its statistics.
+     */
+    @Nonnull
+    private final SearchResultCache searchResultCache;
+
     @Inject
     public HelperResourceImpl(
             @Nonnull final Configuration configuration,
             @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
-            @Nonnull final MavenProperties mavenProperties) {
+            @Nonnull final MavenProperties mavenProperties,
+            @Nonnull final SearchResultCache searchResultCache) {
 
         // Store the injected values.
         this.configuration = configuration;
         this.configurationServiceProperties = configurationServiceProperties;
         this.mavenProperties = mavenProperties;
+        this.searchResultCache = searchResultCache;
     }
 
     @Override
@@ -181,9 +196,39 @@ public class HelperResourceImpl implements HelperResource {
 
         LOG.info("getStatus: get status");
         if (configuration.isStartupConfigurationOK()) {
-            response.resume(Response.ok().build());
+            final CacheStats stats = searchResultCache.getStats();
+            final StatusDTO result = new StatusDTO(
+                    searchResultCache.size(),
+                    stats.hitCount(),
+                    stats.missCount(),
+                    stats.evictionCount());
+            result.validate();
+            response.resume(Response.ok(result).build());
         } else {
             response.resume(Response.status(Status.METHOD_NOT_ALLOWED).build());
         }
     }
+
+    @Override
+    public void reload(@Suspended @Nonnull final AsyncResponse response) {
+
+        if (!configurationServiceProperties.isReloadEndpointEnabled()) {
+            LOG.info("reload: reloading on request is not enabled");
+            response.resume(Response.status(Status.FORBIDDEN).build());
+            return;
+        }
+
+        // Reload on the reload thread, not the request thread. Concurrent requests share the reload.
+        LOG.info("reload: reload configuration");
+        configuration.reloadInBackground().whenComplete((result, e) -> {
+            if (e != null) {
+                LOG.error("reload: reload failed", e);
+                response.resume(Response.status(Status.INTERNAL_SERVER_ERROR).entity(Configuration.ReloadResult.FAILED.name()).build());
+            } else if (result == Configuration.ReloadResult.FAILED) {
+                response.resume(Response.status(Status.INTERNAL_SERVER_ERROR).entity(result.name()).build());
+            } else {
+                response.resume(Response.ok(result.name()).build());
+            }
+        });
+    }
 }
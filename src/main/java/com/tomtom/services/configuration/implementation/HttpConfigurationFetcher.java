@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class fetches configuration sources with http: and https: URIs. It keeps the last response of every
+ * URI, with its validators (ETag and Last-Modified), and sends conditional requests, so unchanged sources are
+ * not downloaded again. The responses can be kept on disk as well, so the service can start with them if the
+ * sources cannot be reached, or do not respond in time. Other errors, such as an unexpected HTTP status, are
+ * not hidden by the previous response: they fail the load of the configuration.
+ * <p>
+ * Connections are re-used (kept alive by {@link HttpURLConnection}), as responses are always read completely.
+ */
+@ThreadSafe
+final class HttpConfigurationFetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpConfigurationFetcher.class);
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String SUFFIX_BODY = ".body";
+    private static final String SUFFIX_VALIDATORS = ".properties";
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    /**
+     * The directory to keep the responses in, or null if they are only kept in memory.
+     */
+    @Nullable
+    private final Path cacheDirectory;
+
+    /**
+     * The last response per URI.
+     */
+    @Nonnull
+    private final ConcurrentMap<String, CachedResponse> responses = new ConcurrentHashMap<>();
+
+    /**
+     * The body of a response and its validators.
+     */
+    @Immutable
+    private static final class CachedResponse {
+
+        @Nonnull
+        private final byte[] body;
+
+        @Nullable
+        private final String eTag;
+
+        @Nullable
+        private final String lastModified;
+
+        private CachedResponse(@Nonnull final byte[] body, @Nullable final String eTag, @Nullable final String lastModified) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Create a fetcher.
+     *
+     * @param connectTimeoutMillis Timeout to connect, 0 for none.
+     * @param readTimeoutMillis    Timeout to read, 0 for none.
+     * @param cacheDirectory       Directory to keep the responses in, or empty to keep them in memory only.
+     */
+    HttpConfigurationFetcher(
+            final int connectTimeoutMillis,
+            final int readTimeoutMillis,
+            @Nonnull final String cacheDirectory) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.cacheDirectory = cacheDirectory.isEmpty() ? null : new File(cacheDirectory).toPath();
+    }
+
+    /**
+     * Return whether a URI is fetched by this class.
+     *
+     * @param uri URI.
+     * @return True for http: and https: URIs.
+     */
+    static boolean isHttp(@Nonnull final String uri) {
+        return uri.startsWith("http:") || uri.startsWith("https:");
+    }
+
+    /**
+     * Fetch a source. If it did not change since it was last fetched, the previous response is returned without
+     * downloading it again. If the source cannot be reached, or does not respond in time, the previous response
+     * is returned, if there is one.
+     *
+     * @param uri URI of the source.
+     * @return Body of the response.
+     * @throws IncorrectConfigurationException If the source cannot be fetched and there is no previous response,
+     *                                         or if it responds with an unexpected HTTP status.
+     */
+    @Nonnull
+    byte[] fetch(@Nonnull final String uri) throws IncorrectConfigurationException {
+        final CachedResponse cachedResponse = getCachedResponse(uri);
+        try {
+            return request(uri, cachedResponse).body;
+        } catch (final IOException e) {
+            if ((cachedResponse == null) || !isUnreachable(e)) {
+                throw new IncorrectConfigurationException("Could not read configuration, uri=" + uri + ", message=" + e.getMessage());
+            }
+            LOG.warn("fetch: cannot fetch, using previous response, uri={}, message={}", uri, e.getMessage());
+            return cachedResponse.body;
+        }
+    }
+
+    /**
+     * Return whether a source did not change since it was last fetched. If it did change, the new response is
+     * kept, so a subsequent {@link #fetch(String)} does not download it again. A source which cannot be reached,
+     * or does not respond in time, is considered unchanged, if it was fetched before: its previous response will
+     * be used. Other errors are not: the source is fetched again, which reports the error.
+     *
+     * @param uri URI of the source.
+     * @return True if the source is unchanged.
+     */
+    boolean isUnchanged(@Nonnull final String uri) {
+        final CachedResponse cachedResponse = getCachedResponse(uri);
+        if (cachedResponse == null) {
+            return false;
+        }
+        try {
+            return request(uri, cachedResponse) == cachedResponse;
+        } catch (final IOException e) {
+            if (!isUnreachable(e)) {
+                LOG.warn("isUnchanged: cannot fetch, uri={}, message={}", uri, e.getMessage());
+                return false;
+            }
+            LOG.warn("isUnchanged: cannot fetch, using previous response, uri={}, message={}", uri, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Return whether an error means the source could not be reached, or did not respond in time, rather than
+     * that it responded incorrectly.
+     *
+     * @param e Error of a request.
+     * @return True for timeouts and connection errors.
+     */
+    private static boolean isUnreachable(@Nonnull final IOException e) {
+        return (e instanceof SocketTimeoutException) || (e instanceof SocketException) || (e instanceof UnknownHostException);
+    }
+
+    /**
+     * Send a (conditional) request.
+     *
+     * @param uri            URI of the source.
+     * @param cachedResponse Previous response, or null if none.
+     * @return The previous response if the source did not change, or the new response.
+     * @throws IOException If the source cannot be fetched.
+     */
+    @Nonnull
+    private CachedResponse request(
+            @Nonnull final String uri,
+            @Nullable final CachedResponse cachedResponse) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setUseCaches(false);
+        if (cachedResponse != null) {
+            if (cachedResponse.eTag != null) {
+                connection.setRequestProperty(HEADER_IF_NONE_MATCH, cachedResponse.eTag);
+            }
+            if (cachedResponse.lastModified != null) {
+                connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, cachedResponse.lastModified);
+            }
+        }
+        final int responseCode = connection.getResponseCode();
+        if ((responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) && (cachedResponse != null)) {
+            LOG.debug("request: not modified, uri={}", uri);
+            drain(connection.getInputStream());
+            return cachedResponse;
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+
+            // Read the error response, so the connection can be re-used.
+            drain(connection.getErrorStream());
+            throw new IOException("Unexpected response, responseCode=" + responseCode);
+        }
+        final byte[] body;
+        try (final InputStream inputStream = connection.getInputStream()) {
+            body = ByteStreams.toByteArray(inputStream);
+        }
+        final CachedResponse newResponse = new CachedResponse(body,
+                connection.getHeaderField(HEADER_ETAG), connection.getHeaderField(HEADER_LAST_MODIFIED));
+        responses.put(uri, newResponse);
+        writeToDisk(uri, newResponse);
+        LOG.debug("request: fetched, uri={}, size={}, etag={}", uri, body.length, newResponse.eTag);
+        return newResponse;
+    }
+
+    /**
+     * Return the previous response of a URI, from memory or, if the service just started, from disk.
+     *
+     * @param uri URI of the source.
+     * @return Previous response, or null if none.
+     */
+    @Nullable
+    private CachedResponse getCachedResponse(@Nonnull final String uri) {
+        final CachedResponse cachedResponse = responses.get(uri);
+        if ((cachedResponse != null) || (cacheDirectory == null)) {
+            return cachedResponse;
+        }
+        final Path bodyFile = getFile(uri, SUFFIX_BODY);
+        final Path validatorsFile = getFile(uri, SUFFIX_VALIDATORS);
+        if (!Files.isRegularFile(bodyFile) || !Files.isRegularFile(validatorsFile)) {
+            return null;
+        }
+        try {
+            final Properties validators = new Properties();
+            try (final Reader reader = Files.newBufferedReader(validatorsFile, StandardCharsets.UTF_8)) {
+                validators.load(reader);
+            }
+
+            // Guard against (very unlikely) collisions of file names.
+            if (!uri.equals(validators.getProperty("uri"))) {
+                return null;
+            }
+            final CachedResponse diskResponse = new CachedResponse(Files.readAllBytes(bodyFile),
+                    validators.getProperty(HEADER_ETAG), validators.getProperty(HEADER_LAST_MODIFIED));
+            LOG.info("getCachedResponse: read copy from disk, uri={}, file={}", uri, bodyFile);
+            final CachedResponse previous = responses.putIfAbsent(uri, diskResponse);
+            return (previous == null) ? diskResponse : previous;
+        } catch (final IOException e) {
+            LOG.warn("getCachedResponse: cannot read copy from disk, uri={}, message={}", uri, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(@Nonnull final String uri, @Nonnull final CachedResponse cachedResponse) {
+        if (cacheDirectory == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheDirectory);
+            final Properties validators = new Properties();
+            validators.setProperty("uri", uri);
+            if (cachedResponse.eTag != null) {
+                validators.setProperty(HEADER_ETAG, cachedResponse.eTag);
+            }
+            if (cachedResponse.lastModified != null) {
+                validators.setProperty(HEADER_LAST_MODIFIED, cachedResponse.lastModified);
+            }
+
+            // Write to temporary files first, so a copy is never read half-written.
+            final Path bodyFile = getFile(uri, SUFFIX_BODY);
+            final Path validatorsFile = getFile(uri, SUFFIX_VALIDATORS);
+            // The body is replaced first: a new body with old validators is fetched again, not the other way around.
+            final Path tempBodyFile = Files.createTempFile(cacheDirectory, "body", ".tmp");
+            final Path tempValidatorsFile = Files.createTempFile(cacheDirectory, "validators", ".tmp");
+            try {
+                Files.write(tempBodyFile, cachedResponse.body);
+                try (final Writer writer = Files.newBufferedWriter(tempValidatorsFile, StandardCharsets.UTF_8)) {
+                    validators.store(writer, null);
+                }
+                Files.move(tempBodyFile, bodyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tempValidatorsFile, validatorsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempBodyFile);
+                Files.deleteIfExists(tempValidatorsFile);
+            }
+        } catch (final IOException e) {
+            LOG.warn("writeToDisk: cannot write copy to disk, uri={}, message={}", uri, e.getMessage());
+        }
+    }
+
+    @Nonnull
+    private Path getFile(@Nonnull final String uri, @Nonnull final String suffix) {
+        assert cacheDirectory != null;
+        return cacheDirectory.resolve(Hashing.sha256().hashString(uri, StandardCharsets.UTF_8) + suffix);
+    }
+
+    private static void drain(@Nullable final InputStream inputStream) throws IOException {
+        if (inputStream != null) {
+            try (final InputStream toClose = inputStream) {
+                ByteStreams.exhaust(toClose);
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.SupportsInclude;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class keeps track of the includes while a configuration is read: the stack of includes being read,
+ * for cycle detection, and the expanded contents of every include. Every include is read, parsed and
+ * expanded once per read; further references to it share its expanded contents. Includes of a previous
+ * read can be re-used if none of their files changed since.
+ * <p>
+ * Include files are read and parsed ahead by a pool of threads, as soon as the include is found, so
+ * independent includes are read concurrently. They are still expanded one after another, by the thread
+ * which reads the configuration, in the order in which they are specified, so cycle detection and the
+ * resulting tree are the same as when the include files are read one after another.
+ */
+final class IncludeResolver implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(IncludeResolver.class);
+
+    /**
+     * The expanded contents of an include, with the URIs of the files they were read from: the include
+     * itself and its nested includes. The contents are not modified once they are expanded, so they are
+     * shared by all references to the include.
+     */
+    @Immutable
+    static final class ResolvedInclude {
+
+        @Nonnull
+        private final List<? extends SupportsInclude> objects;
+
+        @Nonnull
+        private final Set<String> uris;
+
+        private ResolvedInclude(@Nonnull final List<? extends SupportsInclude> objects, @Nonnull final Set<String> uris) {
+            this.objects = objects;
+            this.uris = uris;
+        }
+
+        @Nonnull
+        Set<String> getURIs() {
+            return uris;
+        }
+    }
+
+    /**
+     * The parsed contents of an include which was read ahead. The contents are expanded in place, so they are
+     * only used once; further references to the include normally share the expanded contents, but parse the
+     * contents again if they cannot.
+     */
+    private static final class ParsedInclude {
+
+        @Nonnull
+        private final String content;
+
+        @Nonnull
+        private final List<? extends SupportsInclude> objects;
+
+        private boolean used = false;
+
+        private ParsedInclude(@Nonnull final String content, @Nonnull final List<? extends SupportsInclude> objects) {
+            this.content = content;
+            this.objects = objects;
+        }
+    }
+
+    /**
+     * The stack of includes being read, the innermost first.
+     */
+    @Nonnull
+    private final List<String> included = new ArrayList<>();
+
+    /**
+     * The includes of the previous read, by type and URI.
+     */
+    @Nonnull
+    private final Map<String, ResolvedInclude> previous;
+
+    /**
+     * The URIs of the files which changed since the previous read, or null if any file may have changed.
+     */
+    @Nullable
+    private final Set<String> changedURIs;
+
+    /**
+     * The includes of this read, by type and URI.
+     */
+    @Nonnull
+    private final Map<String, ResolvedInclude> resolved = new HashMap<>();
+
+    /**
+     * The URIs read for the includes being read, per include on the stack.
+     */
+    @Nonnull
+    private final Deque<Set<String>> uris = new ArrayDeque<>();
+
+    /**
+     * The fetcher for http: and https: includes.
+     */
+    @Nonnull
+    private final HttpConfigurationFetcher httpFetcher;
+
+    /**
+     * Whether files are unchanged since the previous read, per URI, so every file is only checked once.
+     */
+    @Nonnull
+    private final ConcurrentMap<String, Future<Boolean>> unchanged = new ConcurrentHashMap<>();
+
+    /**
+     * The pool of threads which read the include files ahead, or null if they are read one after another.
+     */
+    @Nullable
+    private final ExecutorService pool;
+
+    /**
+     * The includes which are read ahead, by type and URI. The result is null if the include was not read
+     * because it can be re-used from the previous read.
+     */
+    @Nonnull
+    private final ConcurrentMap<String, Future<ParsedInclude>> prefetched = new ConcurrentHashMap<>();
+
+    IncludeResolver(
+            @Nonnull final Map<String, ResolvedInclude> previous,
+            @Nullable final Set<String> changedURIs,
+            @Nonnull final HttpConfigurationFetcher httpFetcher,
+            final int includeThreads) {
+        this.previous = previous;
+        this.changedURIs = changedURIs;
+        this.httpFetcher = httpFetcher;
+        this.pool = (includeThreads > 0) ? Executors.newFixedThreadPool(includeThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "configuration-include");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Start reading the includes of an object which is not expanded yet, and of its children, ahead.
+     * The nested includes of an include are started as soon as the include is parsed. Every include is
+     * read ahead at most once.
+     *
+     * @param object Object, not expanded yet.
+     */
+    void prefetchIncludes(@Nonnull final SupportsInclude object) {
+        if (pool == null) {
+            return;
+        }
+        final String include = object.getInclude();
+        final String includeArray = object.getIncludeArray();
+        if (include != null) {
+            prefetch(Configuration.constructType(object.getClass()), include);
+        } else if (includeArray != null) {
+            prefetch(Configuration.constructCollectionType(List.class, object.getClass()), includeArray);
+        } else if (object instanceof NodeDTO) {
+            final NodeDTO nodeDTO = (NodeDTO) object;
+            if (nodeDTO.getNodes() != null) {
+                for (final NodeDTO childNode : nodeDTO.getNodes()) {
+                    prefetchIncludes(childNode);
+                }
+            }
+            if (nodeDTO.getParameters() != null) {
+                for (final ParameterDTO parameter : nodeDTO.getParameters()) {
+                    prefetchIncludes(parameter);
+                }
+            }
+        }
+    }
+
+    private void prefetch(@Nonnull final JavaType type, @Nonnull final String include) {
+        assert pool != null;
+        final String key = getKey(type, include);
+        final FutureTask<ParsedInclude> task = new FutureTask<>(() -> readAhead(key, type, include));
+        if (prefetched.putIfAbsent(key, task) == null) {
+            try {
+                pool.execute(task);
+            } catch (final RejectedExecutionException ignored) {
+
+                // The configuration was read already (or failed); the include is not needed.
+                prefetched.remove(key, task);
+            }
+        }
+    }
+
+    @Nullable
+    private ParsedInclude readAhead(
+            @Nonnull final String key,
+            @Nonnull final JavaType type,
+            @Nonnull final String include) throws IncorrectConfigurationException {
+
+        // Do not read an include which can be re-used from the previous read.
+        final ResolvedInclude previousInclude = previous.get(key);
+        if ((previousInclude != null) && previousInclude.uris.stream().allMatch(this::isUnchanged)) {
+            return null;
+        }
+        final String content = Configuration.readConfiguration(include, httpFetcher);
+        final List<SupportsInclude> objects = Configuration.parseInclude(content, type);
+        for (final SupportsInclude object : objects) {
+            prefetchIncludes(object);
+        }
+        return new ParsedInclude(content, objects);
+    }
+
+    /**
+     * Read and parse an include, or take it from the includes read ahead.
+     *
+     * @param type    Type of object to load from the include.
+     * @param include URI of the include.
+     * @param <T>     Type of object to load from the include.
+     * @return List of objects, not expanded yet.
+     * @throws IncorrectConfigurationException If the include cannot be read or parsed.
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    <T extends SupportsInclude> List<T> read(
+            @Nonnull final JavaType type,
+            @Nonnull final String include) throws IncorrectConfigurationException {
+        final Future<ParsedInclude> future = prefetched.get(getKey(type, include));
+        final ParsedInclude parsedInclude = (future == null) ? null : await(future);
+        if (parsedInclude == null) {
+            return Configuration.parseInclude(Configuration.readConfiguration(include, httpFetcher), type);
+        }
+        if (parsedInclude.used) {
+            return Configuration.parseInclude(parsedInclude.content, type);
+        }
+        parsedInclude.used = true;
+        return (List<T>) parsedInclude.objects;
+    }
+
+    @Nullable
+    private static ParsedInclude await(@Nonnull final Future<ParsedInclude> future) throws IncorrectConfigurationException {
+        try {
+            return future.get();
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+            throw new IncorrectConfigurationException("Configuration is not OK! Interrupted while reading includes.");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IncorrectConfigurationException) {
+                throw (IncorrectConfigurationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IncorrectConfigurationException("Configuration is not OK! " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Stop reading includes ahead.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Return the contents of an include which was expanded before in this read, or of an include of the
+     * previous read if none of its files changed, if it does not include any of the includes being read
+     * (which would be a cycle). Sources with http: and https: URIs are checked with a conditional request;
+     * other files are unchanged if they were not reported as changed.
+     *
+     * @param key Type and URI of the include.
+     * @param <T> Type of the contents.
+     * @return Contents, or null if they cannot be re-used.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    <T extends SupportsInclude> List<T> reuse(@Nonnull final String key) {
+
+        // Share an include which was expanded before in this read.
+        final ResolvedInclude resolvedBefore = resolved.get(key);
+        if ((resolvedBefore != null) && Collections.disjoint(resolvedBefore.uris, included)) {
+            addResolved(key, resolvedBefore);
+            return (List<T>) resolvedBefore.objects;
+        }
+
+        // Re-use an include of the previous read.
+        final ResolvedInclude resolvedInclude = previous.get(key);
+        if ((resolvedInclude == null) || !Collections.disjoint(resolvedInclude.uris, included)) {
+            return null;
+        }
+        for (final String uri : resolvedInclude.uris) {
+            if (!isUnchanged(uri)) {
+                return null;
+            }
+        }
+        addResolved(key, resolvedInclude);
+        return (List<T>) resolvedInclude.objects;
+    }
+
+    private boolean isUnchanged(@Nonnull final String uri) {
+
+        // The first thread to need the URI checks it; other threads wait for its result.
+        final FutureTask<Boolean> task = new FutureTask<>(() -> HttpConfigurationFetcher.isHttp(uri) ?
+                httpFetcher.isUnchanged(uri) :
+                ((changedURIs != null) && !changedURIs.contains(uri)));
+        final Future<Boolean> known = unchanged.putIfAbsent(uri, task);
+        if (known == null) {
+            task.run();
+        }
+        try {
+            return ((known == null) ? task : known).get();
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (final ExecutionException e) {
+            LOG.warn("isUnchanged: cannot check include, uri={}, message={}", uri, e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    void beginInclude(@Nonnull final String include) {
+        final Set<String> urisOfInclude = new HashSet<>();
+        urisOfInclude.add(include);
+        uris.push(urisOfInclude);
+    }
+
+    void endInclude(@Nonnull final String key, @Nonnull final List<? extends SupportsInclude> objects) {
+        addResolved(key, new ResolvedInclude(objects, uris.pop()));
+    }
+
+    /**
+     * Return the stack of includes being read, the innermost first. The caller pushes and pops the includes.
+     *
+     * @return Stack of includes.
+     */
+    @Nonnull
+    List<String> getIncluded() {
+        return included;
+    }
+
+    @Nonnull
+    Map<String, ResolvedInclude> getResolved() {
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    private void addResolved(@Nonnull final String key, @Nonnull final ResolvedInclude resolvedInclude) {
+        resolved.put(key, resolvedInclude);
+
+        // The enclosing include depends on the files of this include as well.
+        final Set<String> urisOfEnclosing = uris.peek();
+        if (urisOfEnclosing != null) {
+            urisOfEnclosing.addAll(resolvedInclude.uris);
+        }
+    }
+
+    /**
+     * Return the key of an include: its type and URI.
+     *
+     * @param type    Type of object loaded from the include.
+     * @param include URI of the include.
+     * @return Key.
+     */
+    @Nonnull
+    static String getKey(@Nonnull final JavaType type, @Nonnull final String include) {
+        return type.toCanonical() + ' ' + include;
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class holds the pre-rendered response bodies of a configuration tree, in JSON and XML.
+ * <p>
+ * The parameters of a node never change, so the part of a search result up to the 'searched' attribute
+ * is rendered once per parameter list, with the same serializers as the REST layer, when the tree is
+ * read. A search result is then assembled by concatenating that fragment with the escaped 'searched'
+ * and 'matched' attributes. The body of a node (for GET /tree/{path}) is rendered the first time it
+ * is requested and kept in a cache, which is bounded by the total number of nodes in the rendered bodies.
+ * The bodies of large subtrees are not pre-rendered.
+ * <p>
+ * Search results with characters which need more than the basic XML escaping (control characters and
+ * quotes) are not pre-rendered: the caller falls back to serializing the DTOs.
+ */
+@ThreadSafe
+public final class PreRenderedResponses {
+    private static final Logger LOG = LoggerFactory.getLogger(PreRenderedResponses.class);
+
+    private static final byte[] XML_DECLARATION =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>".getBytes(StandardCharsets.UTF_8);
+
+    // The fixed parts of search results, after the parameters.
+    private static final String JSON_SEARCHED = "\"searched\":";
+    private static final String JSON_EMPTY_TAIL = JSON_SEARCHED + "\"\",\"matched\":\"\"}";
+    private static final String XML_SEARCHED = "<searched>";
+    private static final String XML_EMPTY_TAIL = XML_SEARCHED + "</searched><matched></matched></searchResult>";
+
+    /**
+     * Maximum number of nodes in a subtree of which the body is pre-rendered. The size of a body is
+     * proportional to the number of nodes in it.
+     */
+    static final int MAX_NODES_PER_BODY = 10000;
+
+    /**
+     * Maximum total number of nodes in the pre-rendered bodies of nodes. The least recently used bodies
+     * are evicted first.
+     */
+    static final long MAX_NODES_OF_BODIES = 200000;
+
+    /**
+     * The JSON writer, configured like the JSON provider of the REST layer.
+     */
+    @Nonnull
+    private final ObjectWriter jsonWriter;
+
+    /**
+     * The JAXB context for XML, or null if XML cannot be pre-rendered.
+     */
+    @Nullable
+    private final JAXBContext jaxbContext;
+
+    /**
+     * The root of the tree. It is used as the (unused) node of search result templates.
+     */
+    @Nonnull
+    private final Node root;
+
+    /**
+     * Rendered fragments per parameter list (compared by identity). Parameter lists of compactly stored
+     * children are shared per parameter block; they are rendered when first needed.
+     */
+    @Nonnull
+    private final ConcurrentMap<ParameterListDTO, Fragments> fragmentsOfParameters = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Fragments for nodes without parameters, or null if search results cannot be pre-rendered.
+     */
+    @Nullable
+    private final Fragments fragmentsWithoutParameters;
+
+    /**
+     * Rendered node bodies (compared by identity), weighted by the number of nodes in them.
+     */
+    @Nonnull
+    private final Cache<Node, NodeBody> nodeBodies = CacheBuilder.newBuilder().
+            weakKeys().
+            maximumWeight(MAX_NODES_OF_BODIES).
+            weigher((final Node node, final NodeBody body) -> body.nrOfNodes).
+            build();
+
+    /**
+     * Pre-render the fragments of all nodes (except compactly stored children) of a tree.
+     *
+     * @param root Root node of the tree.
+     */
+    public PreRenderedResponses(@Nonnull final Node root) {
+        this.root = root;
+        this.jsonWriter = new ObjectMapper().writer().without(SerializationFeature.INDENT_OUTPUT);
+        JAXBContext context = null;
+        try {
+            context = JAXBContext.newInstance(NodeDTO.class, SearchResultDTO.class, SearchResultsDTO.class);
+        } catch (final JAXBException | RuntimeException e) {
+            LOG.warn("PreRenderedResponses: cannot create JAXB context, responses are not pre-rendered", e);
+        }
+        this.jaxbContext = context;
+        this.fragmentsWithoutParameters = (context == null) ? null : createFragments(null);
+
+        // Render the fragments of all nodes with parameters, breadth-first.
+        int nrOfFragments = 0;
+        if (fragmentsWithoutParameters != null) {
+            final Queue<Node> queue = new ArrayDeque<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                final Node node = queue.remove();
+                final ParameterListDTO parameters = node.getParameterList();
+                if (parameters != null) {
+                    final Fragments fragments = createFragments(parameters);
+                    if (fragments != null) {
+                        fragmentsOfParameters.put(parameters, fragments);
+                        ++nrOfFragments;
+                    }
+                }
+                if (!node.hasCompactChildren() && (node.getNodes() != null)) {
+                    queue.addAll(node.getNodes());
+                }
+            }
+        }
+        LOG.info("PreRenderedResponses: pre-rendered {} search result fragments", nrOfFragments);
+    }
+
+    /**
+     * Return the rendered body for search results: a single search result if there is only one,
+     * or a list otherwise.
+     *
+     * @param searchResults Search results, not empty.
+     * @return Rendered body, or null if the search results cannot be pre-rendered.
+     */
+    @Nullable
+    public RenderedResponse renderSearchResults(@Nonnull final SearchResultsDTO searchResults) {
+        assert !searchResults.isEmpty();
+        final int size = searchResults.size();
+        final Fragments[] fragments = new Fragments[size];
+        for (int i = 0; i < size; ++i) {
+            final SearchResultDTO searchResult = searchResults.get(i);
+            fragments[i] = getFragments(searchResult.getParameters());
+            if ((fragments[i] == null) || !canEscapeXml(searchResult.getSearched()) || !canEscapeXml(searchResult.getMatched())) {
+                return null;
+            }
+        }
+        return new RenderedResponse() {
+
+            @Nonnull
+            @Override
+            protected byte[] renderJson() {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (size > 1) {
+                    out.write('[');
+                }
+                for (int i = 0; i < size; ++i) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    final SearchResultDTO searchResult = searchResults.get(i);
+                    write(out, fragments[i].jsonPrefix);
+                    write(out, JSON_SEARCHED);
+                    writeJsonString(out, searchResult.getSearched());
+                    write(out, ",\"matched\":");
+                    writeJsonString(out, searchResult.getMatched());
+                    out.write('}');
+                }
+                if (size > 1) {
+                    out.write(']');
+                }
+                return out.toByteArray();
+            }
+
+            @Nonnull
+            @Override
+            protected byte[] renderXml() {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                write(out, XML_DECLARATION);
+                if (size > 1) {
+                    write(out, "<searchResults>");
+                }
+                for (int i = 0; i < size; ++i) {
+                    final SearchResultDTO searchResult = searchResults.get(i);
+                    write(out, fragments[i].xmlPrefix);
+                    write(out, XML_SEARCHED);
+                    writeXmlString(out, searchResult.getSearched());
+                    write(out, "</searched><matched>");
+                    writeXmlString(out, searchResult.getMatched());
+                    write(out, "</matched></searchResult>");
+                }
+                if (size > 1) {
+                    write(out, "</searchResults>");
+                }
+                return out.toByteArray();
+            }
+        };
+    }
+
+    /**
+     * Return the rendered body of a node, with its children. The node must have been validated.
+     *
+     * @param node Node.
+     * @return Rendered body, or null if the node cannot be pre-rendered, for example because its subtree
+     * has more than {@link #MAX_NODES_PER_BODY} nodes.
+     */
+    @Nullable
+    public RenderedResponse renderNode(@Nonnull final Node node) {
+        if (jaxbContext == null) {
+            return null;
+        }
+        final NodeBody body = nodeBodies.getIfPresent(node);
+        if (body != null) {
+            return body;
+        }
+        final int nrOfNodes = countNodes(node, MAX_NODES_PER_BODY);
+        if (nrOfNodes > MAX_NODES_PER_BODY) {
+            return null;
+        }
+        final NodeBody created = new NodeBody(node, nrOfNodes);
+
+        // Compactly stored children are created for every request, so their bodies would never be found again.
+        final Node parentNode = node.getParentNode();
+        if ((parentNode != null) && parentNode.hasCompactChildren()) {
+            return created;
+        }
+        final NodeBody existing = nodeBodies.asMap().putIfAbsent(node, created);
+        return (existing == null) ? created : existing;
+    }
+
+    /**
+     * Return the number of nodes in a subtree, including its root, or a number larger than the maximum if it
+     * has more nodes. Compactly stored children are leaf nodes.
+     */
+    static int countNodes(@Nonnull final Node node, final int max) {
+        int count = 0;
+        final Queue<Node> queue = new ArrayDeque<>();
+        queue.add(node);
+        while (!queue.isEmpty() && (count <= max)) {
+            final Node next = queue.remove();
+            ++count;
+            if (next.getNodes() != null) {
+                if (next.hasCompactChildren()) {
+                    count += next.getNodes().size();
+                } else {
+                    queue.addAll(next.getNodes());
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return whether a string can be escaped for XML in the same way as JAXB does, by only escaping
+     * '&amp;', '&lt;' and '&gt;'.
+     *
+     * @param value String, may be null.
+     * @return True if the string can be escaped.
+     */
+    static boolean canEscapeXml(@Nullable final String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            final char ch = value.charAt(i);
+            if ((ch < ' ') || (ch == '"') || (ch == '\'') || Character.isSurrogate(ch) || (ch >= 0xFFFE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private Fragments getFragments(@Nullable final ParameterListDTO parameters) {
+        if ((parameters == null) || parameters.isEmpty()) {
+            return fragmentsWithoutParameters;
+        }
+        final Fragments fragments = fragmentsOfParameters.get(parameters);
+        if (fragments != null) {
+            return fragments;
+        }
+
+        // Parameters of compactly stored children: render them once.
+        final Fragments created = createFragments(parameters);
+        if (created != null) {
+            fragmentsOfParameters.putIfAbsent(parameters, created);
+        }
+        return created;
+    }
+
+    /**
+     * Render the fragments of a search result with a given parameter list, from a template. If the
+     * template is not rendered as expected, no fragments are returned.
+     */
+    @Nullable
+    private Fragments createFragments(@Nullable final ParameterListDTO parameters) {
+        final SearchResultDTO template = new SearchResultDTO(parameters, "", "", root);
+        final String json;
+        try {
+            json = new String(jsonWriter.writeValueAsBytes(template), StandardCharsets.UTF_8);
+        } catch (final JsonProcessingException e) {
+            LOG.warn("createFragments: cannot render search result in JSON", e);
+            return null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!marshal(template, out)) {
+            return null;
+        }
+        final String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        if (!json.endsWith(JSON_EMPTY_TAIL) || !xml.endsWith(XML_EMPTY_TAIL)) {
+            LOG.warn("createFragments: unexpected rendering of search result, json={}, xml={}", json, xml);
+            return null;
+        }
+        return new Fragments(
+                json.substring(0, json.length() - JSON_EMPTY_TAIL.length()).getBytes(StandardCharsets.UTF_8),
+                xml.substring(0, xml.length() - XML_EMPTY_TAIL.length()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Marshal an object to XML, without the XML declaration.
+     *
+     * @return False if the object could not be marshalled.
+     */
+    private boolean marshal(@Nonnull final Object object, @Nonnull final ByteArrayOutputStream out) {
+        assert jaxbContext != null;
+        try {
+            final Marshaller marshaller = jaxbContext.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            marshaller.marshal(object, out);
+            return true;
+        } catch (final JAXBException e) {
+            LOG.warn("marshal: cannot render XML", e);
+            return false;
+        }
+    }
+
+    private static void writeJsonString(@Nonnull final ByteArrayOutputStream out, @Nullable final String value) {
+        assert value != null;
+        out.write('"');
+        write(out, JsonStringEncoder.getInstance().quoteAsUTF8(value));
+        out.write('"');
+    }
+
+    private static void writeXmlString(@Nonnull final ByteArrayOutputStream out, @Nullable final String value) {
+        assert value != null;
+        final StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); ++i) {
+            final char ch = value.charAt(i);
+            switch (ch) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+        write(out, sb.toString());
+    }
+
+    private static void write(@Nonnull final ByteArrayOutputStream out, @Nonnull final String value) {
+        write(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(@Nonnull final ByteArrayOutputStream out, @Nonnull final byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * The rendered body of a node.
+     */
+    private final class NodeBody extends RenderedResponse {
+        @Nonnull
+        private final Node node;
+        private final int nrOfNodes;
+
+        private NodeBody(@Nonnull final Node node, final int nrOfNodes) {
+            this.node = node;
+            this.nrOfNodes = nrOfNodes;
+        }
+
+        @Nonnull
+        @Override
+        protected byte[] renderJson() {
+            try {
+                return jsonWriter.writeValueAsBytes(new NodeDTO(node));
+            } catch (final JsonProcessingException e) {
+                throw new IllegalStateException("Cannot render node: " + node.getMatched(), e);
+            }
+        }
+
+        @Nonnull
+        @Override
+        protected byte[] renderXml() {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(out, XML_DECLARATION);
+            if (!marshal(new NodeDTO(node), out)) {
+                throw new IllegalStateException("Cannot render node: " + node.getMatched());
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * The rendered parts of a search result before the 'searched' attribute, in JSON and XML.
+     */
+    @Immutable
+    private static final class Fragments {
+        @Nonnull
+        private final byte[] jsonPrefix;
+        @Nonnull
+        private final byte[] xmlPrefix;
+
+        private Fragments(@Nonnull final byte[] jsonPrefix, @Nonnull final byte[] xmlPrefix) {
+            this.jsonPrefix = jsonPrefix;
+            this.xmlPrefix = xmlPrefix;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class is a response body which has been rendered to bytes, in JSON and in XML. Which of the
+ * two is returned depends on the content type the client accepts, so both are rendered lazily, once.
+ * The same holds for the compressed variants of the bodies (see {@link ContentEncoding}).
+ * The body is written by {@link com.tomtom.services.configuration.deployment.RenderedResponseWriter}.
+ */
+@ThreadSafe
+public abstract class RenderedResponse {
+
+    /**
+     * Rendered bodies, per format (JSON, XML) and encoding. Empty slots are null.
+     */
+    @Nonnull
+    private final AtomicReferenceArray<byte[]> bodies = new AtomicReferenceArray<>(2 * ContentEncoding.values().length);
+
+    /**
+     * Return the body in JSON, UTF-8 encoded.
+     *
+     * @return JSON body.
+     */
+    @Nonnull
+    public byte[] getJson() {
+        return getJson(ContentEncoding.IDENTITY);
+    }
+
+    /**
+     * Return the body in JSON, UTF-8 encoded and then encoded with the given content encoding.
+     *
+     * @param encoding Content encoding.
+     * @return Encoded JSON body.
+     */
+    @Nonnull
+    public byte[] getJson(@Nonnull final ContentEncoding encoding) {
+        return getBody(false, encoding);
+    }
+
+    /**
+     * Return the body in XML, UTF-8 encoded, including the XML declaration.
+     *
+     * @return XML body.
+     */
+    @Nonnull
+    public byte[] getXml() {
+        return getXml(ContentEncoding.IDENTITY);
+    }
+
+    /**
+     * Return the body in XML, UTF-8 encoded, including the XML declaration, and then encoded with
+     * the given content encoding.
+     *
+     * @param encoding Content encoding.
+     * @return Encoded XML body.
+     */
+    @Nonnull
+    public byte[] getXml(@Nonnull final ContentEncoding encoding) {
+        return getBody(true, encoding);
+    }
+
+    @Nonnull
+    protected abstract byte[] renderJson();
+
+    @Nonnull
+    protected abstract byte[] renderXml();
+
+    @Nonnull
+    private byte[] getBody(final boolean xml, @Nonnull final ContentEncoding encoding) {
+        final int index = ((xml ? 1 : 0) * ContentEncoding.values().length) + encoding.ordinal();
+        byte[] result = bodies.get(index);
+        if (result == null) {
+
+            // Benign race: concurrent requests may render the same body.
+            if (encoding == ContentEncoding.IDENTITY) {
+                result = xml ? renderXml() : renderJson();
+            } else {
+                result = encoding.encode(getBody(xml, ContentEncoding.IDENTITY));
+            }
+            bodies.set(index, result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.google.common.base.CharMatcher;
+import com.tomtom.services.configuration.TreeResource;
+import com.tomtom.speedtools.apivalidation.exceptions.ApiParameterSyntaxException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Strings.nullToEmpty;
+
+/**
+ * This class holds a parsed (multi-)search query, such as "level1=a,b&level2=x". The query is
+ * stored in columns: one array of search terms per level name, plus the number of searches.
+ * <p>
+ * Search #i uses the i-th term of every level. If a level has fewer terms than there are
+ * searches, its last term is re-used for the remaining searches.
+ */
+@Immutable
+final class SearchQuery {
+
+    /**
+     * Used to trim search terms.
+     */
+    private static final CharMatcher WHITESPACE = CharMatcher.whitespace();
+
+    /**
+     * The level names, as specified in the query.
+     */
+    @Nonnull
+    private final String[] levelNames;
+
+    /**
+     * The (trimmed) search terms, per level name. Every column contains at least 1 term.
+     */
+    @Nonnull
+    private final String[][] columns;
+
+    /**
+     * The number of searches: the maximum number of terms for any level.
+     */
+    private final int nrOfSearches;
+
+    private SearchQuery(@Nonnull final String[] levelNames, @Nonnull final String[][] columns) {
+        assert levelNames.length == columns.length;
+        this.levelNames = levelNames;
+        this.columns = columns;
+        int max = 0;
+        for (final String[] column : columns) {
+            max = Math.max(max, column.length);
+        }
+        this.nrOfSearches = max;
+    }
+
+    /**
+     * Parse query parameters (level-name: comma-separated search terms) in a single pass.
+     *
+     * @param queryParameters Query parameters, per level name. Only the first value is used.
+     * @return Parsed query.
+     * @throws ApiParameterSyntaxException If a search term contains {@link TreeResource#SEPARATOR_WRONG}.
+     */
+    @Nonnull
+    static SearchQuery parse(@Nonnull final Map<String, ? extends List<String>> queryParameters) {
+        final Set<String> names = queryParameters.keySet();
+        final String[] levelNames = names.toArray(new String[names.size()]);
+        final String[][] columns = new String[levelNames.length][];
+        for (int i = 0; i < levelNames.length; ++i) {
+            final List<String> values = queryParameters.get(levelNames[i]);
+            final String value = ((values == null) || values.isEmpty()) ? null : values.get(0);
+            columns[i] = splitTerms(levelNames[i], nullToEmpty(value));
+        }
+        return new SearchQuery(levelNames, columns);
+    }
+
+    /**
+     * Create a query from a list of searches, which each consist of a map: (level-name: search-term).
+     * A level name which is missing from a search gets an empty search term.
+     *
+     * @param levelSearchTermsList A list of searches.
+     * @return Query.
+     */
+    @Nonnull
+    static SearchQuery of(@Nonnull final List<Map<String, String>> levelSearchTermsList) {
+        final Map<String, String[]> columnOfLevel = new LinkedHashMap<>();
+        final int nrOfSearches = levelSearchTermsList.size();
+        for (int search = 0; search < nrOfSearches; ++search) {
+            for (final Map.Entry<String, String> entry : levelSearchTermsList.get(search).entrySet()) {
+                final String[] column = columnOfLevel.computeIfAbsent(entry.getKey(), levelName -> {
+                    final String[] terms = new String[nrOfSearches];
+                    Arrays.fill(terms, "");
+                    return terms;
+                });
+                column[search] = nullToEmpty(entry.getValue());
+            }
+        }
+        return new SearchQuery(
+                columnOfLevel.keySet().toArray(new String[columnOfLevel.size()]),
+                columnOfLevel.values().toArray(new String[columnOfLevel.size()][]));
+    }
+
+    /**
+     * Return the number of searches in the query.
+     *
+     * @return Number of searches.
+     */
+    int getNrOfSearches() {
+        return nrOfSearches;
+    }
+
+    /**
+     * Return the column index of every given level name, for {@link #getSearchTerm(int, int)}.
+     *
+     * @param levels Level names, or null if there are no levels.
+     * @return Column index per level name, or -1 if the level name is not part of the query.
+     */
+    @Nonnull
+    int[] getColumns(@Nullable final List<String> levels) {
+        if (levels == null) {
+            return new int[0];
+        }
+        final int[] result = new int[levels.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = getColumn(levels.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Return the search term of a column for a specific search.
+     *
+     * @param column Column index, see {@link #getColumns(List)}, or -1 for a level which is not in the query.
+     * @param search Search index, 0..{@link #getNrOfSearches()} - 1.
+     * @return Search term; empty if the level is not in the query.
+     */
+    @Nonnull
+    String getSearchTerm(final int column, final int search) {
+        assert (0 <= search) && (search < nrOfSearches);
+        if (column < 0) {
+            return "";
+        }
+        final String[] terms = columns[column];
+        return terms[Math.min(search, terms.length - 1)];
+    }
+
+    /**
+     * Return the search terms of a single search as a map, for logging and error messages.
+     *
+     * @param search Search index.
+     * @return Map of (level-name: search-term).
+     */
+    @Nonnull
+    Map<String, String> getLevelSearchTerms(final int search) {
+        final Map<String, String> levelSearchTerms = new LinkedHashMap<>();
+        for (int i = 0; i < levelNames.length; ++i) {
+            levelSearchTerms.put(levelNames[i], getSearchTerm(i, search));
+        }
+        return levelSearchTerms;
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        final List<Map<String, String>> searches = new ArrayList<>(nrOfSearches);
+        for (int search = 0; search < nrOfSearches; ++search) {
+            searches.add(getLevelSearchTerms(search));
+        }
+        return searches.toString();
+    }
+
+    private int getColumn(@Nonnull final String levelName) {
+        for (int i = 0; i < levelNames.length; ++i) {
+            if (levelNames[i].equals(levelName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Split a comma-separated list of search terms and trim the terms. Always returns at least 1 term.
+     */
+    @Nonnull
+    private static String[] splitTerms(@Nonnull final String levelName, @Nonnull final String value) {
+
+        // Count the terms first, so the array is allocated only once.
+        int count = 1;
+        for (int i = 0; i < value.length(); ++i) {
+            final char ch = value.charAt(i);
+            if (ch == TreeResource.SEPARATOR_QUERY) {
+                ++count;
+            } else if (ch == TreeResource.SEPARATOR_WRONG) {
+                throw new ApiParameterSyntaxException(levelName, termAt(value, i),
+                        "Search terms cannot contain '" + TreeResource.SEPARATOR_WRONG + "'.");
+            }
+        }
+        final String[] terms = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; ++i) {
+            int end = value.indexOf(TreeResource.SEPARATOR_QUERY, start);
+            if (end < 0) {
+                end = value.length();
+            }
+            terms[i] = WHITESPACE.trimFrom(value.substring(start, end));
+            start = end + 1;
+        }
+        return terms;
+    }
+
+    /**
+     * Return the (trimmed) search term which contains the given position.
+     */
+    @Nonnull
+    private static String termAt(@Nonnull final String value, final int index) {
+        final int start = value.lastIndexOf(TreeResource.SEPARATOR_QUERY, index) + 1;
+        int end = value.indexOf(TreeResource.SEPARATOR_QUERY, index);
+        if (end < 0) {
+            end = value.length();
+        }
+        return WHITESPACE.trimFrom(value.substring(start, end));
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import java.util.Arrays;
+
+/**
+ * This class implements a bounded, in-memory cache for search results. A cached search result
+ * consists of the (validated) search results, their pre-rendered body, their ETag and their last modified time.
+ * <p>
+ * The cache is keyed by the generation of the snapshot of the configuration and the search terms of
+ * every search, per level. As the generation is part of the key, a search result is never served for
+ * a different configuration than the one it was created from. The cache does not keep search results
+ * of previous snapshots, as these refer to the nodes of their tree: it is cleared when a new
+ * snapshot is used.
+ * <p>
+ * The search terms are used as-is (not case-folded), because the search terms are returned
+ * in the 'searched' attribute of the search results and are part of its ETag.
+ */
+public class SearchResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultCache.class);
+
+    /**
+     * The cache, or null if caching is disabled.
+     */
+    @Nullable
+    private final Cache<Key, CachedSearchResult> cache;
+
+    /**
+     * The configuration the search results are found in.
+     */
+    @Nonnull
+    private final Configuration configuration;
+
+    @Inject
+    public SearchResultCache(
+            @Nonnull final ConfigurationServiceProperties configurationServiceProperties,
+            @Nonnull final Configuration configuration) {
+        this.configuration = configuration;
+        configuration.addSnapshotListener(this::invalidateAll);
+        final int maximumSize = configurationServiceProperties.getSearchResultCacheSize();
+        LOG.info("SearchResultCache: maximumSize={}", maximumSize);
+        if (maximumSize > 0) {
+            this.cache = CacheBuilder.newBuilder().
+                    maximumSize(maximumSize).
+                    recordStats().
+                    build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Create a key for the cache.
+     *
+     * @param snapshot Snapshot of the configuration which is searched.
+     * @param query    Query, which holds the search terms of all searches.
+     * @return Key for the cache.
+     */
+    @Nonnull
+    static Key createKey(
+            @Nonnull final Configuration.Snapshot snapshot,
+            @Nonnull final SearchQuery query) {
+        final int nrOfSearches = query.getNrOfSearches();
+        final int[] columns = query.getColumns(snapshot.getRoot().getLevels());
+        final String[] searchTerms = new String[nrOfSearches * columns.length];
+        int i = 0;
+        for (int search = 0; search < nrOfSearches; ++search) {
+            for (final int column : columns) {
+                searchTerms[i] = query.getSearchTerm(column, search);
+                ++i;
+            }
+        }
+        return new Key(snapshot.getGeneration(), searchTerms);
+    }
+
+    /**
+     * Get a search result from the cache.
+     *
+     * @param key Key, see {@link #createKey(Configuration.Snapshot, SearchQuery)}.
+     * @return Cached search result, or null if not present.
+     */
+    @Nullable
+    public CachedSearchResult get(@Nonnull final Key key) {
+        return (cache == null) ? null : cache.getIfPresent(key);
+    }
+
+    /**
+     * Put a search result in the cache. The search results must be validated before they are
+     * added, because they are shared between requests from then on. Search results of a snapshot
+     * which is no longer used are not kept.
+     *
+     * @param key          Key, see {@link #createKey(Configuration.Snapshot, SearchQuery)}.
+     * @param searchResult Search result.
+     */
+    public void put(@Nonnull final Key key, @Nonnull final CachedSearchResult searchResult) {
+        if (cache != null) {
+            cache.put(key, searchResult);
+
+            // If a new snapshot was published meanwhile, the cache may have been cleared before the put.
+            if (key.generation != configuration.getSnapshot().getGeneration()) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Remove all search results from the cache, when a new snapshot of the configuration is used.
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Return the number of search results in the cache.
+     *
+     * @return Number of cached search results (approximate).
+     */
+    public long size() {
+        return (cache == null) ? 0 : cache.size();
+    }
+
+    /**
+     * Return the cache statistics: hits, misses and evictions.
+     *
+     * @return Cache statistics.
+     */
+    @Nonnull
+    public CacheStats getStats() {
+        return (cache == null) ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    /**
+     * Key of the cache: the generation of the snapshot and the search terms per search.
+     */
+    @Immutable
+    public static final class Key {
+
+        private final long generation;
+
+        /**
+         * The search terms of all searches, per search and then per level of the tree.
+         */
+        @Nonnull
+        private final String[] searchTerms;
+
+        private final int hashCode;
+
+        private Key(final long generation, @Nonnull final String[] searchTerms) {
+            this.generation = generation;
+            this.searchTerms = searchTerms;
+            this.hashCode = (31 * Long.hashCode(generation)) + Arrays.hashCode(searchTerms);
+        }
+
+        @Override
+        public boolean equals(@Nullable final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return (generation == that.generation) && Arrays.equals(searchTerms, that.searchTerms);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Cached search result: the search results, their pre-rendered body, ETag and last modified time.
+     */
+    @Immutable
+    public static final class CachedSearchResult {
+
+        @Nonnull
+        private final SearchResultsDTO searchResults;
+
+        @Nullable
+        private final RenderedResponse renderedResponse;
+
+        @Nonnull
+        private final String eTag;
+
+        @Nullable
+        private final DateTime lastModified;
+
+        public CachedSearchResult(
+                @Nonnull final SearchResultsDTO searchResults,
+                @Nullable final RenderedResponse renderedResponse,
+                @Nonnull final String eTag,
+                @Nullable final DateTime lastModified) {
+            this.searchResults = searchResults;
+            this.renderedResponse = renderedResponse;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        @Nonnull
+        public SearchResultsDTO getSearchResults() {
+            return searchResults;
+        }
+
+        /**
+         * Return the pre-rendered body of the search results.
+         *
+         * @return Rendered body, or null if the search results could not be pre-rendered.
+         */
+        @Nullable
+        public RenderedResponse getRenderedResponse() {
+            return renderedResponse;
+        }
+
+        @Nonnull
+        public String getETag() {
+            return eTag;
+        }
+
+        @Nullable
+        public DateTime getLastModified() {
+            return lastModified;
+        }
+    }
+}
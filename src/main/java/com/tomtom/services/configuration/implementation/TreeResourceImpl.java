@@ -17,19 +17,15 @@
 package com.tomtom.services.configuration.implementation;
 
 import akka.dispatch.Futures;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.tomtom.services.configuration.TreeResource;
+import com.tomtom.services.configuration.domain.ContentHash;
 import com.tomtom.services.configuration.domain.Node;
 import com.tomtom.services.configuration.dto.NodeDTO;
 import com.tomtom.services.configuration.dto.SearchResultDTO;
 import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import com.tomtom.services.configuration.implementation.SearchResultCache.CachedSearchResult;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiForbiddenException;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiNotFoundException;
-import com.tomtom.speedtools.apivalidation.exceptions.ApiParameterSyntaxException;
-import com.tomtom.speedtools.checksums.SHA1Hash;
-import com.tomtom.speedtools.json.Json;
 import com.tomtom.speedtools.rest.ResourceProcessor;
 import com.tomtom.speedtools.time.UTCTime;
 import org.joda.time.DateTime;
@@ -40,19 +36,15 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * This class implements the /parameter resource.
@@ -60,12 +52,6 @@ import java.util.Set;
 public class TreeResourceImpl implements TreeResource {
     private static final Logger LOG = LoggerFactory.getLogger(TreeResourceImpl.class);
 
-    /**
-     * We use a salt to not expose the fact we use SHA1 hashes as ETags. The salt may
-     * change over time.
-     */
-    private static final String HASH_SALT = "3141592654";
-
     /**
      * The search tree, which holds all configurations.
      */
@@ -78,6 +64,12 @@ public class TreeResourceImpl implements TreeResource {
     @Nonnull
     private final ResourceProcessor processor;
 
+    /**
+     * The cache for search results.
+     */
+    @Nonnull
+    private final SearchResultCache searchResultCache;
+
     /**
      * The data/time format used by the HTTP header If-Modified-Since.
      */
@@ -87,90 +79,88 @@ public class TreeResourceImpl implements TreeResource {
     @Inject
     public TreeResourceImpl(
             @Nonnull final Configuration configuration,
-            @Nonnull final ResourceProcessor processor) {
+            @Nonnull final ResourceProcessor processor,
+            @Nonnull final SearchResultCache searchResultCache) {
 
         // Store the injected values.
         this.configuration = configuration;
         this.processor = processor;
+        this.searchResultCache = searchResultCache;
     }
 
     @Override
     public void findBestMatch(
             @Nullable final String ifModifiedSince,
             @Nullable final String ifNoneMatch,
+            @Nullable final String acceptEncoding,
             @Nonnull final UriInfo uriInfo,
             @Nonnull final AsyncResponse response) {
 
         // If no query parameters were specified, use getNode() instead.
         final MultivaluedMap<String, String> queryParameters = uriInfo.getQueryParameters();
         if ((queryParameters == null) || queryParameters.keySet().isEmpty()) {
-            getNode("", ifModifiedSince, ifNoneMatch, uriInfo, response);
+            getNode("", ifModifiedSince, ifNoneMatch, acceptEncoding, uriInfo, response);
             return;
         }
 
         processor.process("findBestMatch", LOG, response, () -> {
             LOG.info("findBestMatch: query={}, if-modified-since={}, if-none-match={}", queryParameters.keySet(), ifModifiedSince, ifNoneMatch);
 
-            // Get all parameter names (which are the level names).
-            final Set<String> levelNames = queryParameters.keySet();
-
-            // Determine how many searches are specified.
-            int nrOfSearches = 0;
-            for (final String levelName : levelNames) {
-                final Iterable<String> terms = Splitter.on(SEPARATOR_QUERY).trimResults().split(queryParameters.getFirst(levelName));
-                nrOfSearches = Math.max(nrOfSearches, Iterables.size(terms));
-            }
-
-            // Now create a full set of search maps with (level-name: search-term).
-            final List<Map<String, String>> levelSearchTermsList = new ArrayList<>();
-            for (int i = 0; i < nrOfSearches; ++i) {
-                final Map<String, String> levelSearchTerms = new HashMap<>();
-                for (final String levelName : levelNames) {
-                    final String searchTerm;
-                    final List<String> terms = Lists.newArrayList(Splitter.on(SEPARATOR_QUERY).trimResults().split(queryParameters.getFirst(levelName)));
-                    if (terms.isEmpty()) {
-
-                        // If no terms are supplied for this level, provide an empty search term.
-                        searchTerm = "";
-                    } else {
-
-                        if (terms.size() > i) {
-
-                            // If a search terms is available at this level, use it.
-                            searchTerm = terms.get(i);
-                        } else {
-
-                            // If not, re-use the last value.
-                            searchTerm = terms.get(terms.size() - 1);
-                        }
-                    }
-
-                    // Update last used search term and add to map of (level-name, search-term).
-                    levelSearchTerms.put(levelName, searchTerm);
-                    if (searchTerm.indexOf(SEPARATOR_WRONG) >= 0) {
-                        throw new ApiParameterSyntaxException(levelName, searchTerm, "Search terms cannot contain '" + SEPARATOR_WRONG + "'.");
+            /**
+             * Parse the query in a single pass: the comma-separated search terms per level name
+             * are split once. Search #i uses the i-th term of every level (or the last term
+             * of a level, if it has fewer terms).
+             */
+            final SearchQuery query = SearchQuery.parse(queryParameters);
+
+            // Use the same snapshot of the configuration throughout the request, even if it is reloaded meanwhile.
+            final Configuration.Snapshot snapshot = configuration.getSnapshot();
+
+            // First try and find the response in the cache.
+            final SearchResultCache.Key cacheKey = SearchResultCache.createKey(snapshot, query);
+            CachedSearchResult cachedSearchResult = searchResultCache.get(cacheKey);
+            if (cachedSearchResult == null) {
+
+                // Not cached, so search the tree.
+                final SearchResultsDTO foundResults = configuration.matchNode(snapshot, query);
+                if (foundResults.isEmpty()) {
+                    throw new ApiNotFoundException("No result found: query=" + query);
+                }
+                final String eTag = calculateETag(foundResults);
+
+                // Get latest modified time from search results (precomputed per node).
+                DateTime lastModified = null;
+                for (final SearchResultDTO foundResult : foundResults) {
+                    final DateTime modified = foundResult.getNode().searchModifiedUpToRoot();
+                    if ((lastModified == null) || ((modified != null) && modified.isAfter(lastModified))) {
+                        lastModified = modified;
                     }
                 }
-                assert levelSearchTerms.size() == levelNames.size();
 
-                // Add the search to the list of searches.
-                levelSearchTermsList.add(levelSearchTerms);
+                // Validate the results before caching them, as they are shared between requests from now on.
+                foundResults.validate();
+                final RenderedResponse renderedResponse = snapshot.getPreRenderedResponses().renderSearchResults(foundResults);
+                cachedSearchResult = new CachedSearchResult(foundResults, renderedResponse, eTag, lastModified);
+                searchResultCache.put(cacheKey, cachedSearchResult);
+            } else {
+                LOG.debug("findBestMatch: found in cache");
             }
-            assert levelSearchTermsList.size() == nrOfSearches;
+            final SearchResultsDTO foundResults = cachedSearchResult.getSearchResults();
+            final String eTag = cachedSearchResult.getETag();
+            final DateTime lastModified = cachedSearchResult.getLastModified();
 
-            // First try and find the response.
-            final SearchResultsDTO foundResults = configuration.matchNode(levelSearchTermsList);
-            if (foundResults.isEmpty()) {
-                throw new ApiNotFoundException("No result found: query=" + levelSearchTermsList);
-            }
+            // Pre-rendered bodies are served precompressed, if the client accepts it. The ETag identifies the variant.
+            final RenderedResponse renderedResponse = cachedSearchResult.getRenderedResponse();
+            final ContentEncoding encoding = (renderedResponse == null) ? ContentEncoding.IDENTITY : ContentEncoding.negotiate(acceptEncoding);
+            final String variantETag = eTag + encoding.getETagSuffix();
 
             // Check if the ETag matches (make sure we remove the "--gzip" suffix from the ETag).
-            final String eTag = calculateETag(foundResults);
+            // All encoded variants have the same content, so they match each other.
             final boolean eTagMatches;
             if (ifNoneMatch != null) {
-                final String ifNoneMatchCleaned = removeQuotedAndLowercase(ifNoneMatch);
+                final String ifNoneMatchCleaned = ContentEncoding.removeETagSuffix(removeQuotedAndLowercase(ifNoneMatch));
 
-                // Use "startsWith" to strip of "--gzip" suffixes etc.
+                // Use "startsWith" to strip of other suffixes.
                 eTagMatches = eTag.startsWith(ifNoneMatchCleaned);
             } else {
 
@@ -179,37 +169,33 @@ public class TreeResourceImpl implements TreeResource {
             }
             LOG.debug("findBestMatch: etag='{}', matches={}", eTag, eTagMatches);
 
-            // Get latest modified time from search results.
-            DateTime lastModified = null;
-            for (final SearchResultDTO foundResult : foundResults) {
-                final DateTime modified = foundResult.getNode().searchModifiedUpToRoot();
-                if ((lastModified == null) || ((modified != null) && modified.isAfter(lastModified))) {
-                    lastModified = modified;
-                }
-            }
-
             // And check If-Modified-Since to see if we can avoid returning the body.
             final boolean isModified = isModifiedSince(lastModified, ifModifiedSince);
             if (((ifNoneMatch != null) && eTagMatches) ||
                     ((ifNoneMatch == null) && (ifModifiedSince != null) && !isModified)) {
-                response.resume(Response.status(Status.NOT_MODIFIED).
-                        tag(eTag).
+                response.resume(withEncoding(Response.status(Status.NOT_MODIFIED), renderedResponse != null, null).
+                        tag(variantETag).
                         lastModified((lastModified == null) ? null : lastModified.toDate()).
                         build());
                 LOG.debug("findBestMatch: NOT MODIFIED");
                 return Futures.successful(null);
             }
 
-            if (foundResults.size() == 1) {
+            // Use the pre-rendered body, if possible.
+            if (renderedResponse != null) {
+                LOG.debug("findBestMatch: OK, pre-rendered, encoding={}, found={}", encoding, foundResults);
+                response.resume(withEncoding(Response.status(Status.OK), true, encoding.getContentCoding()).entity(renderedResponse).
+                        tag(variantETag).
+                        lastModified((lastModified == null) ? null : lastModified.toDate()).
+                        build());
+            } else if (foundResults.size() == 1) {
                 final SearchResultDTO entity = foundResults.get(0);
-                entity.validate();
                 LOG.debug("findBestMatch: OK, entity={}", entity);
                 response.resume(Response.status(Status.OK).entity(entity).
                         tag(eTag).
                         lastModified((lastModified == null) ? null : lastModified.toDate()).
                         build());
             } else {
-                foundResults.validate();
                 LOG.debug("findBestMatch: OK, found={}", foundResults);
                 response.resume(Response.status(Status.OK).entity(foundResults).
                         tag(eTag).
@@ -226,6 +212,7 @@ public class TreeResourceImpl implements TreeResource {
             @Nonnull final String fullNodePath,
             @Nullable final String ifModifiedSince,
             @Nullable final String ifNoneMatch,
+            @Nullable final String acceptEncoding,
             @Nonnull final UriInfo uriInfo,
             @Nonnull final AsyncResponse response) {
 
@@ -240,15 +227,23 @@ public class TreeResourceImpl implements TreeResource {
                 throw new ApiForbiddenException("Can't specify search parameters when retrieving specific configuration tree nodes");
             }
 
-            // First, try and get the node from the tree.
-            final Node resultNode = configuration.findNode(fullNodePath);
+            // First, try and get the node from the tree. Use the same snapshot throughout the request.
+            final Configuration.Snapshot snapshot = configuration.getSnapshot();
+            final Node resultNode = Configuration.findNode(snapshot, fullNodePath);
             if (resultNode == null) {
                 throw new ApiNotFoundException("Path not found: fullNodePath=" + fullNodePath);
             }
 
-            // Check if the ETag matches.
-            final String eTag = calculateETag(resultNode);
-            final boolean eTagMatches = (ifNoneMatch != null) && ifNoneMatch.equalsIgnoreCase(eTag);
+            // Get the result: can be a tree (with modified time) or a node. Use the pre-rendered body, if possible,
+            // and serve it precompressed if the client accepts it. The ETag identifies the variant.
+            final RenderedResponse renderedResponse = snapshot.getPreRenderedResponses().renderNode(resultNode);
+            final ContentEncoding encoding = (renderedResponse == null) ? ContentEncoding.IDENTITY : ContentEncoding.negotiate(acceptEncoding);
+
+            // Check if the ETag matches. The ETag of a node is computed when the tree is read.
+            final String eTag = resultNode.getETag();
+            final String variantETag = eTag + encoding.getETagSuffix();
+            final boolean eTagMatches = (ifNoneMatch != null) &&
+                    ContentEncoding.removeETagSuffix(removeQuotedAndLowercase(ifNoneMatch)).equals(eTag);
             LOG.debug("getNode: etag='{}', matches={}", eTag, eTagMatches);
 
             // Then check If-Modified-Since to see if we can avoid returning the body.
@@ -256,37 +251,69 @@ public class TreeResourceImpl implements TreeResource {
             final boolean isModified = isModifiedSince(lastModified, ifModifiedSince);
             if (((ifNoneMatch != null) && eTagMatches) ||
                     ((ifNoneMatch == null) && (ifModifiedSince != null) && !isModified)) {
-                response.resume(Response.status(Status.NOT_MODIFIED).
-                        tag(eTag).
+                response.resume(withEncoding(Response.status(Status.NOT_MODIFIED), renderedResponse != null, null).
+                        tag(variantETag).
                         lastModified((lastModified == null) ? null : lastModified.toDate()).
                         build());
                 LOG.debug("getNode: NOT MODIFIED");
                 return Futures.successful(null);
             }
 
-            // Get the result: can be a tree (with modified time) or a node.
-            final NodeDTO result = new NodeDTO(resultNode);
-            result.validate();
-            response.resume(Response.status(Status.OK).entity(result).
-                    tag(eTag).
+            final Object entity;
+            if (renderedResponse != null) {
+                entity = renderedResponse;
+            } else {
+                final NodeDTO result = new NodeDTO(resultNode);
+                result.validate();
+                entity = result;
+            }
+            response.resume(withEncoding(Response.status(Status.OK), renderedResponse != null, encoding.getContentCoding()).entity(entity).
+                    tag(variantETag).
                     lastModified((lastModified == null) ? null : lastModified.toDate()).
                     build());
-            LOG.debug("getNode: OK, result={}", result);
+            LOG.debug("getNode: OK, encoding={}, result={}", encoding, resultNode.getMatched());
             return Futures.successful(null);
         });
     }
 
     /**
-     * Create an ETag value for an object. Not quoted.
+     * Create an ETag value for search results. Not quoted. The ETag combines the precomputed hashes
+     * of the nodes of the results (their parameters and matched search terms) with the searched terms,
+     * so the search results do not need to be serialized.
      *
-     * @param object Object to create an ETag for.
+     * @param searchResults Search results to create an ETag for.
      * @return ETag string (not quoted).
      */
     @Nonnull
-    private static String calculateETag(@Nonnull final Object object) {
-        final String json = Json.toJson(object);
-        final SHA1Hash hash = SHA1Hash.saltedHash(json, HASH_SALT);
-        return hash.toString();
+    static String calculateETag(@Nonnull final SearchResultsDTO searchResults) {
+        long hash = ContentHash.SEED;
+        for (final SearchResultDTO searchResult : searchResults) {
+            hash = ContentHash.add(hash, searchResult.getNode().getResultHash());
+            hash = ContentHash.add(hash, searchResult.getSearched());
+        }
+        return ContentHash.toETag(ContentHash.add(hash, searchResults.size()));
+    }
+
+    /**
+     * Add the content encoding headers to a response.
+     *
+     * @param builder       Response builder.
+     * @param varies        True if the response varies with Accept-Encoding (if the body is pre-rendered).
+     * @param contentCoding Content-Encoding of the body, or null if not encoded.
+     * @return Response builder.
+     */
+    @Nonnull
+    private static Response.ResponseBuilder withEncoding(
+            @Nonnull final Response.ResponseBuilder builder,
+            final boolean varies,
+            @Nullable final String contentCoding) {
+        if (varies) {
+            builder.header(HttpHeaders.VARY, HEADER_ACCEPT_ENCODING);
+        }
+        if (contentCoding != null) {
+            builder.encoding(contentCoding);
+        }
+        return builder;
     }
 
     /**
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CompactLiteralChildrenTest {
+    private static final Logger LOG = LoggerFactory.getLogger(CompactLiteralChildrenTest.class);
+
+    @Test
+    public void testCompactable() {
+        LOG.info("testCompactable");
+        assertFalse(CompactLiteralChildren.isCompactable(null));
+        assertFalse(CompactLiteralChildren.isCompactable(createChildren(CompactLiteralChildren.MIN_NR_OF_CHILDREN - 1)));
+        final List<NodeDTO> children = createChildren(CompactLiteralChildren.MIN_NR_OF_CHILDREN);
+        assertTrue(CompactLiteralChildren.isCompactable(children));
+        children.add(new NodeDTO("device.*", null, null, null, null, null, null));
+        assertFalse(CompactLiteralChildren.isCompactable(children));
+    }
+
+    @Test
+    public void testFind() {
+        LOG.info("testFind");
+        final List<NodeDTO> children = createChildren(CompactLiteralChildren.MIN_NR_OF_CHILDREN);
+        children.add(new NodeDTO("Café-😀", null, null, null, null, null, null));
+        children.add(new NodeDTO("DUP", null, parameters("x", "1"), null, null, null, null));
+        children.add(new NodeDTO("dup", null, parameters("x", "2"), null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, children, null, null, Immutables.listOf("device"), null, null), null);
+
+        final Node device = root.findLiteralChild("DEVICE123");
+        assertNotNull(device);
+        assertEquals("device123", device.getMatch());
+        assertEquals("device=device123", device.getMatched());
+        assertEquals(0, device.getLevelIndex());
+        assertSame(root, device.getParentNode());
+        assertNotNull(device.getParameterList());
+        assertEquals("1", device.getParameterList().get(0).getValue());
+        assertNull(root.findLiteralChild("device"));
+        assertNull(root.findLiteralChild("device1234567"));
+        assertNull(root.findRegexChild("device123"));
+
+        // Every lookup creates an equivalent node.
+        final Node again = root.findChild("device123");
+        assertNotNull(again);
+        assertNotSame(device, again);
+        assertEquals(device.getMatched(), again.getMatched());
+        assertEquals(device.getResultHash(), again.getResultHash());
+        assertEquals(device.getETag(), again.getETag());
+        assertSame(device.getParameterList(), again.getParameterList());
+
+        // Non-ASCII characters are not case-folded.
+        assertEquals("Café-😀", root.findLiteralChild("café-😀").getMatch());
+        assertNull(root.findLiteralChild("cafÉ-😀"));
+        assertNull(root.findLiteralChild("café-\uD83D"));
+
+        // The first child in declaration order wins, unless the match is exact.
+        assertEquals("1", root.findLiteralChild("dup").getParameters().iterator().next().getValue());
+        assertEquals("2", root.findChild("dup").getParameters().iterator().next().getValue());
+        assertNull(root.findChild("Dup"));
+
+        // Children with equal parameters share them.
+        assertSame(root.findLiteralChild("device1").getParameterList(), root.findLiteralChild("device3").getParameterList());
+        assertNotSame(root.findLiteralChild("device1").getParameterList(), root.findLiteralChild("device2").getParameterList());
+    }
+
+    @Test
+    public void testCreateChildren() {
+        LOG.info("testCreateChildren");
+        final List<NodeDTO> children = createChildren(CompactLiteralChildren.MIN_NR_OF_CHILDREN);
+        final Node root = new Node(new NodeDTO(null, children, null, null, Immutables.listOf("device"), null, null), null);
+        final Set<Node> nodes = root.getNodes();
+        assertNotNull(nodes);
+        assertEquals(children.size(), nodes.size());
+        assertSame(nodes, root.getNodes());
+        final Iterator<Node> iterator = nodes.iterator();
+        for (final NodeDTO child : children) {
+            assertEquals(child.getMatch(), iterator.next().getMatch());
+        }
+
+        // The compactly stored children serialize the same way as regular nodes.
+        final List<Node> regularNodes = new ArrayList<>();
+        for (final NodeDTO child : children) {
+            regularNodes.add(new Node(child, null));
+        }
+        assertEquals(new Node(null, regularNodes, null, null, Immutables.listOf("device"), null).toString(), root.toString());
+    }
+
+    @Test
+    public void testRetainedHeap() {
+        LOG.info("testRetainedHeap");
+        final int nrOfChildren = 50000;
+        final List<NodeDTO> children = createChildren(nrOfChildren);
+        final NodeDTO compactDTO = new NodeDTO(null, children, null, null, Immutables.listOf("device"), null, null);
+
+        // A single regular expression prevents storing the children compactly.
+        final List<NodeDTO> regularChildren = new ArrayList<>(children);
+        regularChildren.add(new NodeDTO("other.*", null, null, null, null, null, null));
+        final NodeDTO regularDTO = new NodeDTO(null, regularChildren, null, null, Immutables.listOf("device"), null, null);
+
+        long used = getUsedHeap();
+        final Node compact = new Node(compactDTO, null);
+        final long compactPerChild = (getUsedHeap() - used) / nrOfChildren;
+        used = getUsedHeap();
+        final Node regular = new Node(regularDTO, null);
+        final long regularPerChild = (getUsedHeap() - used) / nrOfChildren;
+        LOG.info("testRetainedHeap: bytes per child, compact={}, regular={}", compactPerChild, regularPerChild);
+
+        // Keep the trees reachable until they are measured.
+        assertTrue(compact.hasCompactChildren());
+        assertFalse(regular.hasCompactChildren());
+        assertTrue("compact=" + compactPerChild + ", regular=" + regularPerChild, (compactPerChild * 4) < regularPerChild);
+    }
+
+    private static long getUsedHeap() {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static List<NodeDTO> createChildren(final int nrOfChildren) {
+        final List<NodeDTO> children = new ArrayList<>();
+        for (int i = 0; i < nrOfChildren; ++i) {
+            children.add(new NodeDTO("device" + i, null, parameters("radius", Integer.toString(i % 2)), null, null, null, null));
+        }
+        return children;
+    }
+
+    private static ParameterListDTO parameters(final String... keyValues) {
+        final List<ParameterDTO> parameters = new ArrayList<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.add(new ParameterDTO(keyValues[i], keyValues[i + 1]));
+        }
+        return new ParameterListDTO(parameters);
+    }
+}
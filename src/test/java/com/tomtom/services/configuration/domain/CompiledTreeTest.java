@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
+import com.sun.management.ThreadMXBean;
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompiledTreeTest {
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledTreeTest.class);
+
+    @Test
+    public void testFindChild() {
+        LOG.info("testFindChild");
+        final List<NodeDTO> models = new ArrayList<>();
+        models.add(new NodeDTO("Luxuri", null, parameters("radius", "1"), null, null, null, null));
+        models.add(new NodeDTO("luxuri.*", null, parameters("radius", "2"), null, null, null, null));
+        models.add(new NodeDTO("100..199", "range", null, parameters("radius", "1"), null, null, null, null));
+        models.add(new NodeDTO(".*", null, null, null, null, null, null));
+        final List<NodeDTO> services = new ArrayList<>();
+        services.add(new NodeDTO("traffic", models, null, null, null, null, null));
+        services.add(new NodeDTO("TRAFFIC", null, parameters("radius", "3"), null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, services, null, null, Immutables.listOf("service", "model"), null, null), null);
+        final CompiledTree tree = new CompiledTree(root);
+        assertEquals(7, tree.size());
+
+        // Nodes are numbered breadth-first.
+        assertSame(root, tree.getNode(CompiledTree.ROOT));
+        final int traffic = tree.findLiteralChild(CompiledTree.ROOT, "Traffic");
+        assertEquals(1, traffic);
+        assertEquals("traffic", tree.getMatch(traffic));
+        assertFalse(tree.hasParameters(traffic));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findLiteralChild(CompiledTree.ROOT, "x"));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findRegexChild(CompiledTree.ROOT, "x"));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findTypedChild(CompiledTree.ROOT, "x"));
+
+        // Literal, typed and regular expression children.
+        assertEquals("Luxuri", tree.getMatch(tree.findLiteralChild(traffic, "LUXURI")));
+        assertEquals("luxuri.*", tree.getMatch(tree.findRegexChild(traffic, "luxuri")));
+        assertEquals("luxuri.*", tree.getMatch(tree.findRegexChild(traffic, "luxurious")));
+        assertEquals(".*", tree.getMatch(tree.findRegexChild(traffic, "cheapo")));
+        assertEquals("100..199", tree.getMatch(tree.findTypedChild(traffic, "150")));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findTypedChild(traffic, "200"));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findLiteralChild(tree.findLiteralChild(traffic, "luxuri"), "x"));
+
+        // Nodes with equal parameters share a parameter block.
+        assertEquals(3, tree.getNrOfParameterBlocks());
+    }
+
+    @Test
+    public void testCompactChildren() {
+        LOG.info("testCompactChildren");
+        final List<NodeDTO> devices = new ArrayList<>();
+        for (int i = 0; i < CompactLiteralChildren.MIN_NR_OF_CHILDREN; ++i) {
+            devices.add(new NodeDTO("device" + i, null, ((i % 2) == 0) ? parameters("radius", "1") : null, null, null, null, null));
+        }
+        final List<NodeDTO> services = new ArrayList<>();
+        services.add(new NodeDTO("traffic", devices, null, null, null, null, null));
+        services.add(new NodeDTO("parking", devices, null, null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, services, null, null, Immutables.listOf("service", "device"), null, null), null);
+        final CompiledTree tree = new CompiledTree(root);
+        assertEquals(3 + (2 * CompactLiteralChildren.MIN_NR_OF_CHILDREN), tree.size());
+
+        final int parking = tree.findLiteralChild(CompiledTree.ROOT, "parking");
+        final int device = tree.findLiteralChild(parking, "DEVICE10");
+        assertNotEquals(CompiledTree.NOT_FOUND, device);
+        assertTrue(tree.hasParameters(device));
+        assertFalse(tree.hasParameters(tree.findLiteralChild(parking, "device11")));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findLiteralChild(device, "x"));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findRegexChild(device, "x"));
+
+        final Node node = tree.getNode(device);
+        assertEquals("device10", node.getMatch());
+        assertEquals("service=parking&device=device10", node.getMatched());
+        assertEquals("device10", tree.getMatch(tree.findLiteralChild(tree.findLiteralChild(CompiledTree.ROOT, "traffic"), "device10")));
+    }
+
+    @Test(timeout = 10000)
+    public void testBudgetExceededIsNotAMiss() {
+        LOG.info("testBudgetExceededIsNotAMiss");
+        final List<NodeDTO> models = new ArrayList<>();
+        models.add(new NodeDTO("(a+)+\\1(?=x)b", null, parameters("radius", "1"), null, null, null, null));
+        models.add(new NodeDTO(".*", null, parameters("radius", "2"), null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, models, null, null, Immutables.listOf("model"), null, null), null);
+        final CompiledTree tree = new CompiledTree(root);
+
+        // A search term which exceeds the step budget is reported as such, every time, and never cached as a miss.
+        final String searchTerm = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+        assertEquals(CompiledTree.BUDGET_EXCEEDED, tree.findRegexChild(CompiledTree.ROOT, searchTerm));
+        assertFalse(tree.isKnownRegexMiss(CompiledTree.ROOT, searchTerm));
+        assertEquals(CompiledTree.BUDGET_EXCEEDED, tree.findRegexChild(CompiledTree.ROOT, searchTerm));
+        assertEquals(".*", tree.getMatch(tree.findRegexChild(CompiledTree.ROOT, "other")));
+    }
+
+    @Test
+    public void testNegativeFilters() {
+        LOG.info("testNegativeFilters");
+        final List<NodeDTO> models = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            models.add(new NodeDTO("model" + i, null, parameters("radius", "1"), null, null, null, null));
+        }
+        models.add(new NodeDTO("luxuri[a-z]+", null, parameters("radius", "2"), null, null, null, null));
+        final List<NodeDTO> prefixes = new ArrayList<>();
+        prefixes.add(new NodeDTO("luxuri.*", null, parameters("radius", "3"), null, null, null, null));
+        final List<NodeDTO> services = new ArrayList<>();
+        services.add(new NodeDTO("traffic", models, null, null, null, null, null));
+        services.add(new NodeDTO("parking", prefixes, null, null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, services, null, null, Immutables.listOf("service", "model"), null, null), null);
+        final CompiledTree tree = new CompiledTree(root);
+        final int traffic = tree.findLiteralChild(CompiledTree.ROOT, "traffic");
+        final int parking = tree.findLiteralChild(CompiledTree.ROOT, "parking");
+
+        // The bloom filter never rejects a literal child.
+        for (int i = 0; i < 100; ++i) {
+            assertEquals("model" + i, tree.getMatch(tree.findLiteralChild(traffic, "MODEL" + i)));
+        }
+        for (int i = 100; i < 1000; ++i) {
+            assertEquals(CompiledTree.NOT_FOUND, tree.findLiteralChild(traffic, "model" + i));
+        }
+
+        // Misses of the regular expressions are cached, matches are not.
+        assertFalse(tree.isKnownRegexMiss(traffic, "cheapo"));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findRegexChild(traffic, "cheapo"));
+        assertTrue(tree.isKnownRegexMiss(traffic, "cheapo"));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findRegexChild(traffic, "cheapo"));
+        assertFalse(tree.isKnownRegexMiss(traffic, "CHEAPO"));
+        assertEquals("luxuri[a-z]+", tree.getMatch(tree.findRegexChild(traffic, "luxurious")));
+        assertFalse(tree.isKnownRegexMiss(traffic, "luxurious"));
+        assertFalse(tree.isKnownRegexMiss(CompiledTree.ROOT, "cheapo"));
+
+        // Misses are not cached if the regular expressions are matched without a regular expression engine.
+        assertEquals(CompiledTree.NOT_FOUND, tree.findRegexChild(parking, "cheapo"));
+        assertFalse(tree.isKnownRegexMiss(parking, "cheapo"));
+        assertEquals("luxuri.*", tree.getMatch(tree.findRegexChild(parking, "luxurious")));
+
+        // A new tree starts with empty caches.
+        assertFalse(new CompiledTree(root).isKnownRegexMiss(traffic, "cheapo"));
+    }
+
+    @Test
+    public void testLookupDoesNotAllocate() {
+        LOG.info("testLookupDoesNotAllocate");
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof ThreadMXBean);
+        final ThreadMXBean threadBean = (ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        // Literal, typed, linear-time and backtracking (a back-reference) regular expression children.
+        final List<NodeDTO> models = new ArrayList<>();
+        models.add(new NodeDTO("cheapo", null, parameters("radius", "1"), null, null, null, null));
+        models.add(new NodeDTO("100..199", "range", null, parameters("radius", "2"), null, null, null, null));
+        models.add(new NodeDTO("luxuri-x[0-9]+", null, parameters("radius", "3"), null, null, null, null));
+        models.add(new NodeDTO("(a)\\1b", null, parameters("radius", "4"), null, null, null, null));
+        final List<NodeDTO> services = new ArrayList<>();
+        services.add(new NodeDTO("traffic", models, null, null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, services, null, null, Immutables.listOf("service", "model"), null, null), null);
+        final CompiledTree tree = new CompiledTree(root);
+        final String[] searchTerms = {"Cheapo", "150", "luxuri-x12", "aab", "unknown"};
+        final String[] expected = {"cheapo", "100..199", "luxuri-x[0-9]+", "(a)\\1b", null};
+        for (int i = 0; i < searchTerms.length; ++i) {
+            final int model = lookup(tree, "traffic", searchTerms[i]);
+            assertEquals(expected[i], (model == CompiledTree.NOT_FOUND) ? null : tree.getMatch(model));
+        }
+
+        // Warm up, so the per-thread matchers are created and the lookup is compiled.
+        final long threadId = Thread.currentThread().getId();
+        final int nrOfLookups = 100000;
+        int found = 0;
+        for (int i = 0; i < nrOfLookups; ++i) {
+            found += lookup(tree, "traffic", searchTerms[i % searchTerms.length]);
+        }
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < nrOfLookups; ++i) {
+            found += lookup(tree, "traffic", searchTerms[i % searchTerms.length]);
+        }
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        LOG.info("testLookupDoesNotAllocate: {} bytes for {} lookups, found={}", allocated, nrOfLookups, found);
+
+        // Allow for a few incidental allocations, but not one per lookup.
+        assertTrue("allocated=" + allocated, allocated < nrOfLookups);
+    }
+
+    /**
+     * Find a child of a child of the root, like a search does: literal first, then typed, then regular expressions.
+     */
+    private static int lookup(final CompiledTree tree, final String service, final String model) {
+        final int serviceId = tree.findLiteralChild(CompiledTree.ROOT, service);
+        int modelId = tree.findLiteralChild(serviceId, model);
+        if (modelId == CompiledTree.NOT_FOUND) {
+            modelId = tree.findTypedChild(serviceId, model);
+            if (modelId == CompiledTree.NOT_FOUND) {
+                modelId = tree.findRegexChild(serviceId, model);
+            }
+        }
+        return modelId;
+    }
+
+    private static ParameterListDTO parameters(final String... keyValues) {
+        final List<ParameterDTO> parameters = new ArrayList<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.add(new ParameterDTO(keyValues[i], keyValues[i + 1]));
+        }
+        return new ParameterListDTO(parameters);
+    }
+}
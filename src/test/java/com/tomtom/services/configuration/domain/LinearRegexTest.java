@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class LinearRegexTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LinearRegexTest.class);
+
+    private static final String[] PATTERNS = {
+            "a", "abc", ".*", ".+", "a.c", "a*", "a+b?", "(ab|cd)*", "(?:x|y){2,3}", "x{2}", "x{2,}",
+            "[a-c]+", "[^a-c]", "[a-]", "[-a]", "[\\d.]+", "[^\\W]", "[\\D]", "\\d+", "\\w*", "\\s", "\\S+",
+            "\\.", "\\$", "a\\|b", "^a$", "a$", "^$", "a|^b", "(a|ab)(c|bcd)(d*)", "device[0-9]*", "String9[0-9]*",
+            "(a+)+b", "(a*)*", "()", "a|", "\\x41", "\\u00e9", "\\t", "café", "[à-ÿ]", "😀.",
+            "[A-Z]+", "[a-z]+", "[^A-Z]", "a*?b", "a{1,3}?", "]", "}", "a{0}", "[\\s\\d]", "[.]"
+    };
+
+    private static final String[] TERMS = {
+            "", "a", "A", "b", "ab", "abc", "ABC", "aBc", "aac", "a\nc", "abcd", "cdab", "xy", "xyx", "xyxy", "xx", "xxx",
+            "-", "1.2", "_", "9", " ", "\t", ".", "$", "a|b", "a\n", "a\r\n", "a\r", "\n", "a ", "abcbcd", "device",
+            "DEVICE12", "string9", "String91", "aaab", "aaaa", "é", "É", "café", "CAFé", "è",
+            "😀x", "😀", "Z", "z", "aab", "aaa", "]", "}", "a\u0085", "\n\n", "\r\n"
+    };
+
+    @Test
+    public void testSameAsPattern() {
+        LOG.info("testSameAsPattern");
+        for (final String pattern : PATTERNS) {
+            assertNull(pattern, LinearRegex.checkSupported(pattern));
+            final LinearRegex regex = LinearRegex.compile(Immutables.listOf(pattern));
+            assertNotNull(pattern, regex);
+            for (final String term : TERMS) {
+                final boolean expected = Node.createRegexPattern(pattern).matcher(term).matches();
+                assertEquals("pattern=" + pattern + ", term=" + term, expected, regex.match(term) == 0);
+            }
+        }
+    }
+
+    @Test
+    public void testFirstPatternWins() {
+        LOG.info("testFirstPatternWins");
+        final LinearRegex regex = LinearRegex.compile(Immutables.listOf("a.*", "[a-z]+", ".*"));
+        assertNotNull(regex);
+        assertEquals(0, regex.match("abc"));
+        assertEquals(1, regex.match("xyz"));
+        assertEquals(2, regex.match("123"));
+        assertEquals(-1, LinearRegex.compile(Immutables.listOf("a", "b")).match("c"));
+    }
+
+    @Test
+    public void testUnsupported() {
+        LOG.info("testUnsupported");
+        assertNotNull(LinearRegex.checkSupported("(a)\\1"));
+        assertNotNull(LinearRegex.checkSupported("a(?=b)"));
+        assertNotNull(LinearRegex.checkSupported("(?i)a"));
+        assertNotNull(LinearRegex.checkSupported("a++"));
+        assertNotNull(LinearRegex.checkSupported("\\bA"));
+        assertNotNull(LinearRegex.checkSupported("\\p{L}"));
+        assertNotNull(LinearRegex.checkSupported("[a-z&&[^x]]"));
+        assertNotNull(LinearRegex.checkSupported("\\Qa\\E"));
+        assertNotNull(LinearRegex.checkSupported("(a{100}){200}"));
+        assertNull(LinearRegex.compile(Immutables.listOf("a", "(a)\\1")));
+    }
+
+    @Test(timeout = 10000)
+    public void testLinearTime() {
+        LOG.info("testLinearTime");
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            sb.append('a');
+        }
+        final LinearRegex regex = LinearRegex.compile(Immutables.listOf("(a+)+b", "(a|aa)*c", "(.*a){20}x"));
+        assertNotNull(regex);
+        assertEquals(-1, regex.match(sb));
+    }
+}
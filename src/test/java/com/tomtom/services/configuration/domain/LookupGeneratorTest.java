@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.ToolProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LookupGeneratorTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LookupGeneratorTest.class);
+
+    @Test
+    public void testGeneratedLookup() {
+        LOG.info("testGeneratedLookup");
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+
+        // "a~" and "b_" have the same hash code.
+        final String[] matches = {"Traffic", "TRAFFIC", "a\"b", "c\\d", "été", "tab\there", "a~", "b_", "", "x.y"};
+        final List<NodeDTO> models = new ArrayList<>();
+        for (final String match : matches) {
+            models.add(new NodeDTO(match, null, parameters("radius", match), null, null, null, null));
+        }
+        models.add(new NodeDTO("luxuri.*", null, parameters("radius", "2"), null, null, null, null));
+        final List<NodeDTO> services = new ArrayList<>();
+        services.add(new NodeDTO("traffic", models, null, null, null, null, null));
+        services.add(new NodeDTO("parking", null, parameters("radius", "3"), null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, services, null, null, Immutables.listOf("service", "model"), null, null), null);
+        final CompiledTree interpreted = new CompiledTree(root);
+        final CompiledTree generated = new CompiledTree(root, true);
+        assertFalse(interpreted.isGenerated());
+        assertTrue(generated.isGenerated());
+
+        final String[] searchTerms = {"traffic", "TRAFFIC", "A\"B", "c\\d", "été", "Été", "TAB\there",
+                "a~", "B_", "", "x.y", "xzy", "luxuri", "a", "parking"};
+        for (final int id : new int[]{CompiledTree.ROOT, interpreted.findLiteralChild(CompiledTree.ROOT, "traffic"), 100}) {
+            for (final String searchTerm : searchTerms) {
+                assertEquals(searchTerm, interpreted.findLiteralChild(id, searchTerm), generated.findLiteralChild(id, searchTerm));
+            }
+        }
+        final int traffic = generated.findLiteralChild(CompiledTree.ROOT, "TRAFFIC");
+        assertEquals("Traffic", generated.getMatch(generated.findLiteralChild(traffic, "traffic")));
+        assertEquals("b_", generated.getMatch(generated.findLiteralChild(traffic, "b_")));
+        assertEquals(CompiledTree.NOT_FOUND, generated.findLiteralChild(traffic, "luxuri"));
+    }
+
+    @Test
+    public void testLargeNodeFallsBack() {
+        LOG.info("testLargeNodeFallsBack");
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+
+        // The regular expression prevents storing the children compactly.
+        final List<NodeDTO> devices = new ArrayList<>();
+        for (int i = 0; i <= LookupGenerator.MAX_LITERALS_PER_NODE; ++i) {
+            devices.add(new NodeDTO("device" + i, null, parameters("radius", "1"), null, null, null, null));
+        }
+        devices.add(new NodeDTO("device.*", null, parameters("radius", "2"), null, null, null, null));
+        final List<NodeDTO> services = new ArrayList<>();
+        services.add(new NodeDTO("traffic", devices, null, null, null, null, null));
+        final Node root = new Node(new NodeDTO(null, services, null, null, Immutables.listOf("service", "device"), null, null), null);
+        final CompiledTree tree = new CompiledTree(root, true);
+        assertTrue(tree.isGenerated());
+
+        final int traffic = tree.findLiteralChild(CompiledTree.ROOT, "traffic");
+        final int max = LookupGenerator.MAX_LITERALS_PER_NODE;
+        assertEquals("device" + max, tree.getMatch(tree.findLiteralChild(traffic, "DEVICE" + max)));
+        assertEquals(CompiledTree.NOT_FOUND, tree.findLiteralChild(traffic, "device" + (max + 1)));
+    }
+
+    @Test
+    public void testTooManyNodes() {
+        LOG.info("testTooManyNodes");
+        final Map<Integer, Map<String, Integer>> literals = new LinkedHashMap<>();
+        for (int i = 0; i <= LookupGenerator.MAX_NODES; ++i) {
+            literals.put(i, Collections.singletonMap("x", i + 1));
+        }
+        assertNull(LookupGenerator.generate(literals));
+    }
+
+    @Test
+    public void testTooManyLiterals() {
+        LOG.info("testTooManyLiterals");
+        Assume.assumeNotNull(ToolProvider.getSystemJavaCompiler());
+
+        // Nodes with too many children are not counted, as they are not generated.
+        final Map<Integer, Map<String, Integer>> literals = new LinkedHashMap<>();
+        int id = 0;
+        while (LookupGenerator.countLiterals(literals) <= LookupGenerator.MAX_LITERALS) {
+            final Map<String, Integer> children = new LinkedHashMap<>();
+            for (int i = 0; i < LookupGenerator.MAX_LITERALS_PER_NODE; ++i) {
+                children.put("x" + i, ++id);
+            }
+            literals.put(id, children);
+        }
+        final Map<String, Integer> large = new LinkedHashMap<>();
+        for (int i = 0; i <= LookupGenerator.MAX_LITERALS_PER_NODE; ++i) {
+            large.put("x" + i, ++id);
+        }
+        assertEquals(LookupGenerator.MAX_LITERALS_PER_NODE + 1, large.size());
+        final int count = LookupGenerator.countLiterals(literals);
+        literals.put(id, large);
+        assertEquals(count, LookupGenerator.countLiterals(literals));
+
+        // The tree falls back to the interpreted lookup before the source is generated and compiled.
+        final long start = System.nanoTime();
+        assertNull(LookupGenerator.generate(literals));
+        assertTrue((System.nanoTime() - start) < 1000000000L);
+    }
+
+    @Test
+    public void testAppendStringLiteral() {
+        LOG.info("testAppendStringLiteral");
+        final StringBuilder sb = new StringBuilder();
+        LookupGenerator.appendStringLiteral(sb, "a\"b\\c\t\né€");
+        assertEquals("\"a\\\"b\\\\c\\011\\012\\u00e9\\u20ac\"", sb.toString());
+    }
+
+    private static ParameterListDTO parameters(final String... keyValues) {
+        final List<ParameterDTO> parameters = new ArrayList<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.add(new ParameterDTO(keyValues[i], keyValues[i + 1]));
+        }
+        return new ParameterListDTO(parameters);
+    }
+}
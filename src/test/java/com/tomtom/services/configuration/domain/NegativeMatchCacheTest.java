@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class NegativeMatchCacheTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NegativeMatchCacheTest.class);
+
+    @Test
+    public void testAddContains() {
+        LOG.info("testAddContains");
+        final NegativeMatchCache cache = new NegativeMatchCache();
+        assertFalse(cache.contains("x"));
+        cache.add("x");
+        assertTrue(cache.contains("x"));
+        assertTrue(cache.contains(new StringBuilder("x")));
+        assertFalse(cache.contains("X"));
+        assertFalse(cache.contains(""));
+    }
+
+    @Test
+    public void testBounded() {
+        LOG.info("testBounded");
+        final NegativeMatchCache cache = new NegativeMatchCache();
+        for (int i = 0; i < (NegativeMatchCache.NR_OF_SLOTS * 10); ++i) {
+            cache.add("term" + i);
+        }
+        int nrOfTerms = 0;
+        for (int i = 0; i < (NegativeMatchCache.NR_OF_SLOTS * 10); ++i) {
+            if (cache.contains("term" + i)) {
+                ++nrOfTerms;
+            }
+        }
+        assertTrue(nrOfTerms <= NegativeMatchCache.NR_OF_SLOTS);
+        assertTrue(nrOfTerms > 0);
+    }
+
+    @Test
+    public void testLongTermsNotCached() {
+        LOG.info("testLongTermsNotCached");
+        final NegativeMatchCache cache = new NegativeMatchCache();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= NegativeMatchCache.MAX_TERM_LENGTH; ++i) {
+            sb.append('x');
+        }
+        cache.add(sb);
+        assertFalse(cache.contains(sb));
+    }
+}
@@ -16,11 +16,18 @@
 
 package com.tomtom.services.configuration.domain;
 
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
 import com.tomtom.speedtools.objects.Immutables;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
 import static org.junit.Assert.*;
 
 public class NodeTest {
@@ -58,4 +65,80 @@ public class NodeTest {
         assertEquals("1", x.getParameters().iterator().next().getKey());
         assertEquals("{\"match\":\"x\",\"nodes\":[{\"match\":\"y\"}],\"parameters\":[{\"key\":\"1\",\"value\":\"2\"}]}", x.toString());
     }
+
+    @Test
+    public void testNodeMatched() {
+        LOG.info("testNodeMatched");
+        final NodeDTO leafDTO = new NodeDTO("c.*", null, null, null, null, null, null);
+        final NodeDTO childDTO = new NodeDTO("b", Immutables.listOf(leafDTO), null, null, null, null, null);
+        final NodeDTO rootDTO = new NodeDTO(null, Immutables.listOf(childDTO), null, null, Immutables.listOf("x", "y"), null, null);
+        final Node root = new Node(rootDTO, null);
+        assertEquals(-1, root.getLevelIndex());
+        assertEquals("", root.getMatched());
+        final Node child = root.getNodes().iterator().next();
+        assertEquals(0, child.getLevelIndex());
+        assertEquals("x=b", child.getMatched());
+        final Node leaf = child.getNodes().iterator().next();
+        assertEquals(1, leaf.getLevelIndex());
+        assertEquals("x=b&y=c.*", leaf.getMatched());
+    }
+
+    @Test
+    public void testCreateRegexPattern() {
+        LOG.info("testCreateRegexPattern");
+
+        // The case-insensitive flag is only used when it makes a difference.
+        assertEquals(0, Node.createRegexPattern("1.*2").flags() & Pattern.CASE_INSENSITIVE);
+        assertEquals(0, Node.createRegexPattern("(12|34)+").flags() & Pattern.CASE_INSENSITIVE);
+        assertNotEquals(0, Node.createRegexPattern("a.*").flags() & Pattern.CASE_INSENSITIVE);
+        assertNotEquals(0, Node.createRegexPattern("\\0101").flags() & Pattern.CASE_INSENSITIVE);
+        assertNotEquals(0, Node.createRegexPattern("[0-_]").flags() & Pattern.CASE_INSENSITIVE);
+        assertTrue(Node.createRegexPattern("\\0101").matcher("a").matches());
+        assertTrue(Node.createRegexPattern("[0-_]").matcher("a").matches());
+    }
+
+    @Test
+    public void testETag() {
+        LOG.info("testETag");
+        final Node x1 = new Node("x", Immutables.listOf(new Node("y")), Immutables.listOf(new Parameter("1", "2")), null, null, null);
+        final Node x2 = new Node("x", Immutables.listOf(new Node("y")), Immutables.listOf(new Parameter("1", "2")), null, null, null);
+        final Node x3 = new Node("x", Immutables.listOf(new Node("z")), Immutables.listOf(new Parameter("1", "2")), null, null, null);
+        final Node x4 = new Node("x", Immutables.listOf(new Node("y")), Immutables.listOf(new Parameter("1", "3")), null, null, null);
+        assertEquals(16, x1.getETag().length());
+        assertEquals(x1.getETag(), x2.getETag());
+        assertNotEquals(x1.getETag(), x3.getETag());
+        assertNotEquals(x1.getETag(), x4.getETag());
+        assertNotEquals(x1.getResultHash(), x4.getResultHash());
+
+        // Compactly stored children give the same ETag as regular children.
+        final List<NodeDTO> compact = new ArrayList<>();
+        final List<Node> regular = new ArrayList<>();
+        for (int i = 0; i < CompactLiteralChildren.MIN_NR_OF_CHILDREN; ++i) {
+            final ParameterListDTO parameters = new ParameterListDTO(Immutables.listOf(new ParameterDTO("p", String.valueOf(i % 3))));
+            final NodeDTO child = new NodeDTO("device" + i, null, parameters, null, null, null, null);
+            compact.add(child);
+            regular.add(new Node(child, null));
+        }
+        final Node compactNode = new Node(new NodeDTO(null, compact, null, null, null, null, null), null);
+        final Node regularNode = new Node(null, regular, null, null, null, null);
+        assertNotNull(compactNode.getCompactChildren());
+        assertNull(regularNode.getCompactChildren());
+        assertEquals(compactNode.getETag(), regularNode.getETag());
+        assertEquals(compactNode.getCompactChildren().getChild(5).getETag(),
+                regularNode.getNodes().stream().filter(node -> "device5".equals(node.getMatch())).findFirst().get().getETag());
+    }
+
+    @Test
+    public void testSearchModifiedUpToRoot() {
+        LOG.info("testSearchModifiedUpToRoot");
+        final NodeDTO z = new NodeDTO("z", null, null, null, null, null, null);
+        final NodeDTO y = new NodeDTO("y", Immutables.listOf(z), null, "2016-01-02T12:34:56Z", null, null, null);
+        final Node root = new Node(new NodeDTO(null, Immutables.listOf(y), null, "2015-01-02T12:34:56Z", null, null, null), null);
+        final Node nodeY = root.getNodes().iterator().next();
+        final Node nodeZ = nodeY.getNodes().iterator().next();
+        assertEquals(root.getModified(), root.searchModifiedUpToRoot());
+        assertEquals(nodeY.getModified(), nodeY.searchModifiedUpToRoot());
+        assertEquals(nodeY.getModified(), nodeZ.searchModifiedUpToRoot());
+        assertNull(new Node("x").searchModifiedUpToRoot());
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.services.configuration.domain.SiblingPatternMatcher.MatchClass;
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class SiblingPatternMatcherTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SiblingPatternMatcherTest.class);
+
+    @Test
+    public void testFirstMatchWins() {
+        LOG.info("testFirstMatchWins");
+        final Node a = new Node("(a|b)(c)[0-9]+");
+        final Node b = new Node("a.*");
+        final Node c = new Node(".*");
+        final SiblingPatternMatcher matcher = new SiblingPatternMatcher(Immutables.listOf(a, b, c));
+        assertTrue(matcher.isCombined());
+        assertSame(a, matcher.findFirstMatch("AC123"));
+        assertSame(b, matcher.findFirstMatch("ac"));
+        assertSame(c, matcher.findFirstMatch("x"));
+    }
+
+    @Test
+    public void testNoMatch() {
+        LOG.info("testNoMatch");
+        final SiblingPatternMatcher matcher = new SiblingPatternMatcher(Immutables.listOf(new Node("x[0-9]"), new Node("y+")));
+        assertTrue(matcher.isCombined());
+        assertNull(matcher.findFirstMatch("x"));
+        assertNull(matcher.findFirstMatch("x12"));
+    }
+
+    @Test
+    public void testClassify() {
+        LOG.info("testClassify");
+        assertEquals(MatchClass.CATCH_ALL, SiblingPatternMatcher.classify(".*"));
+        assertEquals(MatchClass.CATCH_ALL, SiblingPatternMatcher.classify("^.*$"));
+        assertEquals(MatchClass.LITERAL, SiblingPatternMatcher.classify("v1\\.0"));
+        assertEquals(MatchClass.LITERAL, SiblingPatternMatcher.classify("^abc$"));
+        assertEquals(MatchClass.LITERAL, SiblingPatternMatcher.classify("abc\\$"));
+        assertEquals(MatchClass.PREFIX, SiblingPatternMatcher.classify("abc.*"));
+        assertEquals(MatchClass.PREFIX, SiblingPatternMatcher.classify("^a\\*b.*$"));
+        assertEquals(MatchClass.GENERAL, SiblingPatternMatcher.classify("abc\\.*"));
+        assertEquals(MatchClass.GENERAL, SiblingPatternMatcher.classify("a.c"));
+        assertEquals(MatchClass.GENERAL, SiblingPatternMatcher.classify("\\d+"));
+        assertEquals(MatchClass.GENERAL, SiblingPatternMatcher.classify("a|b.*"));
+        assertEquals(MatchClass.GENERAL, SiblingPatternMatcher.classify(".*x"));
+    }
+
+    @Test
+    public void testSimpleSiblings() {
+        LOG.info("testSimpleSiblings");
+        final Node a = new Node("[0-9]+");
+        final Node b = new Node("v1\\.0");
+        final Node c = new Node("Dev.*");
+        final Node d = new Node(".*");
+        final Node e = new Node("x\\.y");
+        final SiblingPatternMatcher matcher = new SiblingPatternMatcher(Immutables.listOf(a, b, c, d, e));
+        assertTrue(matcher.isCombined());
+        assertSame(a, matcher.findFirstMatch("123"));
+        assertSame(b, matcher.findFirstMatch("V1.0"));
+        assertSame(d, matcher.findFirstMatch("v1x0"));
+        assertSame(c, matcher.findFirstMatch("DEVICE"));
+        assertSame(c, matcher.findFirstMatch("dev"));
+        assertSame(d, matcher.findFirstMatch("x.y"));
+        assertSame(d, matcher.findFirstMatch(""));
+
+        // The catch-all and prefixes don't match line terminators, just like '.'.
+        assertNull(matcher.findFirstMatch("dev\n"));
+        assertSame(b, new SiblingPatternMatcher(Immutables.listOf(b, e)).findFirstMatch("v1.0"));
+        assertSame(e, new SiblingPatternMatcher(Immutables.listOf(b, e)).findFirstMatch("X.Y"));
+    }
+
+    @Test
+    public void testBacktracking() {
+        LOG.info("testBacktracking");
+        final Node a = new Node("(a)\\1");
+        final Node b = new Node("a.");
+        final SiblingPatternMatcher matcher = new SiblingPatternMatcher(Immutables.listOf(a, b));
+        assertFalse(matcher.isCombined());
+        assertSame(a, matcher.findFirstMatch("aa"));
+        assertSame(b, matcher.findFirstMatch("ab"));
+        assertNull(matcher.findFirstMatch("b"));
+    }
+
+    @Test(timeout = 10000)
+    public void testStepBudget() {
+        LOG.info("testStepBudget");
+        final Node a = new Node("(a+)+\\1(?=x)b");
+        final Node b = new Node(".*");
+        final SiblingPatternMatcher matcher = new SiblingPatternMatcher(Immutables.listOf(a, b));
+        assertFalse(matcher.isCombined());
+
+        // The first sibling exceeds its step budget: the match is unknown, so the second sibling is not tried.
+        assertEquals(SiblingPatternMatcher.BUDGET_EXCEEDED, matcher.findFirstMatchPosition("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+        try {
+            matcher.findFirstMatch(new StringBuilder("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+            fail("Expected StepBudgetExceededException");
+        } catch (final StepBudgetExceededException ignored) {
+            // OK.
+        }
+        assertEquals(2, matcher.getNrOfBudgetExceeded());
+        assertSame(b, matcher.findFirstMatch("other"));
+    }
+}
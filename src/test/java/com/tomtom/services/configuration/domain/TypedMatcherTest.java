@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.domain;
+
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.*;
+
+public class TypedMatcherTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TypedMatcherTest.class);
+
+    @Test
+    public void testCheckMatch() {
+        LOG.info("testCheckMatch");
+        assertNull(MatchType.RANGE.checkMatch("100..199"));
+        assertNull(MatchType.RANGE.checkMatch("-10..-1"));
+        assertNull(MatchType.RANGE.checkMatch("..0"));
+        assertNull(MatchType.RANGE.checkMatch("0.."));
+        assertNotNull(MatchType.RANGE.checkMatch("100"));
+        assertNotNull(MatchType.RANGE.checkMatch("199..100"));
+        assertNotNull(MatchType.RANGE.checkMatch("a..b"));
+        assertNotNull(MatchType.RANGE.checkMatch("1..99999999999999999999"));
+
+        assertNull(MatchType.VERSION.checkMatch("1.2..1.9"));
+        assertNull(MatchType.VERSION.checkMatch("1.2.3.4..2"));
+        assertNull(MatchType.VERSION.checkMatch("1.9..1.9"));
+        assertNotNull(MatchType.VERSION.checkMatch("1.9..1.2"));
+        assertNotNull(MatchType.VERSION.checkMatch("1.2.3.4.5..2"));
+        assertNotNull(MatchType.VERSION.checkMatch("1.x..2"));
+        assertNotNull(MatchType.VERSION.checkMatch("1..99999"));
+
+        assertNull(MatchType.PREFIX.checkMatch("dev-"));
+
+        assertNull(MatchType.CIDR.checkMatch("10.0.0.0-8"));
+        assertNull(MatchType.CIDR.checkMatch("0.0.0.0-0"));
+        assertNull(MatchType.CIDR.checkMatch("2001:db8::-32"));
+        assertNotNull(MatchType.CIDR.checkMatch("10.0.0.1-8"));
+        assertNotNull(MatchType.CIDR.checkMatch("10.0.0.0-33"));
+        assertNotNull(MatchType.CIDR.checkMatch("10.0.0.0"));
+        assertNotNull(MatchType.CIDR.checkMatch("host-8"));
+    }
+
+    @Test
+    public void testRange() {
+        LOG.info("testRange");
+        final Node a = createNode("100..199", MatchType.RANGE);
+        final Node b = createNode("150..", MatchType.RANGE);
+        final Node c = createNode("..-1", MatchType.RANGE);
+        final TypedMatcher matcher = new TypedMatcher(Immutables.listOf(a, b, c));
+        assertSame(a, matcher.findFirstMatch("100"));
+        assertSame(a, matcher.findFirstMatch("150"));
+        assertSame(b, matcher.findFirstMatch("200"));
+        assertSame(b, matcher.findFirstMatch("9223372036854775807"));
+        assertSame(c, matcher.findFirstMatch("-1"));
+        assertNull(matcher.findFirstMatch("0"));
+        assertNull(matcher.findFirstMatch("99"));
+        assertNull(matcher.findFirstMatch("1e3"));
+        assertNull(matcher.findFirstMatch("-"));
+        assertNull(matcher.findFirstMatch(""));
+        assertNull(matcher.findFirstMatch("9223372036854775808"));
+    }
+
+    @Test
+    public void testVersion() {
+        LOG.info("testVersion");
+        final Node a = createNode("1.2..1.9", MatchType.VERSION);
+        final Node b = createNode("1..2", MatchType.VERSION);
+        final TypedMatcher matcher = new TypedMatcher(Immutables.listOf(a, b));
+        assertSame(a, matcher.findFirstMatch("1.2"));
+        assertSame(a, matcher.findFirstMatch("1.5.3"));
+        assertSame(a, matcher.findFirstMatch("1.9.10.2"));
+        assertSame(b, matcher.findFirstMatch("1.10"));
+        assertSame(b, matcher.findFirstMatch("1.1"));
+        assertSame(b, matcher.findFirstMatch("2.99"));
+        assertNull(matcher.findFirstMatch("3"));
+        assertNull(matcher.findFirstMatch("1.2.3.4.5"));
+        assertNull(matcher.findFirstMatch("1..2"));
+        assertNull(matcher.findFirstMatch("1.2-beta"));
+    }
+
+    @Test
+    public void testPrefix() {
+        LOG.info("testPrefix");
+        final Node a = createNode("dev-test-", MatchType.PREFIX);
+        final Node b = createNode("DEV-", MatchType.PREFIX);
+        final Node c = createNode("dev-t", MatchType.PREFIX);
+        final TypedMatcher matcher = new TypedMatcher(Immutables.listOf(a, b, c));
+        assertSame(a, matcher.findFirstMatch("Dev-Test-1"));
+        assertSame(b, matcher.findFirstMatch("dev-test"));
+        assertSame(b, matcher.findFirstMatch("dev-"));
+        assertNull(matcher.findFirstMatch("dev"));
+        assertNull(matcher.findFirstMatch("prod-1"));
+    }
+
+    @Test
+    public void testCidr() {
+        LOG.info("testCidr");
+        final Node a = createNode("10.1.0.0-16", MatchType.CIDR);
+        final Node b = createNode("10.0.0.0-8", MatchType.CIDR);
+        final Node c = createNode("2001:db8::-32", MatchType.CIDR);
+        final TypedMatcher matcher = new TypedMatcher(Immutables.listOf(a, b, c));
+        assertSame(a, matcher.findFirstMatch("10.1.2.3"));
+        assertSame(b, matcher.findFirstMatch("10.2.3.4"));
+        assertSame(b, matcher.findFirstMatch("10.255.255.255"));
+        assertSame(c, matcher.findFirstMatch("2001:DB8::1"));
+        assertNull(matcher.findFirstMatch("11.0.0.0"));
+        assertNull(matcher.findFirstMatch("2001:db9::1"));
+        assertNull(matcher.findFirstMatch("10.0.0"));
+        assertNull(matcher.findFirstMatch("localhost"));
+    }
+
+    @Test
+    public void testDeclarationOrder() {
+        LOG.info("testDeclarationOrder");
+        final Node a = createNode("1..1000", MatchType.RANGE);
+        final Node b = createNode("1.0..1.9", MatchType.VERSION);
+        final Node c = createNode("1", MatchType.PREFIX);
+        final TypedMatcher matcher = new TypedMatcher(Immutables.listOf(c, b, a));
+        assertSame(c, matcher.findFirstMatch("1"));
+        assertSame(c, matcher.findFirstMatch("1.5"));
+        assertSame(b, new TypedMatcher(Immutables.listOf(a, b)).findFirstMatch("1.5"));
+        assertSame(a, new TypedMatcher(Immutables.listOf(a, b)).findFirstMatch("1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncorrectMatch() {
+        LOG.info("testIncorrectMatch");
+        new TypedMatcher(Immutables.listOf(createNode("10..1", MatchType.RANGE)));
+    }
+
+    @Nonnull
+    private static Node createNode(@Nonnull final String match, @Nonnull final MatchType matchType) {
+        return new Node(new NodeDTO(match, matchType.getName(), null, null, null, null, null, null), null);
+    }
+}
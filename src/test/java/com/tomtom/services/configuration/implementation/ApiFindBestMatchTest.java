@@ -33,7 +33,7 @@ public class ApiFindBestMatchTest {
 
     private final LocalTestServer server = new LocalTestServer("classpath:example.json");
 
-    static final String HASH = "\"0e54b7591e3059b0ef7b1a4d9de263081997dd69\"";
+    static final String HASH = "\"bf18e33e3c9fb0bb\"";
 
     @Before
     public void startServer() throws IncorrectConfigurationException {
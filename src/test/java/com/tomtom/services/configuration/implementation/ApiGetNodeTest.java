@@ -16,6 +16,7 @@
 
 package com.tomtom.services.configuration.implementation;
 
+import com.google.common.io.ByteStreams;
 import com.google.gson.Gson;
 import com.tomtom.services.configuration.dto.NodeDTO;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
@@ -28,6 +29,10 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 
 @SuppressWarnings("JUnitTestMethodWithNoAssertions")
 public class ApiGetNodeTest {
@@ -35,7 +40,8 @@ public class ApiGetNodeTest {
 
     private final LocalTestServer server = new LocalTestServer("classpath:example.json");
 
-    static final String HASH = "\"c5072e7f10f980f06ed99d6f64483bc439968afa\"";
+    static final String HASH = "\"499c119ea12b6ad3\"";
+    static final String HASH_GZIP = "\"499c119ea12b6ad3--gzip\"";
 
     @Before
     public void startServer() throws IncorrectConfigurationException {
@@ -138,6 +144,38 @@ public class ApiGetNodeTest {
         Assert.assertEquals("Sat, 02 Jan 2016 12:34:56 GMT", response.getHeaderString("Last-Modified"));
     }
 
+    @Test
+    public void checkNodeGzip() throws IOException {
+        LOG.info("checkNodeGzip");
+        final Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/tree/traffic/luxuri/device999").
+                request().
+                header("Accept-Encoding", "deflate;q=0.5, gzip").
+                accept(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("gzip", response.getHeaderString("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHeaderString("Vary"));
+        Assert.assertEquals(HASH_GZIP, response.getHeaderString("ETag"));
+        try (final InputStream in = new GZIPInputStream(response.readEntity(InputStream.class))) {
+            Assert.assertEquals("{\"match\":\"device999\",\"parameters\":[{\"key\":\"api_key\",\"value\":\"my_api_key\"},{\"key\":\"radius_km\",\"value\":\"200\"}]}",
+                    new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void checkNodeGzipNotModified() {
+        LOG.info("checkNodeGzipNotModified");
+        final Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/tree/traffic/luxuri/device999").
+                request().
+                header("If-None-Match", HASH_GZIP).
+                accept(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(304, response.getStatus());
+        Assert.assertEquals(HASH, response.getHeaderString("ETag"));
+    }
+
     @Test
     public void checkModifiedFormatWrong() {
         LOG.info("checkModifiedFormatWrong");
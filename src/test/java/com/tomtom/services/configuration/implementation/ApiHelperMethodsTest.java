@@ -33,7 +33,7 @@ import javax.ws.rs.core.Response;
 public class ApiHelperMethodsTest {
     private static final Logger LOG = LoggerFactory.getLogger(ApiHelperMethodsTest.class);
 
-    private final LocalTestServer server = new LocalTestServer("classpath:example.json");
+    private final LocalTestServer server = new LocalTestServer("classpath:example.json", true);
 
     @Before
     public void startServer() throws IncorrectConfigurationException {
@@ -71,6 +71,38 @@ public class ApiHelperMethodsTest {
         Assert.assertEquals(200, status);
     }
 
+    @Test
+    public void checkStatusSearchResultCache() {
+        LOG.info("checkStatusSearchResultCache");
+        for (int i = 0; i < 3; ++i) {
+            final Response r = new ResteasyClientBuilder().build().
+                    target(server.getHost() + "/tree?service=traffic&model=luxuri&device=device999").
+                    request().
+                    get();
+            Assert.assertEquals(200, r.getStatus());
+        }
+        final Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/status").
+                request().
+                accept(MediaType.APPLICATION_JSON_TYPE).get();
+        Assert.assertNotNull(r);
+        Assert.assertEquals(200, r.getStatus());
+        Assert.assertEquals("{\"searchResultCacheSize\":1,\"searchResultCacheHits\":2,\"searchResultCacheMisses\":1,\"searchResultCacheEvictions\":0}",
+                r.readEntity(String.class));
+    }
+
+    @Test
+    public void checkReload() {
+        LOG.info("checkReload");
+        final Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/reload").
+                request().
+                post(null);
+        Assert.assertNotNull(r);
+        Assert.assertEquals(200, r.getStatus());
+        Assert.assertEquals("UNCHANGED", r.readEntity(String.class));
+    }
+
     @Test
     public void checkVersionWithParameters() {
         LOG.info("checkVersionWithParameters");
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+
+@SuppressWarnings("JUnitTestMethodWithNoAssertions")
+public class ApiReloadDisabledTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ApiReloadDisabledTest.class);
+
+    private final LocalTestServer server = new LocalTestServer("classpath:example.json");
+
+    @Before
+    public void startServer() throws IncorrectConfigurationException {
+        server.startServer();
+    }
+
+    @After
+    public void stopServer() {
+        server.stopServer();
+    }
+
+    @Test
+    public void checkReloadDisabled() {
+        LOG.info("checkReloadDisabled");
+        final Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/reload").
+                request().
+                post(null);
+        Assert.assertNotNull(r);
+        Assert.assertEquals(403, r.getStatus());
+    }
+}
@@ -17,6 +17,7 @@
 package com.tomtom.services.configuration.implementation;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
 import com.tomtom.services.configuration.ConfigurationServiceProperties;
 import com.tomtom.services.configuration.domain.Node;
 import com.tomtom.services.configuration.dto.NodeDTO;
@@ -24,6 +25,7 @@ import com.tomtom.services.configuration.dto.ParameterDTO;
 import com.tomtom.services.configuration.dto.ParameterListDTO;
 import com.tomtom.services.configuration.dto.SearchResultDTO;
 import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import com.tomtom.speedtools.apivalidation.exceptions.ApiInternalException;
 import com.tomtom.speedtools.json.Json;
 import org.junit.Assert;
 import org.junit.Test;
@@ -31,10 +33,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static com.tomtom.speedtools.objects.Immutables.listOf;
 
@@ -210,6 +225,24 @@ public class ConfigurationTest {
         Assert.assertEquals("", x.getMatched());
     }
 
+    @Test
+    public void testFindBestMatchingParametersRegexBudget() throws Exception {
+        LOG.info("testFindBestMatchingParametersRegexBudget");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:regex-budget.json"));
+
+        // A search term which does not exceed the step budget falls through to the catch-all.
+        final SearchResultDTO x = configuration.matchNode(listOf(mapOf("criterium", "other"))).get(0);
+        Assert.assertEquals("2", x.getParameters().get(0).getValue());
+
+        // A search term which exceeds the step budget fails, rather than matching the catch-all.
+        try {
+            configuration.matchNode(listOf(mapOf("criterium", "other"), mapOf("criterium", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa")));
+            Assert.fail("Expected ApiInternalException");
+        } catch (final ApiInternalException ignored) {
+            // OK.
+        }
+    }
+
     @Test
     public void testFindBestMatchingParametersRegex() throws Exception {
         LOG.info("testFindBestMatchingParametersRegex");
@@ -240,11 +273,103 @@ public class ConfigurationTest {
         Assert.assertEquals("4", x.getParameters().get(0).getValue());
         Assert.assertEquals("criterium=.*", x.getMatched());
 
+        x = configuration.matchNode(listOf(mapOf("criterium", "sTRING"))).get(0);
+        Assert.assertEquals("2", x.getParameters().get(0).getValue());
+        Assert.assertEquals("criterium=String", x.getMatched());
+
+        x = configuration.matchNode(listOf(mapOf("criterium", "STRING9[0-9]*"))).get(0);
+        Assert.assertEquals("3", x.getParameters().get(0).getValue());
+        Assert.assertEquals("criterium=String9[0-9]*", x.getMatched());
+
         x = configuration.matchNode(listOf(mapOf("criterium", ""))).get(0);
         Assert.assertEquals("4", x.getParameters().get(0).getValue());
         Assert.assertEquals("criterium=.*", x.getMatched());
     }
 
+    @Test
+    public void testFindBestMatchingParametersParallel() throws Exception {
+        LOG.info("testFindBestMatchingParametersParallel");
+        final Configuration serial = new Configuration(new ConfigurationServiceProperties("classpath:example.json",
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE, 0, 0, false, 0, false,
+                5000, 30000, "", 8, false));
+        final Configuration parallel = new Configuration(new ConfigurationServiceProperties("classpath:example.json",
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE, 2, 4, false, 0, false,
+                5000, 30000, "", 8, false));
+
+        final String[] services = {"settings", "traffic"};
+        final String[] models = {"luxuri", "cheapo", "unknown"};
+        final List<Map<String, String>> searches = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            searches.add(mapOf("service", services[i % services.length], "model", models[i % models.length], "device", "device" + i));
+        }
+        try {
+            final SearchResultsDTO expected = serial.matchNode(searches);
+            final SearchResultsDTO actual = parallel.matchNode(searches);
+            Assert.assertEquals(500, expected.size());
+            Assert.assertEquals(Json.toJson(expected), Json.toJson(actual));
+
+            // A single search without parameters makes the whole query fail.
+            searches.set(250, mapOf("service", "/settings"));
+            Assert.assertTrue(serial.matchNode(searches).isEmpty());
+            Assert.assertTrue(parallel.matchNode(searches).isEmpty());
+        } finally {
+            serial.close();
+            parallel.close();
+        }
+
+        // After the configuration is closed, searches are evaluated one after another.
+        Assert.assertTrue(parallel.matchNode(searches).isEmpty());
+    }
+
+    @Test
+    public void testFindBestMatchingParametersGenerated() throws Exception {
+        LOG.info("testFindBestMatchingParametersGenerated");
+        final Configuration interpreted = new Configuration(new ConfigurationServiceProperties("classpath:example.json",
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE, 0, 0, false, 0, false,
+                5000, 30000, "", 8, false));
+        final Configuration generated = new Configuration(new ConfigurationServiceProperties("classpath:example.json",
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE, 0, 0, true, 0, false,
+                5000, 30000, "", 8, false));
+
+        // The generated lookup (or the interpreted one, if no class can be generated) finds the same nodes.
+        final String[] services = {"settings", "TRAFFIC"};
+        final String[] models = {"luxuri", "Cheapo", "unknown"};
+        final List<Map<String, String>> searches = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            searches.add(mapOf("service", services[i % services.length], "model", models[i % models.length], "device", "device" + i));
+        }
+        final SearchResultsDTO expected = interpreted.matchNode(searches);
+        Assert.assertEquals(50, expected.size());
+        Assert.assertEquals(Json.toJson(expected), Json.toJson(generated.matchNode(searches)));
+    }
+
+    @Test
+    public void testFindBestMatchingParametersSharedPrefix() throws Exception {
+        LOG.info("testFindBestMatchingParametersSharedPrefix");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:example.json"));
+
+        // Searches with shared leading terms, identical searches and searches which stop at different levels.
+        final List<Map<String, String>> searches = listOf(
+                mapOf("service", "traffic", "model", "luxuri", "device", "device999"),
+                mapOf("service", "settings", "model", "luxuri", "device", "device999"),
+                mapOf("service", "traffic", "model", "cheapo", "device", "device123"),
+                mapOf("service", "traffic", "model", "luxuri", "device", "device123"),
+                mapOf("service", "traffic", "model", "unknown", "device", "device123"),
+                mapOf("service", "traffic", "model", "luxuri", "device", "device999"),
+                mapOf("service", "traffic", "model", "cheapo", "device", "device1"),
+                mapOf("service", "traffic", "model", "unknown", "device", "device1"),
+                mapOf("service", "traffic", "model", "luxuri", "device", "other"));
+        final SearchResultsDTO results = configuration.matchNode(searches);
+        Assert.assertEquals(searches.size(), results.size());
+        for (int i = 0; i < searches.size(); ++i) {
+            final SearchResultsDTO expected = configuration.matchNode(listOf(searches.get(i)));
+            Assert.assertEquals(Json.toJson(expected.get(0)), Json.toJson(results.get(i)));
+        }
+        Assert.assertEquals("service=traffic&model=luxuri&device=device999", results.get(5).getMatched());
+        Assert.assertEquals("service=traffic", results.get(7).getMatched());
+        Assert.assertEquals("service=traffic&model=luxuri", results.get(8).getMatched());
+    }
+
     @Test
     public void testFindNodeAndParent() throws Exception {
         LOG.info("testFindNodeAndParent");
@@ -341,7 +466,7 @@ public class ConfigurationTest {
         final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:include-multi-ok1.json"));
         Assert.assertNotNull(configuration);
         final String contents = Json.toJson(configuration);
-        Assert.assertEquals("{\"initialConfigurationOK\":true,\"root\":{\"nodes\":[{\"match\":\"X\",\"nodes\":[{\"match\":\".*\",\"parameters\":[{\"key\":\"radius_km\",\"value\":\"25\"},{\"key\":\"interval_secs\",\"value\":\"120\"}]}]}],\"modified\":\"2016-01-02T12:34:56Z\",\"levels\":[\"l1\",\"l2\"]},\"configurationServiceProperties\":{\"startupConfigurationURI\":\"classpath:include-multi-ok1.json\"}}",
+        Assert.assertEquals("{\"initialConfigurationOK\":true,\"root\":{\"nodes\":[{\"match\":\"X\",\"nodes\":[{\"match\":\".*\",\"parameters\":[{\"key\":\"radius_km\",\"value\":\"25\"},{\"key\":\"interval_secs\",\"value\":\"120\"}]}]}],\"modified\":\"2016-01-02T12:34:56Z\",\"levels\":[\"l1\",\"l2\"]},\"configurationServiceProperties\":{\"startupConfigurationURI\":\"classpath:include-multi-ok1.json\",\"searchResultCacheSize\":10000,\"parallelSearchThreshold\":100,\"parallelSearchThreads\":0,\"generatedLookup\":false,\"reloadIntervalSecs\":0,\"watchFiles\":false,\"httpConnectTimeoutMillis\":5000,\"httpReadTimeoutMillis\":30000,\"httpCacheDirectory\":\"\",\"includeThreads\":8,\"reloadEndpointEnabled\":false}}",
                 contents);
     }
 
@@ -372,4 +497,298 @@ public class ConfigurationTest {
         final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:wrong-name3.json"));
         Assert.assertNotNull(configuration);
     }
+
+    @Test
+    public void testFindBestMatchingParametersTyped() throws Exception {
+        LOG.info("testFindBestMatchingParametersTyped");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:typed.json"));
+
+        // Literal matches come first, then typed matches, then regular expressions.
+        final String[][] expected = {
+                {"150", "literal", "criterium=150"},
+                {"151", "range", "criterium=100..199"},
+                {"199", "range", "criterium=100..199"},
+                {"200", "regex", "criterium=[0-9]+"},
+                {"1.5.3", "version", "criterium=1.2..1.9"},
+                {"1.10", "other", "criterium=.*"},
+                {"DEV-123", "prefix", "criterium=dev-"},
+                {"10.1.2.3", "cidr", "criterium=10.0.0.0-8"},
+                {"11.1.2.3", "other", "criterium=.*"}
+        };
+        for (final String[] row : expected) {
+            final SearchResultDTO x = configuration.matchNode(listOf(mapOf("criterium", row[0]))).get(0);
+            Assert.assertEquals(row[0], row[1], x.getParameters().get(0).getValue());
+            Assert.assertEquals(row[0], row[2], x.getMatched());
+        }
+    }
+
+    @Test(expected = IncorrectConfigurationException.class)
+    public void testWrongTyped() throws IncorrectConfigurationException {
+        LOG.info("testWrongTyped");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:wrong-typed.json"));
+        Assert.assertNotNull(configuration);
+    }
+
+    @Test(expected = IncorrectConfigurationException.class)
+    public void testWrongRegex() throws IncorrectConfigurationException {
+        LOG.info("testWrongRegex");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("classpath:wrong-regex.json"));
+        Assert.assertNotNull(configuration);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        LOG.info("testReload");
+        final File file = File.createTempFile("reload", ".json");
+        file.deleteOnExit();
+        writeConfiguration(file, "{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}]}");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + file.getAbsolutePath()));
+        final Configuration.Snapshot before = configuration.getSnapshot();
+        Assert.assertEquals(Configuration.ReloadResult.UNCHANGED, configuration.reload());
+        Assert.assertSame(before, configuration.getSnapshot());
+
+        // A changed configuration is used after the reload, but an older snapshot is not affected.
+        writeConfiguration(file, "{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}]}");
+        Assert.assertEquals(Configuration.ReloadResult.RELOADED, configuration.reload());
+        final Configuration.Snapshot after = configuration.getSnapshot();
+        Assert.assertNotSame(before, after);
+        Assert.assertSame(after.getRoot(), configuration.getRoot());
+        Assert.assertEquals("1", configuration.matchNode(before, SearchQuery.of(listOf(mapOf("l1", "a")))).get(0).getParameters().get(0).getValue());
+        Assert.assertEquals("2", configuration.matchNode(listOf(mapOf("l1", "a"))).get(0).getParameters().get(0).getValue());
+
+        // An incorrect configuration is not used.
+        writeConfiguration(file, "{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\"},{\"match\":\"a\"}]}");
+        Assert.assertEquals(Configuration.ReloadResult.FAILED, configuration.reload());
+        Assert.assertSame(after, configuration.getSnapshot());
+        Assert.assertTrue(file.delete());
+        Assert.assertEquals(Configuration.ReloadResult.FAILED, configuration.reload());
+        Assert.assertSame(after, configuration.getSnapshot());
+    }
+
+    @Test
+    public void testReloadInBackground() throws Exception {
+        LOG.info("testReloadInBackground");
+        final File file = File.createTempFile("reload-background", ".json");
+        file.deleteOnExit();
+        writeConfiguration(file, "{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}]}");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + file.getAbsolutePath()));
+        try {
+
+            // Keep the first reload busy, once it has published its snapshot.
+            final CountDownLatch published = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            configuration.addSnapshotListener(() -> {
+                published.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            writeConfiguration(file, "{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}]}");
+            final CompletableFuture<Configuration.ReloadResult> first = configuration.reloadInBackground();
+            Assert.assertTrue(published.await(30, TimeUnit.SECONDS));
+
+            // Requests while a reload is running share the next reload.
+            final CompletableFuture<Configuration.ReloadResult> second = configuration.reloadInBackground();
+            final CompletableFuture<Configuration.ReloadResult> third = configuration.reloadInBackground();
+            Assert.assertNotSame(first, second);
+            Assert.assertSame(second, third);
+            release.countDown();
+            Assert.assertEquals(Configuration.ReloadResult.RELOADED, first.get(30, TimeUnit.SECONDS));
+            Assert.assertEquals(Configuration.ReloadResult.UNCHANGED, second.get(30, TimeUnit.SECONDS));
+        } finally {
+            configuration.close();
+        }
+
+        // No reloads are done after the configuration is closed.
+        Assert.assertEquals(Configuration.ReloadResult.FAILED, configuration.reloadInBackground().get(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReloadInBackgroundListenerThrows() throws Exception {
+        LOG.info("testReloadInBackgroundListenerThrows");
+        final File file = File.createTempFile("reload-listener", ".json");
+        file.deleteOnExit();
+        writeConfiguration(file, "{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}]}");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + file.getAbsolutePath()));
+        try {
+
+            // A reload which throws is completed as failed, rather than never.
+            configuration.addSnapshotListener(() -> {
+                throw new AssertionError("listener fails");
+            });
+            writeConfiguration(file, "{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}]}");
+            Assert.assertEquals(Configuration.ReloadResult.FAILED, configuration.reloadInBackground().get(30, TimeUnit.SECONDS));
+
+            // Later reloads are still done.
+            Assert.assertEquals(Configuration.ReloadResult.UNCHANGED, configuration.reloadInBackground().get(30, TimeUnit.SECONDS));
+        } finally {
+            configuration.close();
+        }
+    }
+
+    @Test
+    public void testReloadChangedIncludes() throws Exception {
+        LOG.info("testReloadChangedIncludes");
+        final File main = File.createTempFile("reload-main", ".json");
+        final File include1 = File.createTempFile("reload-include1", ".json");
+        final File include2 = File.createTempFile("reload-include2", ".json");
+        main.deleteOnExit();
+        include1.deleteOnExit();
+        include2.deleteOnExit();
+        final String uri1 = "file:" + include1.getAbsolutePath();
+        final String uri2 = "file:" + include2.getAbsolutePath();
+        writeConfiguration(main, "{\"levels\":[\"l1\"],\"nodes\":[{\"include\":\"" + uri1 + "\"},{\"include_array\":\"" + uri2 + "\"}]}");
+        writeConfiguration(include1, "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}");
+        writeConfiguration(include2, "[{\"match\":\"b\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}]");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath()));
+
+        // Both includes changed, but only the second one is reported: the first one is re-used, not read again.
+        writeConfiguration(include1, "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}");
+        writeConfiguration(include2, "[{\"match\":\"b\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}]");
+        Assert.assertEquals(Configuration.ReloadResult.RELOADED, configuration.reload(Collections.singleton(uri2)));
+        Assert.assertEquals("1", configuration.matchNode(listOf(mapOf("l1", "a"))).get(0).getParameters().get(0).getValue());
+        Assert.assertEquals("2", configuration.matchNode(listOf(mapOf("l1", "b"))).get(0).getParameters().get(0).getValue());
+
+        // Re-used includes can be re-used again.
+        Assert.assertEquals(Configuration.ReloadResult.UNCHANGED, configuration.reload(Collections.singleton(uri2)));
+        Assert.assertEquals(Configuration.ReloadResult.RELOADED, configuration.reload(Collections.singleton(uri1)));
+        Assert.assertEquals("2", configuration.matchNode(listOf(mapOf("l1", "a"))).get(0).getParameters().get(0).getValue());
+    }
+
+    @Test
+    public void testWatchFiles() throws Exception {
+        LOG.info("testWatchFiles");
+        final File main = File.createTempFile("watch-main", ".json");
+        final File include = File.createTempFile("watch-include", ".json");
+        main.deleteOnExit();
+        include.deleteOnExit();
+        writeConfiguration(main, "{\"levels\":[\"l1\"],\"nodes\":[{\"include\":\"file:" + include.getAbsolutePath() + "\"}]}");
+        writeConfiguration(include, "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}");
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath(),
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE, 0, 0, false, 0, true,
+                5000, 30000, "", 8, false));
+        try {
+            writeConfiguration(include, "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}");
+
+            // Wait for the change to be noticed (the debounce time, plus the time the file system needs to report it).
+            final long deadline = System.currentTimeMillis() + 30000;
+            String value = "1";
+            while (value.equals("1") && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(100);
+                value = configuration.matchNode(listOf(mapOf("l1", "a"))).get(0).getParameters().get(0).getValue();
+            }
+            Assert.assertEquals("2", value);
+        } finally {
+            configuration.close();
+        }
+    }
+
+    @Test
+    public void testIncludeThreads() throws Exception {
+        LOG.info("testIncludeThreads");
+        final File main = File.createTempFile("threads-main", ".json");
+        final File node = File.createTempFile("threads-node", ".json");
+        final File parameters = File.createTempFile("threads-parameters", ".json");
+        main.deleteOnExit();
+        node.deleteOnExit();
+        parameters.deleteOnExit();
+        writeConfiguration(main, "{\"levels\":[\"l1\"],\"nodes\":[" +
+                "{\"include\":\"file:" + node.getAbsolutePath() + "\"}," +
+                "{\"match\":\"b\",\"parameters\":[{\"include_array\":\"file:" + parameters.getAbsolutePath() + "\"}," +
+                "{\"key\":\"j\",\"value\":\"2\"}]}]}");
+        writeConfiguration(node, "{\"match\":\"a\",\"parameters\":[{\"include_array\":\"file:" + parameters.getAbsolutePath() + "\"}]}");
+        writeConfiguration(parameters, "[{\"key\":\"k\",\"value\":\"1\"},{\"key\":\"l\",\"value\":\"3\"}]");
+
+        // Includes read concurrently are inlined in the order in which they are specified.
+        final Node sequential = new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath(),
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE, 0, 0, false, 0, false,
+                5000, 30000, "", 0, false)).getRoot();
+        final Node concurrent = new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath(),
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE, 0, 0, false, 0, false,
+                5000, 30000, "", 8, false)).getRoot();
+        Assert.assertEquals(sequential.getETag(), concurrent.getETag());
+        Assert.assertEquals("{\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"},{\"key\":\"l\",\"value\":\"3\"}]}," +
+                "{\"match\":\"b\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"},{\"key\":\"l\",\"value\":\"3\"},{\"key\":\"j\",\"value\":\"2\"}]}]," +
+                "\"levels\":[\"l1\"]}", Json.toJson(concurrent));
+
+        // Recursion is detected as well.
+        writeConfiguration(parameters, "[{\"include_array\":\"file:" + parameters.getAbsolutePath() + "\"}]");
+        try {
+            new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath()));
+            Assert.fail();
+        } catch (final IncorrectConfigurationException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Endless recursion"));
+        }
+    }
+
+    @Test
+    public void testConcurrentIncludes() throws Exception {
+        LOG.info("testConcurrentIncludes");
+
+        // Each include only responds once both includes were requested, so they must be read concurrently.
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final CountDownLatch requested = new CountDownLatch(2);
+        for (final String name : new String[]{"a", "b"}) {
+            server.createContext("/" + name + ".json", exchange -> {
+                requested.countDown();
+                boolean concurrent = false;
+                try {
+                    concurrent = requested.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+                final byte[] bytes = ("{\"match\":\"" + name + "\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(concurrent ? 200 : 500, bytes.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+                exchange.close();
+            });
+        }
+        server.setExecutor(executor);
+        server.start();
+        try {
+            final String base = "http://localhost:" + server.getAddress().getPort() + '/';
+            final File main = File.createTempFile("concurrent-main", ".json");
+            main.deleteOnExit();
+            writeConfiguration(main, "{\"levels\":[\"l1\"],\"nodes\":[{\"include\":\"" + base + "b.json\"}," +
+                    "{\"include\":\"" + base + "a.json\"}]}");
+            final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath()));
+
+            // The includes are inlined in the order in which they are specified.
+            final Iterator<Node> nodes = configuration.getRoot().getNodes().iterator();
+            Assert.assertEquals("b", nodes.next().getMatch());
+            Assert.assertEquals("a", nodes.next().getMatch());
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedInclude() throws Exception {
+        LOG.info("testSharedInclude");
+        final File include = File.createTempFile("shared-include", ".json");
+        include.deleteOnExit();
+        writeConfiguration(include, "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}");
+        final String content = "{\"levels\":[\"l1\",\"l2\"],\"nodes\":[" +
+                "{\"match\":\"x\",\"nodes\":[{\"include\":\"file:" + include.getAbsolutePath() + "\"}]}," +
+                "{\"match\":\"y\",\"nodes\":[{\"include\":\"file:" + include.getAbsolutePath() + "\"}]}]}";
+
+        // An include which is referenced more than once is read and parsed once: the references share its nodes.
+        for (final int includeThreads : new int[]{0, 8}) {
+            final NodeDTO root = Configuration.readTree(content, includeThreads);
+            final NodeDTO x = root.getNodes().get(0).getNodes().get(0);
+            final NodeDTO y = root.getNodes().get(1).getNodes().get(0);
+            Assert.assertEquals("a", x.getMatch());
+            Assert.assertSame(x, y);
+        }
+    }
+
+    private static void writeConfiguration(@Nonnull final File file, @Nonnull final String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
 }
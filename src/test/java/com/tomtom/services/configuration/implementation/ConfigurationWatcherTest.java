@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationWatcherTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationWatcherTest.class);
+
+    @Test
+    public void testGetPath() {
+        LOG.info("testGetPath");
+        assertNull(ConfigurationWatcher.getPath("classpath:example.json"));
+        assertNull(ConfigurationWatcher.getPath("http://localhost/example.json"));
+        assertEquals(new File("/tmp/example.json").toPath(), ConfigurationWatcher.getPath("file:/tmp/x/../example.json"));
+        assertEquals(new File("/tmp/example.json").toPath(), ConfigurationWatcher.getPath("file::/tmp/example.json"));
+    }
+
+    @Test
+    public void testDebounce() throws Exception {
+        LOG.info("testDebounce");
+        final File file1 = File.createTempFile("watch1", ".json");
+        final File file2 = File.createTempFile("watch2", ".json");
+        final File other = File.createTempFile("other", ".json");
+        file1.deleteOnExit();
+        file2.deleteOnExit();
+        other.deleteOnExit();
+        final String uri1 = "file:" + file1.getAbsolutePath();
+        final String uri2 = "file:" + file2.getAbsolutePath();
+        final List<Set<String>> changes = new CopyOnWriteArrayList<>();
+        try (final ConfigurationWatcher watcher = new ConfigurationWatcher(changes::add)) {
+            watcher.watch(Arrays.asList(uri1, uri2, "classpath:example.json"));
+
+            // Files written shortly after each other are reported together; unwatched files are not reported.
+            Files.write(file1.toPath(), "1".getBytes(StandardCharsets.UTF_8));
+            Files.write(other.toPath(), "1".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(ConfigurationWatcher.DEBOUNCE_MILLIS / 5);
+            Files.write(file2.toPath(), "1".getBytes(StandardCharsets.UTF_8));
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (changes.isEmpty() && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(100);
+            }
+            Thread.sleep(ConfigurationWatcher.DEBOUNCE_MILLIS * 2);
+            assertEquals(1, changes.size());
+            assertEquals(new HashSet<>(Arrays.asList(uri1, uri2)), changes.get(0));
+        }
+    }
+}
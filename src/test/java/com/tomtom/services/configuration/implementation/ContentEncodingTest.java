@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class ContentEncodingTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ContentEncodingTest.class);
+
+    @Test
+    public void testNegotiate() {
+        LOG.info("testNegotiate");
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate(null));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate(""));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("identity, br"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, GZIP"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("x-gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, *"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("gzip; q=0, deflate;q=0.0"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("gzip;q=wrong"));
+    }
+
+    @Test
+    public void testContentCoding() {
+        LOG.info("testContentCoding");
+        assertNull(ContentEncoding.IDENTITY.getContentCoding());
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.fromContentCoding("gzip"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.fromContentCoding("Deflate"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.fromContentCoding("br"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.fromContentCoding(null));
+    }
+
+    @Test
+    public void testRemoveETagSuffix() {
+        LOG.info("testRemoveETagSuffix");
+        assertEquals("0123abcd", ContentEncoding.removeETagSuffix("0123abcd"));
+        assertEquals("0123abcd", ContentEncoding.removeETagSuffix("0123abcd" + ContentEncoding.GZIP.getETagSuffix()));
+        assertEquals("0123abcd", ContentEncoding.removeETagSuffix("0123abcd" + ContentEncoding.DEFLATE.getETagSuffix()));
+        assertEquals("", ContentEncoding.IDENTITY.getETagSuffix());
+    }
+
+    @Test
+    public void testEncode() throws IOException {
+        LOG.info("testEncode");
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            sb.append("{\"key\":\"radius_km\",\"value\":\"").append(i).append("\"},");
+        }
+        final byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+        assertSame(body, ContentEncoding.IDENTITY.encode(body));
+
+        final byte[] gzip = ContentEncoding.GZIP.encode(body);
+        assertTrue(gzip.length < body.length);
+        assertArrayEquals(body, readFully(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+
+        final byte[] deflate = ContentEncoding.DEFLATE.encode(body);
+        assertTrue(deflate.length < body.length);
+        assertArrayEquals(body, readFully(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+    }
+
+    @Test
+    public void testRenderedResponseVariants() throws IOException {
+        LOG.info("testRenderedResponseVariants");
+        final int[] nrOfRenders = {0};
+        final RenderedResponse response = new RenderedResponse() {
+            @Override
+            protected byte[] renderJson() {
+                ++nrOfRenders[0];
+                return "{}".getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            protected byte[] renderXml() {
+                ++nrOfRenders[0];
+                return "<a/>".getBytes(StandardCharsets.UTF_8);
+            }
+        };
+        final byte[] gzip = response.getJson(ContentEncoding.GZIP);
+        assertSame(gzip, response.getJson(ContentEncoding.GZIP));
+        assertEquals("{}", new String(readFully(new GZIPInputStream(new ByteArrayInputStream(gzip))), StandardCharsets.UTF_8));
+        assertEquals("<a/>", new String(readFully(new InflaterInputStream(
+                new ByteArrayInputStream(response.getXml(ContentEncoding.DEFLATE)))), StandardCharsets.UTF_8));
+        assertSame(response.getJson(), response.getJson(ContentEncoding.IDENTITY));
+        assertEquals(2, nrOfRenders[0]);
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.sun.net.httpserver.HttpServer;
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.domain.Node;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@SuppressWarnings("OverlyBroadThrowsClause")
+public class HttpConfigurationFetcherTest {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpConfigurationFetcherTest.class);
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private String uri;
+    private volatile String body = "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"1\"}]}";
+    private volatile String eTag = "\"1\"";
+    private volatile int delayMillis = 0;
+    private volatile int status = 200;
+    private final AtomicInteger nrOfRequests = new AtomicInteger();
+    private final AtomicInteger nrOfNotModified = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/config.json", exchange -> {
+            nrOfRequests.incrementAndGet();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+            } else if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                nrOfNotModified.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", eTag);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.getResponseHeaders().add("ETag", eTag);
+                final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+            exchange.close();
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        uri = "http://localhost:" + server.getAddress().getPort() + "/config.json";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testIsHttp() {
+        LOG.info("testIsHttp");
+        assertTrue(HttpConfigurationFetcher.isHttp("http://localhost/x.json"));
+        assertTrue(HttpConfigurationFetcher.isHttp("https://localhost/x.json"));
+        assertFalse(HttpConfigurationFetcher.isHttp("file:x.json"));
+        assertFalse(HttpConfigurationFetcher.isHttp("classpath:x.json"));
+    }
+
+    @Test
+    public void testConditionalRequests() throws Exception {
+        LOG.info("testConditionalRequests");
+        final HttpConfigurationFetcher fetcher = new HttpConfigurationFetcher(5000, 5000, "");
+        assertFalse(fetcher.isUnchanged(uri));
+        assertEquals(0, nrOfRequests.get());
+
+        assertEquals(body, new String(fetcher.fetch(uri), StandardCharsets.UTF_8));
+        assertTrue(fetcher.isUnchanged(uri));
+        assertEquals(body, new String(fetcher.fetch(uri), StandardCharsets.UTF_8));
+        assertEquals(3, nrOfRequests.get());
+        assertEquals(2, nrOfNotModified.get());
+
+        // A changed source is downloaded once.
+        body = "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}";
+        eTag = "\"2\"";
+        assertFalse(fetcher.isUnchanged(uri));
+        assertEquals(body, new String(fetcher.fetch(uri), StandardCharsets.UTF_8));
+        assertEquals(3, nrOfNotModified.get());
+    }
+
+    @Test
+    public void testDiskCache() throws Exception {
+        LOG.info("testDiskCache");
+        final Path directory = Files.createTempDirectory("http-cache");
+        final String expected = body;
+        assertEquals(expected, new String(new HttpConfigurationFetcher(5000, 5000, directory.toString()).fetch(uri), StandardCharsets.UTF_8));
+
+        // A new fetcher (a restarted service) sends a conditional request, with the validators from disk.
+        assertEquals(expected, new String(new HttpConfigurationFetcher(5000, 5000, directory.toString()).fetch(uri), StandardCharsets.UTF_8));
+        assertEquals(1, nrOfNotModified.get());
+
+        // If the source does not respond in time, the copy on disk is used.
+        delayMillis = 2000;
+        assertEquals(expected, new String(new HttpConfigurationFetcher(5000, 200, directory.toString()).fetch(uri), StandardCharsets.UTF_8));
+        delayMillis = 0;
+        server.stop(0);
+        assertEquals(expected, new String(new HttpConfigurationFetcher(5000, 200, directory.toString()).fetch(uri), StandardCharsets.UTF_8));
+        try {
+            new HttpConfigurationFetcher(5000, 200, "").fetch(uri);
+            fail();
+        } catch (final IncorrectConfigurationException ignored) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testUnexpectedStatus() throws Exception {
+        LOG.info("testUnexpectedStatus");
+        final HttpConfigurationFetcher fetcher = new HttpConfigurationFetcher(5000, 5000, "");
+        final String expected = body;
+        assertEquals(expected, new String(fetcher.fetch(uri), StandardCharsets.UTF_8));
+
+        // An unexpected status is an error, even if there is a previous response.
+        for (final int unexpected : new int[]{404, 500}) {
+            status = unexpected;
+            assertFalse(fetcher.isUnchanged(uri));
+            try {
+                fetcher.fetch(uri);
+                fail();
+            } catch (final IncorrectConfigurationException ignored) {
+                // Expected.
+            }
+        }
+
+        // A source which cannot be reached is not: its previous response is used.
+        status = 200;
+        server.stop(0);
+        assertTrue(fetcher.isUnchanged(uri));
+        assertEquals(expected, new String(fetcher.fetch(uri), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReloadUnchangedInclude() throws Exception {
+        LOG.info("testReloadUnchangedInclude");
+        final File main = File.createTempFile("http-main", ".json");
+        main.deleteOnExit();
+        Files.write(main.toPath(), ("{\"levels\":[\"l1\"],\"nodes\":[{\"include\":\"" + uri + "\"}]}").getBytes(StandardCharsets.UTF_8));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath()));
+        assertEquals(1, nrOfRequests.get());
+
+        // An unchanged include is not downloaded or parsed again.
+        assertEquals(Configuration.ReloadResult.UNCHANGED, configuration.reload());
+        assertEquals(2, nrOfRequests.get());
+        assertEquals(1, nrOfNotModified.get());
+
+        // A changed include is downloaded once.
+        body = "{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"2\"}]}";
+        eTag = "\"2\"";
+        assertEquals(Configuration.ReloadResult.RELOADED, configuration.reload());
+        assertEquals("2", configuration.getRoot().findChild("a").getParameters().iterator().next().getValue());
+        assertEquals(2, nrOfNotModified.get());
+    }
+
+    @Test
+    public void testReloadFailsOnUnexpectedStatus() throws Exception {
+        LOG.info("testReloadFailsOnUnexpectedStatus");
+        final File main = File.createTempFile("http-main", ".json");
+        main.deleteOnExit();
+        Files.write(main.toPath(), ("{\"levels\":[\"l1\"],\"nodes\":[{\"include\":\"" + uri + "\"}]}").getBytes(StandardCharsets.UTF_8));
+        final Configuration configuration = new Configuration(new ConfigurationServiceProperties("file:" + main.getAbsolutePath()));
+        final Node root = configuration.getRoot();
+
+        // The reload fails and the current configuration remains in use.
+        status = 500;
+        assertEquals(Configuration.ReloadResult.FAILED, configuration.reload());
+        assertSame(root, configuration.getRoot());
+        status = 404;
+        assertEquals(Configuration.ReloadResult.FAILED, configuration.reload());
+        assertSame(root, configuration.getRoot());
+    }
+}
@@ -17,6 +17,7 @@
 package com.tomtom.services.configuration.implementation;
 
 import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.deployment.RenderedResponseWriter;
 import com.tomtom.speedtools.maven.MavenProperties;
 import com.tomtom.speedtools.rest.Reactor;
 import com.tomtom.speedtools.rest.ResourceProcessor;
@@ -36,10 +37,17 @@ public class LocalTestServer {
 
     final private TJWSEmbeddedJaxrsServer server;
     private final String config;
+    private final boolean reloadEndpointEnabled;
     private final int port;
+    private Configuration configuration;
 
     public LocalTestServer(@Nonnull final String config) {
+        this(config, ConfigurationServiceProperties.DEFAULT_RELOAD_ENDPOINT_ENABLED);
+    }
+
+    public LocalTestServer(@Nonnull final String config, final boolean reloadEndpointEnabled) {
         this.config = config;
+        this.reloadEndpointEnabled = reloadEndpointEnabled;
         this.port = PORT;
         server = new TJWSEmbeddedJaxrsServer();
         server.setPort(port);
@@ -47,10 +55,21 @@ public class LocalTestServer {
 
     @Before
     public void startServer() throws IncorrectConfigurationException {
-        final ConfigurationServiceProperties configurationServiceProperties =
-                new ConfigurationServiceProperties(config);
+        final ConfigurationServiceProperties configurationServiceProperties = new ConfigurationServiceProperties(config,
+                ConfigurationServiceProperties.DEFAULT_SEARCH_RESULT_CACHE_SIZE,
+                ConfigurationServiceProperties.DEFAULT_PARALLEL_SEARCH_THRESHOLD,
+                ConfigurationServiceProperties.DEFAULT_PARALLEL_SEARCH_THREADS,
+                ConfigurationServiceProperties.DEFAULT_GENERATED_LOOKUP,
+                ConfigurationServiceProperties.DEFAULT_RELOAD_INTERVAL_SECS,
+                ConfigurationServiceProperties.DEFAULT_WATCH_FILES,
+                ConfigurationServiceProperties.DEFAULT_HTTP_CONNECT_TIMEOUT_MILLIS,
+                ConfigurationServiceProperties.DEFAULT_HTTP_READ_TIMEOUT_MILLIS,
+                ConfigurationServiceProperties.DEFAULT_HTTP_CACHE_DIRECTORY,
+                ConfigurationServiceProperties.DEFAULT_INCLUDE_THREADS,
+                reloadEndpointEnabled);
         final MavenProperties mavenProperties = new MavenProperties("1.0.0-TEST");
-        final Configuration configuration = new Configuration(configurationServiceProperties);
+        configuration = new Configuration(configurationServiceProperties);
+        final SearchResultCache searchResultCache = new SearchResultCache(configurationServiceProperties, configuration);
 
         // Create a simple ResourceProcessor, required for implementation of REST service using the SpeedTools framework.
         final Reactor reactor = new Reactor() {
@@ -73,20 +92,24 @@ public class LocalTestServer {
         server.getDeployment().getResources().add(new HelperResourceImpl(
                 configuration,
                 configurationServiceProperties,
-                mavenProperties
+                mavenProperties,
+                searchResultCache
         ));
 
         // Add tree resource.
         server.getDeployment().getResources().add(new TreeResourceImpl(
                 configuration,
-                resourceProcessor
+                resourceProcessor,
+                searchResultCache
         ));
+        server.getDeployment().getProviders().add(new RenderedResponseWriter());
         server.start();
     }
 
     @After
     public void stopServer() {
         server.stop();
+        configuration.close();
     }
 
     @Nonnull
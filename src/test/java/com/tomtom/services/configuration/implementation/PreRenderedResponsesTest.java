@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tomtom.services.configuration.domain.Node;
+import com.tomtom.services.configuration.dto.NodeDTO;
+import com.tomtom.services.configuration.dto.ParameterDTO;
+import com.tomtom.services.configuration.dto.ParameterListDTO;
+import com.tomtom.services.configuration.dto.SearchResultDTO;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import com.tomtom.speedtools.objects.Immutables;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreRenderedResponsesTest {
+    private static final Logger LOG = LoggerFactory.getLogger(PreRenderedResponsesTest.class);
+
+    @Test
+    public void testRenderSearchResults() throws Exception {
+        LOG.info("testRenderSearchResults");
+        final Node root = createTree();
+        final PreRenderedResponses responses = new PreRenderedResponses(root);
+        final Node child = root.getNodes().iterator().next();
+
+        // A single search result, with characters which must be escaped.
+        final SearchResultsDTO single = new SearchResultsDTO(Immutables.listOf(
+                createSearchResult(child, "level=a&b<c>d é€\\")));
+        final RenderedResponse singleResponse = responses.renderSearchResults(single);
+        assertNotNull(singleResponse);
+        assertEquals(toJson(single.get(0)), new String(singleResponse.getJson(), StandardCharsets.UTF_8));
+        assertEquals(toXml(single.get(0)), new String(singleResponse.getXml(), StandardCharsets.UTF_8));
+
+        // Multiple search results, including a node without parameters.
+        final Node leaf = new Node("leaf", null, null, null, null, root);
+        final SearchResultsDTO multiple = new SearchResultsDTO(Immutables.listOf(
+                createSearchResult(child, "level=x"),
+                createSearchResult(leaf, "level=leaf"),
+                createSearchResult(root, "level=")));
+        final RenderedResponse multipleResponse = responses.renderSearchResults(multiple);
+        assertNotNull(multipleResponse);
+        assertEquals(toJson(multiple), new String(multipleResponse.getJson(), StandardCharsets.UTF_8));
+        assertEquals(toXml(multiple), new String(multipleResponse.getXml(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRenderSearchResultsFallback() {
+        LOG.info("testRenderSearchResultsFallback");
+        final Node root = createTree();
+        final PreRenderedResponses responses = new PreRenderedResponses(root);
+        final Node child = root.getNodes().iterator().next();
+        assertNull(responses.renderSearchResults(new SearchResultsDTO(Immutables.listOf(createSearchResult(child, "level=a\tb")))));
+        assertNull(responses.renderSearchResults(new SearchResultsDTO(Immutables.listOf(createSearchResult(child, "level='a'")))));
+    }
+
+    @Test
+    public void testRenderNode() throws Exception {
+        LOG.info("testRenderNode");
+        final Node root = createTree();
+        final PreRenderedResponses responses = new PreRenderedResponses(root);
+        final RenderedResponse response = responses.renderNode(root);
+        assertNotNull(response);
+        assertSame(response, responses.renderNode(root));
+        assertEquals(toJson(new NodeDTO(root)), new String(response.getJson(), StandardCharsets.UTF_8));
+        assertEquals(toXml(new NodeDTO(root)), new String(response.getXml(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRenderLargeNode() {
+        LOG.info("testRenderLargeNode");
+        final List<NodeDTO> devices = new ArrayList<>();
+        for (int i = 0; i < PreRenderedResponses.MAX_NODES_PER_BODY; ++i) {
+            devices.add(new NodeDTO("device" + i, null,
+                    new ParameterListDTO(Immutables.listOf(new ParameterDTO("radius", "1"))), null, null, null, null));
+        }
+        final NodeDTO service = new NodeDTO("service", devices, null, null, null, null, null);
+        final Node root = new Node(new NodeDTO(null, Immutables.listOf(service), null, null,
+                Immutables.listOf("service", "device"), null, null), null);
+        final Node serviceNode = root.findChild("service");
+        assertNotNull(serviceNode);
+        assertEquals(PreRenderedResponses.MAX_NODES_PER_BODY + 1, PreRenderedResponses.countNodes(serviceNode, Integer.MAX_VALUE));
+        assertEquals(PreRenderedResponses.MAX_NODES_PER_BODY + 2, PreRenderedResponses.countNodes(root, Integer.MAX_VALUE));
+
+        // The body of a large subtree is not pre-rendered, but the bodies of its nodes are.
+        final PreRenderedResponses responses = new PreRenderedResponses(root);
+        assertNull(responses.renderNode(root));
+        assertNull(responses.renderNode(serviceNode));
+        final Node device = serviceNode.findChild("device1");
+        assertNotNull(device);
+        final RenderedResponse response = responses.renderNode(device);
+        assertNotNull(response);
+
+        // The devices are stored compactly: their nodes are created per request, so their bodies are not cached.
+        assertNotSame(response, responses.renderNode(device));
+    }
+
+    @Test
+    public void testCanEscapeXml() {
+        LOG.info("testCanEscapeXml");
+        assertTrue(PreRenderedResponses.canEscapeXml(""));
+        assertTrue(PreRenderedResponses.canEscapeXml("a=1&b=<2>"));
+        assertFalse(PreRenderedResponses.canEscapeXml(null));
+        assertFalse(PreRenderedResponses.canEscapeXml("a\r"));
+        assertFalse(PreRenderedResponses.canEscapeXml("\"a\""));
+    }
+
+    private static Node createTree() {
+        final List<ParameterDTO> parameters = new ArrayList<>();
+        parameters.add(new ParameterDTO("key&<>", "value \"é\" €"));
+        parameters.add(new ParameterDTO("radius", "10"));
+        final NodeDTO child = new NodeDTO("child", null, new ParameterListDTO(parameters), "2016-01-02T12:34:56Z", null, null, null);
+        final NodeDTO root = new NodeDTO(null, Immutables.listOf(child),
+                new ParameterListDTO(Immutables.listOf(new ParameterDTO("radius", "1"))), null, Immutables.listOf("level"), null, null);
+        return new Node(root, null);
+    }
+
+    private static SearchResultDTO createSearchResult(final Node node, final String searched) {
+        final SearchResultDTO searchResult = new SearchResultDTO(node);
+        searchResult.setSearched(searched);
+        searchResult.setMatched(node.getMatched());
+        return searchResult;
+    }
+
+    private static String toJson(final Object object) throws Exception {
+        return new ObjectMapper().writeValueAsString(object);
+    }
+
+    private static String toXml(final Object object) throws Exception {
+        final Marshaller marshaller = JAXBContext.newInstance(object.getClass()).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshaller.marshal(object, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -147,4 +147,33 @@ public class RegexConfigTest {
 
         server.stopServer();
     }
+
+    @Test
+    public void checkRegexBudget() throws Exception {
+        LOG.info("checkRegexBudget");
+        final LocalTestServer server = new LocalTestServer("classpath:regex-budget.json");
+        server.startServer();
+        try {
+            Response response = new ResteasyClientBuilder().build().
+                    target(server.getHost() + "/tree?criterium=other").
+                    request().
+                    accept(APPLICATION_JSON_TYPE).get();
+            assertNotNull(response);
+            assertEquals(200, response.getStatus());
+            final String s = response.readEntity(String.class);
+            LOG.info("response={}", s);
+            assertTrue(s.contains("\"value\":\"2\""));
+
+            // The search term exceeds the step budget of the first node: the search fails, rather than matching ".*".
+            response = new ResteasyClientBuilder().build().
+                    target(server.getHost() + "/tree?criterium=aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa").
+                    request().
+                    accept(APPLICATION_JSON_TYPE).get();
+            assertNotNull(response);
+            assertEquals(500, response.getStatus());
+            response.close();
+        } finally {
+            server.stopServer();
+        }
+    }
 }
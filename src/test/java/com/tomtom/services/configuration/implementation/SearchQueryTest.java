@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.speedtools.apivalidation.exceptions.ApiParameterSyntaxException;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.tomtom.speedtools.objects.Immutables.listOf;
+import static org.junit.Assert.*;
+
+public class SearchQueryTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchQueryTest.class);
+
+    @Test
+    public void testParse() {
+        LOG.info("testParse");
+        final Map<String, List<String>> queryParameters = new LinkedHashMap<>();
+        queryParameters.put("service", listOf(" traffic , settings,"));
+        queryParameters.put("model", listOf("luxuri"));
+        final SearchQuery query = SearchQuery.parse(queryParameters);
+        assertEquals(3, query.getNrOfSearches());
+
+        final int[] columns = query.getColumns(listOf("service", "model", "device"));
+        assertArrayEquals(new int[]{0, 1, -1}, columns);
+        assertEquals("traffic", query.getSearchTerm(columns[0], 0));
+        assertEquals("settings", query.getSearchTerm(columns[0], 1));
+        assertEquals("", query.getSearchTerm(columns[0], 2));
+
+        // The last term of a level is re-used.
+        assertEquals("luxuri", query.getSearchTerm(columns[1], 2));
+
+        // Levels not in the query are empty.
+        assertEquals("", query.getSearchTerm(columns[2], 0));
+    }
+
+    @Test
+    public void testParseEmpty() {
+        LOG.info("testParseEmpty");
+        final Map<String, List<String>> queryParameters = new LinkedHashMap<>();
+        queryParameters.put("service", listOf(""));
+        final SearchQuery query = SearchQuery.parse(queryParameters);
+        assertEquals(1, query.getNrOfSearches());
+        assertEquals("", query.getSearchTerm(0, 0));
+    }
+
+    @Test(expected = ApiParameterSyntaxException.class)
+    public void testParseWrongSeparator() {
+        LOG.info("testParseWrongSeparator");
+        final Map<String, List<String>> queryParameters = new LinkedHashMap<>();
+        queryParameters.put("service", listOf("traffic;settings"));
+        SearchQuery.parse(queryParameters);
+    }
+}
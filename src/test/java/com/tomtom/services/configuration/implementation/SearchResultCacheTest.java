@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.configuration.implementation;
+
+import com.tomtom.services.configuration.ConfigurationServiceProperties;
+import com.tomtom.services.configuration.dto.SearchResultsDTO;
+import com.tomtom.services.configuration.implementation.SearchResultCache.CachedSearchResult;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.tomtom.speedtools.objects.Immutables.listOf;
+import static org.junit.Assert.*;
+
+@SuppressWarnings("OverlyBroadThrowsClause")
+public class SearchResultCacheTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultCacheTest.class);
+
+    @Test
+    public void testKeyedBySnapshot() throws Exception {
+        LOG.info("testKeyedBySnapshot");
+        final File file = File.createTempFile("cache", ".json");
+        file.deleteOnExit();
+        write(file, "1");
+        final ConfigurationServiceProperties properties = new ConfigurationServiceProperties("file:" + file.getAbsolutePath());
+        final Configuration configuration = new Configuration(properties);
+        final SearchResultCache cache = new SearchResultCache(properties, configuration);
+        final Map<String, List<String>> queryParameters = new LinkedHashMap<>();
+        queryParameters.put("l1", listOf("a"));
+        final SearchQuery query = SearchQuery.parse(queryParameters);
+
+        final Configuration.Snapshot snapshot = configuration.getSnapshot();
+        final SearchResultCache.Key key = SearchResultCache.createKey(snapshot, query);
+        assertEquals(key, SearchResultCache.createKey(snapshot, query));
+        cache.put(key, createSearchResult());
+        assertNotNull(cache.get(key));
+
+        // The cache is cleared when a new snapshot is used. A search result of the previous snapshot is not kept.
+        write(file, "2");
+        assertEquals(Configuration.ReloadResult.RELOADED, configuration.reload());
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+        assertNotEquals(key, SearchResultCache.createKey(configuration.getSnapshot(), query));
+        cache.put(key, createSearchResult());
+        assertNull(cache.get(key));
+    }
+
+    private static CachedSearchResult createSearchResult() {
+        return new CachedSearchResult(new SearchResultsDTO(Collections.emptyList()), null, "etag", null);
+    }
+
+    private static void write(final File file, final String value) throws Exception {
+        Files.write(file.toPath(), ("{\"levels\":[\"l1\"],\"nodes\":[{\"match\":\"a\",\"parameters\":[{\"key\":\"k\",\"value\":\"" +
+                value + "\"}]}]}").getBytes(StandardCharsets.UTF_8));
+    }
+}